@@ -0,0 +1,352 @@
+package com.example.projects;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.media.AudioAttributes;
+import android.media.AudioDeviceInfo;
+import android.media.AudioFocusRequest;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Routes app audio to the connected headset and reports when the route has actually settled.
+//
+// The caller gets exactly one callback per request, either with the device the audio is
+// routed to or with an error. Settling is event driven: the communication-device listener on
+// API 31+, ACTION_SCO_AUDIO_STATE_UPDATED before that. The only timer is a cancellable
+// timeout so a request can't hang forever.
+public class AudioRoutingManager {
+    private static final String TAG = "AudioRoutingManager";
+    private static final long ROUTING_TIMEOUT_MS = 4000;
+
+    public static final String ROUTE_LE_AUDIO = "le_audio";
+    public static final String ROUTE_A2DP = "a2dp";
+    public static final String ROUTE_SCO = "sco";
+    public static final String ROUTE_WIRED = "wired";
+    public static final String ROUTE_NONE = "none";
+
+    public interface Callback {
+        void onRouteSettled(Map<String, Object> route);
+        void onRouteFailed(String code, String message);
+    }
+
+    private final Context context;
+    private final AudioManager audioManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private Callback pendingCallback;
+    private AudioDeviceInfo pendingDevice;
+    private String pendingRouteType;
+    private boolean scoStartedByUs = false;
+    private boolean scoReceiverRegistered = false;
+    private Object communicationListener;
+    private AudioFocusRequest focusRequest;
+    private Map<String, Object> currentRoute;
+
+    private final Runnable timeoutRunnable = () ->
+        failRoute("ROUTING_TIMEOUT", "Audio route did not settle in time");
+
+    private final AudioManager.OnAudioFocusChangeListener focusListener = focusChange ->
+        Log.d(TAG, "Audio focus changed: " + focusChange);
+
+    private final BroadcastReceiver scoReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int state = intent.getIntExtra(AudioManager.EXTRA_SCO_AUDIO_STATE, AudioManager.SCO_AUDIO_STATE_ERROR);
+            Log.d(TAG, "SCO audio state: " + state);
+            if (pendingCallback == null || !ROUTE_SCO.equals(pendingRouteType)) return;
+
+            if (state == AudioManager.SCO_AUDIO_STATE_CONNECTED) {
+                audioManager.setBluetoothScoOn(true);
+                settlePending(findOutput(AudioDeviceInfo.TYPE_BLUETOOTH_SCO));
+            } else if (state == AudioManager.SCO_AUDIO_STATE_ERROR) {
+                failRoute("SCO_ERROR", "Bluetooth SCO connection failed");
+            }
+        }
+    };
+
+    public AudioRoutingManager(Context context) {
+        this.context = context.getApplicationContext();
+        this.audioManager = (AudioManager) this.context.getSystemService(Context.AUDIO_SERVICE);
+    }
+
+    // Last settled route, or null if nothing has been routed yet
+    public Map<String, Object> getCurrentRoute() {
+        return currentRoute;
+    }
+
+    // Must be called on the main thread. A new request supersedes any request still in flight.
+    // hfpConnected tells us a hands-free headset is up, since SCO outputs only show in
+    // getDevices() once SCO audio is already running on older releases.
+    public void routeToHeadset(boolean hfpConnected, Callback callback) {
+        if (pendingCallback != null) {
+            failPending("ROUTING_SUPERSEDED", "A newer routing request replaced this one");
+        }
+        pendingCallback = callback;
+        mainHandler.postDelayed(timeoutRunnable, ROUTING_TIMEOUT_MS);
+
+        if (Build.VERSION.SDK_INT < 23) {
+            routeByProfileState(hfpConnected);
+            return;
+        }
+
+        AudioDeviceInfo leAudio = findOutput(AudioDeviceInfo.TYPE_BLE_HEADSET);
+        if (leAudio == null) {
+            leAudio = findOutput(AudioDeviceInfo.TYPE_BLE_SPEAKER);
+        }
+        AudioDeviceInfo a2dp = findOutput(AudioDeviceInfo.TYPE_BLUETOOTH_A2DP);
+        AudioDeviceInfo sco = findOutput(AudioDeviceInfo.TYPE_BLUETOOTH_SCO);
+        AudioDeviceInfo wired = findOutput(AudioDeviceInfo.TYPE_WIRED_HEADPHONES);
+        if (wired == null) {
+            wired = findOutput(AudioDeviceInfo.TYPE_WIRED_HEADSET);
+        }
+
+        if (Build.VERSION.SDK_INT >= 31 && leAudio != null) {
+            requestFocus();
+            routeViaCommunicationDevice(ROUTE_LE_AUDIO, AudioDeviceInfo.TYPE_BLE_HEADSET, leAudio);
+        } else if (a2dp != null) {
+            // Media already follows A2DP; make sure we aren't holding a narrowband SCO link open,
+            // it can't carry the 8 kHz test tone
+            releaseCommunicationRoute();
+            requestFocus();
+            pendingRouteType = ROUTE_A2DP;
+            settlePending(a2dp);
+        } else if (sco != null || hfpConnected) {
+            pendingRouteType = ROUTE_SCO;
+            if (Build.VERSION.SDK_INT >= 31) {
+                routeViaCommunicationDevice(ROUTE_SCO, AudioDeviceInfo.TYPE_BLUETOOTH_SCO, sco);
+            } else {
+                startSco();
+            }
+        } else if (wired != null) {
+            pendingRouteType = ROUTE_WIRED;
+            settlePending(wired);
+        } else {
+            failPending("NO_HEADSET_OUTPUT", "No Bluetooth or wired audio output available");
+        }
+    }
+
+    // Before API 23 there is no output device list, so go by the A2DP, SCO and wired flags.
+    // The settled route then carries no device details.
+    private void routeByProfileState(boolean hfpConnected) {
+        if (audioManager.isBluetoothA2dpOn()) {
+            releaseCommunicationRoute();
+            requestFocus();
+            pendingRouteType = ROUTE_A2DP;
+            settlePending(null);
+        } else if (audioManager.isBluetoothScoOn() || hfpConnected) {
+            pendingRouteType = ROUTE_SCO;
+            startSco();
+        } else if (audioManager.isWiredHeadsetOn()) {
+            pendingRouteType = ROUTE_WIRED;
+            settlePending(null);
+        } else {
+            failPending("NO_HEADSET_OUTPUT", "No Bluetooth or wired audio output available");
+        }
+    }
+
+    // Answers a request still in flight, so its caller isn't left waiting
+    public void release() {
+        failPending("ROUTING_CANCELLED", "Audio routing was released before the route settled");
+        releaseCommunicationRoute();
+        abandonFocus();
+    }
+
+    private void routeViaCommunicationDevice(String routeType, int deviceType, AudioDeviceInfo fallback) {
+        pendingRouteType = routeType;
+
+        AudioDeviceInfo target = null;
+        List<AudioDeviceInfo> available = audioManager.getAvailableCommunicationDevices();
+        for (AudioDeviceInfo device : available) {
+            if (device.getType() == deviceType) {
+                target = device;
+                break;
+            }
+        }
+        if (target == null) {
+            if (fallback != null && ROUTE_LE_AUDIO.equals(routeType)) {
+                // LE Audio media routes on its own when the headset isn't a communication device
+                settlePending(fallback);
+            } else {
+                failRoute("DEVICE_NOT_AVAILABLE", "Headset is not available as a communication device");
+            }
+            return;
+        }
+
+        AudioDeviceInfo current = audioManager.getCommunicationDevice();
+        if (current != null && current.getId() == target.getId()) {
+            settlePending(target);
+            return;
+        }
+
+        pendingDevice = target;
+        registerCommunicationListener();
+        if (!audioManager.setCommunicationDevice(target)) {
+            failRoute("ROUTING_REJECTED", "System rejected the communication device");
+        }
+    }
+
+    private void registerCommunicationListener() {
+        if (Build.VERSION.SDK_INT < 31 || communicationListener != null) return;
+
+        AudioManager.OnCommunicationDeviceChangedListener listener = device -> {
+            if (pendingCallback != null && pendingDevice != null && device != null
+                && device.getId() == pendingDevice.getId()) {
+                settlePending(device);
+            }
+        };
+        communicationListener = listener;
+        audioManager.addOnCommunicationDeviceChangedListener(mainHandler::post, listener);
+    }
+
+    private void startSco() {
+        if (!scoReceiverRegistered) {
+            context.registerReceiver(scoReceiver, new IntentFilter(AudioManager.ACTION_SCO_AUDIO_STATE_UPDATED));
+            scoReceiverRegistered = true;
+        }
+        if (audioManager.isBluetoothScoOn()) {
+            settlePending(findOutput(AudioDeviceInfo.TYPE_BLUETOOTH_SCO));
+            return;
+        }
+        scoStartedByUs = true;
+        audioManager.startBluetoothSco();
+    }
+
+    private void releaseCommunicationRoute() {
+        if (Build.VERSION.SDK_INT >= 31) {
+            if (communicationListener != null) {
+                audioManager.removeOnCommunicationDeviceChangedListener(
+                    (AudioManager.OnCommunicationDeviceChangedListener) communicationListener);
+                communicationListener = null;
+            }
+            if (pendingDevice != null || ROUTE_SCO.equals(routeTypeOf(currentRoute))
+                || ROUTE_LE_AUDIO.equals(routeTypeOf(currentRoute))) {
+                audioManager.clearCommunicationDevice();
+            }
+        }
+        if (scoStartedByUs) {
+            audioManager.setBluetoothScoOn(false);
+            audioManager.stopBluetoothSco();
+            scoStartedByUs = false;
+        }
+        if (scoReceiverRegistered) {
+            context.unregisterReceiver(scoReceiver);
+            scoReceiverRegistered = false;
+        }
+        pendingDevice = null;
+    }
+
+    private void requestFocus() {
+        if (Build.VERSION.SDK_INT >= 26) {
+            if (focusRequest == null) {
+                focusRequest = new AudioFocusRequest.Builder(AudioManager.AUDIOFOCUS_GAIN)
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_MEDIA)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                        .build())
+                    .setOnAudioFocusChangeListener(focusListener)
+                    .build();
+            }
+            audioManager.requestAudioFocus(focusRequest);
+        } else {
+            audioManager.requestAudioFocus(focusListener, AudioManager.STREAM_MUSIC, AudioManager.AUDIOFOCUS_GAIN);
+        }
+    }
+
+    private void abandonFocus() {
+        if (Build.VERSION.SDK_INT >= 26 && focusRequest != null) {
+            audioManager.abandonAudioFocusRequest(focusRequest);
+        }
+    }
+
+    private void settlePending(AudioDeviceInfo device) {
+        Callback callback = pendingCallback;
+        if (callback == null) return;
+        pendingCallback = null;
+        mainHandler.removeCallbacks(timeoutRunnable);
+
+        Map<String, Object> route = describeRoute(pendingRouteType, device);
+        currentRoute = route;
+        Log.d(TAG, "Audio route settled: " + route);
+        callback.onRouteSettled(route);
+    }
+
+    // A request that failed part way: don't leave the half-made route up, i.e. the device
+    // listener, the communication device request, SCO we started and its receiver
+    private void failRoute(String code, String message) {
+        failPending(code, message);
+        releaseCommunicationRoute();
+    }
+
+    private void failPending(String code, String message) {
+        Callback callback = pendingCallback;
+        if (callback == null) return;
+        pendingCallback = null;
+        mainHandler.removeCallbacks(timeoutRunnable);
+        Log.w(TAG, "Audio routing failed: " + code + " " + message);
+        callback.onRouteFailed(code, message);
+    }
+
+    private Map<String, Object> describeRoute(String routeType, AudioDeviceInfo device) {
+        Map<String, Object> route = new HashMap<>();
+        route.put("routeType", routeType != null ? routeType : ROUTE_NONE);
+        if (device != null) {
+            route.put("deviceId", device.getId());
+            route.put("deviceType", device.getType());
+            CharSequence productName = device.getProductName();
+            route.put("productName", productName != null ? productName.toString() : null);
+            if (Build.VERSION.SDK_INT >= 28) {
+                route.put("address", device.getAddress());
+            }
+        }
+        route.put("outputLatencyMs", estimateOutputLatencyMs());
+        return route;
+    }
+
+    // Output latency from public figures: the smallest AudioTrack buffer plus one HAL burst.
+    // It leaves out the Bluetooth codec's delay, which LatencyCalibrator measures end to end
+    // and Flutter prefers when it has it. Returns null if the platform reports no buffer size.
+    private Integer estimateOutputLatencyMs() {
+        int sampleRate = 48000;
+        int bufferSize = AudioTrack.getMinBufferSize(sampleRate, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (bufferSize <= 0) return null;
+
+        // 16-bit mono: two bytes per frame
+        double latencyMs = bufferSize / 2 * 1000.0 / sampleRate;
+        String burstFrames = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_FRAMES_PER_BUFFER);
+        String halRate = audioManager.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE);
+        try {
+            if (burstFrames != null && halRate != null) {
+                latencyMs += Integer.parseInt(burstFrames) * 1000.0 / Integer.parseInt(halRate);
+            }
+        } catch (NumberFormatException e) {
+            Log.d(TAG, "HAL buffer properties not numeric: " + burstFrames + " @ " + halRate);
+        }
+        return (int) Math.round(latencyMs);
+    }
+
+    private AudioDeviceInfo findOutput(int type) {
+        if (Build.VERSION.SDK_INT < 23) return null;
+        AudioDeviceInfo[] outputs = audioManager.getDevices(AudioManager.GET_DEVICES_OUTPUTS);
+        for (AudioDeviceInfo device : outputs) {
+            if (device.getType() == type) {
+                return device;
+            }
+        }
+        return null;
+    }
+
+    private static String routeTypeOf(Map<String, Object> route) {
+        return route != null ? (String) route.get("routeType") : null;
+    }
+}
@@ -0,0 +1,547 @@
+package com.example.projects;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.bluetooth.BluetoothStatusCodes;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.projects.trace.TraceLog;
+import com.example.projects.transfer.GattPort;
+import com.example.projects.transfer.LinkQuality;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// LE GATT connection used for the BLE_DATA_CHANNEL payload writes.
+//
+// While a transfer is running the link asks for CONNECTION_PRIORITY_HIGH and the 2M PHY;
+// once writes stop for IDLE_BALANCED_MS it drops back to balanced, and after
+// IDLE_LOW_POWER_MS to low power. The PHY and connection interval the controller actually
+// granted are tracked from the stack callbacks and reported by getLinkParameters().
+//
+// RSSI is sampled every RSSI_ACTIVE_INTERVAL_MS during transfers and every
+// RSSI_IDLE_INTERVAL_MS otherwise, and together with write outcomes and connection updates
+// feeds the link's LinkQuality, which the transfer code sizes its writes by.
+public class BleDataLink implements GattPort {
+    private static final String TAG = "BleDataLink";
+
+    // Largest ATT MTU; the controller answers with what it supports
+    private static final int REQUESTED_MTU = 517;
+    private static final int DEFAULT_MTU = 23;
+    private static final long IDLE_BALANCED_MS = 2000;
+    private static final long IDLE_LOW_POWER_MS = 30000;
+    private static final long RSSI_ACTIVE_INTERVAL_MS = 1000;
+    private static final long RSSI_IDLE_INTERVAL_MS = 10000;
+    private static final UUID CLIENT_CONFIG_DESCRIPTOR_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private final Context context;
+    private final BluetoothDevice device;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<UUID, BluetoothGattCharacteristic> characteristics = new ConcurrentHashMap<>();
+
+    private volatile BluetoothGatt gatt;
+    private volatile boolean ready = false;
+    private volatile CountDownLatch connectLatch;
+    private volatile int mtu = DEFAULT_MTU;
+
+    // Link parameters as last granted by the controller
+    private volatile int priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private volatile int txPhy = BluetoothDevice.PHY_LE_1M;
+    private volatile int rxPhy = BluetoothDevice.PHY_LE_1M;
+    private volatile int connectionIntervalUnits = -1;
+    private volatile int peripheralLatency = -1;
+    private volatile int supervisionTimeoutUnits = -1;
+    // 2M is asked for once per connection; a headset that refused it would otherwise run a
+    // PHY update procedure on every transfer
+    private volatile boolean phyRequested = false;
+    private int activeTransfers = 0;
+    private final LinkQuality quality = new LinkQuality();
+
+    private final Runnable dropToBalanced = () -> setPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+    private final Runnable dropToLowPower = () -> setPriority(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+    private final Runnable sampleRssi = new Runnable() {
+        @Override
+        public void run() {
+            BluetoothGatt current = gatt;
+            if (!ready || current == null) {
+                return;
+            }
+            try {
+                // Refused while another operation is in flight; the next sample catches up
+                current.readRemoteRssi();
+            } catch (SecurityException e) {
+                Log.w(TAG, "Could not read RSSI: " + e.getMessage());
+                return;
+            }
+            mainHandler.postDelayed(this, isTransferActive() ? RSSI_ACTIVE_INTERVAL_MS : RSSI_IDLE_INTERVAL_MS);
+        }
+    };
+
+    public BleDataLink(Context context, BluetoothDevice device) {
+        this.context = context.getApplicationContext();
+        this.device = device;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public LinkQuality getLinkQuality() {
+        return quality;
+    }
+
+    // Blocks until services are discovered and the MTU negotiated; call off the main thread
+    public boolean connect(long timeoutMs) throws InterruptedException {
+        if (ready) {
+            return true;
+        }
+
+        long start = System.nanoTime();
+        // Installed before anything is issued, so the callbacks of this attempt can only count
+        // down this latch; then check again for a link that came up just before it was set
+        CountDownLatch latch = new CountDownLatch(1);
+        connectLatch = latch;
+        if (ready) {
+            return true;
+        }
+        try {
+            if (gatt == null) {
+                // The transport overload is API 23+; older releases pick LE for LE-only devices
+                gatt = Build.VERSION.SDK_INT >= 23
+                    ? device.connectGatt(context, false, gattCallback, BluetoothDevice.TRANSPORT_LE)
+                    : device.connectGatt(context, false, gattCallback);
+            } else {
+                gatt.connect();
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission to connect: " + e.getMessage());
+            return false;
+        }
+        if (gatt == null) {
+            return false;
+        }
+
+        if (!latch.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+            Log.w(TAG, "GATT connect timed out");
+        }
+        Tracing.event(TraceLog.GATT_CONNECT, ready ? 1 : 0, 0,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return ready;
+    }
+
+    public void close() {
+        mainHandler.removeCallbacks(dropToBalanced);
+        mainHandler.removeCallbacks(dropToLowPower);
+        mainHandler.removeCallbacks(sampleRssi);
+        ready = false;
+        phyRequested = false;
+        characteristics.clear();
+        BluetoothGatt current = gatt;
+        gatt = null;
+        if (current != null) {
+            try {
+                current.disconnect();
+                current.close();
+            } catch (SecurityException e) {
+                Log.w(TAG, "Could not close GATT: " + e.getMessage());
+            }
+        }
+    }
+
+    // Raise the link to high priority and 2M PHY for the duration of a transfer
+    public synchronized void beginTransfer() {
+        activeTransfers++;
+        mainHandler.removeCallbacks(dropToBalanced);
+        mainHandler.removeCallbacks(dropToLowPower);
+        if (activeTransfers == 1) {
+            // Sample right away and then at the faster rate
+            mainHandler.removeCallbacks(sampleRssi);
+            mainHandler.post(sampleRssi);
+        }
+        if (priority != BluetoothGatt.CONNECTION_PRIORITY_HIGH) {
+            setPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        }
+        if (txPhy != BluetoothDevice.PHY_LE_2M && !phyRequested && Build.VERSION.SDK_INT >= 26) {
+            BluetoothGatt current = gatt;
+            if (current != null) {
+                phyRequested = true;
+                try {
+                    current.setPreferredPhy(
+                        BluetoothDevice.PHY_LE_2M_MASK,
+                        BluetoothDevice.PHY_LE_2M_MASK,
+                        BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                } catch (SecurityException e) {
+                    Log.w(TAG, "Could not request 2M PHY: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Back-to-back transfers keep the high priority; it is only released after a quiet period
+    public synchronized void endTransfer() {
+        if (activeTransfers > 0) {
+            activeTransfers--;
+        }
+        if (activeTransfers == 0) {
+            mainHandler.postDelayed(dropToBalanced, IDLE_BALANCED_MS);
+            mainHandler.postDelayed(dropToLowPower, IDLE_LOW_POWER_MS);
+        }
+    }
+
+    public synchronized boolean isTransferActive() {
+        return activeTransfers > 0;
+    }
+
+    public Map<String, Object> getLinkParameters() {
+        Map<String, Object> params = new HashMap<>();
+        params.put("connected", ready);
+        params.put("mtu", mtu);
+        params.put("priority", priorityName(priority));
+        params.put("txPhy", phyName(txPhy));
+        params.put("rxPhy", phyName(rxPhy));
+        // Interval is reported in 1.25 ms units, supervision timeout in 10 ms units
+        params.put("connectionIntervalMs", connectionIntervalUnits >= 0 ? connectionIntervalUnits * 1.25 : null);
+        params.put("peripheralLatency", peripheralLatency >= 0 ? peripheralLatency : null);
+        params.put("supervisionTimeoutMs", supervisionTimeoutUnits >= 0 ? supervisionTimeoutUnits * 10 : null);
+        params.put("transferActive", isTransferActive());
+        params.put("rssi", quality.getRssi());
+        params.put("linkScore", quality.getScore());
+        params.put("linkTier", LinkQuality.tierName(quality.getTier()));
+        return params;
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID characteristic) {
+        return characteristics.containsKey(characteristic);
+    }
+
+    @Override
+    public int getMaxWriteLength() {
+        return mtu - 3;
+    }
+
+    @Override
+    public int write(UUID characteristicUuid, byte[] value, boolean withResponse) {
+        BluetoothGatt current = gatt;
+        if (!ready || current == null) {
+            return STATUS_DISCONNECTED;
+        }
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicUuid);
+        if (characteristic == null) {
+            Log.w(TAG, "Characteristic not offered by device: " + characteristicUuid);
+            return STATUS_FAILED;
+        }
+
+        int writeType = withResponse
+            ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
+            : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        int status;
+        Tracing.begin("gatt write");
+        try {
+            if (Build.VERSION.SDK_INT >= 33) {
+                int code = current.writeCharacteristic(characteristic, value, writeType);
+                status = code == BluetoothStatusCodes.SUCCESS ? STATUS_SUCCESS
+                    : code == BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY ? STATUS_BUSY : STATUS_FAILED;
+            } else {
+                // Before API 33 a refused write only says false; another operation still
+                // being in flight is by far the most common cause, so treat it as busy
+                characteristic.setWriteType(writeType);
+                characteristic.setValue(value);
+                status = current.writeCharacteristic(characteristic) ? STATUS_SUCCESS : STATUS_BUSY;
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission to write: " + e.getMessage());
+            status = STATUS_FAILED;
+        } finally {
+            Tracing.end();
+        }
+        if (status == STATUS_FAILED) {
+            // Busy is routine while streaming and is counted by GattWriter instead
+            Tracing.event(TraceLog.GATT_OP_FAILED, status, TraceLog.shortUuid(characteristicUuid), value.length);
+        }
+        return status;
+    }
+
+    @Override
+    public int read(UUID characteristicUuid) {
+        BluetoothGatt current = gatt;
+        if (!ready || current == null) {
+            return STATUS_DISCONNECTED;
+        }
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicUuid);
+        if (characteristic == null) {
+            return STATUS_FAILED;
+        }
+        try {
+            return current.readCharacteristic(characteristic) ? STATUS_SUCCESS : STATUS_BUSY;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission to read: " + e.getMessage());
+            return STATUS_FAILED;
+        }
+    }
+
+    @Override
+    public int setNotifications(UUID characteristicUuid, boolean enable) {
+        BluetoothGatt current = gatt;
+        if (!ready || current == null) {
+            return STATUS_DISCONNECTED;
+        }
+        BluetoothGattCharacteristic characteristic = characteristics.get(characteristicUuid);
+        BluetoothGattDescriptor config = characteristic != null
+            ? characteristic.getDescriptor(CLIENT_CONFIG_DESCRIPTOR_UUID) : null;
+        if (config == null) {
+            Log.w(TAG, "Characteristic does not support notifications: " + characteristicUuid);
+            return STATUS_FAILED;
+        }
+
+        byte[] value = !enable
+            ? BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE
+            : (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0
+                ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                : BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+        try {
+            if (!current.setCharacteristicNotification(characteristic, enable)) {
+                return STATUS_FAILED;
+            }
+            if (Build.VERSION.SDK_INT >= 33) {
+                int status = current.writeDescriptor(config, value);
+                if (status == BluetoothStatusCodes.SUCCESS) {
+                    return STATUS_SUCCESS;
+                }
+                return status == BluetoothStatusCodes.ERROR_GATT_WRITE_REQUEST_BUSY ? STATUS_BUSY : STATUS_FAILED;
+            }
+            config.setValue(value);
+            return current.writeDescriptor(config) ? STATUS_SUCCESS : STATUS_BUSY;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Missing permission to enable notifications: " + e.getMessage());
+            return STATUS_FAILED;
+        }
+    }
+
+    private void setPriority(int newPriority) {
+        BluetoothGatt current = gatt;
+        if (current == null) {
+            return;
+        }
+        try {
+            if (current.requestConnectionPriority(newPriority)) {
+                priority = newPriority;
+                Tracing.event(TraceLog.GATT_PRIORITY, 0, 0, newPriority);
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "Could not change connection priority: " + e.getMessage());
+        }
+    }
+
+    private void markReady() {
+        ready = true;
+        mainHandler.removeCallbacks(sampleRssi);
+        mainHandler.post(sampleRssi);
+        CountDownLatch latch = connectLatch;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    private void markDisconnected() {
+        boolean wasReady = ready;
+        ready = false;
+        characteristics.clear();
+        mtu = DEFAULT_MTU;
+        phyRequested = false;
+        quality.reset();
+        mainHandler.removeCallbacks(sampleRssi);
+        CountDownLatch latch = connectLatch;
+        if (latch != null) {
+            latch.countDown();
+        }
+        if (wasReady) {
+            for (Listener listener : listeners) {
+                listener.onDisconnected();
+            }
+        }
+    }
+
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt g, int status, int newState) {
+            Tracing.event(TraceLog.GATT_STATE, status, newState, 0);
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                g.discoverServices();
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                markDisconnected();
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt g, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "Service discovery failed: " + status);
+                g.disconnect();
+                return;
+            }
+            for (BluetoothGattService service : g.getServices()) {
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    characteristics.put(characteristic.getUuid(), characteristic);
+                }
+            }
+            if (!g.requestMtu(REQUESTED_MTU)) {
+                markReady();
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt g, int newMtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mtu = newMtu;
+            }
+            Tracing.event(TraceLog.GATT_MTU, status, 0, mtu);
+            if (Build.VERSION.SDK_INT >= 26) {
+                g.readPhy();
+            }
+            markReady();
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+            int result = status == BluetoothGatt.GATT_SUCCESS ? STATUS_SUCCESS : STATUS_FAILED;
+            if (result != STATUS_SUCCESS) {
+                Tracing.event(TraceLog.GATT_OP_FAILED, status, TraceLog.shortUuid(characteristic.getUuid()), -1);
+            }
+            quality.onWriteComplete(result == STATUS_SUCCESS);
+            for (Listener listener : listeners) {
+                listener.onWriteComplete(characteristic.getUuid(), result);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic,
+                                         byte[] value, int status) {
+            int result = status == BluetoothGatt.GATT_SUCCESS ? STATUS_SUCCESS : STATUS_FAILED;
+            for (Listener listener : listeners) {
+                listener.onReadComplete(characteristic.getUuid(), result, value);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void onCharacteristicRead(BluetoothGatt g, BluetoothGattCharacteristic characteristic, int status) {
+            // Only called below API 33; newer releases use the byte[] overload
+            if (Build.VERSION.SDK_INT < 33) {
+                onCharacteristicRead(g, characteristic, characteristic.getValue(), status);
+            }
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt g, BluetoothGattDescriptor descriptor, int status) {
+            // Reported against the characteristic, matching GattPort.setNotifications
+            int result = status == BluetoothGatt.GATT_SUCCESS ? STATUS_SUCCESS : STATUS_FAILED;
+            for (Listener listener : listeners) {
+                listener.onWriteComplete(descriptor.getCharacteristic().getUuid(), result);
+            }
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic characteristic, byte[] value) {
+            for (Listener listener : listeners) {
+                listener.onNotification(characteristic.getUuid(), value);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic characteristic) {
+            // Only called below API 33; newer releases use the byte[] overload
+            if (Build.VERSION.SDK_INT < 33) {
+                onCharacteristicChanged(g, characteristic, characteristic.getValue());
+            }
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt g, int rssi, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                quality.onRssi(rssi);
+            }
+            Tracing.event(TraceLog.LINK_QUALITY, status, rssi, quality.getScore());
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt g, int tx, int rx, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                txPhy = tx;
+                rxPhy = rx;
+            }
+            Tracing.event(TraceLog.GATT_PHY, status, txPhy, rxPhy);
+        }
+
+        @Override
+        public void onPhyRead(BluetoothGatt g, int tx, int rx, int status) {
+            onPhyUpdate(g, tx, rx, status);
+        }
+
+        // Hidden in the SDK (API 26+) but delivered by the framework; only way to learn the
+        // connection interval the controller settled on
+        public void onConnectionUpdated(BluetoothGatt g, int interval, int latency, int timeout, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                connectionIntervalUnits = interval;
+                peripheralLatency = latency;
+                supervisionTimeoutUnits = timeout;
+                quality.onConnectionParameters(interval, latency);
+            }
+            Tracing.event(TraceLog.GATT_CONNECTION_UPDATE, status, interval, latency | (long) timeout << 16);
+        }
+    };
+
+    private static String priorityName(int priority) {
+        switch (priority) {
+            case BluetoothGatt.CONNECTION_PRIORITY_HIGH:
+                return "high";
+            case BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER:
+                return "low_power";
+            default:
+                return "balanced";
+        }
+    }
+
+    private static String phyName(int phy) {
+        switch (phy) {
+            case BluetoothDevice.PHY_LE_2M:
+                return "2M";
+            case BluetoothDevice.PHY_LE_CODED:
+                return "coded";
+            default:
+                return "1M";
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package com.example.projects;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.example.projects.trace.TraceLog;
+import com.example.projects.transfer.FirmwareUpdater;
+import com.example.projects.transfer.GattPort;
+import com.example.projects.transfer.PresetSlotSync;
+import com.example.projects.transfer.StreamingWriter;
+import com.example.projects.transfer.WriteOutbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Owns the device sessions and the write outbox, so GATT links outlive MainActivity.
+//
+// The activity binds to this service and keeps the Flutter channels; everything that talks
+// to a device goes through the sessions held here. While any device has a session the service
+// runs in the foreground, so transfers, battery reads and outbox replays carry on with the UI
+// in the background or the activity destroyed, and a recreated activity finds its links
+// already open. Once the last device disconnected it drops out of the foreground and stops
+// when no activity is bound.
+public class BluetoothSyncService extends Service {
+    private static final String TAG = "BluetoothSyncService";
+
+    private static final String NOTIFICATION_CHANNEL_ID = "bluetooth_sync";
+    private static final int NOTIFICATION_ID = 1;
+
+    static final long GATT_CONNECT_TIMEOUT_MS = 10000;
+    static final long GATT_WRITE_TIMEOUT_MS = 5000;
+    static final long PAYLOAD_TIMEOUT_MS = 60000;
+    // A 1 MB image takes about 10 s on a good link; leave room for a weak one
+    static final long FIRMWARE_TIMEOUT_MS = 10 * 60000;
+
+    // Payload writes not yet confirmed by their device, replayed when it reconnects
+    private static final long OUTBOX_MAX_BYTES = 1024 * 1024;
+    // Same chunking as BLEDataService._sendJSONDataSilently, for headsets that can't stream
+    private static final int MAX_CHUNK_SIZE = 512;
+    // Chunk indexes go out as one byte
+    private static final int MAX_CHUNKS = 256;
+
+    public class LocalBinder extends Binder {
+        public BluetoothSyncService getService() {
+            return BluetoothSyncService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private DeviceSessionManager sessionManager;
+    private WriteOutbox outbox;
+    private final ExecutorService outboxExecutor = Executors.newSingleThreadExecutor();
+    private volatile boolean foreground;
+    // Set by the first session after idle, whether or not the start succeeded, so later
+    // session lookups don't retry a start the system already refused
+    private boolean startRequested;
+
+    // Replays the outbox when a device connects and tears down its session when it drops
+    private final BroadcastReceiver connectionReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+            if (device == null) {
+                return;
+            }
+            if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(intent.getAction())) {
+                replayOutbox(device);
+            } else if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(intent.getAction())) {
+                // Other devices keep their sessions; only the one that dropped is torn down
+                closeSession(device.getAddress());
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        sessionManager = new DeviceSessionManager(this);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
+        filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        registerReceiver(connectionReceiver, filter);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Started by startForegroundService in openSession, which requires startForeground here
+        enterForeground();
+        // Nothing to resume after the process is killed: the outbox replays on the next connection
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(connectionReceiver);
+        sessionManager.closeAll();
+        outboxExecutor.shutdown();
+        synchronized (this) {
+            if (outbox != null) {
+                try {
+                    outbox.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not close outbox: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public DeviceSessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    // Session for a device, created on first use. Keeps the service running in the foreground
+    // for as long as any session is open.
+    public DeviceSession openSession(BluetoothDevice device) {
+        DeviceSession session = sessionManager.getOrCreate(device);
+        requestStart();
+        return session;
+    }
+
+    // Starts the service once per idle to active transition. startForegroundService commits
+    // us to calling startForeground within seconds, so it is only used when the
+    // connectedDevice type's preconditions hold; otherwise the bound activity keeps us alive.
+    private synchronized void requestStart() {
+        if (foreground || startRequested) {
+            return;
+        }
+        startRequested = true;
+        if (!canEnterForeground()) {
+            Log.w(TAG, "BLUETOOTH_CONNECT not granted; staying bound-only");
+            return;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= 26) {
+                startForegroundService(new Intent(this, BluetoothSyncService.class));
+            } else {
+                startService(new Intent(this, BluetoothSyncService.class));
+            }
+        } catch (IllegalStateException e) {
+            // Background start not allowed (Android 12+); the bound activity keeps us alive
+            Log.w(TAG, "Could not start in foreground: " + e.getMessage());
+        }
+    }
+
+    // A connectedDevice foreground service needs BLUETOOTH_CONNECT from Android 12 on, and
+    // Android 14 throws from startForeground without it
+    private boolean canEnterForeground() {
+        return Build.VERSION.SDK_INT < 31
+            || ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    public void closeSession(String address) {
+        sessionManager.close(address);
+        stopWhenIdle();
+    }
+
+    // Logs a payload for replay on the next connection of its device; blocks on file I/O
+    public void queuePayload(String address, UUID uuid, boolean compress, byte[] data) throws IOException {
+        WriteOutbox outbox = getOutbox();
+        if (outbox == null) {
+            throw new IOException("Outbox unavailable");
+        }
+        outbox.append(address, uuid.toString(), compress, data);
+        Tracing.event(TraceLog.OUTBOX, TraceLog.OUTBOX_QUEUED, TraceLog.shortUuid(uuid), data.length);
+    }
+
+    // Slot sync on one device; runs on that device's session queue
+    public Map<String, Object> syncPresetSlots(DeviceSession session, List<PresetSlotSync.Item> items, String activateId) {
+        try {
+            if (!session.connect(GATT_CONNECT_TIMEOUT_MS)) {
+                return DeviceSessionManager.failure("GATT_NOT_READY", "Data link could not be established");
+            }
+            if (!session.isPresetSlotsSupported()) {
+                // Headset has no slot storage; caller sends the full preset instead
+                return DeviceSessionManager.failure("UNSUPPORTED", "Preset slots not supported by device");
+            }
+            
+            PresetSlotSync.Result sync;
+            Tracing.begin("preset slot sync");
+            try {
+                sync = session.syncPresetSlots(items, PAYLOAD_TIMEOUT_MS);
+            } finally {
+                Tracing.end();
+            }
+            Tracing.event(TraceLog.SLOT_SYNC, sync.status, sync.uploaded, sync.skipped);
+            if (!sync.isSuccess()) {
+                String reason = sync.status == PresetSlotSync.STATUS_NO_FREE_SLOT
+                    ? "no free slot" : GattPort.describe(sync.status);
+                Log.w(TAG, "Preset slot sync to " + session.getAddress() + " failed at " + sync.failedId + ": " + reason);
+                return DeviceSessionManager.failure("WRITE_ERROR", "Failed to sync preset slots: " + reason);
+            }
+            
+            Map<String, Object> outcome = new HashMap<>();
+            outcome.put("success", true);
+            outcome.put("slots", sync.slots);
+            outcome.put("uploaded", sync.uploaded);
+            outcome.put("skipped", sync.skipped);
+            Integer activeSlot = activateId != null ? sync.slots.get(activateId) : null;
+            if (activeSlot != null) {
+                int status = session.activatePresetSlot(activeSlot, GATT_WRITE_TIMEOUT_MS);
+                if (status != GattPort.STATUS_SUCCESS) {
+                    return DeviceSessionManager.failure("WRITE_ERROR", "Failed to activate slot: " + GattPort.describe(status));
+                }
+                outcome.put("activeSlot", activeSlot);
+            }
+            return outcome;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DeviceSessionManager.failure("WRITE_ERROR", "Sync interrupted");
+        }
+    }
+
+    // Firmware update on one device; runs on that device's session queue. After a failure
+    // the headset keeps what it confirmed, so calling again with the same image resumes.
+    public Map<String, Object> updateFirmware(DeviceSession session, File image) {
+        try {
+            if (!session.connect(GATT_CONNECT_TIMEOUT_MS)) {
+                return DeviceSessionManager.failure("GATT_NOT_READY", "Data link could not be established");
+            }
+            if (!session.isFirmwareUpdateSupported()) {
+                return DeviceSessionManager.failure("UNSUPPORTED", "Firmware update not supported by device");
+            }
+            
+            FirmwareUpdater.Result update;
+            Tracing.begin("firmware update");
+            try {
+                update = session.updateFirmware(image, FIRMWARE_TIMEOUT_MS);
+            } finally {
+                Tracing.end();
+            }
+            Tracing.event(TraceLog.FIRMWARE_UPDATE, update.status, update.result, update.confirmedBytes);
+            if (!update.isSuccess()) {
+                String reason = update.status == GattPort.STATUS_FAILED
+                    ? FirmwareUpdater.describeResult(update.result) : GattPort.describe(update.status);
+                Log.w(TAG, "Firmware update of " + session.getAddress() + " failed: " + reason);
+                Map<String, Object> failure = DeviceSessionManager.failure("WRITE_ERROR", "Firmware update failed: " + reason);
+                failure.put("confirmedBytes", update.confirmedBytes);
+                return failure;
+            }
+            
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("success", true);
+            stats.put("bytes", update.imageBytes);
+            stats.put("resumedFrom", update.resumedFrom);
+            stats.put("packets", update.packets);
+            stats.put("retransmitted", update.retransmitted);
+            stats.put("elapsedMs", update.elapsedNanos / 1e6);
+            stats.put("throughputKbps", update.getThroughputKbps());
+            return stats;
+        } catch (IOException e) {
+            return DeviceSessionManager.failure("FILE_ERROR", "Could not read firmware image: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DeviceSessionManager.failure("WRITE_ERROR", "Firmware update interrupted");
+        }
+    }
+
+    // streamPayload with the write logged in the outbox first, so it is replayed on the next
+    // connection if the device doesn't confirm it now. Headsets that can't stream answer
+    // UNSUPPORTED and the caller falls back, so nothing is left queued for them.
+    public Map<String, Object> deliverPayload(DeviceSession session, UUID uuid, byte[] data, boolean compress) {
+        WriteOutbox outbox = getOutbox();
+        long seq = -1;
+        if (outbox != null) {
+            try {
+                seq = outbox.append(session.getAddress(), uuid.toString(), compress, data);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not queue payload: " + e.getMessage());
+            }
+        }
+        Map<String, Object> outcome = streamPayload(session, uuid, data, compress);
+        if (seq >= 0 && (Boolean.TRUE.equals(outcome.get("success")) || "UNSUPPORTED".equals(outcome.get("error")))) {
+            try {
+                outbox.ack(seq);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not acknowledge queued payload: " + e.getMessage());
+            }
+        }
+        return outcome;
+    }
+
+    // Sends what the outbox holds for a device that just connected, oldest first. Stops at the
+    // first failure so a later write never overtakes an earlier one; the rest waits for the
+    // next connection.
+    public void replayOutbox(BluetoothDevice device) {
+        outboxExecutor.execute(() -> {
+            WriteOutbox outbox = getOutbox();
+            if (outbox == null || outbox.pendingFor(device.getAddress()).isEmpty()) {
+                return;
+            }
+            DeviceSession session = openSession(device);
+            session.execute(() -> {
+                for (WriteOutbox.Entry entry : outbox.pendingFor(session.getAddress())) {
+                    if (session.isClosed() || !sendQueued(session, entry)) {
+                        return;
+                    }
+                    try {
+                        outbox.ack(entry.seq);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not acknowledge replayed payload: " + e.getMessage());
+                        return;
+                    }
+                    Tracing.event(TraceLog.OUTBOX, TraceLog.OUTBOX_REPLAYED,
+                        TraceLog.shortUuid(UUID.fromString(entry.characteristic)), entry.data.length);
+                }
+            }, () -> {
+                // Disconnected again before the replay ran; the entries wait for the next connection
+            });
+        });
+    }
+
+    // One replayed entry: streamed when the headset supports it, chunked like the Dart side otherwise
+    private boolean sendQueued(DeviceSession session, WriteOutbox.Entry entry) {
+        UUID uuid = UUID.fromString(entry.characteristic);
+        Map<String, Object> outcome = streamPayload(session, uuid, entry.data, entry.compress);
+        if (Boolean.TRUE.equals(outcome.get("success"))) {
+            return true;
+        }
+        if (!"UNSUPPORTED".equals(outcome.get("error"))) {
+            return false;
+        }
+        try {
+            byte[] data = entry.data;
+            if (data.length <= MAX_CHUNK_SIZE) {
+                return session.write(uuid, data, true, GATT_WRITE_TIMEOUT_MS) == GattPort.STATUS_SUCCESS;
+            }
+            // Smaller chunks on a weak link, but never more than the index byte can count
+            int chunkSize = Math.max(session.getLinkQuality().writeLength(MAX_CHUNK_SIZE),
+                (data.length + MAX_CHUNKS - 1) / MAX_CHUNKS);
+            int totalChunks = (data.length + chunkSize - 1) / chunkSize;
+            for (int i = 0; i < totalChunks; i++) {
+                int start = i * chunkSize;
+                int end = Math.min(start + chunkSize, data.length);
+                // [chunk index][last chunk index][data]
+                byte[] chunk = new byte[2 + end - start];
+                chunk[0] = (byte) i;
+                chunk[1] = (byte) (totalChunks - 1);
+                System.arraycopy(data, start, chunk, 2, end - start);
+                // Only the last chunk waits for a response
+                boolean last = i == totalChunks - 1;
+                if (session.write(uuid, chunk, last, GATT_WRITE_TIMEOUT_MS) != GattPort.STATUS_SUCCESS) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void discardQueued(String address, UUID uuid) {
+        WriteOutbox outbox = getOutbox();
+        if (outbox == null) {
+            return;
+        }
+        try {
+            if (outbox.discard(address, uuid.toString())) {
+                Tracing.event(TraceLog.OUTBOX, TraceLog.OUTBOX_DISCARDED, TraceLog.shortUuid(uuid), 1);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not update outbox: " + e.getMessage());
+        }
+    }
+
+    // One framed transfer on one device; runs on that device's session queue.
+    // Returns transfer stats with "success": true, or DeviceSessionManager.failure(...)
+    public Map<String, Object> streamPayload(DeviceSession session, UUID uuid, byte[] data, boolean compress) {
+        try {
+            if (!session.connect(GATT_CONNECT_TIMEOUT_MS)) {
+                return DeviceSessionManager.failure("GATT_NOT_READY", "Data link could not be established");
+            }
+            if (!session.isStreamingSupported()) {
+                // Headset has no transfer control point; caller falls back to chunked writes
+                return DeviceSessionManager.failure("UNSUPPORTED", "Streaming writes not supported by device");
+            }
+            
+            StreamingWriter.Result transfer;
+            Tracing.begin("payload transfer");
+            try {
+                transfer = session.sendPayload(uuid, data, compress, PAYLOAD_TIMEOUT_MS);
+            } finally {
+                Tracing.end();
+            }
+            Tracing.event(TraceLog.TRANSFER, transfer.status, transfer.bytes, transfer.elapsedNanos);
+            Tracing.event(TraceLog.TRANSFER_FRAMES, transfer.repairRounds, transfer.retransmitted, transfer.packets);
+            if (!transfer.isSuccess()) {
+                String reason = GattPort.describe(transfer.status);
+                Log.w(TAG, "Payload stream to " + session.getAddress() + " failed: " + reason);
+                return DeviceSessionManager.failure("WRITE_ERROR", "Failed to stream payload: " + reason);
+            }
+            
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("success", true);
+            stats.put("bytes", transfer.bytes);
+            stats.put("wireBytes", transfer.wireBytes);
+            stats.put("compressed", transfer.isCompressed());
+            stats.put("packets", transfer.packets);
+            stats.put("retransmitted", transfer.retransmitted);
+            stats.put("repairRounds", transfer.repairRounds);
+            stats.put("busyStalls", transfer.busyStalls);
+            stats.put("elapsedMs", transfer.elapsedNanos / 1e6);
+            stats.put("throughputKbps", transfer.getThroughputKbps());
+            stats.put("crc32", transfer.crc32);
+            return stats;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return DeviceSessionManager.failure("WRITE_ERROR", "Write interrupted");
+        }
+    }
+
+    // Opened on first use; null if the log can't be read, in which case writes just aren't queued
+    private synchronized WriteOutbox getOutbox() {
+        if (outbox == null) {
+            try {
+                outbox = new WriteOutbox(new File(getFilesDir(), "ble_outbox.log"), OUTBOX_MAX_BYTES);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not open outbox: " + e.getMessage());
+            }
+        }
+        return outbox;
+    }
+
+    private synchronized void enterForeground() {
+        if (foreground) {
+            return;
+        }
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= 26) {
+            NotificationChannel channel = new NotificationChannel(
+                NOTIFICATION_CHANNEL_ID, "Headset connection", NotificationManager.IMPORTANCE_LOW);
+            channel.setShowBadge(false);
+            notificationManager.createNotificationChannel(channel);
+            builder = new Notification.Builder(this, NOTIFICATION_CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        Intent openApp = new Intent(this, MainActivity.class);
+        Notification notification = builder
+            .setContentTitle("Bone+")
+            .setContentText("Keeping your headset in sync")
+            .setSmallIcon(getApplicationInfo().icon)
+            .setOngoing(true)
+            .setCategory(Notification.CATEGORY_SERVICE)
+            .setContentIntent(PendingIntent.getActivity(this, 0, openApp,
+                Build.VERSION.SDK_INT >= 23 ? PendingIntent.FLAG_IMMUTABLE : 0))
+            .build();
+        try {
+            if (Build.VERSION.SDK_INT >= 29) {
+                startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+            } else {
+                startForeground(NOTIFICATION_ID, notification);
+            }
+            foreground = true;
+        } catch (RuntimeException e) {
+            // Android 14 refuses connectedDevice services without BLUETOOTH_CONNECT; stay bound-only
+            Log.w(TAG, "Could not enter foreground: " + e.getMessage());
+            stopSelf();
+        }
+    }
+
+    // Leaves the foreground once no device has a session. stopSelf only ends the service after
+    // the activity unbinds too; anything left in the outbox waits for the next connection.
+    private synchronized void stopWhenIdle() {
+        if (!sessionManager.getSessions().isEmpty()) {
+            return;
+        }
+        startRequested = false;
+        if (!foreground) {
+            return;
+        }
+        stopForeground(true);
+        foreground = false;
+        stopSelf();
+    }
+}
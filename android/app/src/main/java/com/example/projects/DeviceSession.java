@@ -0,0 +1,380 @@
+package com.example.projects;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+
+import com.example.projects.transfer.FirmwareUpdater;
+import com.example.projects.transfer.GattPort;
+import com.example.projects.transfer.GattWriter;
+import com.example.projects.transfer.LinkQuality;
+import com.example.projects.transfer.MessageAssembler;
+import com.example.projects.transfer.PayloadCompressor;
+import com.example.projects.transfer.PresetSlotSync;
+import com.example.projects.transfer.StreamingWriter;
+import com.example.projects.transfer.SupersedingQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+// Everything held for one connected device: its GATT data link, the queue its GATT
+// operations run on, the framed transfer state and the last battery reading.
+//
+// Each session has its own single-thread executor, so operations on one device stay in
+// order while two devices (e.g. the left and right earbud of a set) are written in parallel.
+public class DeviceSession {
+
+    // Acknowledged BEGIN/COMMIT writes that frame a write-without-response stream
+    public static final UUID TRANSFER_CONTROL_CHAR_UUID = UUID.fromString("00002A1F-0000-1000-8000-00805f9b34fb");
+    // Headset notifies NACK bitmaps and DONE/FAILED for the framed transfer here
+    public static final UUID TRANSFER_STATUS_CHAR_UUID = UUID.fromString("00002A20-0000-1000-8000-00805f9b34fb");
+    // One readable byte of transfer capabilities, e.g. dictionary DEFLATE support
+    public static final UUID TRANSFER_CAPS_CHAR_UUID = UUID.fromString("00002A21-0000-1000-8000-00805f9b34fb");
+    // Readable manifest of the headset's preset slots and the hashes they hold
+    public static final UUID PRESET_SLOT_MANIFEST_CHAR_UUID = UUID.fromString("00002A22-0000-1000-8000-00805f9b34fb");
+    // One byte written here switches the headset to the preset in that slot
+    public static final UUID PRESET_SLOT_ACTIVE_CHAR_UUID = UUID.fromString("00002A23-0000-1000-8000-00805f9b34fb");
+    // Framed uploads of a payload into a slot
+    public static final UUID PRESET_SLOT_DATA_CHAR_UUID = UUID.fromString("00002A24-0000-1000-8000-00805f9b34fb");
+    // Acknowledged firmware update commands; the headset notifies receipts and answers here
+    public static final UUID FIRMWARE_CONTROL_CHAR_UUID = UUID.fromString("00002A25-0000-1000-8000-00805f9b34fb");
+    // Firmware image packets, written without response
+    public static final UUID FIRMWARE_DATA_CHAR_UUID = UUID.fromString("00002A26-0000-1000-8000-00805f9b34fb");
+    private static final UUID BATTERY_LEVEL_CHAR_UUID = UUID.fromString("00002A19-0000-1000-8000-00805F9B34FB");
+    // Messages from the headset being reassembled at once, and the largest one
+    private static final int INBOUND_SLOTS = 4;
+    private static final int INBOUND_MAX_MESSAGE = 16 * 1024;
+
+    // A task on the executor and how to answer its caller if it never runs
+    private static final class Queued implements Runnable {
+        final Runnable task;
+        final Runnable onDropped;
+
+        Queued(Runnable task, Runnable onDropped) {
+            this.task = task;
+            this.onDropped = onDropped;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private final BluetoothDevice device;
+    private final BleDataLink link;
+    private final GattWriter writer;
+    private final StreamingWriter streamingWriter;
+    private final PresetSlotSync presetSlots;
+    private final FirmwareUpdater firmwareUpdater;
+    private final ExecutorService executor;
+    private final SupersedingQueue latest;
+
+    // Multi-packet messages the headset notifies on the characteristics enabled for inbound
+    private final MessageAssembler inbound = new MessageAssembler(INBOUND_SLOTS, INBOUND_MAX_MESSAGE);
+    private final Set<UUID> inboundCharacteristics = ConcurrentHashMap.newKeySet();
+    private volatile MessageAssembler.Sink inboundSink;
+    private final GattPort.Listener inboundListener = new GattPort.Listener() {
+        @Override
+        public void onWriteComplete(UUID characteristic, int status) {
+        }
+
+        @Override
+        public void onNotification(UUID characteristic, byte[] value) {
+            MessageAssembler.Sink sink = inboundSink;
+            if (sink != null && inboundCharacteristics.contains(characteristic)) {
+                inbound.accept(characteristic, value, sink);
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            // Subscriptions don't outlive the connection; enableInbound again after reconnecting
+            inboundCharacteristics.clear();
+            inbound.reset();
+        }
+    };
+
+    // Battery level cache
+    private Integer batteryLevel;
+    private long batteryCheckedAt;
+
+    private volatile StreamingWriter.Result lastTransfer;
+    private volatile boolean closed;
+
+    public DeviceSession(Context context, BluetoothDevice device) {
+        this.device = device;
+        link = new BleDataLink(context, device);
+        writer = new GattWriter(link);
+        streamingWriter = new StreamingWriter(
+            writer, TRANSFER_CONTROL_CHAR_UUID, TRANSFER_STATUS_CHAR_UUID, TRANSFER_CAPS_CHAR_UUID,
+            new PayloadCompressor(), StreamingWriter.DEFAULT_MAX_IN_FLIGHT, link.getLinkQuality());
+        presetSlots = new PresetSlotSync(writer, streamingWriter, PRESET_SLOT_MANIFEST_CHAR_UUID,
+            PRESET_SLOT_ACTIVE_CHAR_UUID, PRESET_SLOT_DATA_CHAR_UUID);
+        firmwareUpdater = new FirmwareUpdater(writer, FIRMWARE_CONTROL_CHAR_UUID, FIRMWARE_DATA_CHAR_UUID,
+            FirmwareUpdater.DEFAULT_WINDOW, link.getLinkQuality());
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "DeviceSession-" + device.getAddress());
+            thread.setDaemon(true);
+            return thread;
+        });
+        latest = new SupersedingQueue(executor);
+        link.addListener(inboundListener);
+    }
+
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    public BleDataLink getLink() {
+        return link;
+    }
+
+    public LinkQuality getLinkQuality() {
+        return link.getLinkQuality();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // Queue work behind this device's other GATT operations. onDropped answers the caller
+    // instead when the session is already closed or closes before the task gets to run.
+    public void execute(Runnable task, Runnable onDropped) {
+        if (closed) {
+            onDropped.run();
+            return;
+        }
+        try {
+            executor.execute(new Queued(task, onDropped));
+        } catch (RejectedExecutionException e) {
+            onDropped.run();
+        }
+    }
+
+    // Throws RejectedExecutionException once the session is closed
+    public <T> Future<T> submit(Callable<T> task) {
+        if (closed) {
+            throw new RejectedExecutionException("Session closed");
+        }
+        return executor.submit(task);
+    }
+
+    // Like execute, for requests where only the newest one per key matters: an older task
+    // with the same key is dropped from the queue or interrupted, and its onSuperseded
+    // answers the caller instead. A closed session answers through onSuperseded too.
+    public void executeLatest(String key, Runnable task, Runnable onSuperseded) {
+        if (closed) {
+            onSuperseded.run();
+            return;
+        }
+        try {
+            latest.submit(key, task, onSuperseded);
+        } catch (RejectedExecutionException e) {
+            onSuperseded.run();
+        }
+    }
+
+    // The methods below block; call them from a task on this session's executor
+
+    public boolean connect(long timeoutMs) throws InterruptedException {
+        return link.connect(timeoutMs);
+    }
+
+    public int write(UUID characteristic, byte[] value, boolean withResponse, long timeoutMs)
+            throws InterruptedException {
+        link.beginTransfer();
+        try {
+            int status = writer.write(characteristic, value, withResponse, timeoutMs);
+            if (status == GattPort.STATUS_TIMEOUT) {
+                link.getLinkQuality().onTimeout();
+            }
+            return status;
+        } finally {
+            link.endTransfer();
+        }
+    }
+
+    public int enableNotifications(UUID characteristic, long timeoutMs) throws InterruptedException {
+        return writer.enableNotifications(characteristic, timeoutMs);
+    }
+
+    // Turns on notifications for the characteristics the headset has, and hands the messages
+    // they carry to sink. Returns the characteristics that were enabled.
+    public List<UUID> enableInbound(List<UUID> characteristics, MessageAssembler.Sink sink, long timeoutMs)
+            throws InterruptedException {
+        inboundSink = sink;
+        List<UUID> enabled = new ArrayList<>();
+        for (UUID characteristic : characteristics) {
+            if (inboundCharacteristics.contains(characteristic)) {
+                enabled.add(characteristic);
+            } else if (link.hasCharacteristic(characteristic)
+                    && writer.enableNotifications(characteristic, timeoutMs) == GattPort.STATUS_SUCCESS) {
+                inboundCharacteristics.add(characteristic);
+                enabled.add(characteristic);
+            }
+        }
+        return enabled;
+    }
+
+    // Whether the data link is up and the headset has any of the characteristics
+    public boolean hasCharacteristics(List<UUID> characteristics) {
+        if (!link.isReady()) {
+            return false;
+        }
+        for (UUID characteristic : characteristics) {
+            if (link.hasCharacteristic(characteristic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isStreamingSupported() {
+        return streamingWriter.isSupported();
+    }
+
+    public StreamingWriter.Result sendPayload(UUID characteristic, byte[] payload, boolean compress, long timeoutMs)
+            throws InterruptedException {
+        link.beginTransfer();
+        try {
+            StreamingWriter.Result result = streamingWriter.send(characteristic, payload, compress, timeoutMs);
+            lastTransfer = result;
+            LinkQuality quality = link.getLinkQuality();
+            quality.onTransfer(result.packets, result.retransmitted);
+            if (result.status == GattPort.STATUS_TIMEOUT) {
+                quality.onTimeout();
+            }
+            return result;
+        } finally {
+            link.endTransfer();
+        }
+    }
+
+    public boolean isPresetSlotsSupported() {
+        return presetSlots.isSupported();
+    }
+
+    public PresetSlotSync.Result syncPresetSlots(List<PresetSlotSync.Item> items, long timeoutMs)
+            throws InterruptedException {
+        link.beginTransfer();
+        try {
+            return presetSlots.sync(items, timeoutMs);
+        } finally {
+            link.endTransfer();
+        }
+    }
+
+    public int activatePresetSlot(int slot, long timeoutMs) throws InterruptedException {
+        link.beginTransfer();
+        try {
+            return presetSlots.activate(slot, timeoutMs);
+        } finally {
+            link.endTransfer();
+        }
+    }
+
+    public boolean isFirmwareUpdateSupported() {
+        return firmwareUpdater.isSupported();
+    }
+
+    // Sends, verifies and activates a firmware image; resumes an update the headset holds part of
+    public FirmwareUpdater.Result updateFirmware(File image, long timeoutMs) throws IOException, InterruptedException {
+        link.beginTransfer();
+        try {
+            FirmwareUpdater.Result result = firmwareUpdater.update(image, timeoutMs);
+            LinkQuality quality = link.getLinkQuality();
+            quality.onTransfer(result.packets, result.retransmitted);
+            if (result.status == GattPort.STATUS_TIMEOUT) {
+                quality.onTimeout();
+            }
+            return result;
+        } finally {
+            link.endTransfer();
+        }
+    }
+
+    public StreamingWriter.Result getLastTransfer() {
+        return lastTransfer;
+    }
+
+    // Reads the standard Battery Level characteristic over the data link; null if unavailable
+    public Integer readBatteryLevel(long timeoutMs) throws InterruptedException {
+        if (!link.connect(timeoutMs) || !link.hasCharacteristic(BATTERY_LEVEL_CHAR_UUID)) {
+            return null;
+        }
+        byte[] value = writer.read(BATTERY_LEVEL_CHAR_UUID, timeoutMs);
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        Integer level = value[0] & 0xFF;
+        cacheBatteryLevel(level);
+        return level;
+    }
+
+    // Cached battery level if it is younger than maxAgeMs
+    public synchronized Integer getCachedBatteryLevel(long maxAgeMs) {
+        if (batteryLevel != null && System.currentTimeMillis() - batteryCheckedAt < maxAgeMs) {
+            return batteryLevel;
+        }
+        return null;
+    }
+
+    public synchronized void cacheBatteryLevel(Integer level) {
+        batteryLevel = level;
+        batteryCheckedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void invalidateBatteryLevel() {
+        batteryLevel = null;
+    }
+
+    public void close() {
+        closed = true;
+        inboundSink = null;
+        link.removeListener(inboundListener);
+        latest.cancelAll();
+        // Whatever never got to run still owes its caller an answer
+        for (Runnable drained : executor.shutdownNow()) {
+            if (drained instanceof Queued) {
+                ((Queued) drained).onDropped.run();
+            } else if (drained instanceof Future) {
+                ((Future<?>) drained).cancel(false);
+            }
+        }
+        writer.close();
+        link.close();
+    }
+
+    // Status for the Flutter side; reports ready only for an open link, never connects
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id", getAddress());
+        map.put("linkReady", link.isReady());
+        map.put("transferActive", link.isTransferActive());
+        map.put("inboundMessages", inbound.getMessages());
+        map.put("inboundDropped", inbound.getDropped());
+        map.put("superseded", latest.getSuperseded());
+        map.put("batteryLevel", getCachedBatteryLevel(Long.MAX_VALUE));
+        StreamingWriter.Result transfer = lastTransfer;
+        if (transfer != null) {
+            map.put("lastTransferStatus", GattPort.describe(transfer.status));
+        }
+        return map;
+    }
+}
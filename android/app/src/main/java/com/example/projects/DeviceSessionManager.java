@@ -0,0 +1,118 @@
+package com.example.projects;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.projects.trace.TraceLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Device sessions keyed by Bluetooth address. A session is created the first time a device
+// is addressed and lives until that device disconnects or BluetoothSyncService stops.
+public class DeviceSessionManager {
+    private static final String TAG = "DeviceSessionManager";
+
+    // Work done for one device by runOnEach; returns the per-device result for Flutter
+    public interface SessionTask {
+        Map<String, Object> run(DeviceSession session) throws Exception;
+    }
+
+    private final Context context;
+    private final Map<String, DeviceSession> sessions = new ConcurrentHashMap<>();
+
+    public DeviceSessionManager(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public DeviceSession getOrCreate(BluetoothDevice device) {
+        return sessions.computeIfAbsent(device.getAddress(), address -> {
+            Tracing.event(TraceLog.SESSION, 1, 0, sessions.size() + 1);
+            return new DeviceSession(context, device);
+        });
+    }
+
+    public DeviceSession get(String address) {
+        return address != null ? sessions.get(address) : null;
+    }
+
+    public List<DeviceSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public void close(String address) {
+        DeviceSession session = address != null ? sessions.remove(address) : null;
+        if (session != null) {
+            session.close();
+            Tracing.event(TraceLog.SESSION, 0, 0, sessions.size());
+        }
+    }
+
+    public void closeAll() {
+        for (String address : new ArrayList<>(sessions.keySet())) {
+            close(address);
+        }
+    }
+
+    // Runs task on every session at once, each on that device's own queue, and waits for all
+    // of them. Results are keyed by address; a device that fails or runs past timeoutMs gets
+    // {"success": false, "error": ...}. Blocks, so call it off the main thread.
+    public Map<String, Map<String, Object>> runOnEach(Collection<DeviceSession> targets, SessionTask task,
+                                                      long timeoutMs) throws InterruptedException {
+        Map<String, Future<Map<String, Object>>> pending = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        for (DeviceSession session : targets) {
+            try {
+                pending.put(session.getAddress(), session.submit(() -> task.run(session)));
+            } catch (RejectedExecutionException e) {
+                // Session was closed between lookup and submit
+                results.put(session.getAddress(), failure("NOT_CONNECTED", "Device session closed"));
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Map.Entry<String, Future<Map<String, Object>>> entry : pending.entrySet()) {
+            Future<Map<String, Object>> future = entry.getValue();
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                results.put(entry.getKey(), future.get(remaining, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                results.put(entry.getKey(), failure("TIMEOUT", "Device did not finish in time"));
+            } catch (CancellationException e) {
+                // Session closed before the task ran
+                results.put(entry.getKey(), failure("NOT_CONNECTED", "Device session closed"));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                Log.w(TAG, "Task failed for " + entry.getKey() + ": " + cause.getMessage());
+                results.put(entry.getKey(), failure("WRITE_ERROR", String.valueOf(cause.getMessage())));
+            } catch (InterruptedException e) {
+                for (Future<Map<String, Object>> other : pending.values()) {
+                    other.cancel(true);
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    public static Map<String, Object> failure(String code, String message) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", false);
+        result.put("error", code);
+        result.put("message", message);
+        return result;
+    }
+}
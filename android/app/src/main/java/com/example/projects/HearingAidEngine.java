@@ -0,0 +1,219 @@
+package com.example.projects;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.projects.dsp.NoiseReductionPipeline;
+
+import java.util.Map;
+
+// Phone-as-hearing-aid mode: microphone -> noise reduction -> current media output
+// (wired headset or Bluetooth). Runs on its own urgent-audio thread and allocates nothing
+// once the loop has started.
+public class HearingAidEngine {
+    private static final String TAG = "HearingAidEngine";
+    public static final int SAMPLE_RATE = 48000;
+    // 5.3 ms blocks at 48 kHz
+    private static final int BLOCK_SIZE = 256;
+    private static final float PCM_SCALE = 1.0f / 32768.0f;
+
+    private final Context context;
+    private final NoiseReductionPipeline pipeline = new NoiseReductionPipeline(SAMPLE_RATE);
+
+    private Thread audioThread;
+    private volatile boolean running = false;
+    private volatile long underruns = 0;
+
+    public HearingAidEngine(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public void setFlags(boolean reduceBackgroundNoise, boolean reduceWindNoise, boolean softenSuddenNoise) {
+        pipeline.setFlags(reduceBackgroundNoise, reduceWindNoise, softenSuddenNoise);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Caller must hold RECORD_AUDIO
+    public synchronized boolean start() {
+        if (running) return true;
+
+        AudioRecord record = createRecord();
+        if (record == null) {
+            return false;
+        }
+        AudioTrack track = createTrack();
+        if (track == null) {
+            record.release();
+            return false;
+        }
+
+        pipeline.reset();
+        underruns = 0;
+        running = true;
+        audioThread = new Thread(() -> runLoop(record, track), "HearingAidAudio");
+        audioThread.start();
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        try {
+            audioThread.join(500);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        audioThread = null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = pipeline.getStats();
+        stats.put("running", running);
+        stats.put("blockSize", BLOCK_SIZE);
+        stats.put("blockBudgetMicros", BLOCK_SIZE * 1_000_000.0 / SAMPLE_RATE);
+        stats.put("underruns", underruns);
+        return stats;
+    }
+
+    private void runLoop(AudioRecord record, AudioTrack track) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+        short[] pcm = new short[BLOCK_SIZE];
+        float[] block = new float[BLOCK_SIZE];
+
+        try {
+            record.startRecording();
+            track.play();
+
+            while (running) {
+                int read = record.read(pcm, 0, BLOCK_SIZE);
+                if (read <= 0) {
+                    if (read < 0) {
+                        Log.e(TAG, "AudioRecord read failed: " + read);
+                        break;
+                    }
+                    continue;
+                }
+
+                for (int i = 0; i < read; i++) {
+                    block[i] = pcm[i] * PCM_SCALE;
+                }
+                pipeline.process(block, read);
+                for (int i = 0; i < read; i++) {
+                    float sample = block[i] * 32767.0f;
+                    if (sample > 32767.0f) sample = 32767.0f;
+                    if (sample < -32768.0f) sample = -32768.0f;
+                    pcm[i] = (short) sample;
+                }
+
+                int written = track.write(pcm, 0, read);
+                if (written < read) {
+                    underruns++;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Hearing aid loop stopped: " + e.getMessage());
+        } finally {
+            running = false;
+            try {
+                record.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            try {
+                track.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            record.release();
+            track.release();
+        }
+    }
+
+    private AudioRecord createRecord() {
+        int minBuffer = AudioRecord.getMinBufferSize(
+            SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer <= 0) {
+            Log.e(TAG, "Unsupported capture configuration");
+            return null;
+        }
+
+        // Prefer the unprocessed source so platform AGC/NS doesn't fight our own processing
+        int source = MediaRecorder.AudioSource.VOICE_RECOGNITION;
+        if (Build.VERSION.SDK_INT >= 24) {
+            AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            if ("true".equals(audioManager.getProperty(AudioManager.PROPERTY_SUPPORT_AUDIO_SOURCE_UNPROCESSED))) {
+                source = MediaRecorder.AudioSource.UNPROCESSED;
+            }
+        }
+
+        try {
+            AudioRecord record = new AudioRecord(
+                source, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(minBuffer, BLOCK_SIZE * 4));
+            if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+                record.release();
+                Log.e(TAG, "AudioRecord failed to initialize");
+                return null;
+            }
+            return record;
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating AudioRecord: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private AudioTrack createTrack() {
+        int minBuffer = AudioTrack.getMinBufferSize(
+            SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer <= 0) {
+            Log.e(TAG, "Unsupported playback configuration");
+            return null;
+        }
+
+        AudioAttributes attributes = new AudioAttributes.Builder()
+            .setUsage(AudioAttributes.USAGE_MEDIA)
+            .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+            .build();
+        AudioFormat format = new AudioFormat.Builder()
+            .setSampleRate(SAMPLE_RATE)
+            .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+            .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+            .build();
+        int bufferSize = Math.max(minBuffer, BLOCK_SIZE * 4);
+
+        try {
+            AudioTrack track;
+            if (Build.VERSION.SDK_INT >= 26) {
+                track = new AudioTrack.Builder()
+                    .setAudioAttributes(attributes)
+                    .setAudioFormat(format)
+                    .setBufferSizeInBytes(bufferSize)
+                    .setTransferMode(AudioTrack.MODE_STREAM)
+                    .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                    .build();
+            } else {
+                track = new AudioTrack(attributes, format, bufferSize,
+                    AudioTrack.MODE_STREAM, AudioManager.AUDIO_SESSION_ID_GENERATE);
+            }
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                track.release();
+                Log.e(TAG, "AudioTrack failed to initialize");
+                return null;
+            }
+            return track;
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating AudioTrack: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.projects;
+
+import static com.example.projects.history.HistoryQuery.COLUMN_DATE_CREATED;
+import static com.example.projects.history.HistoryQuery.COLUMN_ID;
+import static com.example.projects.history.HistoryQuery.COLUMN_JSON;
+import static com.example.projects.history.HistoryQuery.COLUMN_KIND;
+import static com.example.projects.history.HistoryQuery.COLUMN_NAME;
+import static com.example.projects.history.HistoryQuery.COLUMN_UPDATED_AT;
+import static com.example.projects.history.HistoryQuery.TABLE;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.projects.history.HistoryQuery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// SQLite store of hearing test and preset history, one row per record.
+//
+// Records are kept as the JSON Flutter sends, next to the columns we filter and sort on:
+// kind and creation date. The (kind, date_created, id) index serves newest-first pages
+// straight off the index. Writes come in batches, each batch in
+// one transaction through a single compiled statement.
+//
+// All methods touch the database; call them off the main thread.
+public class HistoryStore extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "history.db";
+    private static final int DATABASE_VERSION = 1;
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    public HistoryStore(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        // Readers (history screens) don't wait behind a batch write
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+            + COLUMN_KIND + " TEXT NOT NULL, "
+            + COLUMN_ID + " TEXT NOT NULL, "
+            + COLUMN_NAME + " TEXT, "
+            + COLUMN_DATE_CREATED + " INTEGER NOT NULL, "
+            + COLUMN_JSON + " TEXT NOT NULL, "
+            + COLUMN_UPDATED_AT + " INTEGER NOT NULL, "
+            + "PRIMARY KEY (" + COLUMN_KIND + ", " + COLUMN_ID + "))");
+        db.execSQL("CREATE INDEX records_by_date ON " + TABLE
+            + " (" + COLUMN_KIND + ", " + COLUMN_DATE_CREATED + " DESC, " + COLUMN_ID + " DESC)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only version 1 exists so far
+    }
+
+    // Inserts or replaces records of one kind in a single transaction. Each record is
+    // {id, name?, dateCreated (epoch ms), json}; returns the number written. With replaceAll
+    // the kind's other records are deleted in the same transaction, so the store ends up
+    // holding exactly these.
+    public int putRecords(String kind, List<Map<String, Object>> records, boolean replaceAll) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE + " ("
+            + COLUMN_KIND + ", " + COLUMN_ID + ", " + COLUMN_NAME + ", "
+            + COLUMN_DATE_CREATED + ", " + COLUMN_JSON + ", " + COLUMN_UPDATED_AT
+            + ") VALUES (?, ?, ?, ?, ?, ?)");
+        long now = System.currentTimeMillis();
+        int written = 0;
+        db.beginTransaction();
+        try {
+            if (replaceAll) {
+                db.delete(TABLE, COLUMN_KIND + " = ?", new String[] {kind});
+            }
+            for (Map<String, Object> record : records) {
+                Object id = record.get("id");
+                Object json = record.get("json");
+                Object dateCreated = record.get("dateCreated");
+                if (!(id instanceof String) || !(json instanceof String) || !(dateCreated instanceof Number)) {
+                    throw new IllegalArgumentException("Record needs id, json and dateCreated: " + record.get("id"));
+                }
+                insert.clearBindings();
+                insert.bindString(1, kind);
+                insert.bindString(2, (String) id);
+                bindOptional(insert, 3, record.get("name"));
+                insert.bindLong(4, ((Number) dateCreated).longValue());
+                insert.bindString(5, (String) json);
+                insert.bindLong(6, now);
+                insert.executeInsert();
+                written++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        return written;
+    }
+
+    public int deleteRecords(String kind, List<String> ids) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement delete = db.compileStatement(
+            "DELETE FROM " + TABLE + " WHERE " + COLUMN_KIND + " = ? AND " + COLUMN_ID + " = ?");
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                delete.bindString(1, kind);
+                delete.bindString(2, id);
+                deleted += delete.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            delete.close();
+        }
+        return deleted;
+    }
+
+    // One page newest-first: {"records": [...], "nextCursor": cursor or null at the end}
+    public Map<String, Object> queryPage(HistoryQuery query, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        List<Map<String, Object>> records = new ArrayList<>(pageSize);
+        String nextCursor = null;
+
+        // One extra row tells whether another page follows
+        try (Cursor cursor = getReadableDatabase().query(TABLE,
+                new String[] {COLUMN_ID, COLUMN_NAME, COLUMN_DATE_CREATED, COLUMN_JSON},
+                query.getSelection(), query.getSelectionArgs(), null, null,
+                HistoryQuery.ORDER_BY, String.valueOf(pageSize + 1))) {
+            while (cursor.moveToNext()) {
+                if (records.size() == pageSize) {
+                    Map<String, Object> last = records.get(pageSize - 1);
+                    nextCursor = HistoryQuery.cursorFor((Long) last.get("dateCreated"), (String) last.get("id"));
+                    break;
+                }
+                Map<String, Object> record = new HashMap<>();
+                record.put("id", cursor.getString(0));
+                record.put("name", cursor.getString(1));
+                record.put("dateCreated", cursor.getLong(2));
+                record.put("json", cursor.getString(3));
+                records.add(record);
+            }
+        }
+
+        Map<String, Object> page = new HashMap<>();
+        page.put("records", records);
+        page.put("nextCursor", nextCursor);
+        return page;
+    }
+
+    public long count(HistoryQuery query) {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE,
+            query.getSelection(), query.getSelectionArgs());
+    }
+
+    private static void bindOptional(SQLiteStatement statement, int index, Object value) {
+        if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else {
+            statement.bindNull(index);
+        }
+    }
+}
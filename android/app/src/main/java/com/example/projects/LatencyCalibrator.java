@@ -0,0 +1,331 @@
+package com.example.projects;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.projects.dsp.PulseDelayEstimator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Measures how long a tone takes from being written to being heard, per output route, and
+// caches the result per device address so the hearing test can compensate response windows.
+//
+// Output latency comes from AudioTrack.getTimestamp(): the presentation time of the most
+// recently written frame minus the time it was written. Where a microphone is available the
+// round trip is measured too, by playing a pulse and finding it in the recording.
+public class LatencyCalibrator {
+    private static final String TAG = "LatencyCalibrator";
+    private static final String PREFS_NAME = "latency_calibration";
+    // Recalibrate after a month; firmware and OS updates change the pipeline
+    private static final long CACHE_MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private static final int SAMPLE_RATE = 48000;
+    // 10 ms writes
+    private static final int WRITE_FRAMES = SAMPLE_RATE / 100;
+    private static final long MEASURE_DURATION_NS = 1_500_000_000L;
+    private static final long LOOPBACK_DURATION_NS = 1_200_000_000L;
+    private static final long LOOPBACK_PRIME_NS = 300_000_000L;
+
+    public interface Callback {
+        void onCalibrated(Map<String, Object> result);
+        void onError(String code, String message);
+    }
+
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public LatencyCalibrator(Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // Cached calibration for the device and route, or null if missing or stale
+    public Map<String, Object> getCached(String address, String routeType) {
+        String stored = prefs.getString(cacheKey(address, routeType), null);
+        if (stored == null) return null;
+
+        try {
+            JSONObject json = new JSONObject(stored);
+            long measuredAt = json.optLong("measuredAt", 0);
+            if (System.currentTimeMillis() - measuredAt > CACHE_MAX_AGE_MS) {
+                return null;
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("address", address);
+            result.put("routeType", routeType);
+            result.put("outputLatencyMs", json.optDouble("outputLatencyMs", 0.0));
+            if (json.has("roundTripLatencyMs")) {
+                result.put("roundTripLatencyMs", json.optDouble("roundTripLatencyMs", 0.0));
+            }
+            result.put("method", json.optString("method", "timestamp"));
+            result.put("measuredAt", measuredAt);
+            result.put("cached", true);
+            return result;
+        } catch (JSONException e) {
+            Log.e(TAG, "Dropping unreadable calibration: " + e.getMessage());
+            prefs.edit().remove(cacheKey(address, routeType)).apply();
+            return null;
+        }
+    }
+
+    public void invalidate(String address) {
+        SharedPreferences.Editor editor = prefs.edit();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(address + "|")) {
+                editor.remove(key);
+            }
+        }
+        editor.apply();
+    }
+
+    // Runs off the main thread; the callback is delivered on the main thread.
+    // Loopback requires RECORD_AUDIO, which the caller is responsible for checking.
+    public void calibrate(String address, String routeType, boolean withLoopback, Callback callback) {
+        executor.execute(() -> {
+            AudioAttributes attributes = attributesFor(routeType);
+            double outputMs = measureOutputLatencyMs(attributes);
+            if (outputMs < 0) {
+                mainHandler.post(() -> callback.onError(
+                    "CALIBRATION_FAILED", "Output route did not report playback timestamps"));
+                return;
+            }
+
+            Double roundTripMs = null;
+            if (withLoopback && Build.VERSION.SDK_INT >= 24) {
+                double measured = measureRoundTripMs(attributes);
+                if (measured >= 0) {
+                    roundTripMs = measured;
+                }
+            }
+
+            long measuredAt = System.currentTimeMillis();
+            String method = roundTripMs != null ? "timestamp+loopback" : "timestamp";
+            try {
+                JSONObject json = new JSONObject();
+                json.put("outputLatencyMs", outputMs);
+                if (roundTripMs != null) {
+                    json.put("roundTripLatencyMs", roundTripMs);
+                }
+                json.put("method", method);
+                json.put("measuredAt", measuredAt);
+                prefs.edit().putString(cacheKey(address, routeType), json.toString()).apply();
+            } catch (JSONException e) {
+                Log.e(TAG, "Could not cache calibration: " + e.getMessage());
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("address", address);
+            result.put("routeType", routeType);
+            result.put("outputLatencyMs", outputMs);
+            result.put("roundTripLatencyMs", roundTripMs);
+            result.put("method", method);
+            result.put("measuredAt", measuredAt);
+            result.put("cached", false);
+            Log.d(TAG, "Calibrated " + routeType + ": " + result);
+            mainHandler.post(() -> callback.onCalibrated(result));
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Median of (presentation time of the last written frame - time it was written), in ms
+    private double measureOutputLatencyMs(AudioAttributes attributes) {
+        AudioTrack track = createTrack(attributes);
+        if (track == null) return -1;
+
+        short[] silence = new short[WRITE_FRAMES];
+        AudioTimestamp timestamp = new AudioTimestamp();
+        double[] samples = new double[256];
+        int sampleCount = 0;
+
+        try {
+            track.play();
+            long framesWritten = 0;
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < MEASURE_DURATION_NS && sampleCount < samples.length) {
+                int written = track.write(silence, 0, silence.length);
+                if (written <= 0) break;
+                long writtenAt = System.nanoTime();
+                framesWritten += written;
+
+                // The first timestamps after start can be stale; wait until frames are moving
+                if (track.getTimestamp(timestamp) && timestamp.framePosition > 0) {
+                    long presentedAt = timestamp.nanoTime
+                        + (framesWritten - timestamp.framePosition) * 1_000_000_000L / SAMPLE_RATE;
+                    samples[sampleCount++] = (presentedAt - writtenAt) / 1_000_000.0;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Output latency measurement failed: " + e.getMessage());
+            sampleCount = 0;
+        } finally {
+            stopAndRelease(track);
+        }
+
+        if (sampleCount == 0) return -1;
+        // Drop the first half while the pipeline fills, median of the rest
+        int from = sampleCount / 2;
+        double[] settled = Arrays.copyOfRange(samples, from, sampleCount);
+        Arrays.sort(settled);
+        return settled[settled.length / 2];
+    }
+
+    // Plays a pulse and finds it in a simultaneous recording. Both streams are mapped to
+    // CLOCK_MONOTONIC with their timestamps, so the result doesn't depend on start-up skew.
+    private double measureRoundTripMs(AudioAttributes attributes) {
+        int recordBuffer = AudioRecord.getMinBufferSize(
+            SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (recordBuffer <= 0) return -1;
+
+        AudioRecord record;
+        try {
+            record = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(recordBuffer, WRITE_FRAMES * 8));
+        } catch (Exception e) {
+            Log.e(TAG, "Loopback recorder unavailable: " + e.getMessage());
+            return -1;
+        }
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            return -1;
+        }
+        AudioTrack track = createTrack(attributes);
+        if (track == null) {
+            record.release();
+            return -1;
+        }
+
+        float[] pulse = PulseDelayEstimator.makePulse(SAMPLE_RATE, 2000.0f, 0.005f);
+        short[] pulseBlock = new short[WRITE_FRAMES];
+        for (int i = 0; i < pulse.length && i < pulseBlock.length; i++) {
+            pulseBlock[i] = (short) (pulse[i] * 0.7f * 32767.0f);
+        }
+        short[] silence = new short[WRITE_FRAMES];
+        short[] readBlock = new short[WRITE_FRAMES];
+        float[] recording = new float[(int) (SAMPLE_RATE * LOOPBACK_DURATION_NS / 1_000_000_000L) + WRITE_FRAMES];
+        int recorded = 0;
+
+        AudioTimestamp recordStamp = new AudioTimestamp();
+        boolean haveRecordStamp = false;
+        long pulseFrame = -1;
+        long pulseWrittenAt = 0;
+
+        try {
+            record.startRecording();
+            track.play();
+            long framesWritten = 0;
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < LOOPBACK_DURATION_NS && recorded + WRITE_FRAMES <= recording.length) {
+                boolean sendPulse = pulseFrame < 0 && System.nanoTime() - start > LOOPBACK_PRIME_NS;
+                int written = track.write(sendPulse ? pulseBlock : silence, 0, WRITE_FRAMES);
+                if (written <= 0) break;
+                if (sendPulse) {
+                    pulseFrame = framesWritten;
+                    pulseWrittenAt = System.nanoTime();
+                }
+                framesWritten += written;
+
+                int read = record.read(readBlock, 0, WRITE_FRAMES);
+                if (read < 0) break;
+                if (!haveRecordStamp && recorded > 0) {
+                    haveRecordStamp = record.getTimestamp(recordStamp, AudioTimestamp.TIMEBASE_MONOTONIC)
+                        == AudioRecord.SUCCESS;
+                }
+                for (int i = 0; i < read; i++) {
+                    recording[recorded++] = readBlock[i] / 32768.0f;
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Loopback measurement failed: " + e.getMessage());
+            return -1;
+        } finally {
+            stopAndRelease(track);
+            try {
+                record.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            record.release();
+        }
+
+        if (pulseFrame < 0 || !haveRecordStamp) return -1;
+
+        float[] confidence = new float[1];
+        int found = new PulseDelayEstimator(pulse).findPulse(recording, recorded, confidence);
+        if (found < 0) {
+            Log.d(TAG, "Loopback pulse not detected (confidence " + confidence[0] + ")");
+            return -1;
+        }
+
+        long capturedAt = recordStamp.nanoTime
+            + (found - recordStamp.framePosition) * 1_000_000_000L / SAMPLE_RATE;
+        double roundTripMs = (capturedAt - pulseWrittenAt) / 1_000_000.0;
+        return roundTripMs > 0 ? roundTripMs : -1;
+    }
+
+    private AudioTrack createTrack(AudioAttributes attributes) {
+        int bufferSize = AudioTrack.getMinBufferSize(
+            SAMPLE_RATE, AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (bufferSize <= 0) return null;
+
+        try {
+            AudioTrack track = new AudioTrack(attributes,
+                new AudioFormat.Builder()
+                    .setSampleRate(SAMPLE_RATE)
+                    .setChannelMask(AudioFormat.CHANNEL_OUT_MONO)
+                    .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                    .build(),
+                bufferSize, AudioTrack.MODE_STREAM, AudioManager.AUDIO_SESSION_ID_GENERATE);
+            if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+                track.release();
+                return null;
+            }
+            return track;
+        } catch (Exception e) {
+            Log.e(TAG, "Error creating calibration track: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void stopAndRelease(AudioTrack track) {
+        try {
+            track.stop();
+        } catch (IllegalStateException ignored) {
+        }
+        track.release();
+    }
+
+    // SCO only carries voice-communication streams; everything else is measured as media
+    private static AudioAttributes attributesFor(String routeType) {
+        boolean voice = AudioRoutingManager.ROUTE_SCO.equals(routeType);
+        return new AudioAttributes.Builder()
+            .setUsage(voice ? AudioAttributes.USAGE_VOICE_COMMUNICATION : AudioAttributes.USAGE_MEDIA)
+            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+            .build();
+    }
+
+    private static String cacheKey(String address, String routeType) {
+        return address + "|" + routeType;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.projects;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothProfile;
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+// Coordinated set (CSIP) membership of LE Audio devices, e.g. the two earbuds of one pair.
+//
+// BluetoothLeAudio.getGroupId(device) gives every member of a set the same group ID. It is
+// hidden on API 31/32 and public from 33, so it is looked up by reflection on the LE Audio
+// profile proxy; BluetoothLeAudio itself is not referenced to keep older SDKs loading.
+public class LeAudioGroups {
+    private static final String TAG = "LeAudioGroups";
+
+    // BluetoothLeAudio.GROUP_ID_INVALID
+    public static final int GROUP_ID_INVALID = -1;
+
+    private Method getGroupIdMethod;
+    private boolean lookupFailed = false;
+
+    // Group of device, or GROUP_ID_INVALID when it isn't in a set or LE Audio is unavailable
+    public int getGroupId(BluetoothProfile leAudioProxy, BluetoothDevice device) {
+        if (leAudioProxy == null || device == null || Build.VERSION.SDK_INT < 31) {
+            return GROUP_ID_INVALID;
+        }
+        Method method = resolve(leAudioProxy);
+        if (method == null) {
+            return GROUP_ID_INVALID;
+        }
+        try {
+            Object groupId = method.invoke(leAudioProxy, device);
+            return groupId instanceof Integer ? (Integer) groupId : GROUP_ID_INVALID;
+        } catch (Exception e) {
+            Log.w(TAG, "getGroupId failed: " + e.getMessage());
+            return GROUP_ID_INVALID;
+        }
+    }
+
+    // Connected members of device's set, device first. A device outside any set is its own
+    // one-member group, so callers can always fan out over the result.
+    public List<BluetoothDevice> getConnectedMembers(BluetoothProfile leAudioProxy, BluetoothDevice device) {
+        List<BluetoothDevice> members = new ArrayList<>();
+        members.add(device);
+        int groupId = getGroupId(leAudioProxy, device);
+        if (groupId == GROUP_ID_INVALID) {
+            return members;
+        }
+        try {
+            for (BluetoothDevice candidate : leAudioProxy.getConnectedDevices()) {
+                if (!candidate.getAddress().equals(device.getAddress())
+                        && getGroupId(leAudioProxy, candidate) == groupId) {
+                    members.add(candidate);
+                }
+            }
+        } catch (SecurityException e) {
+            Log.w(TAG, "Missing permission to list LE Audio devices: " + e.getMessage());
+        }
+        return members;
+    }
+
+    private synchronized Method resolve(BluetoothProfile leAudioProxy) {
+        if (getGroupIdMethod == null && !lookupFailed) {
+            try {
+                getGroupIdMethod = leAudioProxy.getClass().getMethod("getGroupId", BluetoothDevice.class);
+            } catch (NoSuchMethodException e) {
+                Log.w(TAG, "BluetoothLeAudio.getGroupId not available");
+                lookupFailed = true;
+            }
+        }
+        return getGroupIdMethod;
+    }
+}
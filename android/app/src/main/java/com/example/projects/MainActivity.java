@@ -2,6 +2,10 @@ package com.example.projects;
 
 import io.flutter.embedding.android.FlutterActivity;
 import io.flutter.embedding.engine.FlutterEngine;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import android.content.Intent;
 import android.provider.Settings;
@@ -11,10 +15,6 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.bluetooth.BluetoothHeadset;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
 // Remove both problematic imports
 // import android.bluetooth.BluetoothLeAudioCodecConfigMetadata;
 // import android.bluetooth.BluetoothLeAudio;
@@ -22,38 +22,59 @@ import android.bluetooth.le.ScanCallback;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.BroadcastReceiver;
 import android.content.IntentFilter;
+import android.content.ComponentName;
+import android.content.ServiceConnection;
 import android.media.AudioDeviceInfo;
 import android.media.AudioManager;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
+import android.os.Parcelable;
 import android.os.ParcelUuid;
 import android.content.pm.PackageManager;
 import android.Manifest;
 import android.util.Log;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import org.json.JSONObject;
-import org.json.JSONException;
 import android.widget.Toast;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.lang.reflect.Method;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import android.net.Uri;
 import androidx.core.content.FileProvider;
+import com.example.projects.device.DeviceMetadataCache;
+import com.example.projects.device.DeviceState;
+import com.example.projects.export.ExportCache;
+import com.example.projects.history.HistoryQuery;
+import com.example.projects.trace.TraceLog;
+import com.example.projects.transfer.DataMessages;
+import com.example.projects.transfer.GattPort;
+import com.example.projects.transfer.LinkQuality;
+import com.example.projects.transfer.MessageAssembler;
+import com.example.projects.transfer.PresetSlotSync;
+import com.example.projects.transfer.PresetSlots;
+import com.example.projects.transfer.StreamingWriter;
 
 // Import LE Audio classes conditionally for Android 12+
 // This is a workaround for the build error
@@ -78,26 +99,104 @@ public class MainActivity extends FlutterActivity {
     private static final String SETTINGS_CHANNEL = "com.headphonemobileapp/settings";
     private static final String BT_CHANNEL = "com.headphonemobileapp/bluetooth";
     private static final String BLE_DATA_CHANNEL = "com.headphonemobileapp/ble_data";
+    private static final String BLE_DATA_BINARY_CHANNEL = "com.headphonemobileapp/ble_data_binary";
+    private static final String BLE_INBOUND_CHANNEL = "com.headphonemobileapp/ble_inbound";
     private static final String BT_FILE_CHANNEL = "com.headphonemobileapp/bt_file";
+    private static final String HEARING_AID_CHANNEL = "com.headphonemobileapp/hearing_aid";
+    private static final String HISTORY_CHANNEL = "com.headphonemobileapp/history";
     private static final int REQUEST_BLUETOOTH_PERMISSIONS = 1;
+    private static final int REQUEST_RECORD_AUDIO_PERMISSION = 2;
     
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothLeScanner bluetoothLeScanner;
     private boolean isScanning = false;
     private Handler scanHandler = new Handler(Looper.getMainLooper());
-    private Map<String, BluetoothDevice> scannedDevices = new HashMap<>();
-    private BluetoothDevice connectedDevice = null;
+    // Connected device and scan results, shared with broadcast and scan callbacks
+    private final DeviceState<BluetoothDevice> deviceState = new DeviceState<>();
     private BluetoothHeadset bluetoothHeadset; // BluetoothHeadset proxy
+    private MethodChannel btChannel;
+    // Names, types and profiles by address, so lookups don't query the Bluetooth service.
+    // Kept current by the broadcasts below; the TTL only bounds what we might have missed.
+    private static final long DEVICE_METADATA_TTL_MS = 5 * 60 * 1000L;
+    private final DeviceMetadataCache deviceMetadata = new DeviceMetadataCache(DEVICE_METADATA_TTL_MS);
     
-    // BLE Data transmission stuff
-    private Executor bgExecutor = Executors.newSingleThreadExecutor();
+    // BLE Data transmission stuff: one session (GATT link, op queue, battery cache) per device,
+    // held by BluetoothSyncService so links survive the activity
     private Handler mainHandler = new Handler(Looper.getMainLooper());
-    private Random random = new Random();
+    private BluetoothSyncService syncService;
+    private final ServiceConnection syncServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            syncService = ((BluetoothSyncService.LocalBinder) binder).getService();
+        }
+        
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            syncService = null;
+        }
+    };
+    // Waits on multi-device writes so no session queue is held up by another device
+    private final Executor fanOutExecutor = Executors.newSingleThreadExecutor();
+    private static final long GATT_CONNECT_TIMEOUT_MS = BluetoothSyncService.GATT_CONNECT_TIMEOUT_MS;
+    private static final long GATT_WRITE_TIMEOUT_MS = BluetoothSyncService.GATT_WRITE_TIMEOUT_MS;
+    
+    // File export: writes happen off the main thread, records are pulled from Flutter in pages
+    private static final int EXPORT_PAGE_SIZE = 50;
+    private final Executor fileExecutor = Executors.newSingleThreadExecutor();
+    private MethodChannel btFileChannel;
+    private StreamingExporter streamingExporter;
+    private static final long EXPORT_CACHE_MAX_BYTES = 20L * 1024 * 1024;
+    private static final long EXPORT_CACHE_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    private ExportCache exportCache;
+    
+    // Hearing test and preset history in SQLite; every query and write runs on storeExecutor
+    private static final int HISTORY_PAGE_SIZE = 50;
+    private final Executor storeExecutor = Executors.newSingleThreadExecutor();
+    private HistoryStore historyStore;
     
     // UUID for BLE characteristics we'll use for JSON transfer (standard UUIDs)
     private static final UUID HEARING_TEST_CHAR_UUID = UUID.fromString("00002A1C-0000-1000-8000-00805f9b34fb");
     private static final UUID PRESET_CHAR_UUID = UUID.fromString("00002A1D-0000-1000-8000-00805f9b34fb");
     private static final UUID COMBINED_DATA_CHAR_UUID = UUID.fromString("00002A1E-0000-1000-8000-00805f9b34fb");
+    private static final long PAYLOAD_TIMEOUT_MS = BluetoothSyncService.PAYLOAD_TIMEOUT_MS;
+    // The headset reports presets, usage statistics and measurements on its data characteristics
+    private static final List<UUID> DATA_CHAR_UUIDS =
+        Arrays.asList(HEARING_TEST_CHAR_UUID, PRESET_CHAR_UUID, COMBINED_DATA_CHAR_UUID);
+    
+    // Device of the last data write, so writes queued after a disconnect still have an address
+    private volatile String lastDataDeviceAddress;
+    
+    // Binary twin of BLE_DATA_CHANNEL for payload writes and notifications, see DataMessages
+    private BasicMessageChannel<ByteBuffer> bleDataBinaryChannel;
+    // Characteristics whose notifications Flutter subscribed to over the binary channel
+    private final Set<UUID> forwardedNotifications = ConcurrentHashMap.newKeySet();
+    private final GattPort.Listener notificationForwarder = new GattPort.Listener() {
+        @Override
+        public void onWriteComplete(UUID characteristic, int status) {
+        }
+        
+        @Override
+        public void onNotification(UUID characteristic, byte[] value) {
+            if (!forwardedNotifications.contains(characteristic)) {
+                return;
+            }
+            ByteBuffer message = DataMessages.notification(DataMessages.characteristicId(characteristic), value);
+            mainHandler.post(() -> {
+                BasicMessageChannel<ByteBuffer> channel = bleDataBinaryChannel;
+                if (channel != null) {
+                    channel.send(message);
+                }
+            });
+        }
+        
+        @Override
+        public void onDisconnected() {
+        }
+    };
+    
+    // Flutter's listener on BLE_INBOUND_CHANNEL for reassembled headset messages; null when
+    // nobody listens
+    private volatile EventChannel.EventSink inboundEvents;
     
     // Audio-specific profile constants
     private static final int A2DP_PROFILE = BluetoothProfile.A2DP;
@@ -125,6 +224,16 @@ public class MainActivity extends FlutterActivity {
     // Track Bluetooth profile proxies
     private BluetoothProfile leAudioProxy = null;
     private BluetoothProfile a2dpProxy = null;
+    private final LeAudioGroups leAudioGroups = new LeAudioGroups();
+
+    // Microphone -> noise reduction -> headset pipeline for hearing aid mode
+    private HearingAidEngine hearingAidEngine;
+
+    // Settles audio output on the headset before tones are played
+    private AudioRoutingManager audioRoutingManager;
+
+    // Per-device, per-route output latency measurements
+    private LatencyCalibrator latencyCalibrator;
 
     @Override
     public void configureFlutterEngine(FlutterEngine flutterEngine) {
@@ -133,32 +242,43 @@ public class MainActivity extends FlutterActivity {
         // Initialize Bluetooth adapter
         BluetoothManager bluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         bluetoothAdapter = bluetoothManager.getAdapter();
+        // Sessions live in the service; it outlives this activity while a device is connected
+        bindService(new Intent(this, BluetoothSyncService.class), syncServiceConnection, Context.BIND_AUTO_CREATE);
         
         // Register for Bluetooth state changes
         IntentFilter filter = new IntentFilter();
         filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
         filter.addAction(BluetoothDevice.ACTION_ACL_CONNECTED);
         filter.addAction(BluetoothDevice.ACTION_ACL_DISCONNECTED);
+        filter.addAction(BluetoothDevice.ACTION_NAME_CHANGED);
+        filter.addAction(BluetoothDevice.ACTION_UUID);
         registerReceiver(bluetoothStateReceiver, filter);
         
         // Settings channel
         new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), SETTINGS_CHANNEL)
-            .setMethodCallHandler(
+            .setMethodCallHandler(Tracing.traced(TraceLog.CHANNEL_SETTINGS,
                 (call, result) -> {
                     if (call.method.equals("openBluetoothSettings")) {
                         openBluetoothSettings();
                         result.success(null);
                     } else if (call.method.equals("getDeviceModel")) {
                         result.success(getDeviceModel());
+                    } else if (call.method.equals("dumpTraceEvents")) {
+                        // Binary event ring for field diagnostics, format in TraceLog
+                        result.success(Tracing.EVENTS.dump());
+                    } else if (call.method.equals("clearTraceEvents")) {
+                        Tracing.EVENTS.clear();
+                        result.success(null);
                     } else {
                         result.notImplemented();
                     }
                 }
-            );
+            ));
         
         // Bluetooth channel with expanded LE Audio support
-        new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), BT_CHANNEL)
-            .setMethodCallHandler(
+        btChannel = new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), BT_CHANNEL);
+        btChannel
+            .setMethodCallHandler(Tracing.traced(TraceLog.CHANNEL_BLUETOOTH,
                 (call, result) -> {
                     switch (call.method) {
                         case "isBluetoothEnabled":
@@ -200,8 +320,17 @@ public class MainActivity extends FlutterActivity {
                             result.success(isLEAudioConnected());
                             break;
                         case "forceAudioRoutingToBluetooth":
-                            forceAudioRoutingToBluetooth();
-                            result.success(null);
+                            forceAudioRoutingToBluetooth(result);
+                            break;
+                        case "getAudioRoute":
+                            result.success(audioRoutingManager != null ? audioRoutingManager.getCurrentRoute() : null);
+                            break;
+                        case "calibrateOutputLatency":
+                            Boolean loopback = call.argument("loopback");
+                            calibrateOutputLatency(loopback != null && loopback, result);
+                            break;
+                        case "getCalibratedLatency":
+                            result.success(getLatencyCalibrator().getCached(getCalibrationAddress(), getCalibrationRouteType()));
                             break;
                         case "getBtConnectionType":
                             result.success(getBluetoothConnectionType());
@@ -219,16 +348,20 @@ public class MainActivity extends FlutterActivity {
                         case "retryGetBatteryLevel":
                             retryGetBatteryLevel(result);
                             break;
+                        case "getLeAudioGroup":
+                            // Connected members of the device's coordinated set (both earbuds)
+                            result.success(getLeAudioGroupAsMap(call.argument("deviceId")));
+                            break;
                         default:
                             result.notImplemented();
                             break;
                     }
                 }
-            );
+            ));
             
         // Add BLE Data channel for JSON transmission
         new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), BLE_DATA_CHANNEL)
-            .setMethodCallHandler(
+            .setMethodCallHandler(Tracing.traced(TraceLog.CHANNEL_BLE_DATA,
                 (call, result) -> {
                     switch (call.method) {
                         case "writeCharacteristic":
@@ -242,20 +375,180 @@ public class MainActivity extends FlutterActivity {
                                 result.error("INVALID_ARGUMENTS", "Missing characteristicUuid or data", null);
                             }
                             break;
+                        case "writePayload":
+                            String payloadUuid = call.argument("characteristicUuid");
+                            byte[] payload = call.argument("data");
+                            Boolean compress = call.argument("compress");
+                            
+                            if (payloadUuid != null && payload != null) {
+                                handleWritePayload(payloadUuid, payload, compress == null || compress, result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing characteristicUuid or data", null);
+                            }
+                            break;
+                        case "writePayloadToDevices":
+                            List<String> deviceIds = call.argument("deviceIds");
+                            String groupUuid = call.argument("characteristicUuid");
+                            byte[] groupPayload = call.argument("data");
+                            Boolean groupCompress = call.argument("compress");
+                            
+                            if (deviceIds != null && !deviceIds.isEmpty() && groupUuid != null && groupPayload != null) {
+                                handleWritePayloadToDevices(deviceIds, groupUuid, groupPayload,
+                                    groupCompress == null || groupCompress, result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing deviceIds, characteristicUuid or data", null);
+                            }
+                            break;
+                        case "writePayloadToGroup":
+                            String memberId = call.argument("deviceId");
+                            String memberUuid = call.argument("characteristicUuid");
+                            byte[] memberPayload = call.argument("data");
+                            Boolean memberCompress = call.argument("compress");
+                            
+                            if (memberUuid != null && memberPayload != null) {
+                                handleWritePayloadToGroup(memberId, memberUuid, memberPayload,
+                                    memberCompress == null || memberCompress, result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing characteristicUuid or data", null);
+                            }
+                            break;
+                        case "syncPresetSlots":
+                            List<Map<String, Object>> slotItems = call.argument("items");
+                            String activateId = call.argument("activateId");
+                            
+                            if (slotItems != null) {
+                                handleSyncPresetSlots(slotItems, activateId, result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing items", null);
+                            }
+                            break;
+                        case "activatePresetSlot":
+                            Integer slot = call.argument("slot");
+                            
+                            if (slot != null && slot >= 0 && slot < PresetSlots.NO_SLOT) {
+                                handleActivatePresetSlot(slot, result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing or bad slot", null);
+                            }
+                            break;
+                        case "updateFirmware":
+                            String imagePath = call.argument("path");
+                            
+                            if (imagePath != null) {
+                                handleUpdateFirmware(new File(imagePath), result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing path", null);
+                            }
+                            break;
+                        case "queuePayload":
+                            String queuedUuid = call.argument("characteristicUuid");
+                            byte[] queuedPayload = call.argument("data");
+                            Boolean queuedCompress = call.argument("compress");
+                            
+                            if (queuedUuid != null && queuedPayload != null) {
+                                handleQueuePayload(call.argument("deviceId"), queuedUuid, queuedPayload,
+                                    queuedCompress == null || queuedCompress, result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing characteristicUuid or data", null);
+                            }
+                            break;
+                        case "getSessions":
+                            // Devices with an open session: link state, last transfer, cached battery
+                            result.success(getSessionsAsMap());
+                            break;
                         case "isGattReady":
-                            // Simulate GATT service discovery
-                            result.success(true);
+                            // Data link up and the headset's data characteristics discovered
+                            handleIsGattReady(result);
+                            break;
+                        case "getLinkParameters":
+                            // PHY, connection interval and priority granted for the data link
+                            result.success(getLinkParameters());
+                            break;
+                        case "getLinkQuality":
+                            Integer maxChunkSize = call.argument("maxChunkSize");
+                            result.success(getLinkQuality(maxChunkSize != null ? maxChunkSize : 512));
                             break;
                         default:
                             result.notImplemented();
                             break;
                     }
                 }
-            );
+            ));
+            
+        // Same writes as binary messages: a 4 byte header instead of an argument map, and the
+        // value read straight out of the engine's buffer
+        bleDataBinaryChannel = new BasicMessageChannel<>(
+            flutterEngine.getDartExecutor().getBinaryMessenger(), BLE_DATA_BINARY_CHANNEL, BinaryCodec.INSTANCE_DIRECT);
+        bleDataBinaryChannel.setMessageHandler(this::handleBinaryMessage);
+        
+        // Complete messages the headset sent, reassembled from its notifications
+        new EventChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), BLE_INBOUND_CHANNEL)
+            .setStreamHandler(new EventChannel.StreamHandler() {
+                @Override
+                public void onListen(Object arguments, EventChannel.EventSink events) {
+                    inboundEvents = events;
+                    DeviceSession session = getActiveSession();
+                    if (session != null) {
+                        startInbound(session);
+                    }
+                }
+                
+                @Override
+                public void onCancel(Object arguments) {
+                    inboundEvents = null;
+                }
+            });
             
+        // History store channel: indexed, paged hearing test and preset history
+        new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), HISTORY_CHANNEL)
+            .setMethodCallHandler(Tracing.traced(TraceLog.CHANNEL_HISTORY,
+                (call, result) -> {
+                    String kind = call.argument("kind");
+                    if (kind == null) {
+                        result.error("INVALID_ARGUMENTS", "Missing kind", null);
+                        return;
+                    }
+                    switch (call.method) {
+                        case "putRecords":
+                            List<Map<String, Object>> records = call.argument("records");
+                            boolean replaceAll = Boolean.TRUE.equals(call.argument("replace"));
+                            if (records != null) {
+                                runHistoryOperation(result,
+                                    () -> getHistoryStore().putRecords(kind, records, replaceAll));
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing records", null);
+                            }
+                            break;
+                        case "deleteRecords":
+                            List<String> ids = call.argument("ids");
+                            if (ids != null) {
+                                runHistoryOperation(result, () -> getHistoryStore().deleteRecords(kind, ids));
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing ids", null);
+                            }
+                            break;
+                        case "queryRecords":
+                            Integer limit = call.argument("limit");
+                            HistoryQuery pageQuery = buildHistoryQuery(kind, call);
+                            String cursor = call.argument("cursor");
+                            runHistoryOperation(result, () -> getHistoryStore().queryPage(
+                                pageQuery.after(cursor), limit != null ? limit : HISTORY_PAGE_SIZE));
+                            break;
+                        case "countRecords":
+                            HistoryQuery countQuery = buildHistoryQuery(kind, call);
+                            runHistoryOperation(result, () -> getHistoryStore().count(countQuery));
+                            break;
+                        default:
+                            result.notImplemented();
+                            break;
+                    }
+                }
+            ));
+        
         // Add Bluetooth File Transfer channel
-        new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), BT_FILE_CHANNEL)
-            .setMethodCallHandler(
+        btFileChannel = new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), BT_FILE_CHANNEL);
+        btFileChannel
+            .setMethodCallHandler(Tracing.traced(TraceLog.CHANNEL_BT_FILE,
                 (call, result) -> {
                     switch (call.method) {
                         case "sendFile":
@@ -268,16 +561,95 @@ public class MainActivity extends FlutterActivity {
                                 result.error("INVALID_ARGUMENTS", "Missing jsonData or fileName", null);
                             }
                             break;
+                        case "exportHistory":
+                            String exportName = call.argument("fileName");
+                            Boolean gzip = call.argument("gzip");
+                            Integer pageSize = call.argument("pageSize");
+                            
+                            if (exportName != null) {
+                                exportHistoryViaBluetooth(
+                                    exportName,
+                                    gzip != null && gzip,
+                                    pageSize != null && pageSize > 0 ? pageSize : EXPORT_PAGE_SIZE,
+                                    result);
+                            } else {
+                                result.error("INVALID_ARGUMENTS", "Missing fileName", null);
+                            }
+                            break;
                         default:
                             result.notImplemented();
                             break;
                     }
                 }
-            );
+            ));
             
+        // Hearing aid channel, driven by the preset noise flags
+        new MethodChannel(flutterEngine.getDartExecutor().getBinaryMessenger(), HEARING_AID_CHANNEL)
+            .setMethodCallHandler(Tracing.traced(TraceLog.CHANNEL_HEARING_AID,
+                (call, result) -> {
+                    switch (call.method) {
+                        case "startHearingAid":
+                            if (!hasRecordAudioPermission()) {
+                                ActivityCompat.requestPermissions(
+                                    this,
+                                    new String[]{Manifest.permission.RECORD_AUDIO},
+                                    REQUEST_RECORD_AUDIO_PERMISSION
+                                );
+                                result.error("PERMISSION_DENIED", "Microphone permission not granted", null);
+                                break;
+                            }
+                            applyNoiseFlags(call.arguments());
+                            if (hearingAidEngine.start()) {
+                                result.success(true);
+                            } else {
+                                result.error("AUDIO_ERROR", "Could not open microphone or audio output", null);
+                            }
+                            break;
+                        case "updateNoiseFlags":
+                            applyNoiseFlags(call.arguments());
+                            result.success(null);
+                            break;
+                        case "stopHearingAid":
+                            // Nothing to stop before Flutter has set noise flags
+                            if (hearingAidEngine == null) {
+                                result.success(false);
+                                break;
+                            }
+                            hearingAidEngine.stop();
+                            result.success(true);
+                            break;
+                        case "getProcessingStats":
+                            result.success(hearingAidEngine != null
+                                ? hearingAidEngine.getStats() : new HashMap<String, Object>());
+                            break;
+                        default:
+                            result.notImplemented();
+                            break;
+                    }
+                }
+            ));
+
         // Initialize profile proxies for LE Audio and A2DP
         initAudioProxies();
     }
+
+    // Flags use the same keys as the preset data so Dart can pass presetData straight through
+    private void applyNoiseFlags(Map<String, Object> flags) {
+        if (hearingAidEngine == null) {
+            hearingAidEngine = new HearingAidEngine(this);
+        }
+        if (flags == null) return;
+
+        hearingAidEngine.setFlags(
+            Boolean.TRUE.equals(flags.get("reduce_background_noise")),
+            Boolean.TRUE.equals(flags.get("reduce_wind_noise")),
+            Boolean.TRUE.equals(flags.get("soften_sudden_noise"))
+        );
+    }
+
+    private boolean hasRecordAudioPermission() {
+        return ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) == PackageManager.PERMISSION_GRANTED;
+    }
     
     private void handleWriteCharacteristic(
         String characteristicUuid, 
@@ -285,61 +657,603 @@ public class MainActivity extends FlutterActivity {
         boolean withoutResponse,
         MethodChannel.Result result
     ) {
-        // Perform the write operation in a background thread to simulate network operation
-        bgExecutor.execute(() -> {
+        final UUID uuid;
+        try {
+            uuid = UUID.fromString(characteristicUuid);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_ARGUMENTS", "Bad characteristic UUID: " + characteristicUuid, null);
+            return;
+        }
+        handleWriteCharacteristic(uuid, data, withoutResponse, result);
+    }
+    
+    private void handleWriteCharacteristic(UUID uuid, byte[] data, boolean withoutResponse, MethodChannel.Result result) {
+        BluetoothSyncService service = requireSyncService(result);
+        if (service == null) {
+            return;
+        }
+        DeviceSession session = getActiveSession(service);
+        if (session == null) {
+            result.error("NOT_CONNECTED", "No device connected", null);
+            return;
+        }
+        
+        // GATT writes block until the stack confirms them, so they run on the device's own queue
+        session.execute(() -> {
             try {
-                // Log the data being sent for debugging
-                String jsonString = new String(data, "UTF-8");
-                Log.d("MainActivity", "Writing to characteristic: " + characteristicUuid);
-                Log.d("MainActivity", "Data length: " + data.length + " bytes");
+                if (!session.connect(GATT_CONNECT_TIMEOUT_MS)) {
+                    mainHandler.post(() -> result.error("GATT_NOT_READY", "Data link could not be established", null));
+                    return;
+                }
                 
-                // Create a JSON object from the data for logging purposes
-                try {
-                    JSONObject jsonObject = new JSONObject(jsonString);
-                    final String dataType; // Make it explicitly final
-                    
-                    if (characteristicUuid.contains("2A1C")) {
-                        dataType = "Hearing Test";
-                    } else if (characteristicUuid.contains("2A1D")) {
-                        dataType = "Preset";
-                    } else if (characteristicUuid.contains("2A1E")) {
-                        dataType = "Combined";
-                    } else {
-                        dataType = "Unknown";
+                int status = session.write(uuid, data, !withoutResponse, GATT_WRITE_TIMEOUT_MS);
+                if (status == GattPort.STATUS_SUCCESS) {
+                    if (!withoutResponse) {
+                        // A whole value or the last chunk arrived; anything queued for it is stale
+                        service.discardQueued(session.getAddress(), uuid);
                     }
-                    
-                    // Log data type and size
-                    Log.i("MainActivity", "Sent " + dataType + " data (" + data.length + " bytes)");
-                    
-                    // Simulate network delay
-                    long delay = 50 + random.nextInt(150);
-                    Thread.sleep(delay);
-                    
-                    // Show toast on UI thread for demonstration
-                    mainHandler.post(() -> {
-                        Toast.makeText(
-                            getApplicationContext(),
-                            "Sent " + dataType + " data (" + data.length + " bytes)",
-                            Toast.LENGTH_SHORT
-                        ).show();
-                    });
-                } catch (JSONException e) {
-                    Log.e("MainActivity", "Invalid JSON: " + e.getMessage());
+                    mainHandler.post(() -> result.success(true));
+                } else {
+                    Log.w("MainActivity", "Write to " + uuid + " failed: " + GattPort.describe(status));
+                    mainHandler.post(() -> result.error("WRITE_ERROR", "Failed to write: " + GattPort.describe(status), null));
                 }
-                
-                // Return success on main thread
-                mainHandler.post(() -> {
-                    result.success(true);
-                });
-            } catch (Exception e) {
-                Log.e("MainActivity", "Error writing characteristic: " + e.getMessage());
-                mainHandler.post(() -> {
-                    result.error("WRITE_ERROR", "Failed to write: " + e.getMessage(), null);
-                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mainHandler.post(() -> result.error("WRITE_ERROR", "Write interrupted", null));
+            }
+        }, disconnected(result));
+    }
+    
+    // Streams a whole payload as CRC-checked frames; the headset NACKs what it missed
+    private void handleWritePayload(String characteristicUuid, byte[] data, boolean compress, MethodChannel.Result result) {
+        final UUID uuid;
+        try {
+            uuid = UUID.fromString(characteristicUuid);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_ARGUMENTS", "Bad characteristic UUID: " + characteristicUuid, null);
+            return;
+        }
+        handleWritePayload(uuid, data, compress, result);
+    }
+    
+    private void handleWritePayload(UUID uuid, byte[] data, boolean compress, MethodChannel.Result result) {
+        BluetoothSyncService service = requireSyncService(result);
+        if (service == null) {
+            return;
+        }
+        DeviceSession session = getActiveSession(service);
+        if (session == null) {
+            result.error("NOT_CONNECTED", "No device connected", null);
+            return;
+        }
+        MethodChannel.Result reply = answerOnce(result);
+        
+        // A newer payload for the same characteristic replaces this one, so it doesn't hold
+        // the GATT queue for a value the headset would overwrite anyway
+        session.executeLatest("payload:" + uuid, () -> {
+            Map<String, Object> outcome = service.deliverPayload(session, uuid, data, compress);
+            if (Boolean.TRUE.equals(outcome.get("success"))) {
+                mainHandler.post(() -> reply.success(outcome));
+            } else {
+                mainHandler.post(() -> reply.error((String) outcome.get("error"), (String) outcome.get("message"), null));
+            }
+        }, () -> mainHandler.post(() -> supersededError(session, reply, "Replaced by a newer payload")));
+    }
+    
+    // One message from BLE_DATA_BINARY_CHANNEL, answered through the same handlers as the
+    // method channel. Unknown ops get a null reply, which Flutter takes as "use the method channel".
+    private void handleBinaryMessage(ByteBuffer message, BasicMessageChannel.Reply<ByteBuffer> reply) {
+        MethodChannel.Result result = binaryResult(reply);
+        if (!DataMessages.isValid(message)) {
+            result.error("INVALID_ARGUMENTS", "Message shorter than its header", null);
+            return;
+        }
+        int op = DataMessages.op(message);
+        int flags = DataMessages.flags(message);
+        UUID uuid = DataMessages.characteristic(DataMessages.characteristicId(message));
+        Tracing.event(TraceLog.CHANNEL_CALL, TraceLog.CHANNEL_BLE_DATA_BINARY, op,
+            message.remaining() - DataMessages.HEADER_SIZE);
+        Tracing.begin("ble_data_binary");
+        try {
+            switch (op) {
+                case DataMessages.OP_WRITE:
+                    handleWriteCharacteristic(uuid, DataMessages.value(message),
+                        (flags & DataMessages.FLAG_WITHOUT_RESPONSE) != 0, result);
+                    break;
+                case DataMessages.OP_PAYLOAD:
+                    handleWritePayload(uuid, DataMessages.value(message),
+                        (flags & DataMessages.FLAG_COMPRESS) != 0, result);
+                    break;
+                case DataMessages.OP_SUBSCRIBE:
+                    handleSubscribe(uuid, (flags & DataMessages.FLAG_UNSUBSCRIBE) == 0, result);
+                    break;
+                default:
+                    result.notImplemented();
+                    break;
+            }
+        } finally {
+            Tracing.end();
+        }
+    }
+    
+    // Answers a binary message the way the method channel handlers answer their Result
+    private static MethodChannel.Result binaryResult(BasicMessageChannel.Reply<ByteBuffer> reply) {
+        return new MethodChannel.Result() {
+            @Override
+            public void success(Object value) {
+                reply.reply(DataMessages.reply(DataMessages.RESULT_OK, null));
+            }
+            
+            @Override
+            public void error(String code, String message, Object details) {
+                reply.reply(DataMessages.reply(DataMessages.result(code), message));
+            }
+            
+            @Override
+            public void notImplemented() {
+                reply.reply(null);
+            }
+        };
+    }
+    
+    // A task on DeviceSession.executeLatest can be superseded while it is running and still
+    // finish afterwards; whichever of the two answers first is the answer Flutter gets
+    private static MethodChannel.Result answerOnce(MethodChannel.Result result) {
+        AtomicBoolean answered = new AtomicBoolean();
+        return new MethodChannel.Result() {
+            @Override
+            public void success(Object value) {
+                if (answered.compareAndSet(false, true)) {
+                    result.success(value);
+                }
+            }
+            
+            @Override
+            public void error(String code, String message, Object details) {
+                if (answered.compareAndSet(false, true)) {
+                    result.error(code, message, details);
+                }
+            }
+            
+            @Override
+            public void notImplemented() {
+                if (answered.compareAndSet(false, true)) {
+                    result.notImplemented();
+                }
+            }
+        };
+    }
+    
+    // Subscribes to the session's data characteristics for BLE_INBOUND_CHANNEL
+    private void startInbound(DeviceSession session) {
+        String address = session.getAddress();
+        MessageAssembler.Sink sink = (characteristic, sessionId, buffer, length) -> {
+            Map<String, Object> message = new HashMap<>();
+            message.put("deviceId", address);
+            message.put("characteristicUuid", characteristic.toString());
+            message.put("session", sessionId);
+            message.put("data", Arrays.copyOf(buffer, length));
+            mainHandler.post(() -> {
+                EventChannel.EventSink events = inboundEvents;
+                if (events != null) {
+                    events.success(message);
+                }
+            });
+        };
+        
+        session.execute(() -> {
+            try {
+                if (!session.connect(GATT_CONNECT_TIMEOUT_MS)) {
+                    Log.w("MainActivity", "No data link to " + address + " for inbound messages");
+                    return;
+                }
+                List<UUID> enabled = session.enableInbound(DATA_CHAR_UUIDS, sink, GATT_WRITE_TIMEOUT_MS);
+                if (enabled.isEmpty()) {
+                    Log.w("MainActivity", "Device " + address + " notifies on none of its data characteristics");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, () -> Log.d("MainActivity", "Session for " + address + " closed before inbound started"));
+    }
+    
+    // Connects the data link if needed; answers whether the headset's data characteristics are there
+    private void handleIsGattReady(MethodChannel.Result result) {
+        DeviceSession session = getActiveSession();
+        if (session == null) {
+            result.success(false);
+            return;
+        }
+        
+        session.execute(() -> {
+            try {
+                boolean ready = session.connect(GATT_CONNECT_TIMEOUT_MS) && session.hasCharacteristics(DATA_CHAR_UUIDS);
+                mainHandler.post(() -> result.success(ready));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mainHandler.post(() -> result.success(false));
+            }
+        }, () -> mainHandler.post(() -> result.success(false)));
+    }
+    
+    // Starts or stops forwarding a characteristic's notifications over the binary channel
+    private void handleSubscribe(UUID uuid, boolean subscribe, MethodChannel.Result result) {
+        if (!subscribe) {
+            forwardedNotifications.remove(uuid);
+            result.success(true);
+            return;
+        }
+        DeviceSession session = getActiveSession();
+        if (session == null) {
+            result.error("NOT_CONNECTED", "No device connected", null);
+            return;
+        }
+        
+        session.execute(() -> {
+            try {
+                if (!session.connect(GATT_CONNECT_TIMEOUT_MS)) {
+                    mainHandler.post(() -> result.error("GATT_NOT_READY", "Data link could not be established", null));
+                    return;
+                }
+                BleDataLink link = session.getLink();
+                link.removeListener(notificationForwarder);
+                link.addListener(notificationForwarder);
+                int status = session.enableNotifications(uuid, GATT_WRITE_TIMEOUT_MS);
+                if (status == GattPort.STATUS_SUCCESS) {
+                    forwardedNotifications.add(uuid);
+                    mainHandler.post(() -> result.success(true));
+                } else {
+                    mainHandler.post(() -> result.error("WRITE_ERROR",
+                        "Failed to enable notifications: " + GattPort.describe(status), null));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mainHandler.post(() -> result.error("WRITE_ERROR", "Subscribe interrupted", null));
+            }
+        }, disconnected(result));
+    }
+    
+    // Streams the same payload to several devices at once, e.g. both earbuds of a set.
+    // Answers with {"success": all succeeded, "devices": {address: per-device result}}.
+    private void handleWritePayloadToDevices(List<String> deviceIds, String characteristicUuid, byte[] data,
+                                             boolean compress, MethodChannel.Result result) {
+        final UUID uuid;
+        try {
+            uuid = UUID.fromString(characteristicUuid);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_ARGUMENTS", "Bad characteristic UUID: " + characteristicUuid, null);
+            return;
+        }
+        
+        List<BluetoothDevice> devices = new ArrayList<>();
+        for (String address : deviceIds) {
+            if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+                result.error("INVALID_ARGUMENTS", "Bad device address: " + address, null);
+                return;
+            }
+            devices.add(bluetoothAdapter.getRemoteDevice(address));
+        }
+        fanOutPayload(devices, uuid, data, compress, new HashMap<>(), result);
+    }
+    
+    // Streams a payload to every connected member of a device's LE Audio coordinated set, so
+    // both earbuds get the same preset from one call. Answers like writePayloadToDevices,
+    // plus the "groupId" (-1 when the device isn't part of a set and is written alone).
+    private void handleWritePayloadToGroup(String deviceId, String characteristicUuid, byte[] data,
+                                           boolean compress, MethodChannel.Result result) {
+        final UUID uuid;
+        try {
+            uuid = UUID.fromString(characteristicUuid);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_ARGUMENTS", "Bad characteristic UUID: " + characteristicUuid, null);
+            return;
+        }
+        
+        BluetoothDevice device = resolveDevice(deviceId);
+        if (device == null) {
+            result.error("NOT_CONNECTED", "No device connected", null);
+            return;
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("groupId", leAudioGroups.getGroupId(leAudioProxy, device));
+        fanOutPayload(leAudioGroups.getConnectedMembers(leAudioProxy, device), uuid, data, compress, response, result);
+    }
+    
+    // Runs one framed transfer per device in parallel and completes result with the
+    // per-device outcomes added to response
+    private void fanOutPayload(List<BluetoothDevice> devices, UUID uuid, byte[] data, boolean compress,
+                               Map<String, Object> response, MethodChannel.Result result) {
+        BluetoothSyncService service = requireSyncService(result);
+        if (service == null) {
+            return;
+        }
+        List<DeviceSession> targets = new ArrayList<>();
+        for (BluetoothDevice device : devices) {
+            targets.add(service.openSession(device));
+        }
+        
+        fanOutExecutor.execute(() -> {
+            try {
+                Map<String, Map<String, Object>> outcomes = service.getSessionManager().runOnEach(
+                    targets, session -> service.deliverPayload(session, uuid, data, compress), PAYLOAD_TIMEOUT_MS);
+                boolean allSucceeded = true;
+                for (Map<String, Object> outcome : outcomes.values()) {
+                    allSucceeded &= Boolean.TRUE.equals(outcome.get("success"));
+                }
+                response.put("success", allSucceeded);
+                response.put("devices", outcomes);
+                mainHandler.post(() -> result.success(response));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mainHandler.post(() -> result.error("WRITE_ERROR", "Write interrupted", null));
+            }
+        });
+    }
+    
+    // Uploads the payloads the headset doesn't already hold into its preset slots, then
+    // optionally activates one of them, on every connected member of the current device's
+    // coordinated set. items are {"id", "kind", "data"}. Answers like writePayloadToGroup,
+    // each device with {"slots": {id: slot}, "uploaded", "skipped", "activeSlot"?}.
+    private void handleSyncPresetSlots(List<Map<String, Object>> items, String activateId, MethodChannel.Result result) {
+        List<PresetSlotSync.Item> slotItems = new ArrayList<>();
+        try {
+            for (Map<String, Object> item : items) {
+                Object id = item.get("id");
+                Object data = item.get("data");
+                if (!(id instanceof String) || !(data instanceof byte[])) {
+                    throw new IllegalArgumentException("Item needs id and data");
+                }
+                slotItems.add(new PresetSlotSync.Item((String) id, PresetSlots.kindOf((String) item.get("kind")), (byte[]) data));
+            }
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_ARGUMENTS", e.getMessage(), null);
+            return;
+        }
+        
+        BluetoothDevice device = deviceState.getConnected();
+        if (device == null) {
+            result.error("NOT_CONNECTED", "No device connected", null);
+            return;
+        }
+        
+        BluetoothSyncService service = requireSyncService(result);
+        if (service == null) {
+            return;
+        }
+        List<DeviceSession> targets = new ArrayList<>();
+        for (BluetoothDevice member : leAudioGroups.getConnectedMembers(leAudioProxy, device)) {
+            targets.add(service.openSession(member));
+        }
+        
+        fanOutExecutor.execute(() -> {
+            try {
+                Map<String, Map<String, Object>> outcomes = service.getSessionManager().runOnEach(
+                    targets, session -> service.syncPresetSlots(session, slotItems, activateId), PAYLOAD_TIMEOUT_MS);
+                boolean allSucceeded = true;
+                for (Map<String, Object> outcome : outcomes.values()) {
+                    allSucceeded &= Boolean.TRUE.equals(outcome.get("success"));
+                }
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", allSucceeded);
+                response.put("devices", outcomes);
+                mainHandler.post(() -> result.success(response));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mainHandler.post(() -> result.error("WRITE_ERROR", "Sync interrupted", null));
+            }
+        });
+    }
+    
+    // Switches the headset to a preset it already holds with a single one-byte write
+    private void handleActivatePresetSlot(int slot, MethodChannel.Result result) {
+        DeviceSession session = getActiveSession();
+        if (session == null) {
+            result.error("NOT_CONNECTED", "No device connected", null);
+            return;
+        }
+        MethodChannel.Result reply = answerOnce(result);
+        
+        // Only the slot picked last needs to reach the headset
+        session.executeLatest("activeSlot", () -> {
+            try {
+                if (!session.connect(GATT_CONNECT_TIMEOUT_MS)) {
+                    mainHandler.post(() -> reply.error("GATT_NOT_READY", "Data link could not be established", null));
+                    return;
+                }
+                if (!session.isPresetSlotsSupported()) {
+                    mainHandler.post(() -> reply.error("UNSUPPORTED", "Preset slots not supported by device", null));
+                    return;
+                }
+                int status = session.activatePresetSlot(slot, GATT_WRITE_TIMEOUT_MS);
+                if (status == GattPort.STATUS_SUCCESS) {
+                    mainHandler.post(() -> reply.success(true));
+                } else {
+                    mainHandler.post(() -> reply.error("WRITE_ERROR", "Failed to activate slot: " + GattPort.describe(status), null));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                mainHandler.post(() -> reply.error("WRITE_ERROR", "Write interrupted", null));
+            }
+        }, () -> mainHandler.post(() -> supersededError(session, reply, "Another slot was activated")));
+    }
+    
+    // Answer for a session task that never ran because the session closed first
+    private Runnable disconnected(MethodChannel.Result result) {
+        return () -> mainHandler.post(() -> result.error("NOT_CONNECTED", "Device disconnected", null));
+    }
+    
+    // Answer for an executeLatest task that never completed: replaced by a newer request,
+    // or dropped because the session closed
+    private static void supersededError(DeviceSession session, MethodChannel.Result result, String message) {
+        if (session.isClosed()) {
+            result.error("NOT_CONNECTED", "Device disconnected", null);
+        } else {
+            result.error("SUPERSEDED", message, null);
+        }
+    }
+    
+    // Updates the connected headset's firmware from an image file; the reply comes once the
+    // headset verified and activated it
+    private void handleUpdateFirmware(File image, MethodChannel.Result result) {
+        if (!image.isFile()) {
+            result.error("INVALID_ARGUMENTS", "No firmware image at " + image.getPath(), null);
+            return;
+        }
+        BluetoothSyncService service = requireSyncService(result);
+        if (service == null) {
+            return;
+        }
+        DeviceSession session = getActiveSession(service);
+        if (session == null) {
+            result.error("NOT_CONNECTED", "No device connected", null);
+            return;
+        }
+        
+        session.execute(() -> {
+            Map<String, Object> outcome = service.updateFirmware(session, image);
+            if (Boolean.TRUE.equals(outcome.get("success"))) {
+                mainHandler.post(() -> result.success(outcome));
+            } else {
+                mainHandler.post(() -> result.error((String) outcome.get("error"), (String) outcome.get("message"),
+                    outcome.get("confirmedBytes")));
+            }
+        }, disconnected(result));
+    }
+    
+    // Device named by the caller, or the connected device when no address is given
+    private BluetoothDevice resolveDevice(String deviceId) {
+        if (deviceId == null) {
+            return deviceState.getConnected();
+        }
+        return BluetoothAdapter.checkBluetoothAddress(deviceId) ? bluetoothAdapter.getRemoteDevice(deviceId) : null;
+    }
+    
+    // Coordinated set of a device: {"groupId": id or -1, "members": [{"id", "name"}]}
+    private Map<String, Object> getLeAudioGroupAsMap(String deviceId) {
+        BluetoothDevice device = resolveDevice(deviceId);
+        if (device == null) {
+            return null;
+        }
+        List<Map<String, Object>> members = new ArrayList<>();
+        for (BluetoothDevice member : leAudioGroups.getConnectedMembers(leAudioProxy, device)) {
+            Map<String, Object> memberMap = new HashMap<>();
+            memberMap.put("id", member.getAddress());
+            memberMap.put("name", member.getName() != null ? member.getName() : "Unknown Device");
+            members.add(memberMap);
+        }
+        Map<String, Object> group = new HashMap<>();
+        group.put("groupId", leAudioGroups.getGroupId(leAudioProxy, device));
+        group.put("members", members);
+        return group;
+    }
+    
+    // Keeps a payload the caller couldn't deliver, for replay when its device reconnects.
+    // deviceId defaults to the connected device, then to the device of the last data write.
+    private void handleQueuePayload(String deviceId, String characteristicUuid, byte[] data, boolean compress,
+                                    MethodChannel.Result result) {
+        final UUID uuid;
+        try {
+            uuid = UUID.fromString(characteristicUuid);
+        } catch (IllegalArgumentException e) {
+            result.error("INVALID_ARGUMENTS", "Bad characteristic UUID: " + characteristicUuid, null);
+            return;
+        }
+        
+        BluetoothDevice device = resolveDevice(deviceId);
+        String address = device != null ? device.getAddress() : deviceId == null ? lastDataDeviceAddress : null;
+        if (address == null) {
+            result.error("NOT_CONNECTED", "No device to queue the payload for", null);
+            return;
+        }
+        
+        BluetoothSyncService service = requireSyncService(result);
+        if (service == null) {
+            return;
+        }
+        
+        storeExecutor.execute(() -> {
+            try {
+                service.queuePayload(address, uuid, compress, data);
+                mainHandler.post(() -> result.success(true));
+            } catch (IOException e) {
+                mainHandler.post(() -> result.error("STORE_ERROR", e.getMessage(), null));
+                return;
+            }
+            // Still connected, e.g. the write failed on a busy link: try again right away
+            BluetoothDevice current = deviceState.getConnected();
+            if (current != null && current.getAddress().equals(address)) {
+                service.replayOutbox(current);
             }
         });
     }
     
+    // Session of the device the app currently talks to, or null when none is connected (or
+    // the sync service isn't bound yet)
+    private DeviceSession getActiveSession() {
+        BluetoothSyncService service = syncService;
+        return service != null ? getActiveSession(service) : null;
+    }
+    
+    private DeviceSession getActiveSession(BluetoothSyncService service) {
+        BluetoothDevice device = deviceState.getConnected();
+        if (device == null) {
+            return null;
+        }
+        lastDataDeviceAddress = device.getAddress();
+        return service.openSession(device);
+    }
+    
+    // Bound sync service, or null after answering result while the binding is still coming up
+    private BluetoothSyncService requireSyncService(MethodChannel.Result result) {
+        BluetoothSyncService service = syncService;
+        if (service == null) {
+            result.error("SERVICE_UNAVAILABLE", "Bluetooth service not bound yet", null);
+        }
+        return service;
+    }
+    
+    private List<Map<String, Object>> getSessionsAsMap() {
+        List<Map<String, Object>> sessions = new ArrayList<>();
+        BluetoothSyncService service = syncService;
+        if (service == null) {
+            return sessions;
+        }
+        for (DeviceSession session : service.getSessionManager().getSessions()) {
+            Map<String, Object> map = session.toMap();
+            map.put("name", session.getDevice().getName());
+            sessions.add(map);
+        }
+        return sessions;
+    }
+    
+    private Map<String, Object> getLinkParameters() {
+        BluetoothDevice device = deviceState.getConnected();
+        BluetoothSyncService service = syncService;
+        DeviceSession session = device != null && service != null ? service.getSessionManager().get(device.getAddress()) : null;
+        return session != null ? session.getLink().getLinkParameters() : null;
+    }
+    
+    // Score of the connected device's data link and the write settings it calls for, so
+    // chunked writes from Flutter size and pace themselves like the native transfers
+    private Map<String, Object> getLinkQuality(int maxChunkSize) {
+        BluetoothDevice device = deviceState.getConnected();
+        BluetoothSyncService service = syncService;
+        DeviceSession session = device != null && service != null ? service.getSessionManager().get(device.getAddress()) : null;
+        if (session == null || !session.getLink().isReady()) {
+            return null;
+        }
+        LinkQuality quality = session.getLinkQuality();
+        Map<String, Object> map = new HashMap<>();
+        map.put("score", quality.getScore());
+        map.put("tier", LinkQuality.tierName(quality.getTier()));
+        map.put("rssi", quality.getRssi());
+        map.put("chunkSize", quality.writeLength(maxChunkSize));
+        map.put("window", quality.window(StreamingWriter.DEFAULT_MAX_IN_FLIGHT));
+        map.put("retryDelayMs", quality.retryDelayMs(0));
+        return map;
+    }
+    
     private void initAudioProxies() {
         // Initialize LE Audio proxy if available (Android 12+)
         if (Build.VERSION.SDK_INT >= 31 && LE_AUDIO_PROFILE > 0) { // Android 12 is API 31
@@ -452,7 +1366,7 @@ public class MainActivity extends FlutterActivity {
     private void startBluetoothScan() {
         if (!isBluetoothEnabled() || isScanning) return;
         
-        scannedDevices.clear();
+        deviceState.clearScanResults();
         bluetoothLeScanner = bluetoothAdapter.getBluetoothLeScanner();
         
         if (bluetoothLeScanner == null) return;
@@ -485,19 +1399,13 @@ public class MainActivity extends FlutterActivity {
     private final ScanCallback scanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
-            BluetoothDevice device = result.getDevice();
-            if (device.getName() != null && !device.getName().isEmpty()) {
-                scannedDevices.put(device.getAddress(), device);
-            }
+            addScanResult(result);
         }
 
         @Override
         public void onBatchScanResults(List<ScanResult> results) {
             for (ScanResult result : results) {
-                BluetoothDevice device = result.getDevice();
-                if (device.getName() != null && !device.getName().isEmpty()) {
-                    scannedDevices.put(device.getAddress(), device);
-                }
+                addScanResult(result);
             }
         }
 
@@ -507,15 +1415,33 @@ public class MainActivity extends FlutterActivity {
         }
     };
     
+    // Keeps devices that advertise a name. The name comes from the scan record when it has
+    // one; the device itself is only asked the first time we see it.
+    private void addScanResult(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        String address = device.getAddress();
+        DeviceMetadataCache.Metadata metadata = deviceMetadata.get(address);
+        if (metadata == null || metadata.name == null) {
+            ScanRecord record = result.getScanRecord();
+            String name = record != null ? record.getDeviceName() : null;
+            metadata = deviceMetadata.update(address, name != null ? name : device.getName(), null,
+                metadata == null ? getDeviceType(device) : null, null, null);
+        }
+        if (metadata.name != null && !metadata.name.isEmpty()) {
+            deviceState.putScanResult(address, device);
+        }
+    }
+    
     // Get scanned devices as a map for Flutter
     private List<Map<String, Object>> getScannedDevicesAsMap() {
         List<Map<String, Object>> devicesList = new ArrayList<>();
         
-        for (BluetoothDevice device : scannedDevices.values()) {
+        for (BluetoothDevice device : deviceState.getScanResults()) {
+            DeviceMetadataCache.Metadata metadata = metadataFor(device);
             Map<String, Object> deviceMap = new HashMap<>();
             deviceMap.put("id", device.getAddress());
-            deviceMap.put("name", device.getName() != null ? device.getName() : "Unknown Device");
-            deviceMap.put("type", getDeviceTypeString(device.getType()));
+            deviceMap.put("name", displayName(metadata));
+            deviceMap.put("type", metadata.type);
             
             devicesList.add(deviceMap);
         }
@@ -523,18 +1449,47 @@ public class MainActivity extends FlutterActivity {
         return devicesList;
     }
     
-    // Get device type as string
-    private String getDeviceTypeString(int type) {
-        switch (type) {
-            case BluetoothDevice.DEVICE_TYPE_CLASSIC:
-                return "classic";
-            case BluetoothDevice.DEVICE_TYPE_LE:
-                return "le";
-            case BluetoothDevice.DEVICE_TYPE_DUAL:
-                return "dual";
-            default:
-                return "unknown";
+    // Cached metadata for device; the device itself is only read when the cache has none
+    private DeviceMetadataCache.Metadata metadataFor(BluetoothDevice device) {
+        DeviceMetadataCache.Metadata metadata = deviceMetadata.get(device.getAddress());
+        return metadata != null ? metadata : refreshMetadata(device, null);
+    }
+    
+    private DeviceMetadataCache.Metadata refreshMetadata(BluetoothDevice device, String audioType) {
+        String alias = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? device.getAlias() : null;
+        return deviceMetadata.update(device.getAddress(), device.getName(), alias, getDeviceType(device),
+            audioType, profilesOf(device.getUuids()));
+    }
+    
+    private static List<String> profilesOf(Parcelable[] uuids) {
+        if (uuids == null) {
+            return null;
+        }
+        List<UUID> serviceUuids = new ArrayList<>(uuids.length);
+        for (Parcelable uuid : uuids) {
+            if (uuid instanceof ParcelUuid) {
+                serviceUuids.add(((ParcelUuid) uuid).getUuid());
+            }
         }
+        return DeviceMetadataCache.profiles(serviceUuids);
+    }
+    
+    private static String displayName(DeviceMetadataCache.Metadata metadata) {
+        String name = metadata.displayName();
+        return name != null ? name : "Unknown Device";
+    }
+    
+    // Device map for Flutter from cached metadata; the audio type falls back to whatever
+    // audio route is up when we didn't find the device through a profile
+    private Map<String, Object> getDeviceMetadataAsMap(DeviceMetadataCache.Metadata metadata) {
+        Map<String, Object> deviceMap = new HashMap<>();
+        deviceMap.put("id", metadata.address);
+        deviceMap.put("name", displayName(metadata));
+        deviceMap.put("type", metadata.type);
+        deviceMap.put("audioType", metadata.audioType != null ? metadata.audioType : getBluetoothConnectionType());
+        deviceMap.put("profiles", metadata.profiles);
+        deviceMap.put("batteryLevel", null);
+        return deviceMap;
     }
     
     // Connect to device
@@ -544,7 +1499,7 @@ public class MainActivity extends FlutterActivity {
             return;
         }
         
-        BluetoothDevice device = scannedDevices.get(deviceId);
+        BluetoothDevice device = deviceState.getScanResult(deviceId);
         if (device == null) {
             // Try to get the device by address directly
             try {
@@ -561,7 +1516,7 @@ public class MainActivity extends FlutterActivity {
                 boolean bondStarted = device.createBond();
                 
                 if (bondStarted) {
-                    connectedDevice = device;
+                    deviceState.connect(device.getAddress(), device);
                     result.success(true);
                 } else {
                     result.error("CONNECTION_FAILED", "Could not initiate bonding", null);
@@ -576,7 +1531,8 @@ public class MainActivity extends FlutterActivity {
     
     // Disconnect current device
     private void disconnectDevice(MethodChannel.Result result) {
-        if (connectedDevice != null) {
+        BluetoothDevice device = deviceState.disconnect();
+        if (device != null) {
             try {
                 // For LE Audio, we can remove the bond
                 // For thorough disconnection, you might need to utilize profile proxies
@@ -584,7 +1540,10 @@ public class MainActivity extends FlutterActivity {
                 // Use BluetoothDevice.ACTION_ACL_DISCONNECTED to detect when fully disconnected
                 // This is handled in the BroadcastReceiver
                 
-                connectedDevice = null;
+                BluetoothSyncService service = syncService;
+                if (service != null) {
+                    service.closeSession(device.getAddress());
+                }
                 result.success(true);
             } catch (Exception e) {
                 result.error("DISCONNECT_ERROR", e.getMessage(), null);
@@ -596,88 +1555,75 @@ public class MainActivity extends FlutterActivity {
     
     // Get connected device as map
     private Map<String, Object> getConnectedDeviceAsMap() {
-        Log.d("MainActivity", "Getting connected device info");
-        
         // First check if we have already detected a connection
-        if (connectedDevice != null) {
-            Log.d("MainActivity", "Using cached connected device: " + connectedDevice.getName());
+        BluetoothDevice connected = deviceState.getConnected();
+        if (connected != null) {
             Map<String, Object> deviceMap = new HashMap<>();
-            deviceMap.put("id", connectedDevice.getAddress());
-            deviceMap.put("name", connectedDevice.getName() != null ? connectedDevice.getName() : "Unknown Device");
-            deviceMap.put("type", getDeviceType(connectedDevice));
+            DeviceMetadataCache.Metadata metadata = metadataFor(connected);
+            deviceMap.put("id", connected.getAddress());
+            deviceMap.put("name", displayName(metadata));
+            deviceMap.put("type", metadata.type);
             // Don't add mock battery level
             deviceMap.put("batteryLevel", null);
             return deviceMap;
         }
         
-        Log.d("MainActivity", "No cached device, checking profiles");
-        
         // Otherwise, check for connected audio devices through profiles
         
         // Check A2DP (Classic Bluetooth) connections
         if (a2dpProxy != null) {
             List<BluetoothDevice> a2dpDevices = a2dpProxy.getConnectedDevices();
-            Log.d("MainActivity", "A2DP devices found: " + a2dpDevices.size());
             if (!a2dpDevices.isEmpty()) {
-                connectedDevice = a2dpDevices.get(0);
-                Log.d("MainActivity", "Found A2DP device: " + connectedDevice.getName());
+                BluetoothDevice device = a2dpDevices.get(0);
+                device = deviceState.connectIfNone(device.getAddress(), device);
+                DeviceMetadataCache.Metadata metadata = rememberAudioType(device, "classic");
                 Map<String, Object> deviceMap = new HashMap<>();
-                deviceMap.put("id", connectedDevice.getAddress());
-                deviceMap.put("name", connectedDevice.getName() != null ? connectedDevice.getName() : "Unknown Device");
+                deviceMap.put("id", device.getAddress());
+                deviceMap.put("name", displayName(metadata));
                 deviceMap.put("type", "classic");
                 deviceMap.put("audioType", "classic");
                 // Don't add mock battery level
                 deviceMap.put("batteryLevel", null);
                 return deviceMap;
             }
-        } else {
-            Log.d("MainActivity", "A2DP proxy is null");
         }
         
         // Check LE Audio connections
         if (Build.VERSION.SDK_INT >= 31 && leAudioProxy != null) {
             List<BluetoothDevice> leAudioDevices = leAudioProxy.getConnectedDevices();
-            Log.d("MainActivity", "LE Audio devices found: " + leAudioDevices.size());
             if (!leAudioDevices.isEmpty()) {
-                connectedDevice = leAudioDevices.get(0);
-                Log.d("MainActivity", "Found LE Audio device: " + connectedDevice.getName());
+                BluetoothDevice device = leAudioDevices.get(0);
+                device = deviceState.connectIfNone(device.getAddress(), device);
+                DeviceMetadataCache.Metadata metadata = rememberAudioType(device, "le_audio");
                 Map<String, Object> deviceMap = new HashMap<>();
-                deviceMap.put("id", connectedDevice.getAddress());
-                deviceMap.put("name", connectedDevice.getName() != null ? connectedDevice.getName() : "Unknown Device");
+                deviceMap.put("id", device.getAddress());
+                deviceMap.put("name", displayName(metadata));
                 deviceMap.put("type", "le");
                 deviceMap.put("audioType", "le_audio");
                 // Don't add mock battery level
                 deviceMap.put("batteryLevel", null);
                 return deviceMap;
             }
-        } else {
-            Log.d("MainActivity", "LE Audio proxy is null or not supported on this Android version");
         }
         
         // Also check system audio routing
         AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         boolean isBluetoothAudioActive = audioManager.isBluetoothA2dpOn() || audioManager.isBluetoothScoOn();
-        Log.d("MainActivity", "Bluetooth audio active according to AudioManager: " + isBluetoothAudioActive);
         
         if (isBluetoothAudioActive) {
             // System reports Bluetooth audio is active, but we couldn't find the device through profiles
             // Try to get from bonded devices
             Set<BluetoothDevice> bondedDevices = bluetoothAdapter.getBondedDevices();
-            Log.d("MainActivity", "Number of bonded devices: " + bondedDevices.size());
-            
-            for (BluetoothDevice device : bondedDevices) {
-                // Log all bonded devices to help with debugging
-                Log.d("MainActivity", "Bonded device: " + device.getName() + " [" + device.getAddress() + "]");
-            }
             
             // As a fallback, use the first bonded device if audio is active
             if (!bondedDevices.isEmpty()) {
-                connectedDevice = bondedDevices.iterator().next();
-                Log.d("MainActivity", "Using first bonded device as fallback: " + connectedDevice.getName());
+                BluetoothDevice device = bondedDevices.iterator().next();
+                device = deviceState.connectIfNone(device.getAddress(), device);
+                DeviceMetadataCache.Metadata metadata = metadataFor(device);
                 Map<String, Object> deviceMap = new HashMap<>();
-                deviceMap.put("id", connectedDevice.getAddress());
-                deviceMap.put("name", connectedDevice.getName() != null ? connectedDevice.getName() : "Unknown Device");
-                deviceMap.put("type", getDeviceType(connectedDevice));
+                deviceMap.put("id", device.getAddress());
+                deviceMap.put("name", displayName(metadata));
+                deviceMap.put("type", metadata.type);
                 deviceMap.put("audioType", "classic"); // Assume classic as fallback
                 // Don't add mock battery level
                 deviceMap.put("batteryLevel", null);
@@ -685,10 +1631,20 @@ public class MainActivity extends FlutterActivity {
             }
         }
         
-        Log.d("MainActivity", "No connected Bluetooth audio device found");
         return null; // No device found
     }
     
+    private DeviceMetadataCache.Metadata rememberAudioType(BluetoothDevice device, String audioType) {
+        DeviceMetadataCache.Metadata metadata = deviceMetadata.get(device.getAddress());
+        if (metadata == null) {
+            return refreshMetadata(device, audioType);
+        }
+        if (!audioType.equals(metadata.audioType)) {
+            metadata = deviceMetadata.update(device.getAddress(), null, null, null, audioType, null);
+        }
+        return metadata;
+    }
+    
     // Open Bluetooth settings
     // In MainActivity.java
     private void openBluetoothSettings() {
@@ -716,9 +1672,45 @@ public class MainActivity extends FlutterActivity {
                 // Handle Bluetooth state changes
             } else if (BluetoothDevice.ACTION_ACL_CONNECTED.equals(action)) {
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                connectedDevice = device;
+                // BluetoothSyncService replays queued writes for it
+                if (device == null) {
+                    deviceState.disconnect();
+                } else {
+                    deviceState.connect(device.getAddress(), device);
+                    refreshMetadata(device, null);
+                    // Subscriptions end with the connection; renew them for a listening Flutter
+                    DeviceSession session = inboundEvents != null ? getActiveSession() : null;
+                    if (session != null) {
+                        startInbound(session);
+                    }
+                }
             } else if (BluetoothDevice.ACTION_ACL_DISCONNECTED.equals(action)) {
-                connectedDevice = null;
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                if (device == null) {
+                    deviceState.disconnect();
+                    return;
+                }
+                deviceMetadata.invalidate(device.getAddress());
+                // BluetoothSyncService closes the device's session; other devices keep theirs,
+                // and a device that connected since stays the connected one
+                deviceState.disconnect(device.getAddress());
+            } else if (BluetoothDevice.ACTION_NAME_CHANGED.equals(action)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                String name = intent.getStringExtra(BluetoothDevice.EXTRA_NAME);
+                if (device == null || name == null) {
+                    return;
+                }
+                DeviceMetadataCache.Metadata metadata = deviceMetadata.update(device.getAddress(), name, null, null, null, null);
+                // Flutter shows "Unknown Device" until a connected device's name resolves
+                if (btChannel != null && deviceState.isConnected(device.getAddress())) {
+                    btChannel.invokeMethod("deviceNameChanged", getDeviceMetadataAsMap(metadata));
+                }
+            } else if (BluetoothDevice.ACTION_UUID.equals(action)) {
+                BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+                List<String> profiles = profilesOf(intent.getParcelableArrayExtra(BluetoothDevice.EXTRA_UUID));
+                if (device != null && profiles != null) {
+                    deviceMetadata.update(device.getAddress(), null, null, null, null, profiles);
+                }
             }
         }
     };
@@ -783,91 +1775,81 @@ public class MainActivity extends FlutterActivity {
         }
     }
     
-    // Add method to retry getting device name
+    // Connected device from the metadata cache. A name that resolves later comes in as
+    // ACTION_NAME_CHANGED and is pushed to Flutter, so there is nothing to retry here; the
+    // bonded device list holds the same name getName() returns.
     private void retryGetDeviceName(MethodChannel.Result result) {
-        Log.d("MainActivity", "Retrying to get device name");
-        
-        if (connectedDevice != null) {
-            // Force refresh the name
-            String deviceName = connectedDevice.getName();
-            Log.d("MainActivity", "Retry getting name for device: " + deviceName);
-            
-            if (deviceName != null && !deviceName.equals("Unknown Device")) {
-                // We got a proper name now
-                Map<String, Object> deviceMap = new HashMap<>();
-                deviceMap.put("id", connectedDevice.getAddress());
-                deviceMap.put("name", deviceName);
-                deviceMap.put("type", getDeviceType(connectedDevice));
-                deviceMap.put("audioType", getBluetoothConnectionType());
-                deviceMap.put("batteryLevel", null);
-                
-                result.success(deviceMap);
-                return;
-            } else {
-                // Try to get from bonded devices by address
-                String address = connectedDevice.getAddress();
-                Set<BluetoothDevice> bondedDevices = bluetoothAdapter.getBondedDevices();
-                
-                for (BluetoothDevice device : bondedDevices) {
-                    if (device.getAddress().equals(address)) {
-                        String bondedName = device.getName();
-                        Log.d("MainActivity", "Found bonded device with matching address, name: " + bondedName);
-                        
-                        if (bondedName != null && !bondedName.isEmpty()) {
-                            Map<String, Object> deviceMap = new HashMap<>();
-                            deviceMap.put("id", address);
-                            deviceMap.put("name", bondedName);
-                            deviceMap.put("type", getDeviceType(device));
-                            deviceMap.put("audioType", getBluetoothConnectionType());
-                            deviceMap.put("batteryLevel", null);
-                            
-                            result.success(deviceMap);
-                            return;
-                        }
-                    }
-                }
-                
-                // Still no luck, try to get any connected device as a fallback
-                Map<String, Object> deviceMap = getConnectedDeviceAsMap();
-                result.success(deviceMap);
-                return;
-            }
+        BluetoothDevice device = deviceState.getConnected();
+        if (device != null) {
+            result.success(getDeviceMetadataAsMap(metadataFor(device)));
         } else {
             // No device connected, try to find any connected device
-            Map<String, Object> deviceMap = getConnectedDeviceAsMap();
-            result.success(deviceMap);
+            result.success(getConnectedDeviceAsMap());
         }
     }
     
-    // Force audio routing with support for both classic and LE Audio
-    private void forceAudioRoutingToBluetooth() {
-        AudioManager audioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-        
-        if (Build.VERSION.SDK_INT >= 31 && isLEAudioConnected()) { // Android 12 is API 31
-            try {
-                // For LE Audio on Android 12+, the system should handle routing automatically
-                // We can't force routing directly, but we can ensure the audio focus
-                audioManager.requestAudioFocus(null, AudioManager.STREAM_MUSIC, 
-                                              AudioManager.AUDIOFOCUS_GAIN);
-            } catch (Exception e) {
-                // LE Audio API not available or error
-                System.out.println("Error routing to LE Audio: " + e.getMessage());
+    // Route audio to the headset and answer Flutter only once the route has settled,
+    // so a hearing test never starts playing into the wrong output
+    private void forceAudioRoutingToBluetooth(MethodChannel.Result result) {
+        if (audioRoutingManager == null) {
+            audioRoutingManager = new AudioRoutingManager(this);
+        }
+
+        boolean hfpConnected = bluetoothHeadset != null && !bluetoothHeadset.getConnectedDevices().isEmpty();
+        audioRoutingManager.routeToHeadset(hfpConnected, new AudioRoutingManager.Callback() {
+            @Override
+            public void onRouteSettled(Map<String, Object> route) {
+                // Attach the calibrated latency so the test can compensate response windows
+                Map<String, Object> calibration = getLatencyCalibrator().getCached(
+                    getCalibrationAddress(), (String) route.get("routeType"));
+                route.put("calibratedLatencyMs", calibration != null ? calibration.get("outputLatencyMs") : null);
+                result.success(route);
             }
-        } else {
-            // Traditional SCO approach for classic Bluetooth
-            audioManager.startBluetoothSco();
-            audioManager.setBluetoothScoOn(true);
-            
-            // Give it a moment to connect
-            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+
+            @Override
+            public void onRouteFailed(String code, String message) {
+                result.error(code, message, null);
+            }
+        });
+    }
+
+    private LatencyCalibrator getLatencyCalibrator() {
+        if (latencyCalibrator == null) {
+            latencyCalibrator = new LatencyCalibrator(this);
+        }
+        return latencyCalibrator;
+    }
+
+    // Measure output latency on the current route and cache it for the connected device
+    private void calibrateOutputLatency(boolean withLoopback, MethodChannel.Result result) {
+        boolean loopback = withLoopback && hasRecordAudioPermission();
+        getLatencyCalibrator().calibrate(getCalibrationAddress(), getCalibrationRouteType(), loopback,
+            new LatencyCalibrator.Callback() {
                 @Override
-                public void run() {
-                    if (!audioManager.isBluetoothScoOn()) {
-                        audioManager.startBluetoothSco();
-                    }
+                public void onCalibrated(Map<String, Object> calibration) {
+                    result.success(calibration);
+                }
+
+                @Override
+                public void onError(String code, String message) {
+                    result.error(code, message, null);
                 }
-            }, 1000);
+            });
+    }
+
+    // Calibrations are keyed by headset address; wired and built-in outputs share a fixed key
+    private String getCalibrationAddress() {
+        DeviceState.Snapshot<BluetoothDevice> state = deviceState.snapshot();
+        return state.isConnected() ? state.address : "local";
+    }
+
+    private String getCalibrationRouteType() {
+        Map<String, Object> route = audioRoutingManager != null ? audioRoutingManager.getCurrentRoute() : null;
+        if (route != null) {
+            return (String) route.get("routeType");
         }
+        String connectionType = getBluetoothConnectionType();
+        return "classic".equals(connectionType) ? AudioRoutingManager.ROUTE_A2DP : connectionType;
     }
 
     @Override
@@ -875,6 +1857,24 @@ public class MainActivity extends FlutterActivity {
         super.onDestroy();
         // Unregister the broadcast receiver
         unregisterReceiver(bluetoothStateReceiver);
+
+        // Stop hearing aid audio loop
+        if (hearingAidEngine != null) {
+            hearingAidEngine.stop();
+        }
+
+        // Drop any communication device or SCO link we set up
+        if (audioRoutingManager != null) {
+            audioRoutingManager.release();
+        }
+        if (latencyCalibrator != null) {
+            latencyCalibrator.shutdown();
+        }
+        synchronized (this) {
+            if (historyStore != null) {
+                historyStore.close();
+            }
+        }
         
         // Clean up profile proxies
         if (leAudioProxy != null && bluetoothAdapter != null) {
@@ -887,174 +1887,77 @@ public class MainActivity extends FlutterActivity {
             bluetoothAdapter.closeProfileProxy(BluetoothProfile.HEADSET, bluetoothHeadset);
         }
         
-        // Clean up GATT connection
-        if (mGatt != null) {
-            mGatt.disconnect();
-            mGatt.close();
-            mGatt = null;
+        // GATT connections stay open in BluetoothSyncService while a device is connected,
+        // but nothing is left to forward their notifications to
+        bleDataBinaryChannel = null;
+        inboundEvents = null;
+        btChannel = null;
+        BluetoothSyncService service = syncService;
+        if (service != null) {
+            for (DeviceSession session : service.getSessionManager().getSessions()) {
+                session.getLink().removeListener(notificationForwarder);
+            }
         }
+        unbindService(syncServiceConnection);
     }
 
     private String getDeviceModel() {
         return Build.MODEL;
     }
 
-    // GATT Battery Service Constants
-    private BluetoothGatt mGatt;
-    private boolean isGattConnecting = false;
-    private static final UUID BATTERY_SERVICE_UUID = UUID.fromString("0000180F-0000-1000-8000-00805F9B34FB");
-    private static final UUID BATTERY_LEVEL_CHAR_UUID = UUID.fromString("00002A19-0000-1000-8000-00805F9B34FB");
-    
-    // Battery level caching
-    private Integer cachedBatteryLevel = null;
-    private long lastBatteryCheckTime = 0;
+    // Battery level caching, per device session
     private static final long BATTERY_CACHE_DURATION = 60000; // 1 minute
-    
-    // GATT callback for battery service
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                Log.d("MainActivity", "Connected to GATT server.");
-                gatt.discoverServices();
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                Log.d("MainActivity", "Disconnected from GATT server.");
-                isGattConnecting = false;
-                mGatt = null;
-            }
-        }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                BluetoothGattService batteryService = gatt.getService(BATTERY_SERVICE_UUID);
-                if (batteryService == null) {
-                    Log.d("MainActivity", "Battery service not found");
-                    gatt.disconnect();
-                    isGattConnecting = false;
-                    return;
-                }
-
-                BluetoothGattCharacteristic batteryChar = 
-                    batteryService.getCharacteristic(BATTERY_LEVEL_CHAR_UUID);
-                if (batteryChar == null) {
-                    Log.d("MainActivity", "Battery characteristic not found");
-                    gatt.disconnect();
-                    isGattConnecting = false;
-                    return;
-                }
-
-                boolean success = gatt.readCharacteristic(batteryChar);
-                Log.d("MainActivity", "Reading battery characteristic: " + success);
-                if (!success) {
-                    gatt.disconnect();
-                    isGattConnecting = false;
-                }
-            } else {
-                Log.d("MainActivity", "Service discovery failed: " + status);
-                gatt.disconnect();
-                isGattConnecting = false;
-            }
-        }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, 
-                                        int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (BATTERY_LEVEL_CHAR_UUID.equals(characteristic.getUuid())) {
-                    int batteryLevel = characteristic.getIntValue(
-                        BluetoothGattCharacteristic.FORMAT_UINT8, 0);
-                    Log.d("MainActivity", "Battery level from GATT: " + batteryLevel);
-                    
-                    // Update cached battery level
-                    cachedBatteryLevel = batteryLevel;
-                    lastBatteryCheckTime = System.currentTimeMillis();
-                    
-                    gatt.disconnect();
-                    isGattConnecting = false;
-                }
-            } else {
-                Log.d("MainActivity", "Failed to read characteristic: " + status);
-                gatt.disconnect();
-                isGattConnecting = false;
-            }
-        }
-    };
+    private static final long BATTERY_GATT_TIMEOUT_MS = 5000;
 
     // Return battery level of connected Bluetooth headphones
     private void getBatteryLevel(final MethodChannel.Result result) {
-        if (!isAnyAudioDeviceConnected() || connectedDevice == null) {
+        DeviceSession session = isAnyAudioDeviceConnected() ? getActiveSession() : null;
+        if (session == null) {
             result.success(null); // No device connected
             return;
         }
         
         // Check if we have a recent cached value (within last minute)
-        if (cachedBatteryLevel != null && 
-            System.currentTimeMillis() - lastBatteryCheckTime < BATTERY_CACHE_DURATION) {
-            Log.d("MainActivity", "Using cached battery level: " + cachedBatteryLevel);
-            result.success(cachedBatteryLevel);
+        Integer cached = session.getCachedBatteryLevel(BATTERY_CACHE_DURATION);
+        if (cached != null) {
+            result.success(cached);
             return;
         }
         
-        // Try HFP approach first (faster)
-        Integer hfpBattery = getBatteryLevelFromHfp();
+        readBatteryLevel(session, result);
+    }
+    
+    // HFP first (faster), then the Battery Service over the device's own data link
+    private void readBatteryLevel(DeviceSession session, MethodChannel.Result result) {
+        Integer hfpBattery = getBatteryLevelFromHfp(session.getDevice());
         if (hfpBattery != null) {
-            Log.d("MainActivity", "Got battery level from HFP: " + hfpBattery);
-            cachedBatteryLevel = hfpBattery;
-            lastBatteryCheckTime = System.currentTimeMillis();
+            session.cacheBatteryLevel(hfpBattery);
             result.success(hfpBattery);
             return;
         }
         
-        // Then try GATT approach (works for more devices but slower)
-        if (!isGattConnecting && mGatt == null) {
-            Log.d("MainActivity", "Trying to get battery level via GATT...");
-            
-            // Set up a timeout for GATT connection
-            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (isGattConnecting) {
-                        Log.d("MainActivity", "GATT battery level request timed out");
-                        isGattConnecting = false;
-                        if (mGatt != null) {
-                            mGatt.disconnect();
-                            mGatt.close();
-                            mGatt = null;
-                        }
-                        
-                        // Return null instead of using mock data
-                        Log.d("MainActivity", "Battery level not available");
-                        cachedBatteryLevel = null;
-                        lastBatteryCheckTime = System.currentTimeMillis();
-                        result.success(null);
-                    }
-                }
-            }, 5000); // 5 second timeout
-            
-            // Connect to GATT
+        // Queued behind any transfer to this device instead of opening a second GATT connection.
+        // A read still waiting when Flutter asks again gives way to the new one and answers
+        // with the last known level.
+        // A session closed meanwhile answers the same way.
+        MethodChannel.Result reply = answerOnce(result);
+        session.executeLatest("battery", () -> {
+            Integer level = null;
             try {
-                isGattConnecting = true;
-                mGatt = connectedDevice.connectGatt(this, false, gattCallback);
-            } catch (Exception e) {
-                Log.e("MainActivity", "Error connecting to GATT: " + e.getMessage());
-                isGattConnecting = false;
-                
-                // Return null instead of using mock data
-                Log.d("MainActivity", "Battery level not available");
-                cachedBatteryLevel = null;
-                lastBatteryCheckTime = System.currentTimeMillis();
-                result.success(null);
+                level = session.readBatteryLevel(BATTERY_GATT_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        } else {
-            // If already connecting or GATT in use, return null instead of mock data
-            Log.d("MainActivity", "GATT already in use, battery level not available");
-            result.success(null);
-        }
+            Integer batteryLevel = level;
+            mainHandler.post(() -> reply.success(batteryLevel));
+        }, () -> {
+            Integer lastKnown = session.getCachedBatteryLevel(Long.MAX_VALUE);
+            mainHandler.post(() -> reply.success(lastKnown));
+        });
     }
     
     // Get battery level from HFP (Hands-Free Profile)
-    private Integer getBatteryLevelFromHfp() {
+    private Integer getBatteryLevelFromHfp(BluetoothDevice device) {
         if (Build.VERSION.SDK_INT < 29) { // Android 10 is API 29
             return null; // Not supported on older Android versions
         }
@@ -1064,8 +1967,8 @@ public class MainActivity extends FlutterActivity {
             Method getBatteryLevelMethod = 
                 BluetoothHeadset.class.getMethod("getBatteryLevel", BluetoothDevice.class);
             
-            if (bluetoothHeadset != null && connectedDevice != null) {
-                Object result = getBatteryLevelMethod.invoke(bluetoothHeadset, connectedDevice);
+            if (bluetoothHeadset != null && device != null) {
+                Object result = getBatteryLevelMethod.invoke(bluetoothHeadset, device);
                 if (result instanceof Integer) {
                     int level = (Integer) result;
                     return level >= 0 ? level : null; // -1 means not available
@@ -1103,29 +2006,175 @@ public class MainActivity extends FlutterActivity {
 
     // Method to send a file via classic Bluetooth
     private void sendFileViaBluetooth(String jsonData, String fileName, MethodChannel.Result result) {
-        try {
-            // Check if Bluetooth is enabled
-            if (!isBluetoothEnabled()) {
-                result.error("BLUETOOTH_DISABLED", "Bluetooth is not enabled", null);
+        if (!checkFileSharePreconditions(result)) {
+            return;
+        }
+        
+        ExportCache cache = getExportCache();
+        
+        // Write on the file executor; encode as UTF-8 regardless of the platform default.
+        // Identical content is served from the export cache instead of being rewritten.
+        fileExecutor.execute(() -> {
+            File file;
+            File temp = null;
+            try {
+                byte[] content = jsonData.getBytes(StandardCharsets.UTF_8);
+                String key = ExportCache.keyFor(content);
+                file = cache.lookup(key, fileName);
+                if (file == null) {
+                    temp = cache.newTempFile();
+                    try (FileOutputStream out = new FileOutputStream(temp)) {
+                        out.write(content);
+                    }
+                    file = cache.commit(temp, key, fileName);
+                }
+            } catch (Exception e) {
+                Log.e("BluetoothFileTransfer", "Error writing file: " + e.getMessage());
+                if (temp != null) {
+                    cache.discard(temp);
+                }
+                mainHandler.post(() ->
+                    result.error("SEND_ERROR", "Failed to send file: " + e.getMessage(), null));
                 return;
             }
-            
-            // Check if we have the required permissions
-            if (!hasRequiredPermissions()) {
-                requestBluetoothPermissions();
-                result.error("PERMISSION_DENIED", "Bluetooth permissions not granted", null);
-                return;
+            File shared = file;
+            mainHandler.post(() -> shareFileViaBluetooth(shared, "application/json", result));
+        });
+    }
+    
+    // Streams the full history into a file page by page, then shares it
+    private void exportHistoryViaBluetooth(String fileName, boolean gzip, int pageSize, MethodChannel.Result result) {
+        if (!checkFileSharePreconditions(result)) {
+            return;
+        }
+        
+        if (streamingExporter == null) {
+            streamingExporter = new StreamingExporter(fileExecutor);
+        }
+        
+        String exportName = gzip && !fileName.endsWith(".gz") ? fileName + ".gz" : fileName;
+        
+        streamingExporter.export(getExportCache(), exportName, gzip, pageSize, this::requestExportPage,
+                new StreamingExporter.Callback() {
+                @Override
+                public void onExported(File exported, long recordCount) {
+                    Log.d("BluetoothFileTransfer", "Export ready: " + recordCount + " records");
+                    shareFileViaBluetooth(exported, gzip ? "application/gzip" : "application/json", result);
+                }
+                
+                @Override
+                public void onError(String code, String message) {
+                    result.error(code, "Failed to export history: " + message, null);
+                }
+            });
+    }
+    
+    // Asks Flutter for one page of already-encoded records: {records: [String], hasMore: bool}
+    private void requestExportPage(int page, int pageSize, StreamingExporter.PageCallback callback) {
+        if (btFileChannel == null) {
+            callback.onError("File channel not available");
+            return;
+        }
+        
+        Map<String, Object> args = new HashMap<>();
+        args.put("page", page);
+        args.put("pageSize", pageSize);
+        
+        btFileChannel.invokeMethod("fetchExportPage", args, new MethodChannel.Result() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void success(Object response) {
+                if (!(response instanceof Map)) {
+                    callback.onError("Unexpected page response");
+                    return;
+                }
+                Map<String, Object> map = (Map<String, Object>) response;
+                Object records = map.get("records");
+                Object hasMore = map.get("hasMore");
+                List<String> pageRecords = new ArrayList<>();
+                if (records instanceof List) {
+                    for (Object record : (List<Object>) records) {
+                        if (record != null) {
+                            pageRecords.add(record.toString());
+                        }
+                    }
+                }
+                callback.onPage(pageRecords, Boolean.TRUE.equals(hasMore));
             }
             
-            // Create temporary file with the provided JSON data
-            File tempDir = getApplicationContext().getCacheDir();
-            File file = new File(tempDir, fileName);
-            
-            // Write JSON data to the file
-            FileOutputStream fos = new FileOutputStream(file);
-            fos.write(jsonData.getBytes());
-            fos.close();
+            @Override
+            public void error(String errorCode, String errorMessage, Object errorDetails) {
+                callback.onError(errorCode + ": " + errorMessage);
+            }
             
+            @Override
+            public void notImplemented() {
+                callback.onError("fetchExportPage not implemented");
+            }
+        });
+    }
+    
+    private synchronized HistoryStore getHistoryStore() {
+        if (historyStore == null) {
+            historyStore = new HistoryStore(this);
+        }
+        return historyStore;
+    }
+    
+    // Filters shared by queryRecords and countRecords: optional fromMs and toMs
+    private HistoryQuery buildHistoryQuery(String kind, MethodCall call) {
+        Number fromMs = call.argument("fromMs");
+        Number toMs = call.argument("toMs");
+        return new HistoryQuery()
+            .kind(kind)
+            .createdBetween(fromMs != null ? fromMs.longValue() : null, toMs != null ? toMs.longValue() : null);
+    }
+    
+    // Runs a store operation on storeExecutor and answers on the main thread
+    private void runHistoryOperation(MethodChannel.Result result, Callable<Object> operation) {
+        storeExecutor.execute(() -> {
+            try {
+                Object value = operation.call();
+                mainHandler.post(() -> result.success(value));
+            } catch (IllegalArgumentException e) {
+                mainHandler.post(() -> result.error("INVALID_ARGUMENTS", e.getMessage(), null));
+            } catch (Exception e) {
+                Log.e("MainActivity", "History store error: " + e.getMessage());
+                mainHandler.post(() -> result.error("STORE_ERROR", e.getMessage(), null));
+            }
+        });
+    }
+    
+    // Share files live under cache/exports, covered by the "shared_files" cache-path in file_paths.xml
+    private ExportCache getExportCache() {
+        if (exportCache == null) {
+            exportCache = new ExportCache(
+                new File(getApplicationContext().getCacheDir(), "exports"),
+                EXPORT_CACHE_MAX_BYTES,
+                EXPORT_CACHE_MAX_AGE_MS);
+        }
+        return exportCache;
+    }
+    
+    private boolean checkFileSharePreconditions(MethodChannel.Result result) {
+        // Check if Bluetooth is enabled
+        if (!isBluetoothEnabled()) {
+            result.error("BLUETOOTH_DISABLED", "Bluetooth is not enabled", null);
+            return false;
+        }
+        
+        // Check if we have the required permissions
+        if (!hasRequiredPermissions()) {
+            requestBluetoothPermissions();
+            result.error("PERMISSION_DENIED", "Bluetooth permissions not granted", null);
+            return false;
+        }
+        return true;
+    }
+    
+    // Hands a finished file in the cache dir to the share sheet; must run on the main thread
+    private void shareFileViaBluetooth(File file, String mimeType, MethodChannel.Result result) {
+        try {
             // Get content URI via FileProvider
             Uri contentUri = FileProvider.getUriForFile(
                 getApplicationContext(),
@@ -1135,7 +2184,7 @@ public class MainActivity extends FlutterActivity {
             
             // Create share intent
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType("application/json");
+            shareIntent.setType(mimeType);
             shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
             
             // Grant temporary read permission to the content URI
@@ -1168,137 +2217,14 @@ public class MainActivity extends FlutterActivity {
 
     // Method to retry getting battery level with different approaches
     private void retryGetBatteryLevel(final MethodChannel.Result result) {
-        Log.d("MainActivity", "Retrying to get battery level");
-        
-        if (!isAnyAudioDeviceConnected() || connectedDevice == null) {
+        DeviceSession session = isAnyAudioDeviceConnected() ? getActiveSession() : null;
+        if (session == null) {
             result.success(null); // No device connected
             return;
         }
         
         // First, invalidate any existing cached battery level
-        cachedBatteryLevel = null;
-        
-        // Try HFP approach again (faster and more reliable)
-        Integer hfpBattery = getBatteryLevelFromHfp();
-        if (hfpBattery != null) {
-            Log.d("MainActivity", "Retry successful - Got battery level from HFP: " + hfpBattery);
-            cachedBatteryLevel = hfpBattery;
-            lastBatteryCheckTime = System.currentTimeMillis();
-            result.success(hfpBattery);
-            return;
-        }
-        
-        // If HFP fails and GATT is not already in use, try GATT approach
-        if (!isGattConnecting && mGatt == null) {
-            Log.d("MainActivity", "Retry - Trying to get battery level via GATT...");
-            
-            // Set up a timeout for GATT connection
-            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    if (isGattConnecting) {
-                        Log.d("MainActivity", "Retry - GATT battery level request timed out");
-                        isGattConnecting = false;
-                        if (mGatt != null) {
-                            mGatt.disconnect();
-                            mGatt.close();
-                            mGatt = null;
-                        }
-                        
-                        // Return null for the retry attempt
-                        result.success(null);
-                    }
-                }
-            }, 5000); // 5 second timeout
-            
-            // Connect to GATT
-            try {
-                isGattConnecting = true;
-                mGatt = connectedDevice.connectGatt(this, false, new BluetoothGattCallback() {
-                    @Override
-                    public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-                        if (newState == BluetoothProfile.STATE_CONNECTED) {
-                            Log.d("MainActivity", "Retry - Connected to GATT server");
-                            gatt.discoverServices();
-                        } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                            Log.d("MainActivity", "Retry - Disconnected from GATT server");
-                            isGattConnecting = false;
-                            mGatt = null;
-                        }
-                    }
-
-                    @Override
-                    public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                        if (status == BluetoothGatt.GATT_SUCCESS) {
-                            BluetoothGattService batteryService = gatt.getService(BATTERY_SERVICE_UUID);
-                            if (batteryService == null) {
-                                Log.d("MainActivity", "Retry - Battery service not found");
-                                gatt.disconnect();
-                                isGattConnecting = false;
-                                mainHandler.post(() -> result.success(null));
-                                return;
-                            }
-
-                            BluetoothGattCharacteristic batteryChar = 
-                                batteryService.getCharacteristic(BATTERY_LEVEL_CHAR_UUID);
-                            if (batteryChar == null) {
-                                Log.d("MainActivity", "Retry - Battery characteristic not found");
-                                gatt.disconnect();
-                                isGattConnecting = false;
-                                mainHandler.post(() -> result.success(null));
-                                return;
-                            }
-
-                            boolean success = gatt.readCharacteristic(batteryChar);
-                            Log.d("MainActivity", "Retry - Reading battery characteristic: " + success);
-                            if (!success) {
-                                gatt.disconnect();
-                                isGattConnecting = false;
-                                mainHandler.post(() -> result.success(null));
-                            }
-                        } else {
-                            Log.d("MainActivity", "Retry - Service discovery failed: " + status);
-                            gatt.disconnect();
-                            isGattConnecting = false;
-                            mainHandler.post(() -> result.success(null));
-                        }
-                    }
-
-                    @Override
-                    public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, 
-                                                  int status) {
-                        if (status == BluetoothGatt.GATT_SUCCESS) {
-                            if (BATTERY_LEVEL_CHAR_UUID.equals(characteristic.getUuid())) {
-                                int batteryLevel = characteristic.getIntValue(
-                                    BluetoothGattCharacteristic.FORMAT_UINT8, 0);
-                                Log.d("MainActivity", "Retry - Battery level from GATT: " + batteryLevel);
-                                
-                                // Update cached battery level
-                                cachedBatteryLevel = batteryLevel;
-                                lastBatteryCheckTime = System.currentTimeMillis();
-                                
-                                gatt.disconnect();
-                                isGattConnecting = false;
-                                
-                                mainHandler.post(() -> result.success(batteryLevel));
-                            }
-                        } else {
-                            Log.d("MainActivity", "Retry - Failed to read characteristic: " + status);
-                            gatt.disconnect();
-                            isGattConnecting = false;
-                            mainHandler.post(() -> result.success(null));
-                        }
-                    }
-                });
-            } catch (Exception e) {
-                Log.e("MainActivity", "Retry - Error connecting to GATT: " + e.getMessage());
-                isGattConnecting = false;
-                result.success(null);
-            }
-        } else {
-            // If GATT is already in use, just return null
-            Log.d("MainActivity", "Retry - GATT already in use, returning null");
-            result.success(null);
-        }
+        session.invalidateBatteryLevel();
+        readBatteryLevel(session, result);
     }
 }
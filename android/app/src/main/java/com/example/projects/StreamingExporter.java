@@ -0,0 +1,164 @@
+package com.example.projects;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.projects.export.ExportCache;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+// Writes an export file page by page so only one page of records is ever held in memory.
+//
+// Pages are pulled from the source on the main thread (where Flutter channel calls must
+// happen) and written on the supplied background executor through a buffered UTF-8 writer,
+// optionally gzip-compressed. Each record arrives already JSON-encoded and is written as is.
+// The file goes through the export cache: it is hashed while written, and an export whose
+// content matches an earlier one reuses that file instead of keeping a second copy.
+public class StreamingExporter {
+    private static final String TAG = "StreamingExporter";
+    private static final long PAGE_TIMEOUT_SECONDS = 30;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    public interface PageSource {
+        // Called on the main thread; must eventually call exactly one of the callback methods
+        void requestPage(int page, int pageSize, PageCallback callback);
+    }
+
+    public interface PageCallback {
+        void onPage(List<String> records, boolean hasMore);
+        void onError(String message);
+    }
+
+    public interface Callback {
+        void onExported(File file, long recordCount);
+        void onError(String code, String message);
+    }
+
+    // Result of one page request handed from the main thread to the writer thread
+    private static final class Page {
+        final List<String> records;
+        final boolean hasMore;
+        final String error;
+
+        Page(List<String> records, boolean hasMore, String error) {
+            this.records = records;
+            this.hasMore = hasMore;
+            this.error = error;
+        }
+    }
+
+    private final Executor ioExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public StreamingExporter(Executor ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    // The callback is delivered on the main thread
+    public void export(ExportCache cache, String fileName, boolean gzip, int pageSize,
+                       PageSource source, Callback callback) {
+        ioExecutor.execute(() -> {
+            long recordCount = 0;
+            File temp = null;
+            File exportedFile;
+            MessageDigest digest = ExportCache.newDigest();
+            try {
+                temp = cache.newTempFile();
+                recordCount = writeRecords(temp, gzip, digest, pageSize, source);
+                // Hash covers the uncompressed document; compressed and plain copies are distinct entries
+                String key = ExportCache.toHex(digest.digest()) + (gzip ? "-gz" : "");
+                exportedFile = cache.commit(temp, key, fileName);
+            } catch (Exception e) {
+                Log.e(TAG, "Export failed: " + e.getMessage());
+                if (temp != null) {
+                    cache.discard(temp);
+                }
+                String message = e.getMessage() != null ? e.getMessage() : e.toString();
+                mainHandler.post(() -> callback.onError("EXPORT_ERROR", message));
+                return;
+            }
+
+            long exported = recordCount;
+            Log.d(TAG, "Exported " + exported + " records to " + exportedFile.getName() + " (" + exportedFile.length() + " bytes)");
+            mainHandler.post(() -> callback.onExported(exportedFile, exported));
+        });
+    }
+
+    // Content is kept deterministic (no timestamps) so identical history hashes identically
+    private long writeRecords(File target, boolean gzip, MessageDigest digest, int pageSize,
+                              PageSource source) throws IOException, InterruptedException {
+        long recordCount = 0;
+        try (Writer writer = openWriter(target, gzip, digest)) {
+            writer.write("{\"format\":\"bone_plus_history\",\"version\":1,\"records\":[");
+
+            int pageIndex = 0;
+            boolean hasMore = true;
+            while (hasMore) {
+                Page page = fetchPage(source, pageIndex++, pageSize);
+                if (page.error != null) {
+                    throw new IOException(page.error);
+                }
+                for (String record : page.records) {
+                    if (recordCount > 0) {
+                        writer.write(',');
+                    }
+                    writer.write('\n');
+                    writer.write(record);
+                    recordCount++;
+                }
+                hasMore = page.hasMore && !page.records.isEmpty();
+            }
+
+            writer.write("\n]}\n");
+        }
+        return recordCount;
+    }
+
+    private Page fetchPage(PageSource source, int pageIndex, int pageSize) throws InterruptedException {
+        BlockingQueue<Page> handoff = new ArrayBlockingQueue<>(1);
+        mainHandler.post(() -> source.requestPage(pageIndex, pageSize, new PageCallback() {
+            @Override
+            public void onPage(List<String> records, boolean hasMore) {
+                handoff.offer(new Page(records, hasMore, null));
+            }
+
+            @Override
+            public void onError(String message) {
+                handoff.offer(new Page(null, false, message != null ? message : "Page request failed"));
+            }
+        }));
+
+        Page page = handoff.poll(PAGE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return page != null ? page : new Page(null, false, "Timed out waiting for page " + pageIndex);
+    }
+
+    private static Writer openWriter(File target, boolean gzip, MessageDigest digest) throws IOException {
+        OutputStream out = new FileOutputStream(target);
+        try {
+            if (gzip) {
+                out = new GZIPOutputStream(out, WRITE_BUFFER_SIZE);
+            }
+            out = new DigestOutputStream(out, digest);
+            return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.projects;
+
+import android.os.Trace;
+
+import com.example.projects.trace.TraceLog;
+
+import io.flutter.plugin.common.MethodChannel;
+
+// Perfetto sections plus the in-memory event ring, shared by the activity, the sync service
+// and the GATT links.
+//
+// Section names are constants or method names Flutter already handed us, so tracing a call
+// builds no strings. Trace.beginSection is a cheap flag check while no trace is being
+// captured. Sections must end on the thread that began them; spans that hop threads only
+// get ring events.
+final class Tracing {
+    // ~4096 events of 32 bytes: a few minutes of normal use, 128 KB
+    static final TraceLog EVENTS = new TraceLog(4096);
+
+    private Tracing() {
+    }
+
+    static void begin(String section) {
+        Trace.beginSection(section);
+    }
+
+    static void end() {
+        Trace.endSection();
+    }
+
+    static void event(int type, int status, int arg, long value) {
+        EVENTS.record(type, status, arg, value);
+    }
+
+    // Wraps a channel's handler so every call gets a section named after the method and a
+    // CHANNEL_CALL event. The section covers the dispatch on the main thread, not work the
+    // handler posts elsewhere.
+    static MethodChannel.MethodCallHandler traced(int channel, MethodChannel.MethodCallHandler handler) {
+        return (call, result) -> {
+            EVENTS.record(TraceLog.CHANNEL_CALL, EVENTS.nameId(call.method), channel, 0, 0);
+            Trace.beginSection(call.method);
+            try {
+                handler.onMethodCall(call, result);
+            } finally {
+                Trace.endSection();
+            }
+        };
+    }
+}
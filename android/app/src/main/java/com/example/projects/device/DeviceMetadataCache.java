@@ -0,0 +1,161 @@
+package com.example.projects.device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// What we show about each Bluetooth device, by address, so name lookups and scan list polls
+// are a map lookup instead of a Bluetooth service call per device per poll.
+//
+// Entries are filled as the system tells us things (name changes, ACL connects, service
+// discovery, scan records) and merged field by field: an update that doesn't know a field
+// keeps the cached value. An entry older than the TTL reads as missing, so the caller reads
+// the device once and puts the result back. A disconnect drops the entry, since its audio
+// type no longer holds.
+public final class DeviceMetadataCache {
+    public static final String PROFILE_A2DP = "a2dp";
+    public static final String PROFILE_HFP = "hfp";
+    public static final String PROFILE_LE_AUDIO = "le_audio";
+    public static final String PROFILE_HEARING_ACCESS = "hearing_access";
+
+    // Service classes behind each profile, as 16-bit assigned numbers of base UUIDs
+    private static final int UUID_A2DP_SINK = 0x110B;
+    private static final int UUID_HANDSFREE = 0x111E;
+    private static final int UUID_AUDIO_STREAM_CONTROL = 0x184E;
+    private static final int UUID_PUBLISHED_AUDIO_CAPABILITIES = 0x1850;
+    private static final int UUID_HEARING_ACCESS = 0x1854;
+    private static final long BASE_MSB_LOW = 0x1000L;
+    private static final long BASE_LSB = 0x800000805F9B34FBL;
+
+    public static final class Metadata {
+        public final String address;
+        // null while unknown
+        public final String name;
+        public final String alias;
+        // "classic", "le", "dual" or "unknown"
+        public final String type;
+        // "classic" or "le_audio", for a device we found through an audio profile
+        public final String audioType;
+        // PROFILE_* the device advertises; empty while unknown
+        public final List<String> profiles;
+        final long updatedAt;
+
+        Metadata(String address, String name, String alias, String type, String audioType,
+                List<String> profiles, long updatedAt) {
+            this.address = address;
+            this.name = name;
+            this.alias = alias;
+            this.type = type;
+            this.audioType = audioType;
+            this.profiles = profiles;
+            this.updatedAt = updatedAt;
+        }
+
+        // The alias the user gave the device, else its own name, else null
+        public String displayName() {
+            if (alias != null && !alias.isEmpty()) {
+                return alias;
+            }
+            return name != null && !name.isEmpty() ? name : null;
+        }
+    }
+
+    private final long ttlNanos;
+    private final Map<String, Metadata> entries = new ConcurrentHashMap<>();
+
+    public DeviceMetadataCache(long ttlMs) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    // Fresh entry for address, or null when there is none or it has expired
+    public Metadata get(String address) {
+        return get(address, System.nanoTime());
+    }
+
+    Metadata get(String address, long now) {
+        Metadata metadata = entries.get(address);
+        return metadata != null && now - metadata.updatedAt < ttlNanos ? metadata : null;
+    }
+
+    // Merges what is known into the address's entry; null arguments keep the cached value.
+    // Returns the merged entry.
+    public Metadata update(String address, String name, String alias, String type, String audioType,
+            List<String> profiles) {
+        return update(address, name, alias, type, audioType, profiles, System.nanoTime());
+    }
+
+    Metadata update(String address, String name, String alias, String type, String audioType,
+            List<String> profiles, long now) {
+        return entries.compute(address, (key, old) -> {
+            if (old == null || now - old.updatedAt >= ttlNanos) {
+                return new Metadata(address, name, alias, type, audioType,
+                    profiles != null ? profiles : Collections.emptyList(), now);
+            }
+            return new Metadata(address,
+                name != null ? name : old.name,
+                alias != null ? alias : old.alias,
+                type != null ? type : old.type,
+                audioType != null ? audioType : old.audioType,
+                profiles != null ? profiles : old.profiles,
+                now);
+        });
+    }
+
+    public void invalidate(String address) {
+        entries.remove(address);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    // PROFILE_* for the service UUIDs a device reported; other UUIDs are ignored
+    public static List<String> profiles(List<UUID> serviceUuids) {
+        boolean a2dp = false;
+        boolean hfp = false;
+        boolean leAudio = false;
+        boolean hearingAccess = false;
+        for (UUID uuid : serviceUuids) {
+            long msb = uuid.getMostSignificantBits();
+            if (uuid.getLeastSignificantBits() != BASE_LSB || (msb & 0xFFFFFFFFL) != BASE_MSB_LOW) {
+                continue;
+            }
+            switch ((int) (msb >>> 32)) {
+                case UUID_A2DP_SINK:
+                    a2dp = true;
+                    break;
+                case UUID_HANDSFREE:
+                    hfp = true;
+                    break;
+                case UUID_AUDIO_STREAM_CONTROL:
+                case UUID_PUBLISHED_AUDIO_CAPABILITIES:
+                    leAudio = true;
+                    break;
+                case UUID_HEARING_ACCESS:
+                    hearingAccess = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        List<String> profiles = new ArrayList<>(4);
+        if (a2dp) {
+            profiles.add(PROFILE_A2DP);
+        }
+        if (hfp) {
+            profiles.add(PROFILE_HFP);
+        }
+        if (leAudio) {
+            profiles.add(PROFILE_LE_AUDIO);
+        }
+        if (hearingAccess) {
+            profiles.add(PROFILE_HEARING_ACCESS);
+        }
+        return Collections.unmodifiableList(profiles);
+    }
+}
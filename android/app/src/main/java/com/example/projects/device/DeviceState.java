@@ -0,0 +1,107 @@
+package com.example.projects.device;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Which device the app talks to and what the current scan found. Bluetooth broadcasts, scan
+// callbacks, method channel calls and session executors all read and change it.
+//
+// The connected device is an immutable snapshot swapped through an AtomicReference, so a
+// reader sees the device and its address together without taking a lock, and a change that
+// depends on the current device (a disconnect of one device, a fallback that only applies
+// while none is connected) is a compare-and-set that can't undo a connect that won the race.
+// Scan results are a concurrent map, filled by scan callbacks while Flutter lists them.
+public final class DeviceState<D> {
+    public static final class Snapshot<D> {
+        // Both null while no device is connected
+        public final String address;
+        public final D device;
+
+        Snapshot(String address, D device) {
+            this.address = address;
+            this.device = device;
+        }
+
+        public boolean isConnected() {
+            return device != null;
+        }
+
+        public boolean isConnected(String address) {
+            return this.address != null && this.address.equals(address);
+        }
+    }
+
+    private final Snapshot<D> none = new Snapshot<>(null, null);
+    private final AtomicReference<Snapshot<D>> connected = new AtomicReference<>(none);
+    private final Map<String, D> scanResults = new ConcurrentHashMap<>();
+
+    public Snapshot<D> snapshot() {
+        return connected.get();
+    }
+
+    // The connected device, or null
+    public D getConnected() {
+        return connected.get().device;
+    }
+
+    public boolean isConnected(String address) {
+        return connected.get().isConnected(address);
+    }
+
+    public void connect(String address, D device) {
+        connected.set(new Snapshot<>(address, device));
+    }
+
+    // Makes device the connected one unless another is connected already; returns the one
+    // that is connected afterwards
+    public D connectIfNone(String address, D device) {
+        Snapshot<D> next = new Snapshot<>(address, device);
+        while (true) {
+            Snapshot<D> current = connected.get();
+            if (current.isConnected()) {
+                return current.device;
+            }
+            if (connected.compareAndSet(current, next)) {
+                return device;
+            }
+        }
+    }
+
+    // Forgets the connected device; returns it, or null if none was connected
+    public D disconnect() {
+        return connected.getAndSet(none).device;
+    }
+
+    // Forgets the connected device only if it is the one at address
+    public boolean disconnect(String address) {
+        while (true) {
+            Snapshot<D> current = connected.get();
+            if (!current.isConnected(address)) {
+                return false;
+            }
+            if (connected.compareAndSet(current, none)) {
+                return true;
+            }
+        }
+    }
+
+    public void putScanResult(String address, D device) {
+        scanResults.put(address, device);
+    }
+
+    public D getScanResult(String address) {
+        return scanResults.get(address);
+    }
+
+    // Live view; iterating it while a scan adds devices is safe
+    public Collection<D> getScanResults() {
+        return Collections.unmodifiableCollection(scanResults.values());
+    }
+
+    public void clearScanResults() {
+        scanResults.clear();
+    }
+}
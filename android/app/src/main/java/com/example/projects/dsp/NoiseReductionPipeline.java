@@ -0,0 +1,121 @@
+package com.example.projects.dsp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Block-based noise reduction chain driven by the preset flags
+// reduce_wind_noise -> reduce_background_noise -> soften_sudden_noise.
+//
+// process() works in place and never allocates, and it times every block so callers can
+// check that processing keeps up with real time.
+public final class NoiseReductionPipeline {
+    public static final int DEFAULT_FRAME_SIZE = 512;
+
+    private final int sampleRate;
+    private final WindNoiseFilter windFilter;
+    private final SpectralNoiseSuppressor noiseSuppressor;
+    private final SuddenNoiseLimiter suddenLimiter;
+
+    // Timing statistics, written by the audio thread and read from anywhere
+    private volatile long blockCount = 0;
+    private volatile long lastBlockNanos = 0;
+    private volatile long maxBlockNanos = 0;
+    private volatile long totalProcessingNanos = 0;
+    private volatile long totalAudioNanos = 0;
+
+    public NoiseReductionPipeline(int sampleRate) {
+        this(sampleRate, DEFAULT_FRAME_SIZE);
+    }
+
+    public NoiseReductionPipeline(int sampleRate, int frameSize) {
+        this.sampleRate = sampleRate;
+        this.windFilter = new WindNoiseFilter(sampleRate);
+        this.noiseSuppressor = new SpectralNoiseSuppressor(frameSize);
+        this.suddenLimiter = new SuddenNoiseLimiter(sampleRate);
+    }
+
+    public void setFlags(boolean reduceBackgroundNoise, boolean reduceWindNoise, boolean softenSuddenNoise) {
+        noiseSuppressor.setEnabled(reduceBackgroundNoise);
+        windFilter.setEnabled(reduceWindNoise);
+        suddenLimiter.setEnabled(softenSuddenNoise);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getLatencySamples() {
+        return noiseSuppressor.getLatency();
+    }
+
+    public boolean isWindDetected() {
+        return windFilter.isWindDetected();
+    }
+
+    public void reset() {
+        windFilter.reset();
+        noiseSuppressor.reset();
+        suddenLimiter.reset();
+        blockCount = 0;
+        lastBlockNanos = 0;
+        maxBlockNanos = 0;
+        totalProcessingNanos = 0;
+        totalAudioNanos = 0;
+    }
+
+    // Process one block of mono samples in place
+    public void process(float[] buffer, int length) {
+        long start = System.nanoTime();
+
+        windFilter.process(buffer, length);
+        noiseSuppressor.process(buffer, buffer, length);
+        suddenLimiter.process(buffer, length);
+
+        long elapsed = System.nanoTime() - start;
+        lastBlockNanos = elapsed;
+        if (elapsed > maxBlockNanos) {
+            maxBlockNanos = elapsed;
+        }
+        totalProcessingNanos += elapsed;
+        totalAudioNanos += length * 1_000_000_000L / sampleRate;
+        blockCount++;
+    }
+
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    public long getLastBlockNanos() {
+        return lastBlockNanos;
+    }
+
+    public long getMaxBlockNanos() {
+        return maxBlockNanos;
+    }
+
+    // Fraction of real time spent processing; must stay well below 1.0
+    public double getLoadFactor() {
+        long audio = totalAudioNanos;
+        return audio > 0 ? (double) totalProcessingNanos / audio : 0.0;
+    }
+
+    // Snapshot for reporting over the method channel
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long blocks = blockCount;
+        stats.put("sampleRate", sampleRate);
+        stats.put("blockCount", blocks);
+        stats.put("lastBlockMicros", lastBlockNanos / 1000.0);
+        stats.put("maxBlockMicros", maxBlockNanos / 1000.0);
+        stats.put("averageBlockMicros", blocks > 0 ? totalProcessingNanos / 1000.0 / blocks : 0.0);
+        stats.put("loadFactor", getLoadFactor());
+        stats.put("latencyMs", getLatencySamples() * 1000.0 / sampleRate);
+        stats.put("windDetected", windFilter.isWindDetected());
+        stats.put("reduceBackgroundNoise", noiseSuppressor.isEnabled());
+        stats.put("reduceWindNoise", windFilter.isEnabled());
+        stats.put("softenSuddenNoise", suddenLimiter.isEnabled());
+        // Deepest cut the sudden noise limiter made since the previous stats read
+        stats.put("suddenNoiseReductionDb", -20.0 * Math.log10(suddenLimiter.takeMinGain()));
+        return stats;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.projects.dsp;
+
+// Finds a known probe pulse in a recording by normalized cross-correlation.
+// Used by the loopback latency measurement to locate where the played pulse came back.
+public final class PulseDelayEstimator {
+    // Peaks weaker than this normalized correlation are treated as "not found"
+    public static final float MIN_CONFIDENCE = 0.5f;
+
+    private final float[] pulse;
+    private final float pulseEnergy;
+
+    public PulseDelayEstimator(float[] pulse) {
+        this.pulse = pulse.clone();
+        float energy = 0.0f;
+        for (float sample : pulse) {
+            energy += sample * sample;
+        }
+        this.pulseEnergy = energy;
+    }
+
+    // Windowed tone burst; sharp enough in time to locate, narrowband enough to survive codecs
+    public static float[] makePulse(int sampleRate, float frequency, float durationSeconds) {
+        int length = Math.max(8, (int) (sampleRate * durationSeconds));
+        float[] pulse = new float[length];
+        for (int i = 0; i < length; i++) {
+            double window = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / (length - 1));
+            pulse[i] = (float) (window * Math.sin(2.0 * Math.PI * frequency * i / sampleRate));
+        }
+        return pulse;
+    }
+
+    public int getPulseLength() {
+        return pulse.length;
+    }
+
+    // Returns the sample offset where the pulse starts in recording, or -1 when no peak
+    // reaches MIN_CONFIDENCE. The achieved confidence is written to confidenceOut[0] if given.
+    public int findPulse(float[] recording, int length, float[] confidenceOut) {
+        int bestIndex = -1;
+        float bestScore = 0.0f;
+
+        int n = pulse.length;
+        if (length >= n && pulseEnergy > 0.0f) {
+            // Sliding energy of the recording window for normalization
+            double windowEnergy = 0.0;
+            for (int i = 0; i < n; i++) {
+                windowEnergy += recording[i] * recording[i];
+            }
+
+            for (int offset = 0; offset + n <= length; offset++) {
+                if (offset > 0) {
+                    float leaving = recording[offset - 1];
+                    float entering = recording[offset + n - 1];
+                    windowEnergy += entering * entering - leaving * leaving;
+                }
+                if (windowEnergy <= 1e-12) continue;
+
+                float dot = 0.0f;
+                for (int i = 0; i < n; i++) {
+                    dot += pulse[i] * recording[offset + i];
+                }
+                float score = (float) (dot / Math.sqrt(pulseEnergy * windowEnergy));
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestIndex = offset;
+                }
+            }
+        }
+
+        if (confidenceOut != null && confidenceOut.length > 0) {
+            confidenceOut[0] = bestScore;
+        }
+        return bestScore >= MIN_CONFIDENCE ? bestIndex : -1;
+    }
+}
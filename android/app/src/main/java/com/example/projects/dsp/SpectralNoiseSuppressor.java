@@ -0,0 +1,170 @@
+package com.example.projects.dsp;
+
+import java.util.Arrays;
+
+// Streaming spectral-subtraction noise suppressor.
+//
+// Works on 50% overlapped frames with a sqrt-Hann window on both analysis and synthesis,
+// so the overlap-add reconstructs the input exactly when every gain is 1. The noise floor
+// is tracked per bin with a minimum follower that drifts slowly upwards, which lets it
+// adapt to changing backgrounds without a separate voice activity detector.
+//
+// All buffers are allocated up front; process() can take blocks of any length.
+public final class SpectralNoiseSuppressor {
+    // Over-subtraction factor and spectral floor (-20 dB) for the subtraction rule
+    private static final float OVER_SUBTRACTION = 2.0f;
+    private static final float GAIN_FLOOR = 0.1f;
+    // Smoothing applied to the power spectrum before noise tracking
+    private static final float POWER_SMOOTHING = 0.8f;
+    // Per-frame upward drift of the noise estimate (~1.5 dB/s at 48 kHz, 256 hop)
+    private static final float NOISE_RISE = 1.002f;
+    // A minimum follower sits below the mean noise power; this compensates the bias
+    private static final float MINIMUM_BIAS = 1.5f;
+    // Temporal smoothing of the gains, reduces "musical noise" artifacts
+    private static final float GAIN_SMOOTHING = 0.5f;
+    // Frames used to seed the noise estimate before subtraction starts
+    private static final int WARMUP_FRAMES = 16;
+
+    private final int frameSize;
+    private final int hopSize;
+    private final Fft fft;
+    private final float[] window;
+
+    private final float[] analysis;
+    private final float[] re;
+    private final float[] im;
+    private final float[] smoothedPower;
+    private final float[] noisePower;
+    private final float[] gains;
+    private final float[] overlap;
+    private final float[] ready;
+
+    private int hopFill = 0;
+    private int framesSeen = 0;
+    private volatile boolean enabled = true;
+
+    public SpectralNoiseSuppressor(int frameSize) {
+        this.frameSize = frameSize;
+        this.hopSize = frameSize / 2;
+        this.fft = new Fft(frameSize);
+        this.window = new float[frameSize];
+        for (int i = 0; i < frameSize; i++) {
+            double hann = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / frameSize);
+            window[i] = (float) Math.sqrt(hann);
+        }
+
+        int bins = frameSize / 2 + 1;
+        this.analysis = new float[frameSize];
+        this.re = new float[frameSize];
+        this.im = new float[frameSize];
+        this.smoothedPower = new float[bins];
+        this.noisePower = new float[bins];
+        this.gains = new float[bins];
+        this.overlap = new float[frameSize];
+        this.ready = new float[hopSize];
+        Arrays.fill(gains, 1.0f);
+    }
+
+    // When disabled the suppressor keeps tracking noise and keeps its latency,
+    // so toggling it mid-stream does not produce a discontinuity.
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Processing latency in samples (one hop of buffering plus one hop of overlap)
+    public int getLatency() {
+        return frameSize;
+    }
+
+    public void reset() {
+        Arrays.fill(analysis, 0.0f);
+        Arrays.fill(smoothedPower, 0.0f);
+        Arrays.fill(noisePower, 0.0f);
+        Arrays.fill(gains, 1.0f);
+        Arrays.fill(overlap, 0.0f);
+        Arrays.fill(ready, 0.0f);
+        hopFill = 0;
+        framesSeen = 0;
+    }
+
+    // Process length samples from input into output. In-place use (input == output) is allowed.
+    public void process(float[] input, float[] output, int length) {
+        int base = frameSize - hopSize;
+        for (int i = 0; i < length; i++) {
+            float sample = input[i];
+            output[i] = ready[hopFill];
+            analysis[base + hopFill] = sample;
+            hopFill++;
+            if (hopFill == hopSize) {
+                processFrame();
+                hopFill = 0;
+            }
+        }
+    }
+
+    private void processFrame() {
+        for (int i = 0; i < frameSize; i++) {
+            re[i] = analysis[i] * window[i];
+            im[i] = 0.0f;
+        }
+        fft.forward(re, im);
+
+        int bins = frameSize / 2 + 1;
+        boolean warmingUp = framesSeen < WARMUP_FRAMES;
+        for (int k = 0; k < bins; k++) {
+            float power = re[k] * re[k] + im[k] * im[k];
+            float smoothed = POWER_SMOOTHING * smoothedPower[k] + (1.0f - POWER_SMOOTHING) * power;
+            smoothedPower[k] = smoothed;
+
+            if (warmingUp) {
+                // Running mean of the first frames seeds the estimate
+                noisePower[k] += (power - noisePower[k]) / (framesSeen + 1);
+            } else if (smoothed < noisePower[k]) {
+                noisePower[k] = smoothed;
+            } else {
+                noisePower[k] *= NOISE_RISE;
+            }
+
+            float gain = 1.0f;
+            if (enabled && !warmingUp && power > 0.0f) {
+                gain = 1.0f - OVER_SUBTRACTION * MINIMUM_BIAS * noisePower[k] / power;
+                if (gain < GAIN_FLOOR) {
+                    gain = GAIN_FLOOR;
+                }
+                gain = GAIN_SMOOTHING * gains[k] + (1.0f - GAIN_SMOOTHING) * gain;
+            }
+            gains[k] = gain;
+        }
+        if (framesSeen < Integer.MAX_VALUE) {
+            framesSeen++;
+        }
+
+        // Apply the real-valued gains symmetrically so the output stays real
+        re[0] *= gains[0];
+        im[0] *= gains[0];
+        for (int k = 1; k < bins - 1; k++) {
+            float g = gains[k];
+            re[k] *= g;
+            im[k] *= g;
+            re[frameSize - k] *= g;
+            im[frameSize - k] *= g;
+        }
+        re[bins - 1] *= gains[bins - 1];
+        im[bins - 1] *= gains[bins - 1];
+        fft.inverse(re, im);
+
+        for (int i = 0; i < frameSize; i++) {
+            overlap[i] += re[i] * window[i];
+        }
+        System.arraycopy(overlap, 0, ready, 0, hopSize);
+        System.arraycopy(overlap, hopSize, overlap, 0, frameSize - hopSize);
+        Arrays.fill(overlap, frameSize - hopSize, frameSize, 0.0f);
+
+        // Slide the analysis window by one hop
+        System.arraycopy(analysis, hopSize, analysis, 0, frameSize - hopSize);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.projects.dsp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Fast-attack limiter for sudden loud sounds (door slams, clattering dishes).
+//
+// Two envelope followers run side by side: a fast one that reacts within a millisecond and a
+// slow one that follows the ambient level. Gain is only reduced when the fast envelope jumps
+// well above the ambient level and above an absolute threshold, so steady loud sounds pass
+// and only the onset is softened. A final ceiling keeps the output out of clipping.
+public final class SuddenNoiseLimiter {
+    private static final float ATTACK_SECONDS = 0.0005f;
+    private static final float RELEASE_SECONDS = 0.08f;
+    private static final float AMBIENT_SECONDS = 0.4f;
+    // Onsets more than 4x (12 dB) above the ambient level are softened
+    private static final float TRANSIENT_RATIO = 4.0f;
+    // -12 dBFS; quieter onsets are left alone
+    private static final float THRESHOLD = 0.25f;
+    private static final float CEILING = 0.95f;
+    private static final int UNITY_BITS = Float.floatToIntBits(1.0f);
+
+    private final float attackCoeff;
+    private final float releaseCoeff;
+    private final float ambientCoeff;
+
+    private float fastEnvelope = 0.0f;
+    private float ambientEnvelope = 0.0f;
+    private float gain = 1.0f;
+    // Float bits of the lowest gain since the last take. The audio thread lowers it once per
+    // block and stats reads swap it back to 1, atomically so a block's minimum isn't lost
+    // between the read and the reset.
+    private final AtomicInteger minGainBits = new AtomicInteger(UNITY_BITS);
+    private volatile boolean enabled = true;
+
+    public SuddenNoiseLimiter(int sampleRate) {
+        attackCoeff = (float) Math.exp(-1.0 / (ATTACK_SECONDS * sampleRate));
+        releaseCoeff = (float) Math.exp(-1.0 / (RELEASE_SECONDS * sampleRate));
+        ambientCoeff = (float) Math.exp(-1.0 / (AMBIENT_SECONDS * sampleRate));
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Lowest gain applied since the last call, useful for reporting gain reduction
+    public float takeMinGain() {
+        return Float.intBitsToFloat(minGainBits.getAndSet(UNITY_BITS));
+    }
+
+    public void reset() {
+        fastEnvelope = 0.0f;
+        ambientEnvelope = 0.0f;
+        gain = 1.0f;
+        minGainBits.set(UNITY_BITS);
+    }
+
+    // In-place processing of one block
+    public void process(float[] buffer, int length) {
+        boolean active = enabled;
+        float blockMinGain = 1.0f;
+        for (int i = 0; i < length; i++) {
+            float x = buffer[i];
+            float level = x < 0.0f ? -x : x;
+
+            float coeff = level > fastEnvelope ? attackCoeff : releaseCoeff;
+            fastEnvelope = coeff * fastEnvelope + (1.0f - coeff) * level;
+            ambientEnvelope = ambientCoeff * ambientEnvelope + (1.0f - ambientCoeff) * level;
+
+            float target = 1.0f;
+            if (active) {
+                float allowed = ambientEnvelope * TRANSIENT_RATIO;
+                if (allowed < THRESHOLD) {
+                    allowed = THRESHOLD;
+                }
+                if (fastEnvelope > allowed) {
+                    target = allowed / fastEnvelope;
+                }
+            }
+
+            // Gain drops immediately and recovers with the release time
+            gain = target < gain ? target : releaseCoeff * gain + (1.0f - releaseCoeff) * target;
+            if (gain < blockMinGain) {
+                blockMinGain = gain;
+            }
+
+            float y = x * gain;
+            if (active) {
+                if (y > CEILING) {
+                    y = CEILING;
+                } else if (y < -CEILING) {
+                    y = -CEILING;
+                }
+            }
+            buffer[i] = y;
+        }
+        lowerMinGain(blockMinGain);
+    }
+
+    // Compare-and-set loop rather than accumulateAndGet, which needs API 24
+    private void lowerMinGain(float value) {
+        while (true) {
+            int current = minGainBits.get();
+            if (Float.intBitsToFloat(current) <= value
+                    || minGainBits.compareAndSet(current, Float.floatToIntBits(value))) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.projects.dsp;
+
+// Wind noise detector and high-pass filter.
+//
+// Wind shows up as a burst of energy concentrated below a couple hundred Hz. Each block
+// measures how much of the signal energy sits in that band; when the ratio stays high the
+// filter fades in a 2nd order Butterworth high-pass, and fades it back out once the wind
+// drops. The high-pass runs continuously so fading in never starts from stale state.
+public final class WindNoiseFilter {
+    private static final float CUTOFF_HZ = 200.0f;
+    private static final float DETECTOR_HZ = 150.0f;
+    // Fraction of energy below DETECTOR_HZ that counts as wind
+    private static final float WIND_RATIO = 0.6f;
+    // Signals quieter than this (-60 dBFS power) are never treated as wind
+    private static final float MIN_ENERGY = 1e-6f;
+    private static final float RATIO_SMOOTHING = 0.7f;
+    private static final float MIX_TIME_SECONDS = 0.02f;
+
+    // Biquad coefficients (RBJ high-pass, Q = 1/sqrt(2))
+    private final float b0, b1, b2, a1, a2;
+    private float x1, x2, y1, y2;
+
+    // One-pole low-pass used by the detector
+    private final float detectorCoeff;
+    private float detectorState;
+
+    private final float mixCoeff;
+    private float mix = 0.0f;
+    private float smoothedRatio = 0.0f;
+    private volatile boolean enabled = true;
+    private volatile boolean windDetected = false;
+
+    public WindNoiseFilter(int sampleRate) {
+        double w0 = 2.0 * Math.PI * CUTOFF_HZ / sampleRate;
+        double alpha = Math.sin(w0) / (2.0 * Math.sqrt(0.5));
+        double cos = Math.cos(w0);
+        double a0 = 1.0 + alpha;
+        b0 = (float) ((1.0 + cos) / 2.0 / a0);
+        b1 = (float) (-(1.0 + cos) / a0);
+        b2 = b0;
+        a1 = (float) (-2.0 * cos / a0);
+        a2 = (float) ((1.0 - alpha) / a0);
+
+        detectorCoeff = (float) Math.exp(-2.0 * Math.PI * DETECTOR_HZ / sampleRate);
+        mixCoeff = (float) Math.exp(-1.0 / (MIX_TIME_SECONDS * sampleRate));
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isWindDetected() {
+        return windDetected;
+    }
+
+    public void reset() {
+        x1 = x2 = y1 = y2 = 0.0f;
+        detectorState = 0.0f;
+        mix = 0.0f;
+        smoothedRatio = 0.0f;
+        windDetected = false;
+    }
+
+    // In-place processing of one block
+    public void process(float[] buffer, int length) {
+        // The decision from the previous block drives this one
+        float target = (enabled && windDetected) ? 1.0f : 0.0f;
+
+        float lowEnergy = 0.0f;
+        float totalEnergy = 0.0f;
+        for (int i = 0; i < length; i++) {
+            float x = buffer[i];
+
+            detectorState = detectorCoeff * detectorState + (1.0f - detectorCoeff) * x;
+            lowEnergy += detectorState * detectorState;
+            totalEnergy += x * x;
+
+            float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+
+            mix = mixCoeff * mix + (1.0f - mixCoeff) * target;
+            buffer[i] = x + mix * (y - x);
+        }
+
+        if (length > 0) {
+            float ratio = totalEnergy / length > MIN_ENERGY ? lowEnergy / totalEnergy : 0.0f;
+            smoothedRatio = RATIO_SMOOTHING * smoothedRatio + (1.0f - RATIO_SMOOTHING) * ratio;
+            windDetected = smoothedRatio > WIND_RATIO;
+        }
+    }
+}
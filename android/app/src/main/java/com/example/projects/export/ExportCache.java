@@ -0,0 +1,225 @@
+package com.example.projects.export;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+// Content-addressed store for share/export files.
+//
+// Each entry lives at <dir>/<content key>/<file name>. A share with the same content reuses the
+// existing entry instead of building the file again. A file that was handed out never moves,
+// since a share URI may still point at it: a different name for the same content is a second
+// file in the entry. New content is written to a temp file first and renamed into place, so a
+// share never sees a half-written file. Entries are evicted least-recently-used first once they
+// are older than maxAgeMillis or the directory grows past maxBytes.
+public final class ExportCache {
+    private static final String TEMP_PREFIX = ".tmp-";
+    // Temp files this old belong to an export that died mid-write
+    private static final long STALE_TEMP_MILLIS = 60 * 60 * 1000L;
+
+    private final File dir;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    public ExportCache(File dir, long maxBytes, long maxAgeMillis) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String keyFor(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    public static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    // Returns the cached file for key under fileName, or null when the content isn't cached.
+    // Content cached under another name is copied to fileName.
+    public synchronized File lookup(String key, String fileName) throws IOException {
+        File entryDir = new File(dir, key);
+        File[] files = entryDir.listFiles();
+        if (files == null || files.length == 0) {
+            return null;
+        }
+
+        File named = new File(entryDir, fileName);
+        if (!named.isFile()) {
+            File temp = newTempFile();
+            try {
+                copy(files[0], temp);
+            } catch (IOException e) {
+                deleteQuietly(temp);
+                throw e;
+            }
+            if (!temp.renameTo(named)) {
+                deleteQuietly(temp);
+                throw new IOException("Could not copy export in cache: " + fileName);
+            }
+        }
+        touch(entryDir, named);
+        return named;
+    }
+
+    // Fresh temp file inside the cache dir, so commit() is a same-filesystem rename
+    public synchronized File newTempFile() throws IOException {
+        ensureDir(dir);
+        return new File(dir, TEMP_PREFIX + UUID.randomUUID());
+    }
+
+    // Moves a fully written temp file into the cache under key. If the same content was
+    // committed under fileName in the meantime the temp file is discarded and the existing
+    // file returned; under another name, the temp file becomes this name's copy.
+    public synchronized File commit(File temp, String key, String fileName) throws IOException {
+        File entryDir = new File(dir, key);
+        File target = new File(entryDir, fileName);
+        if (target.isFile()) {
+            deleteQuietly(temp);
+            touch(entryDir, target);
+            return target;
+        }
+
+        ensureDir(entryDir);
+        if (!temp.renameTo(target)) {
+            deleteQuietly(temp);
+            // Only goes if this commit created it
+            deleteQuietly(entryDir);
+            throw new IOException("Could not move export into cache: " + fileName);
+        }
+        touch(entryDir, target);
+        trim(entryDir);
+        return target;
+    }
+
+    public synchronized void discard(File temp) {
+        deleteQuietly(temp);
+    }
+
+    public synchronized long sizeBytes() {
+        long total = 0;
+        for (File entryDir : entries()) {
+            total += entrySize(entryDir);
+        }
+        return total;
+    }
+
+    public synchronized int entryCount() {
+        return entries().size();
+    }
+
+    // Drops expired entries, then the least recently used ones until under maxBytes.
+    // keep (the entry just written) is never evicted.
+    public synchronized void trim(File keep) {
+        long now = System.currentTimeMillis();
+
+        File[] temps = dir.listFiles((d, name) -> name.startsWith(TEMP_PREFIX));
+        if (temps != null) {
+            for (File temp : temps) {
+                if (now - temp.lastModified() > STALE_TEMP_MILLIS) {
+                    deleteQuietly(temp);
+                }
+            }
+        }
+
+        List<File> entries = entries();
+        entries.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+        long total = 0;
+        List<File> live = new ArrayList<>();
+        for (File entryDir : entries) {
+            if (!entryDir.equals(keep) && now - entryDir.lastModified() > maxAgeMillis) {
+                deleteEntry(entryDir);
+            } else {
+                live.add(entryDir);
+                total += entrySize(entryDir);
+            }
+        }
+
+        for (File entryDir : live) {
+            if (total <= maxBytes) break;
+            if (entryDir.equals(keep)) continue;
+            total -= entrySize(entryDir);
+            deleteEntry(entryDir);
+        }
+    }
+
+    private List<File> entries() {
+        File[] dirs = dir.listFiles(File::isDirectory);
+        return dirs != null ? new ArrayList<>(Arrays.asList(dirs)) : new ArrayList<>();
+    }
+
+    private static long entrySize(File entryDir) {
+        long size = 0;
+        File[] files = entryDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    // Recency is tracked on the entry directory's mtime
+    private static void touch(File entryDir, File file) {
+        long now = System.currentTimeMillis();
+        entryDir.setLastModified(now);
+        file.setLastModified(now);
+    }
+
+    private static void deleteEntry(File entryDir) {
+        File[] files = entryDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteQuietly(file);
+            }
+        }
+        deleteQuietly(entryDir);
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(from); OutputStream out = new FileOutputStream(to)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static void ensureDir(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null && file.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.projects.history;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Selection for a page of history records, newest first.
+//
+// Pages are keyset-paginated on (date_created, id) rather than by OFFSET, so each page is a
+// range scan on the (kind, date_created, id) index no matter how deep the caller pages, and
+// records inserted meanwhile don't shift later pages. A cursor names the last row of the
+// previous page as "<date_created>:<id>".
+public final class HistoryQuery {
+    public static final String TABLE = "records";
+    public static final String COLUMN_KIND = "kind";
+    public static final String COLUMN_ID = "id";
+    public static final String COLUMN_NAME = "name";
+    public static final String COLUMN_DATE_CREATED = "date_created";
+    public static final String COLUMN_JSON = "json";
+    public static final String COLUMN_UPDATED_AT = "updated_at";
+
+    public static final String ORDER_BY = COLUMN_DATE_CREATED + " DESC, " + COLUMN_ID + " DESC";
+
+    private final StringBuilder selection = new StringBuilder();
+    private final List<String> args = new ArrayList<>();
+
+    public HistoryQuery kind(String kind) {
+        return where(COLUMN_KIND + " = ?", kind);
+    }
+
+    // Either bound may be null; both are inclusive epoch milliseconds
+    public HistoryQuery createdBetween(Long fromMs, Long toMs) {
+        if (fromMs != null) {
+            where(COLUMN_DATE_CREATED + " >= ?", String.valueOf(fromMs));
+        }
+        if (toMs != null) {
+            where(COLUMN_DATE_CREATED + " <= ?", String.valueOf(toMs));
+        }
+        return this;
+    }
+
+    // Rows strictly after the cursor in ORDER_BY order; a null cursor starts at the newest
+    public HistoryQuery after(String cursor) {
+        if (cursor == null) {
+            return this;
+        }
+        int split = cursor.indexOf(':');
+        if (split <= 0) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        long date;
+        try {
+            date = Long.parseLong(cursor.substring(0, split));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        String id = cursor.substring(split + 1);
+        appendClause("(" + COLUMN_DATE_CREATED + " < ? OR (" + COLUMN_DATE_CREATED + " = ? AND " + COLUMN_ID + " < ?))");
+        args.add(String.valueOf(date));
+        args.add(String.valueOf(date));
+        args.add(id);
+        return this;
+    }
+
+    // Null when no condition was added, as SQLiteDatabase.query expects
+    public String getSelection() {
+        return selection.length() > 0 ? selection.toString() : null;
+    }
+
+    public String[] getSelectionArgs() {
+        return args.isEmpty() ? null : args.toArray(new String[0]);
+    }
+
+    public static String cursorFor(long dateCreated, String id) {
+        return dateCreated + ":" + id;
+    }
+
+    private HistoryQuery where(String clause, String value) {
+        if (value != null) {
+            appendClause(clause);
+            args.add(value);
+        }
+        return this;
+    }
+
+    private void appendClause(String clause) {
+        if (selection.length() > 0) {
+            selection.append(" AND ");
+        }
+        selection.append(clause);
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.projects.trace;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Fixed-size ring of structured events for field diagnostics without logcat.
+//
+// Recording writes a few primitives into preallocated arrays, so the hot paths can call it
+// on every operation without allocating. Names (channel methods, mostly) are interned once
+// into a small table and events carry their index. When the ring is full the oldest events
+// are overwritten. Writers don't lock, so a dump taken while events are being recorded can
+// hold an event whose fields come from two writers; fine for diagnostics.
+//
+// Dump (little endian):
+//   [magic "HTRC"][version u8][record size u8][reserved u16][capacity u32][count u32]
+//   [overwritten u64][dump time ns u64][dump wall clock ms u64]
+//   [name count u16] then per name: [length u8][UTF-8 bytes]
+//   then count records, oldest first:
+//   [time ns u64][type u8][reserved u8][name u16][status i32][arg i32][reserved u32][value i64]
+// Times are System.nanoTime(); the dump time pairs that clock with the wall clock.
+public final class TraceLog {
+    public static final int VERSION = 1;
+    public static final int RECORD_SIZE = 32;
+    public static final int NO_NAME = 0xFFFF;
+    private static final int MAX_NAMES = 1024;
+
+    // Event types; what status, arg and value hold is noted per type
+    // Method channel call. name: method, status: channel (CHANNEL_*). On the binary BLE data
+    // channel there is no name; arg is the message op and value the payload bytes
+    public static final int CHANNEL_CALL = 1;
+    // GATT connect attempt finished. status: 1 when ready, value: ms taken
+    public static final int GATT_CONNECT = 2;
+    // Connection state callback. status: GATT status, arg: new state
+    public static final int GATT_STATE = 3;
+    // Write the stack refused or reported failed. arg: characteristic short UUID. Refused:
+    // status is the GattPort status, value the bytes. Reported failed: status is the GATT
+    // status, value -1
+    public static final int GATT_OP_FAILED = 4;
+    // status: GATT status, value: MTU
+    public static final int GATT_MTU = 5;
+    // status: GATT status, arg: tx PHY, value: rx PHY
+    public static final int GATT_PHY = 6;
+    // status: GATT status, arg: interval (1.25 ms units), value: latency | timeout << 16 (10 ms units)
+    public static final int GATT_CONNECTION_UPDATE = 7;
+    // value: connection priority requested
+    public static final int GATT_PRIORITY = 8;
+    // Framed transfer finished. status: GattPort status, arg: payload bytes, value: ns taken
+    public static final int TRANSFER = 9;
+    // Follows TRANSFER. status: repair rounds, arg: frames resent, value: frames sent
+    public static final int TRANSFER_FRAMES = 10;
+    // status: OUTBOX_*, arg: characteristic short UUID, value: bytes or entries
+    public static final int OUTBOX = 11;
+    // status: 1 opened, 0 closed, value: open sessions after
+    public static final int SESSION = 12;
+    // Preset slot sync. status: GattPort or sync status, arg: uploaded, value: skipped
+    public static final int SLOT_SYNC = 13;
+    // RSSI sample. status: GATT status, arg: RSSI dBm, value: link score after it
+    public static final int LINK_QUALITY = 14;
+    // Firmware update finished. status: GattPort status, arg: headset result, value: bytes the
+    // headset confirmed
+    public static final int FIRMWARE_UPDATE = 15;
+
+    public static final int CHANNEL_SETTINGS = 1;
+    public static final int CHANNEL_BLUETOOTH = 2;
+    public static final int CHANNEL_BLE_DATA = 3;
+    public static final int CHANNEL_BT_FILE = 4;
+    public static final int CHANNEL_HEARING_AID = 5;
+    public static final int CHANNEL_HISTORY = 6;
+    public static final int CHANNEL_BLE_DATA_BINARY = 7;
+
+    public static final int OUTBOX_QUEUED = 1;
+    public static final int OUTBOX_REPLAYED = 2;
+    public static final int OUTBOX_DISCARDED = 3;
+
+    private static final byte[] MAGIC = {'H', 'T', 'R', 'C'};
+
+    private final int capacity;
+    private final int mask;
+    private final long[] times;
+    private final int[] types;
+    private final int[] statuses;
+    private final int[] args;
+    private final long[] values;
+    private final AtomicLong next = new AtomicLong();
+
+    private final Map<String, Integer> nameIds = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    // capacity is rounded up to a power of two
+    public TraceLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        times = new long[size];
+        types = new int[size];
+        statuses = new int[size];
+        args = new int[size];
+        values = new long[size];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // Events recorded since creation or the last clear, including overwritten ones
+    public long getRecorded() {
+        return next.get();
+    }
+
+    public void record(int type, int status, int arg, long value) {
+        record(type, NO_NAME, status, arg, value);
+    }
+
+    public void record(int type, int name, int status, int arg, long value) {
+        int slot = (int) (next.getAndIncrement() & mask);
+        times[slot] = System.nanoTime();
+        // Type and name share an int so a reader sees them change together
+        types[slot] = type << 16 | (name & 0xFFFF);
+        statuses[slot] = status;
+        args[slot] = arg;
+        values[slot] = value;
+    }
+
+    // Index of name in the dump's name table; allocates only the first time a name is seen.
+    // Past MAX_NAMES new names all get NO_NAME.
+    public int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            id = nameIds.get(name);
+            if (id == null) {
+                if (names.size() >= MAX_NAMES) {
+                    return NO_NAME;
+                }
+                id = names.size();
+                names.add(name);
+                nameIds.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    public void clear() {
+        next.set(0);
+    }
+
+    public byte[] dump() {
+        long end = next.get();
+        int count = (int) Math.min(end, capacity);
+        List<byte[]> encodedNames = new ArrayList<>();
+        int namesSize = 2;
+        synchronized (names) {
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > 255) {
+                    bytes = Arrays.copyOf(bytes, 255);
+                }
+                encodedNames.add(bytes);
+                namesSize += 1 + bytes.length;
+            }
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(40 + namesSize + count * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        out.put(MAGIC);
+        out.put((byte) VERSION);
+        out.put((byte) RECORD_SIZE);
+        out.putShort((short) 0);
+        out.putInt(capacity);
+        out.putInt(count);
+        out.putLong(end - count);
+        out.putLong(System.nanoTime());
+        out.putLong(System.currentTimeMillis());
+        out.putShort((short) encodedNames.size());
+        for (byte[] name : encodedNames) {
+            out.put((byte) name.length);
+            out.put(name);
+        }
+        for (long i = end - count; i < end; i++) {
+            int slot = (int) (i & mask);
+            int typeAndName = types[slot];
+            out.putLong(times[slot]);
+            out.put((byte) (typeAndName >>> 16));
+            out.put((byte) 0);
+            out.putShort((short) typeAndName);
+            out.putInt(statuses[slot]);
+            out.putInt(args[slot]);
+            out.putInt(0);
+            out.putLong(values[slot]);
+        }
+        return out.array();
+    }
+
+    // 16-bit short form of a Bluetooth base UUID (0x2A1D for 00002A1D-...), for the arg field
+    public static int shortUuid(UUID uuid) {
+        return (int) (uuid.getMostSignificantBits() >>> 32) & 0xFFFF;
+    }
+}
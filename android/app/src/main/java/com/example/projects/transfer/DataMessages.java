@@ -0,0 +1,132 @@
+package com.example.projects.transfer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+// Binary messages on the BLE data message channel (BasicMessageChannel with BinaryCodec).
+// Payload writes skip the method channel's argument map and its boxed flags.
+//
+// From Flutter: [op u8][flags u8][characteristic u16 LE][value...]
+//   characteristic is the assigned number of a Bluetooth base UUID, 0x2A1D for
+//   00002A1D-0000-1000-8000-00805f9b34fb
+//   OP_WRITE     value written as is, like writeCharacteristic; FLAG_WITHOUT_RESPONSE
+//   OP_PAYLOAD   value streamed as framed transfer, like writePayload; FLAG_COMPRESS
+//   OP_SUBSCRIBE no value; forward the characteristic's notifications, or stop with FLAG_UNSUBSCRIBE
+// Reply: [result u8][UTF-8 message...]  RESULT_OK, or the error the method channel would
+//   have given, with its message
+// To Flutter: [OP_NOTIFY][0][characteristic u16 LE][value...]
+public final class DataMessages {
+    public static final int HEADER_SIZE = 4;
+
+    public static final int OP_WRITE = 1;
+    public static final int OP_PAYLOAD = 2;
+    public static final int OP_SUBSCRIBE = 3;
+    public static final int OP_NOTIFY = 4;
+
+    public static final int FLAG_WITHOUT_RESPONSE = 0x01;
+    public static final int FLAG_COMPRESS = 0x02;
+    public static final int FLAG_UNSUBSCRIBE = 0x04;
+
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_INVALID_ARGUMENTS = 1;
+    public static final int RESULT_NOT_CONNECTED = 2;
+    public static final int RESULT_GATT_NOT_READY = 3;
+    public static final int RESULT_WRITE_ERROR = 4;
+    public static final int RESULT_UNSUPPORTED = 5;
+    public static final int RESULT_SERVICE_UNAVAILABLE = 6;
+    public static final int RESULT_SUPERSEDED = 7;
+    public static final int RESULT_ERROR = 0xFF;
+
+    // Low 96 bits shared by every Bluetooth base UUID
+    private static final long BASE_MSB_LOW = 0x1000L;
+    private static final long BASE_LSB = 0x800000805F9B34FBL;
+
+    private DataMessages() {
+    }
+
+    public static boolean isValid(ByteBuffer message) {
+        return message != null && message.remaining() >= HEADER_SIZE;
+    }
+
+    public static int op(ByteBuffer message) {
+        return message.get(message.position()) & 0xFF;
+    }
+
+    public static int flags(ByteBuffer message) {
+        return message.get(message.position() + 1) & 0xFF;
+    }
+
+    public static int characteristicId(ByteBuffer message) {
+        return message.duplicate().order(ByteOrder.LITTLE_ENDIAN).getShort(message.position() + 2) & 0xFFFF;
+    }
+
+    // The value after the header. The channel's buffer is only valid during the handler
+    // call, so this is the one copy a write makes before it goes to the GATT queue.
+    public static byte[] value(ByteBuffer message) {
+        ByteBuffer view = message.duplicate();
+        view.position(message.position() + HEADER_SIZE);
+        byte[] value = new byte[view.remaining()];
+        view.get(value);
+        return value;
+    }
+
+    public static UUID characteristic(int id) {
+        return new UUID((long) id << 32 | BASE_MSB_LOW, BASE_LSB);
+    }
+
+    // Assigned number of a base UUID, or -1 for a UUID outside the base range
+    public static int characteristicId(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != BASE_LSB || (msb & 0xFFFFFFFFL) != BASE_MSB_LOW
+                || msb >>> 48 != 0) {
+            return -1;
+        }
+        return (int) (msb >>> 32);
+    }
+
+    // Method channel error code to reply result
+    public static int result(String errorCode) {
+        if (errorCode == null) {
+            return RESULT_ERROR;
+        }
+        switch (errorCode) {
+            case "INVALID_ARGUMENTS":
+                return RESULT_INVALID_ARGUMENTS;
+            case "NOT_CONNECTED":
+                return RESULT_NOT_CONNECTED;
+            case "GATT_NOT_READY":
+                return RESULT_GATT_NOT_READY;
+            case "WRITE_ERROR":
+                return RESULT_WRITE_ERROR;
+            case "UNSUPPORTED":
+                return RESULT_UNSUPPORTED;
+            case "SERVICE_UNAVAILABLE":
+                return RESULT_SERVICE_UNAVAILABLE;
+            case "SUPERSEDED":
+                return RESULT_SUPERSEDED;
+            default:
+                return RESULT_ERROR;
+        }
+    }
+
+    public static ByteBuffer reply(int result, String message) {
+        byte[] text = message != null ? message.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer reply = ByteBuffer.allocateDirect(1 + text.length);
+        reply.put((byte) result);
+        reply.put(text);
+        reply.flip();
+        return reply;
+    }
+
+    public static ByteBuffer notification(int characteristicId, byte[] value) {
+        ByteBuffer message = ByteBuffer.allocateDirect(HEADER_SIZE + value.length).order(ByteOrder.LITTLE_ENDIAN);
+        message.put((byte) OP_NOTIFY);
+        message.put((byte) 0);
+        message.putShort((short) characteristicId);
+        message.put(value);
+        message.flip();
+        return message;
+    }
+}
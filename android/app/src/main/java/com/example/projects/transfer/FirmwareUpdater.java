@@ -0,0 +1,446 @@
+package com.example.projects.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Headset firmware update over a control point and a data characteristic.
+//
+// The image file is memory-mapped, so packets are cut straight out of the page cache and the
+// SHA-256 sent with START is computed without copying the image into the heap. Data goes out
+// as writes without response, each tagged with its byte offset. The headset only accepts the
+// packet at the offset it expects next and reports progress in receipts every few packets; the
+// sender keeps at most a window of unconfirmed bytes in flight. A packet that arrives past a
+// gap makes the headset report the offset it is missing, and the sender goes back to it.
+//
+// The headset keeps a partial image across a disconnect. START for the same size and hash
+// answers the offset it already holds, so an update that was cut off resumes from the last
+// confirmed byte instead of starting over. VERIFY has the headset check the SHA-256 of what it
+// holds; ACTIVATE then switches it to the new image, which usually reboots it.
+//
+// Control writes (acknowledged, on the control characteristic, which also notifies):
+//   START    [0x01][image size u32 LE][sha256 32B][receipt interval u16 LE]
+//   VERIFY   [0x02]
+//   ACTIVATE [0x03]
+//   ABORT    [0x04]                    headset discards the partial image
+//   OFFSET   [0x05]                    asks where to continue, after a stall
+// Data packets (write without response, on the data characteristic):
+//   [offset u32 LE][image bytes]
+// Notifications from the headset (control characteristic):
+//   RESPONSE [0x20][request op][result u8][offset u32 LE]  answers every control write
+//   RECEIPT  [0x21][offset u32 LE]  bytes held so far; every receipt interval packets
+//   GAP      [0x22][offset u32 LE]  a packet arrived past a gap; send again from offset
+// The offset in a RESPONSE is the contiguous bytes the headset holds of the current image.
+public final class FirmwareUpdater {
+    public static final byte OP_START = 0x01;
+    public static final byte OP_VERIFY = 0x02;
+    public static final byte OP_ACTIVATE = 0x03;
+    public static final byte OP_ABORT = 0x04;
+    public static final byte OP_OFFSET = 0x05;
+    public static final byte NOTIFY_RESPONSE = 0x20;
+    public static final byte NOTIFY_RECEIPT = 0x21;
+    public static final byte NOTIFY_GAP = 0x22;
+
+    // Result codes in a RESPONSE
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_INVALID = 1;
+    public static final int RESULT_NO_SPACE = 2;
+    public static final int RESULT_INCOMPLETE = 3;
+    public static final int RESULT_HASH_MISMATCH = 4;
+    // Not from the headset: the update ended before it answered
+    public static final int RESULT_NONE = -1;
+
+    public static final int PACKET_HEADER_SIZE = 4;
+    public static final int HASH_SIZE = 32;
+    // Packets in flight past the last receipt on an average link
+    public static final int DEFAULT_WINDOW = 16;
+    // Receipts the headset sends per window, so the window refills before it runs dry
+    private static final int RECEIPTS_PER_WINDOW = 4;
+    private static final long BUSY_POLL_MS = 5;
+    // Verifying hashes the whole image, so answers can take a while
+    private static final long RESPONSE_WAIT_MS = 5000;
+    // No receipt for this long with a full window: ask the headset where it is
+    private static final long RECEIPT_WAIT_MS = 1000;
+
+    private static final byte[] DISCONNECTED = new byte[0];
+
+    public static final class Result {
+        public final int status;
+        // RESULT_* of the last headset response
+        public final int result;
+        public final int imageBytes;
+        // Offset the headset already held at START; 0 for a fresh update
+        public final int resumedFrom;
+        // Bytes the headset confirmed holding when the update ended
+        public final int confirmedBytes;
+        public final int packets;
+        // Packets sent again after a gap or a stall
+        public final int retransmitted;
+        public final int busyStalls;
+        public final int receiptStalls;
+        public final long elapsedNanos;
+
+        Result(int status, int result, int imageBytes, int resumedFrom, int confirmedBytes, int packets,
+               int retransmitted, int busyStalls, int receiptStalls, long elapsedNanos) {
+            this.status = status;
+            this.result = result;
+            this.imageBytes = imageBytes;
+            this.resumedFrom = resumedFrom;
+            this.confirmedBytes = confirmedBytes;
+            this.packets = packets;
+            this.retransmitted = retransmitted;
+            this.busyStalls = busyStalls;
+            this.receiptStalls = receiptStalls;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public boolean isSuccess() {
+            return status == GattPort.STATUS_SUCCESS;
+        }
+
+        // Image bytes sent in this run per second; a resumed update counts only its tail
+        public double getThroughputKbps() {
+            return elapsedNanos > 0 ? (imageBytes - resumedFrom) * 8.0 * 1e6 / elapsedNanos : 0.0;
+        }
+    }
+
+    // Collects notifications of the control point for the update in progress
+    private final class ControlListener implements GattPort.Listener {
+        @Override
+        public void onWriteComplete(UUID characteristic, int status) {
+        }
+
+        @Override
+        public void onNotification(UUID characteristic, byte[] value) {
+            if (controlCharacteristic.equals(characteristic) && value.length > 0) {
+                events.offer(value);
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            events.offer(DISCONNECTED);
+        }
+    }
+
+    private final GattWriter writer;
+    private final UUID controlCharacteristic;
+    private final UUID dataCharacteristic;
+    private final int window;
+    private final LinkQuality quality;
+    private final BlockingQueue<byte[]> events = new LinkedBlockingQueue<>();
+
+    // quality may be null to always use full-size packets and the given window
+    public FirmwareUpdater(GattWriter writer, UUID controlCharacteristic, UUID dataCharacteristic, int window,
+                           LinkQuality quality) {
+        this.writer = writer;
+        this.controlCharacteristic = controlCharacteristic;
+        this.dataCharacteristic = dataCharacteristic;
+        this.window = Math.max(1, window);
+        this.quality = quality;
+    }
+
+    public boolean isSupported() {
+        GattPort port = writer.getPort();
+        return port.hasCharacteristic(controlCharacteristic) && port.hasCharacteristic(dataCharacteristic);
+    }
+
+    // Maps the image and runs update(ByteBuffer, ...) on it
+    public Result update(File image, long timeoutMs) throws IOException, InterruptedException {
+        ByteBuffer mapped;
+        try (RandomAccessFile file = new RandomAccessFile(image, "r");
+             FileChannel channel = file.getChannel()) {
+            if (channel.size() == 0 || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Firmware image size out of range: " + channel.size());
+            }
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return update(mapped, timeoutMs);
+    }
+
+    // Sends the image's remaining bytes, verifies and activates them. Blocks until the headset
+    // runs the new image or something fails; call from a worker thread. After a disconnect,
+    // calling again with the same image resumes where the headset left off.
+    public Result update(ByteBuffer image, long timeoutMs) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Upload upload = new Upload(image.slice(), deadline);
+
+        ControlListener listener = new ControlListener();
+        GattPort port = writer.getPort();
+        events.clear();
+        port.addListener(listener);
+        try {
+            upload.run();
+        } finally {
+            port.removeListener(listener);
+        }
+        return new Result(upload.status, upload.result, upload.size, upload.resumedFrom, upload.confirmed,
+            upload.packets, upload.retransmitted, upload.busyStalls, upload.receiptStalls, System.nanoTime() - start);
+    }
+
+    // State of one update run
+    private final class Upload {
+        final ByteBuffer image;
+        final int size;
+        final long deadline;
+        final GattPort port = writer.getPort();
+        int status = GattPort.STATUS_SUCCESS;
+        int result = RESULT_NONE;
+        int resumedFrom;
+        // Bytes the headset confirmed, the next offset to send and the furthest offset sent
+        int confirmed;
+        int sent;
+        int highest;
+        int packets;
+        int retransmitted;
+        int busyStalls;
+        int receiptStalls;
+
+        Upload(ByteBuffer image, long deadline) {
+            this.image = image;
+            this.size = image.remaining();
+            this.deadline = deadline;
+        }
+
+        void run() throws InterruptedException {
+            int maxWrite = port.getMaxWriteLength();
+            int chunk = (quality != null ? quality.writeLength(maxWrite) : maxWrite) - PACKET_HEADER_SIZE;
+            int windowPackets = quality != null ? quality.window(window) : window;
+            int receiptInterval = Math.max(1, windowPackets / RECEIPTS_PER_WINDOW);
+            long windowBytes = (long) windowPackets * chunk;
+            if (chunk <= 0) {
+                status = GattPort.STATUS_FAILED;
+                return;
+            }
+
+            status = writer.enableNotifications(controlCharacteristic, remainingMs());
+            if (status != GattPort.STATUS_SUCCESS) return;
+            byte[] answer = request(start(size, sha256(image.duplicate()), receiptInterval));
+            if (answer == null) return;
+            if (result != RESULT_OK || offsetOf(answer) > size) {
+                status = GattPort.STATUS_FAILED;
+                return;
+            }
+            resumedFrom = offsetOf(answer);
+            restartAt(resumedFrom);
+
+            byte[] packet = null;
+            while (true) {
+                if (System.nanoTime() >= deadline) {
+                    status = GattPort.STATUS_TIMEOUT;
+                    return;
+                }
+                byte[] event;
+                while ((event = events.poll()) != null) {
+                    if (!apply(event)) return;
+                }
+
+                if (sent < size && sent - confirmed < windowBytes) {
+                    // A packet held back by a busy stack is stale if a receipt or gap moved sent
+                    if (packet == null || TransferFrames.getInt(packet, 0) != sent) {
+                        packet = packet(image, sent, Math.min(chunk, size - sent));
+                    }
+                    int written = port.write(dataCharacteristic, packet, false);
+                    if (written == GattPort.STATUS_SUCCESS) {
+                        if (sent < highest) {
+                            retransmitted++;
+                        }
+                        sent += packet.length - PACKET_HEADER_SIZE;
+                        highest = Math.max(highest, sent);
+                        packets++;
+                        packet = null;
+                        continue;
+                    }
+                    if (written != GattPort.STATUS_BUSY) {
+                        status = written;
+                        return;
+                    }
+                    // Stack buffer full: wait briefly for a completion to free a slot
+                    busyStalls++;
+                    int freed = writer.nextCompletion(Math.min(deadline,
+                        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BUSY_POLL_MS)));
+                    if (freed != GattPort.STATUS_SUCCESS && freed != GattPort.STATUS_TIMEOUT) {
+                        status = freed;
+                        return;
+                    }
+                    continue;
+                }
+
+                if (sent >= size) {
+                    // Everything is out; VERIFY is queued behind it and says what arrived
+                    answer = request(new byte[] {OP_VERIFY});
+                    if (answer == null) return;
+                    if (result == RESULT_OK) break;
+                    if (result != RESULT_INCOMPLETE) {
+                        status = GattPort.STATUS_FAILED;
+                        return;
+                    }
+                    restartAt(offsetOf(answer));
+                    packet = null;
+                    continue;
+                }
+
+                // Window full: wait for a receipt, or ask where the headset is if none comes
+                event = events.poll(Math.min(RECEIPT_WAIT_MS, remainingMs()), TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    if (!apply(event)) return;
+                    continue;
+                }
+                receiptStalls++;
+                answer = request(new byte[] {OP_OFFSET});
+                if (answer == null) return;
+                restartAt(offsetOf(answer));
+                packet = null;
+            }
+
+            // The headset may reboot into the new image before its answer gets out
+            answer = request(new byte[] {OP_ACTIVATE});
+            if (status == GattPort.STATUS_DISCONNECTED) {
+                status = GattPort.STATUS_SUCCESS;
+            } else if (answer != null && result != RESULT_OK) {
+                status = GattPort.STATUS_FAILED;
+            }
+        }
+
+        // Acknowledged control write and the headset's response to it. Returns null with
+        // status set when either fails; receipts that arrive meanwhile are applied.
+        byte[] request(byte[] value) throws InterruptedException {
+            status = writer.write(controlCharacteristic, value, true, remainingMs());
+            if (status != GattPort.STATUS_SUCCESS) {
+                return null;
+            }
+            long responseDeadline = Math.min(deadline,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESPONSE_WAIT_MS));
+            while (true) {
+                long remaining = responseDeadline - System.nanoTime();
+                byte[] event = remaining > 0 ? events.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (event == null) {
+                    status = GattPort.STATUS_TIMEOUT;
+                    return null;
+                }
+                if (event[0] == NOTIFY_RESPONSE && event.length >= 7 && event[1] == value[0]) {
+                    result = event[2] & 0xFF;
+                    return event;
+                }
+                if (!apply(event)) {
+                    return null;
+                }
+            }
+        }
+
+        // Applies a receipt or gap report; false once the link is gone
+        boolean apply(byte[] event) {
+            if (event == DISCONNECTED) {
+                status = GattPort.STATUS_DISCONNECTED;
+                return false;
+            }
+            if (event.length < 5) {
+                return true;
+            }
+            int offset = TransferFrames.getInt(event, 1);
+            if (offset > highest) {
+                return true;
+            }
+            if (event[0] == NOTIFY_RECEIPT) {
+                confirmed = Math.max(confirmed, offset);
+                // Already past where a gap sent us back to
+                sent = Math.max(sent, confirmed);
+            } else if (event[0] == NOTIFY_GAP && offset < sent) {
+                confirmed = Math.max(confirmed, offset);
+                sent = confirmed;
+            }
+            return true;
+        }
+
+        // The headset's word on what it holds overrides whatever is still in flight
+        void restartAt(int offset) {
+            events.removeIf(event -> event != DISCONNECTED);
+            confirmed = offset;
+            sent = offset;
+            highest = Math.max(highest, offset);
+        }
+
+        long remainingMs() {
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        }
+    }
+
+    static byte[] start(int size, byte[] hash, int receiptInterval) {
+        byte[] value = new byte[7 + HASH_SIZE];
+        value[0] = OP_START;
+        TransferFrames.putInt(value, 1, size);
+        System.arraycopy(hash, 0, value, 5, HASH_SIZE);
+        TransferFrames.putShort(value, 5 + HASH_SIZE, receiptInterval);
+        return value;
+    }
+
+    static byte[] packet(ByteBuffer image, int offset, int length) {
+        byte[] packet = new byte[PACKET_HEADER_SIZE + length];
+        TransferFrames.putInt(packet, 0, offset);
+        ByteBuffer source = image.duplicate();
+        source.position(offset);
+        source.get(packet, PACKET_HEADER_SIZE, length);
+        return packet;
+    }
+
+    static byte[] response(int op, int result, int offset) {
+        byte[] value = new byte[7];
+        value[0] = NOTIFY_RESPONSE;
+        value[1] = (byte) op;
+        value[2] = (byte) result;
+        TransferFrames.putInt(value, 3, offset);
+        return value;
+    }
+
+    // RECEIPT or GAP
+    static byte[] progress(byte kind, int offset) {
+        byte[] value = new byte[5];
+        value[0] = kind;
+        TransferFrames.putInt(value, 1, offset);
+        return value;
+    }
+
+    static int offsetOf(byte[] response) {
+        return TransferFrames.getInt(response, 3);
+    }
+
+    public static byte[] sha256(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java and Android runtime ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String describeResult(int result) {
+        switch (result) {
+            case RESULT_OK:
+                return "ok";
+            case RESULT_INVALID:
+                return "invalid";
+            case RESULT_NO_SPACE:
+                return "no space";
+            case RESULT_INCOMPLETE:
+                return "incomplete";
+            case RESULT_HASH_MISMATCH:
+                return "hash mismatch";
+            case RESULT_NONE:
+                return "no answer";
+            default:
+                return "result " + result;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.projects.transfer;
+
+import java.util.UUID;
+
+// A connected GATT client as seen by the transfer code.
+//
+// Writes are issued without blocking; their outcome arrives later through
+// Listener.onWriteComplete, in issue order. Implemented by the Android data link
+// and by test doubles, so everything built on top of it runs on a plain JVM.
+public interface GattPort {
+    int STATUS_SUCCESS = 0;
+    // The stack has no room for another packet right now; retry after a completion
+    int STATUS_BUSY = 1;
+    int STATUS_FAILED = 2;
+    int STATUS_DISCONNECTED = 3;
+    int STATUS_TIMEOUT = 4;
+
+    interface Listener {
+        // Called on a stack thread
+        void onWriteComplete(UUID characteristic, int status);
+
+        void onNotification(UUID characteristic, byte[] value);
+
+        // Result of read(); value is null when the read failed
+        default void onReadComplete(UUID characteristic, int status, byte[] value) {
+        }
+
+        void onDisconnected();
+    }
+
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+
+    boolean isReady();
+
+    boolean hasCharacteristic(UUID characteristic);
+
+    // Largest value a single write can carry (ATT MTU minus the 3 byte write header)
+    int getMaxWriteLength();
+
+    // Queues a write and returns STATUS_SUCCESS if it was accepted, or why it wasn't
+    int write(UUID characteristic, byte[] value, boolean withResponse);
+
+    // Queues a read; the value arrives through onReadComplete
+    int read(UUID characteristic);
+
+    // Turns notifications for a characteristic on or off. Completes like a write, through
+    // onWriteComplete with the characteristic's UUID.
+    int setNotifications(UUID characteristic, boolean enable);
+
+    static String describe(int status) {
+        switch (status) {
+            case STATUS_SUCCESS:
+                return "success";
+            case STATUS_BUSY:
+                return "busy";
+            case STATUS_FAILED:
+                return "failed";
+            case STATUS_DISCONNECTED:
+                return "disconnected";
+            case STATUS_TIMEOUT:
+                return "timeout";
+            default:
+                return "status " + status;
+        }
+    }
+}
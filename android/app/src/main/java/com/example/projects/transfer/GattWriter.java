@@ -0,0 +1,203 @@
+package com.example.projects.transfer;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Blocking write helper over a GattPort, meant to be driven from one worker thread.
+//
+// A write is issued and then waited on until the stack reports its completion. When the
+// stack says it is busy, the writer waits for the next completion (which frees a slot)
+// or a short back-off and tries again, until the deadline passes.
+public final class GattWriter implements GattPort.Listener {
+    // Upper bound between busy retries when no completion arrives to wake us earlier
+    private static final long BUSY_RETRY_MS = 5;
+
+    private static final class Completion {
+        final UUID characteristic;
+        final int status;
+        final byte[] value;
+
+        Completion(UUID characteristic, int status, byte[] value) {
+            this.characteristic = characteristic;
+            this.status = status;
+            this.value = value;
+        }
+    }
+
+    private static final Completion DISCONNECTED = new Completion(null, GattPort.STATUS_DISCONNECTED, null);
+
+    private final GattPort port;
+    private final BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+    private volatile int busyRetries;
+
+    public GattWriter(GattPort port) {
+        this.port = port;
+        port.addListener(this);
+    }
+
+    public GattPort getPort() {
+        return port;
+    }
+
+    // Times the stack pushed back since this writer was created
+    public int getBusyRetries() {
+        return busyRetries;
+    }
+
+    // Returns a GattPort status; STATUS_SUCCESS once the stack confirmed the write
+    public int write(UUID characteristic, byte[] value, boolean withResponse, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        reset();
+
+        int issued = issue(characteristic, value, withResponse, deadline);
+        if (issued != GattPort.STATUS_SUCCESS) {
+            return issued;
+        }
+        return awaitCompletion(characteristic, deadline);
+    }
+
+    // Reads a characteristic; returns null if the read failed or timed out
+    public byte[] read(UUID characteristic, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        reset();
+
+        while (true) {
+            if (!port.isReady()) {
+                return null;
+            }
+            int status = port.read(characteristic);
+            if (status == GattPort.STATUS_SUCCESS) {
+                break;
+            }
+            if (status != GattPort.STATUS_BUSY || System.nanoTime() >= deadline) {
+                return null;
+            }
+            busyRetries++;
+            Thread.sleep(BUSY_RETRY_MS);
+        }
+
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            Completion completion = remaining > 0 ? completions.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (completion == null || completion == DISCONNECTED) {
+                return null;
+            }
+            if (characteristic.equals(completion.characteristic) && completion.value != null) {
+                return completion.status == GattPort.STATUS_SUCCESS ? completion.value : null;
+            }
+        }
+    }
+
+    public int enableNotifications(UUID characteristic, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        reset();
+
+        while (true) {
+            if (!port.isReady()) {
+                return GattPort.STATUS_DISCONNECTED;
+            }
+            int status = port.setNotifications(characteristic, true);
+            if (status == GattPort.STATUS_SUCCESS) {
+                return awaitCompletion(characteristic, deadline);
+            }
+            if (status != GattPort.STATUS_BUSY) {
+                return status;
+            }
+            busyRetries++;
+            if (System.nanoTime() >= deadline) {
+                return GattPort.STATUS_TIMEOUT;
+            }
+            Thread.sleep(BUSY_RETRY_MS);
+        }
+    }
+
+    // Issues a write, retrying while the stack is busy. Completions of earlier writes that
+    // arrive meanwhile are consumed, so call only when nothing else is awaited.
+    public int issue(UUID characteristic, byte[] value, boolean withResponse, long deadlineNanos)
+            throws InterruptedException {
+        while (true) {
+            if (!port.isReady()) {
+                return GattPort.STATUS_DISCONNECTED;
+            }
+            int status = port.write(characteristic, value, withResponse);
+            if (status != GattPort.STATUS_BUSY) {
+                return status;
+            }
+
+            busyRetries++;
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return GattPort.STATUS_TIMEOUT;
+            }
+            Completion freed = completions.poll(
+                Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(BUSY_RETRY_MS)), TimeUnit.NANOSECONDS);
+            if (freed == DISCONNECTED) {
+                return GattPort.STATUS_DISCONNECTED;
+            }
+        }
+    }
+
+    // Waits for the completion of the last issued write
+    public int awaitCompletion(UUID characteristic, long deadlineNanos) throws InterruptedException {
+        while (true) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return GattPort.STATUS_TIMEOUT;
+            }
+            Completion completion = completions.poll(remaining, TimeUnit.NANOSECONDS);
+            if (completion == null) {
+                return GattPort.STATUS_TIMEOUT;
+            }
+            if (completion == DISCONNECTED) {
+                return GattPort.STATUS_DISCONNECTED;
+            }
+            if (characteristic.equals(completion.characteristic)) {
+                return completion.status;
+            }
+        }
+    }
+
+    // Status of the next completion of any write, for callers that keep several writes
+    // outstanding and do their own accounting
+    public int nextCompletion(long deadlineNanos) throws InterruptedException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining <= 0) {
+            return GattPort.STATUS_TIMEOUT;
+        }
+        Completion completion = completions.poll(remaining, TimeUnit.NANOSECONDS);
+        return completion != null ? completion.status : GattPort.STATUS_TIMEOUT;
+    }
+
+    // Forget completions left over from writes that timed out
+    public void reset() {
+        completions.clear();
+    }
+
+    public void close() {
+        port.removeListener(this);
+        completions.clear();
+    }
+
+    @Override
+    public void onWriteComplete(UUID characteristic, int status) {
+        completions.offer(new Completion(characteristic, status, null));
+    }
+
+    @Override
+    public void onReadComplete(UUID characteristic, int status, byte[] value) {
+        completions.offer(new Completion(characteristic, status, value != null ? value : new byte[0]));
+    }
+
+    @Override
+    public void onNotification(UUID characteristic, byte[] value) {
+        // Not used for writes
+    }
+
+    @Override
+    public void onDisconnected() {
+        completions.offer(DISCONNECTED);
+    }
+}
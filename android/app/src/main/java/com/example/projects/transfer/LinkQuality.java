@@ -0,0 +1,166 @@
+package com.example.projects.transfer;
+
+// Running estimate of how well a data link is doing, and the transfer settings that suit it.
+//
+// Signal strength comes from periodic RSSI reads, write outcomes from the stack's
+// completions and our own timeouts, frame loss from the NACKs of framed transfers. Each is an
+// exponentially weighted average, so a burst of trouble pulls the score down within a few
+// writes and a run of clean ones lifts it again. Weak signal alone can at most halve the
+// score; it takes failing writes or lost frames to make a link weak. With no evidence either
+// way a link counts as strong.
+//
+// Score 0-100, in three tiers:
+//   STRONG  full-size writes, twice the default in-flight window, short retry back-off
+//   FAIR    writes capped to one LE data PDU, the default window
+//   WEAK    small writes, one packet in flight, long back-off and a pause before each
+//           repair round, so a struggling link isn't flooded with retries
+public final class LinkQuality {
+    public static final int TIER_WEAK = 0;
+    public static final int TIER_FAIR = 1;
+    public static final int TIER_STRONG = 2;
+    public static final int STRONG_SCORE = 70;
+    public static final int FAIR_SCORE = 40;
+
+    // Signal at or above STRONG_RSSI counts fully; at WEAK_RSSI or below it halves the score
+    static final int STRONG_RSSI = -60;
+    static final int WEAK_RSSI = -90;
+    // Largest ATT value that fits one LE data PDU with data length extension (251 - 4 - 3)
+    static final int FAIR_MAX_WRITE = 244;
+    static final int WEAK_MAX_WRITE = 100;
+    private static final int MIN_WRITE = 20;
+
+    private static final double RSSI_WEIGHT = 0.25;
+    private static final double COMPLETION_WEIGHT = 1.0 / 16;
+    // A timeout is rare and costs seconds, so one counts for much more than a failed write
+    private static final double TIMEOUT_WEIGHT = 0.25;
+    private static final double LOSS_WEIGHT = 0.5;
+
+    private static final long STRONG_RETRY_MS = 100;
+    private static final long FAIR_RETRY_MS = 400;
+    private static final long WEAK_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 8000;
+    private static final int MAX_BACKOFF_SHIFT = 4;
+
+    private double rssi = Double.NaN;
+    private double errorRate;
+    private double timeoutRate;
+    private double lossRate;
+    // Connection interval in 1.25 ms units and peripheral latency, -1 until reported
+    private int intervalUnits = -1;
+    private int peripheralLatency;
+
+    public synchronized void onRssi(int dbm) {
+        rssi = Double.isNaN(rssi) ? dbm : rssi + RSSI_WEIGHT * (dbm - rssi);
+    }
+
+    // Completion of a write the stack accepted
+    public synchronized void onWriteComplete(boolean success) {
+        errorRate += COMPLETION_WEIGHT * ((success ? 0 : 1) - errorRate);
+        timeoutRate -= COMPLETION_WEIGHT * timeoutRate;
+    }
+
+    // A write or transfer that got no answer before its deadline
+    public synchronized void onTimeout() {
+        timeoutRate += TIMEOUT_WEIGHT * (1 - timeoutRate);
+    }
+
+    // Frames of a framed transfer and how many of them the headset asked for again
+    public synchronized void onTransfer(int packets, int retransmitted) {
+        if (packets > 0) {
+            lossRate += LOSS_WEIGHT * ((double) retransmitted / packets - lossRate);
+        }
+    }
+
+    public synchronized void onConnectionParameters(int intervalUnits, int peripheralLatency) {
+        this.intervalUnits = intervalUnits;
+        this.peripheralLatency = Math.max(0, peripheralLatency);
+    }
+
+    // A new connection starts without history
+    public synchronized void reset() {
+        rssi = Double.NaN;
+        errorRate = 0;
+        timeoutRate = 0;
+        lossRate = 0;
+        intervalUnits = -1;
+        peripheralLatency = 0;
+    }
+
+    // Smoothed RSSI in dBm, or null before the first reading
+    public synchronized Integer getRssi() {
+        return Double.isNaN(rssi) ? null : (int) Math.round(rssi);
+    }
+
+    public synchronized int getScore() {
+        double signal = 1.0;
+        if (!Double.isNaN(rssi)) {
+            double strength = (rssi - WEAK_RSSI) / (STRONG_RSSI - WEAK_RSSI);
+            signal = 0.5 + 0.5 * Math.max(0, Math.min(1, strength));
+        }
+        double trouble = Math.min(1, 4 * lossRate + 4 * errorRate + 2 * timeoutRate);
+        return (int) Math.round(100 * signal * (1 - trouble));
+    }
+
+    public int getTier() {
+        int score = getScore();
+        return score >= STRONG_SCORE ? TIER_STRONG : score >= FAIR_SCORE ? TIER_FAIR : TIER_WEAK;
+    }
+
+    // Largest value to put in one write, given the most the link or protocol allows
+    public int writeLength(int maxLength) {
+        int length;
+        switch (getTier()) {
+            case TIER_STRONG:
+                length = maxLength;
+                break;
+            case TIER_FAIR:
+                length = Math.min(maxLength, FAIR_MAX_WRITE);
+                break;
+            default:
+                length = Math.min(maxLength, WEAK_MAX_WRITE);
+                break;
+        }
+        return Math.min(maxLength, Math.max(MIN_WRITE, length));
+    }
+
+    // Packets to keep in flight, given the window used on an average link
+    public int window(int defaultWindow) {
+        switch (getTier()) {
+            case TIER_STRONG:
+                return defaultWindow * 2;
+            case TIER_FAIR:
+                return defaultWindow;
+            default:
+                return 1;
+        }
+    }
+
+    // Wait before retry number attempt (0 for the first): a per-tier base, never under two
+    // connection events, doubled per attempt
+    public synchronized long retryDelayMs(int attempt) {
+        int tier = getTier();
+        long base = tier == TIER_STRONG ? STRONG_RETRY_MS : tier == TIER_FAIR ? FAIR_RETRY_MS : WEAK_RETRY_MS;
+        if (intervalUnits > 0) {
+            // A peripheral using latency may skip that many events before it listens again
+            long eventMs = (long) Math.ceil(intervalUnits * 1.25 * (1 + peripheralLatency));
+            base = Math.max(base, 2 * eventMs);
+        }
+        return Math.min(MAX_RETRY_MS, base << Math.min(Math.max(0, attempt), MAX_BACKOFF_SHIFT));
+    }
+
+    // Pause before repair round number round of a framed transfer; only weak links get one
+    public long repairPauseMs(int round) {
+        return getTier() == TIER_WEAK ? retryDelayMs(round) : 0;
+    }
+
+    public static String tierName(int tier) {
+        switch (tier) {
+            case TIER_STRONG:
+                return "strong";
+            case TIER_FAIR:
+                return "fair";
+            default:
+                return "weak";
+        }
+    }
+}
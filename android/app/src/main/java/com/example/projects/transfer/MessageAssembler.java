@@ -0,0 +1,163 @@
+package com.example.projects.transfer;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// Reassembles messages the headset notifies in several packets, e.g. usage statistics or a
+// measurement that doesn't fit one ATT value.
+//
+// Fragment (notification on a data characteristic):
+//   [session u8][message length u16 LE][offset u16 LE][bytes]
+// A message is a run of fragments with the same session ID on the same characteristic,
+// starting at offset 0 and arriving in order; a message that fits one packet is a single
+// fragment. A fragment that doesn't continue its message where it left off drops the message.
+//
+// Messages being assembled live in a fixed set of buffers allocated up front, so a stream of
+// notifications allocates nothing until a message is complete. When every buffer is busy, a
+// new session takes the one that waited longest for its next fragment.
+public final class MessageAssembler {
+    public static final int HEADER_SIZE = 5;
+    public static final int MAX_MESSAGE = 0xFFFF;
+
+    public interface Sink {
+        // A complete message; buffer is reused once this returns, so copy what you keep
+        void onMessage(UUID characteristic, int session, byte[] buffer, int length);
+    }
+
+    private final int capacity;
+    private final byte[][] buffers;
+    // Per buffer: what it is assembling (session -1 when free), length, bytes so far, last use
+    private final UUID[] characteristics;
+    private final int[] sessions;
+    private final int[] lengths;
+    private final int[] received;
+    private final long[] lastUsed;
+    private long clock;
+    private int messages;
+    private int dropped;
+
+    // slots messages can be assembled at once, each up to capacity bytes
+    public MessageAssembler(int slots, int capacity) {
+        this.capacity = Math.min(MAX_MESSAGE, capacity);
+        buffers = new byte[slots][this.capacity];
+        characteristics = new UUID[slots];
+        sessions = new int[slots];
+        lengths = new int[slots];
+        received = new int[slots];
+        lastUsed = new long[slots];
+        Arrays.fill(sessions, -1);
+    }
+
+    // Takes one notification; returns true when it completed a message, which went to sink
+    public synchronized boolean accept(UUID characteristic, byte[] fragment, Sink sink) {
+        if (fragment.length < HEADER_SIZE) {
+            dropped++;
+            return false;
+        }
+        int session = fragment[0] & 0xFF;
+        int length = TransferFrames.getShort(fragment, 1);
+        int offset = TransferFrames.getShort(fragment, 3);
+        int bytes = fragment.length - HEADER_SIZE;
+        int slot = find(characteristic, session);
+
+        if (length == 0 || length > capacity || offset + bytes > length) {
+            free(slot);
+            dropped++;
+            return false;
+        }
+        if (offset == 0) {
+            if (slot < 0) {
+                slot = claim();
+            } else if (received[slot] > 0) {
+                // The headset started the session over
+                dropped++;
+            }
+            characteristics[slot] = characteristic;
+            sessions[slot] = session;
+            lengths[slot] = length;
+            received[slot] = 0;
+        } else if (slot < 0 || lengths[slot] != length || received[slot] != offset) {
+            free(slot);
+            dropped++;
+            return false;
+        }
+
+        System.arraycopy(fragment, HEADER_SIZE, buffers[slot], offset, bytes);
+        received[slot] += bytes;
+        lastUsed[slot] = ++clock;
+        if (received[slot] < length) {
+            return false;
+        }
+        free(slot);
+        messages++;
+        sink.onMessage(characteristic, session, buffers[slot], length);
+        return true;
+    }
+
+    // Forgets partial messages, e.g. after a disconnect
+    public synchronized void reset() {
+        Arrays.fill(sessions, -1);
+        Arrays.fill(characteristics, null);
+    }
+
+    public synchronized int getMessages() {
+        return messages;
+    }
+
+    // Fragments and partial messages thrown away
+    public synchronized int getDropped() {
+        return dropped;
+    }
+
+    // The fragments a headset sends message as, with maxValue bytes per notification
+    public static byte[][] split(int session, byte[] message, int maxValue) {
+        if (message.length == 0 || message.length > MAX_MESSAGE || maxValue <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Cannot split " + message.length + " bytes into " + maxValue);
+        }
+        int chunk = maxValue - HEADER_SIZE;
+        int count = Math.max(1, (message.length + chunk - 1) / chunk);
+        byte[][] fragments = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * chunk;
+            int bytes = Math.min(chunk, message.length - offset);
+            byte[] fragment = new byte[HEADER_SIZE + bytes];
+            fragment[0] = (byte) session;
+            TransferFrames.putShort(fragment, 1, message.length);
+            TransferFrames.putShort(fragment, 3, offset);
+            System.arraycopy(message, offset, fragment, HEADER_SIZE, bytes);
+            fragments[i] = fragment;
+        }
+        return fragments;
+    }
+
+    private int find(UUID characteristic, int session) {
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] == session && characteristic.equals(characteristics[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // A free buffer, else the one that waited longest
+    private int claim() {
+        int oldest = 0;
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] < 0) {
+                return i;
+            }
+            if (lastUsed[i] < lastUsed[oldest]) {
+                oldest = i;
+            }
+        }
+        dropped++;
+        return oldest;
+    }
+
+    private void free(int slot) {
+        if (slot >= 0) {
+            sessions[slot] = -1;
+            characteristics[slot] = null;
+        }
+    }
+}
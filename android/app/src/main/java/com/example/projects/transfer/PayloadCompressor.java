@@ -0,0 +1,88 @@
+package com.example.projects.transfer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Raw DEFLATE with a preset dictionary of our JSON schema, applied to a payload before it is
+// framed. Preset, audiogram and combined payloads are small and repeat the same keys, which
+// plain DEFLATE can't exploit until it has seen each key once; the dictionary primes it.
+//
+// The dictionary is part of the wire format: the headset advertises CAP_DEFLATE_DICT_V1 only
+// if it inflates with exactly these bytes. Changing it needs a new capability bit.
+public final class PayloadCompressor {
+    public static final int CAP_DEFLATE_DICT_V1 = 0x01;
+
+    // DEFLATE reaches back 32 KB and favours short distances, so the most common strings go last
+    static final byte[] DICTIONARY = (
+        "\"combinedValues\":{\"adjustedHearing\":{\"noiseReduction\":{"
+            + "\"reduceBackgroundNoise\":\"reduceWindNoise\":\"softenSuddenNoise\":"
+            + "\"presetEnhancements\":{\"presetName\":\"overallVolume\":\"bassAdjustment\":"
+            + "\"midAdjustment\":\"trebleAdjustment\":"
+            + "\"hearingTestId\":\"presetId\":\"timestamp\":\"hearingTest\":{\"preset\":{"
+            + "\"db_valueSB_LMS\":\"db_valueSB_MHS\":"
+            + "\"reduce_background_noise\":\"reduce_wind_noise\":\"soften_sudden_noise\":"
+            + "true,false,"
+            + "\"presetData\":{\"db_valueOV\":0.0,\"db_valueSB_BS\":0.0,\"db_valueSB_MRS\":0.0,\"db_valueSB_TS\":0.0,"
+            + "\"soundTestData\":{"
+            + "\"L_user_250Hz_dB\":\"L_user_500Hz_dB\":\"L_user_1000Hz_dB\":\"L_user_2000Hz_dB\":\"L_user_4000Hz_dB\":"
+            + "\"R_user_250Hz_dB\":\"R_user_500Hz_dB\":\"R_user_1000Hz_dB\":\"R_user_2000Hz_dB\":\"R_user_4000Hz_dB\":"
+            + "{\"id\":\"name\":\"dateCreated\":\"2025-01-01T00:00:00.000\",\"2026-"
+    ).getBytes(StandardCharsets.US_ASCII);
+
+    private final Deflater deflater;
+    private byte[] buffer = new byte[4096];
+
+    public PayloadCompressor() {
+        this(Deflater.BEST_COMPRESSION);
+    }
+
+    public PayloadCompressor(int level) {
+        deflater = new Deflater(level, true);
+    }
+
+    // Not thread-safe; one compressor per writer
+    public byte[] compress(byte[] input) {
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(input);
+        deflater.finish();
+
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+
+        byte[] output = new byte[length];
+        System.arraycopy(buffer, 0, output, 0, length);
+        return output;
+    }
+
+    // Headset-side counterpart, used by tests
+    public static byte[] inflate(byte[] compressed, int originalLength) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(16, originalLength));
+            byte[] chunk = new byte[1024];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated stream");
+                }
+                out.write(chunk, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+}
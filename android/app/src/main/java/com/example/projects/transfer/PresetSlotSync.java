@@ -0,0 +1,150 @@
+package com.example.projects.transfer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Brings the headset's preset slots in line with a list of payloads, uploading only the
+// ones whose hash the headset doesn't already hold, then switches presets by slot number.
+// See PresetSlots for the wire format.
+//
+// Blocking; run on the session's executor like the other GattWriter users.
+public final class PresetSlotSync {
+    public static final class Item {
+        public final String id;
+        public final int kind;
+        public final byte[] payload;
+        final byte[] hash;
+
+        public Item(String id, int kind, byte[] payload) {
+            this.id = id;
+            this.kind = kind;
+            this.payload = payload;
+            this.hash = PresetSlots.hash(payload);
+        }
+    }
+
+    public static final class Result {
+        public final int status;
+        // Item id -> slot now holding it, for every item that made it onto the headset
+        public final Map<String, Integer> slots;
+        public final int uploaded;
+        public final int skipped;
+        // Item that stopped the sync, null on success
+        public final String failedId;
+
+        Result(int status, Map<String, Integer> slots, int uploaded, int skipped, String failedId) {
+            this.status = status;
+            this.slots = slots;
+            this.uploaded = uploaded;
+            this.skipped = skipped;
+            this.failedId = failedId;
+        }
+
+        public boolean isSuccess() {
+            return status == GattPort.STATUS_SUCCESS;
+        }
+    }
+
+    // More items than the headset has slots for, or every slot is active/needed
+    public static final int STATUS_NO_FREE_SLOT = 16;
+
+    private final GattWriter writer;
+    private final StreamingWriter streamer;
+    private final UUID manifestCharacteristic;
+    private final UUID activeCharacteristic;
+    private final UUID dataCharacteristic;
+
+    public PresetSlotSync(GattWriter writer, StreamingWriter streamer, UUID manifestCharacteristic,
+                          UUID activeCharacteristic, UUID dataCharacteristic) {
+        this.writer = writer;
+        this.streamer = streamer;
+        this.manifestCharacteristic = manifestCharacteristic;
+        this.activeCharacteristic = activeCharacteristic;
+        this.dataCharacteristic = dataCharacteristic;
+    }
+
+    // Headsets without the slot characteristics get the whole preset on every change instead
+    public boolean isSupported() {
+        GattPort port = writer.getPort();
+        return port.hasCharacteristic(manifestCharacteristic)
+            && port.hasCharacteristic(activeCharacteristic)
+            && port.hasCharacteristic(dataCharacteristic)
+            && streamer.isSupported();
+    }
+
+    // Current manifest, or null if it couldn't be read or parsed
+    public PresetSlots.Manifest readManifest(long timeoutMs) throws InterruptedException {
+        byte[] value = writer.read(manifestCharacteristic, timeoutMs);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return PresetSlots.parseManifest(value);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public Result sync(List<Item> items, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        Map<String, Integer> slots = new HashMap<>();
+        PresetSlots.Manifest manifest = readManifest(timeoutMs);
+        if (manifest == null) {
+            return new Result(GattPort.STATUS_FAILED, slots, 0, 0, null);
+        }
+
+        // Items the headset already holds keep their slots; the rest need one
+        Set<Integer> reserved = new HashSet<>();
+        Set<String> wanted = new HashSet<>();
+        List<Item> missing = new ArrayList<>();
+        int skipped = 0;
+        for (Item item : items) {
+            wanted.add(PresetSlots.toHex(item.hash));
+            int slot = manifest.slotOf(item.hash);
+            if (slot >= 0) {
+                slots.put(item.id, slot);
+                reserved.add(slot);
+                skipped++;
+            } else {
+                missing.add(item);
+            }
+        }
+
+        int uploaded = 0;
+        for (Item item : missing) {
+            // Two items with the same content share the slot uploaded first
+            int existing = manifest.slotOf(item.hash);
+            if (existing >= 0) {
+                slots.put(item.id, existing);
+                skipped++;
+                continue;
+            }
+            int slot = PresetSlots.chooseSlot(manifest, reserved, wanted);
+            if (slot < 0) {
+                return new Result(STATUS_NO_FREE_SLOT, slots, uploaded, skipped, item.id);
+            }
+            long remainingMs = Math.max(1, (deadline - System.nanoTime()) / 1_000_000L);
+            // The envelope carries the hash uncompressed; the headset checks it after inflating
+            StreamingWriter.Result sent = streamer.send(dataCharacteristic,
+                PresetSlots.envelope(slot, item.kind, item.hash, item.payload), true, remainingMs);
+            if (!sent.isSuccess()) {
+                return new Result(sent.status, slots, uploaded, skipped, item.id);
+            }
+            manifest.put(slot, item.kind, item.hash);
+            reserved.add(slot);
+            slots.put(item.id, slot);
+            uploaded++;
+        }
+        return new Result(GattPort.STATUS_SUCCESS, slots, uploaded, skipped, null);
+    }
+
+    // One byte, acknowledged: the headset switches to the preset already stored in the slot
+    public int activate(int slot, long timeoutMs) throws InterruptedException {
+        return writer.write(activeCharacteristic, PresetSlots.activate(slot), true, timeoutMs);
+    }
+}
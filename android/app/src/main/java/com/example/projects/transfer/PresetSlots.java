@@ -0,0 +1,187 @@
+package com.example.projects.transfer;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Wire format and slot bookkeeping for presets stored on the headset.
+//
+// The headset keeps a fixed number of slots, each holding one preset or audiogram payload
+// identified by a content hash. The app reads the manifest, uploads only payloads whose hash
+// the headset doesn't hold, and switches presets by writing a slot number.
+//
+// Manifest (read, slot manifest characteristic):
+//   [version u8][capacity u8][active slot u8, 0xFF = none][entry count u8]
+//   then per occupied slot: [slot u8][kind u8][hash 8 bytes]
+// Activate (write with response, active slot characteristic): [slot u8]
+// Upload (framed transfer, see StreamingWriter, on the slot data characteristic):
+//   [slot u8][kind u8][hash 8 bytes][payload]
+//   The headset checks the hash against the payload before it replaces the slot.
+// Hash: first 8 bytes of SHA-256 over the payload.
+public final class PresetSlots {
+    public static final int MANIFEST_VERSION = 1;
+    public static final int NO_SLOT = 0xFF;
+
+    public static final int KIND_PRESET = 1;
+    public static final int KIND_AUDIOGRAM = 2;
+    public static final int KIND_COMBINED = 3;
+
+    public static final int HASH_SIZE = 8;
+    private static final int HEADER_SIZE = 4;
+    private static final int ENTRY_SIZE = 2 + HASH_SIZE;
+
+    private PresetSlots() {
+    }
+
+    // Slots the headset reports, plus uploads made since it was read
+    public static final class Manifest {
+        public final int capacity;
+        private int activeSlot;
+        private final TreeMap<Integer, byte[]> hashes = new TreeMap<>();
+        private final TreeMap<Integer, Integer> kinds = new TreeMap<>();
+
+        Manifest(int capacity, int activeSlot) {
+            this.capacity = capacity;
+            this.activeSlot = activeSlot;
+        }
+
+        public int getActiveSlot() {
+            return activeSlot;
+        }
+
+        public void setActiveSlot(int slot) {
+            activeSlot = slot;
+        }
+
+        public int size() {
+            return hashes.size();
+        }
+
+        // Slot holding a payload with this hash, or -1
+        public int slotOf(byte[] hash) {
+            for (Map.Entry<Integer, byte[]> entry : hashes.entrySet()) {
+                if (Arrays.equals(entry.getValue(), hash)) {
+                    return entry.getKey();
+                }
+            }
+            return -1;
+        }
+
+        public byte[] hashAt(int slot) {
+            byte[] hash = hashes.get(slot);
+            return hash != null ? hash.clone() : null;
+        }
+
+        public int kindAt(int slot) {
+            Integer kind = kinds.get(slot);
+            return kind != null ? kind : 0;
+        }
+
+        public void put(int slot, int kind, byte[] hash) {
+            hashes.put(slot, hash.clone());
+            kinds.put(slot, kind);
+        }
+    }
+
+    // Kind named by the Flutter side: "preset", "audiogram" or "combined"
+    public static int kindOf(String name) {
+        if ("preset".equals(name)) {
+            return KIND_PRESET;
+        } else if ("audiogram".equals(name)) {
+            return KIND_AUDIOGRAM;
+        } else if ("combined".equals(name)) {
+            return KIND_COMBINED;
+        }
+        throw new IllegalArgumentException("Unknown slot kind: " + name);
+    }
+
+    public static Manifest parseManifest(byte[] value) {
+        if (value == null || value.length < HEADER_SIZE || (value[0] & 0xFF) != MANIFEST_VERSION) {
+            throw new IllegalArgumentException("Unsupported slot manifest");
+        }
+        int count = value[3] & 0xFF;
+        if (value.length < HEADER_SIZE + count * ENTRY_SIZE) {
+            throw new IllegalArgumentException("Truncated slot manifest");
+        }
+        Manifest manifest = new Manifest(value[1] & 0xFF, value[2] & 0xFF);
+        for (int i = 0; i < count; i++) {
+            int offset = HEADER_SIZE + i * ENTRY_SIZE;
+            int slot = value[offset] & 0xFF;
+            if (slot >= manifest.capacity) {
+                throw new IllegalArgumentException("Slot " + slot + " beyond capacity " + manifest.capacity);
+            }
+            manifest.put(slot, value[offset + 1] & 0xFF,
+                Arrays.copyOfRange(value, offset + 2, offset + 2 + HASH_SIZE));
+        }
+        return manifest;
+    }
+
+    public static byte[] encodeManifest(Manifest manifest) {
+        byte[] value = new byte[HEADER_SIZE + manifest.size() * ENTRY_SIZE];
+        value[0] = MANIFEST_VERSION;
+        value[1] = (byte) manifest.capacity;
+        value[2] = (byte) manifest.activeSlot;
+        value[3] = (byte) manifest.size();
+        int offset = HEADER_SIZE;
+        for (Map.Entry<Integer, byte[]> entry : manifest.hashes.entrySet()) {
+            value[offset] = (byte) (int) entry.getKey();
+            value[offset + 1] = (byte) manifest.kindAt(entry.getKey());
+            System.arraycopy(entry.getValue(), 0, value, offset + 2, HASH_SIZE);
+            offset += ENTRY_SIZE;
+        }
+        return value;
+    }
+
+    public static byte[] hash(byte[] payload) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(payload);
+            return Arrays.copyOf(digest, HASH_SIZE);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    // Slot to upload a payload into: an empty slot first, otherwise one whose content no
+    // pending item needs and that isn't active. Slots in reserved are already taken by
+    // this sync. Returns -1 when every slot is spoken for.
+    public static int chooseSlot(Manifest manifest, Set<Integer> reserved, Set<String> wantedHashes) {
+        for (int slot = 0; slot < manifest.capacity; slot++) {
+            if (!reserved.contains(slot) && manifest.hashAt(slot) == null) {
+                return slot;
+            }
+        }
+        for (int slot = 0; slot < manifest.capacity; slot++) {
+            if (reserved.contains(slot) || slot == manifest.getActiveSlot()) {
+                continue;
+            }
+            if (!wantedHashes.contains(toHex(manifest.hashAt(slot)))) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    public static byte[] envelope(int slot, int kind, byte[] hash, byte[] payload) {
+        byte[] value = new byte[2 + HASH_SIZE + payload.length];
+        value[0] = (byte) slot;
+        value[1] = (byte) kind;
+        System.arraycopy(hash, 0, value, 2, HASH_SIZE);
+        System.arraycopy(payload, 0, value, 2 + HASH_SIZE, payload.length);
+        return value;
+    }
+
+    public static byte[] activate(int slot) {
+        return new byte[] {(byte) slot};
+    }
+
+    public static String toHex(byte[] hash) {
+        StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
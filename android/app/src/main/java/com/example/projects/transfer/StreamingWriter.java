@@ -0,0 +1,317 @@
+package com.example.projects.transfer;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Bulk payload writer using write-without-response and the framed protocol in TransferFrames.
+//
+// The payload is split into numbered frames that each carry a CRC, all tagged with a session
+// ID. Frames are streamed after an acknowledged BEGIN and followed by an acknowledged COMMIT.
+// The headset reports frames it is missing or got corrupted with NACK bitmaps on the status
+// characteristic, mid-stream or in answer to COMMIT; only those frames are sent again, then
+// COMMIT is repeated. DONE confirms the whole payload matched its CRC-32.
+//
+// When a compressor is given and the headset advertises CAP_DEFLATE_DICT_V1 on the capability
+// characteristic, the payload is deflated before framing whenever that makes it smaller.
+//
+// Up to maxInFlight packets are handed to the stack before waiting for its completions.
+// A busy answer from the stack (buffer full) stalls the stream until a completion frees a
+// slot, which keeps the controller's queue full without overrunning it.
+//
+// Given a LinkQuality, each payload takes its frame size and in-flight window from the
+// link's current tier, and a weak link pauses before each repair round.
+public final class StreamingWriter {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    // COMMIT/NACK rounds before giving up on a payload
+    public static final int MAX_REPAIR_ROUNDS = 5;
+    private static final long BUSY_POLL_MS = 5;
+    private static final long STATUS_WAIT_MS = 3000;
+
+    public static final class Result {
+        public final int status;
+        public final int bytes;
+        public final int wireBytes;
+        public final int packets;
+        public final int retransmitted;
+        public final int repairRounds;
+        public final int busyStalls;
+        public final long elapsedNanos;
+        public final long crc32;
+
+        Result(int status, int bytes, int wireBytes, int packets, int retransmitted, int repairRounds,
+               int busyStalls, long elapsedNanos, long crc32) {
+            this.status = status;
+            this.bytes = bytes;
+            this.wireBytes = wireBytes;
+            this.packets = packets;
+            this.retransmitted = retransmitted;
+            this.repairRounds = repairRounds;
+            this.busyStalls = busyStalls;
+            this.elapsedNanos = elapsedNanos;
+            this.crc32 = crc32;
+        }
+
+        public boolean isSuccess() {
+            return status == GattPort.STATUS_SUCCESS;
+        }
+
+        public boolean isCompressed() {
+            return wireBytes < bytes;
+        }
+
+        // Payload bytes delivered per second, so compression counts towards it
+        public double getThroughputKbps() {
+            return elapsedNanos > 0 ? bytes * 8.0 * 1e6 / elapsedNanos : 0.0;
+        }
+    }
+
+    // Collects status notifications for the session in progress
+    private final class StatusListener implements GattPort.Listener {
+        @Override
+        public void onWriteComplete(UUID characteristic, int status) {
+        }
+
+        @Override
+        public void onNotification(UUID characteristic, byte[] value) {
+            if (statusCharacteristic.equals(characteristic) && TransferFrames.getSession(value) == session) {
+                statusEvents.offer(value);
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+    }
+
+    private final GattWriter writer;
+    private final UUID controlCharacteristic;
+    private final UUID statusCharacteristic;
+    private final UUID capabilityCharacteristic;
+    private final PayloadCompressor compressor;
+    private final int maxInFlight;
+    private final LinkQuality quality;
+    private final BlockingQueue<byte[]> statusEvents = new LinkedBlockingQueue<>();
+    private volatile int session = new Random().nextInt(256);
+    // Read from the headset on first use; -1 until then
+    private int capabilities = -1;
+
+    // compressor may be null to always send payloads as they are
+    public StreamingWriter(GattWriter writer, UUID controlCharacteristic, UUID statusCharacteristic,
+                           UUID capabilityCharacteristic, PayloadCompressor compressor, int maxInFlight) {
+        this(writer, controlCharacteristic, statusCharacteristic, capabilityCharacteristic, compressor,
+            maxInFlight, null);
+    }
+
+    // quality may be null to always use full-size frames and maxInFlight
+    public StreamingWriter(GattWriter writer, UUID controlCharacteristic, UUID statusCharacteristic,
+                           UUID capabilityCharacteristic, PayloadCompressor compressor, int maxInFlight,
+                           LinkQuality quality) {
+        this.writer = writer;
+        this.controlCharacteristic = controlCharacteristic;
+        this.statusCharacteristic = statusCharacteristic;
+        this.capabilityCharacteristic = capabilityCharacteristic;
+        this.compressor = compressor;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.quality = quality;
+    }
+
+    public boolean isSupported() {
+        GattPort port = writer.getPort();
+        return port.hasCharacteristic(controlCharacteristic) && port.hasCharacteristic(statusCharacteristic);
+    }
+
+    // Blocks until the headset confirms the payload or something fails; call from a worker thread
+    public Result send(UUID dataCharacteristic, byte[] payload, boolean compress, long timeoutMs)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        GattPort port = writer.getPort();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        long checksum = crc.getValue();
+
+        // Compress before framing, so fewer frames go on air
+        byte[] wire = payload;
+        int flags = 0;
+        if (compress && compressor != null
+                && (readCapabilities(deadline) & PayloadCompressor.CAP_DEFLATE_DICT_V1) != 0) {
+            byte[] deflated = compressor.compress(payload);
+            if (deflated.length < payload.length) {
+                wire = deflated;
+                flags = TransferFrames.FLAG_DEFLATE_DICT_V1;
+            }
+        }
+
+        int maxWrite = port.getMaxWriteLength();
+        int frameSize = (quality != null ? quality.writeLength(maxWrite) : maxWrite) - TransferFrames.HEADER_SIZE;
+        int window = quality != null ? quality.window(maxInFlight) : maxInFlight;
+        int frameCount = TransferFrames.frameCount(wire.length, frameSize);
+        if (frameSize <= 0 || frameCount > TransferFrames.MAX_FRAMES) {
+            return new Result(GattPort.STATUS_FAILED, payload.length, 0, 0, 0, 0, 0, 0, checksum);
+        }
+
+        session = (session + 1) & 0xFF;
+        statusEvents.clear();
+        StatusListener listener = new StatusListener();
+        port.addListener(listener);
+
+        int packets = 0;
+        int retransmitted = 0;
+        int rounds = 0;
+        int stalls = 0;
+        int status;
+        try {
+            status = writer.enableNotifications(statusCharacteristic, remainingMs(deadline));
+            if (status == GattPort.STATUS_SUCCESS) {
+                status = writer.write(controlCharacteristic,
+                    TransferFrames.begin(session, wire.length, frameCount, frameSize, flags, payload.length),
+                    true, remainingMs(deadline));
+            }
+
+            // Frames still to send; starts as all of them, refilled from NACKs
+            BitSet pending = new BitSet(frameCount);
+            pending.set(0, frameCount);
+            BitSet sent = new BitSet(frameCount);
+
+            while (status == GattPort.STATUS_SUCCESS) {
+                int inFlight = 0;
+                byte[] frame = null;
+                int seq = -1;
+
+                while (status == GattPort.STATUS_SUCCESS && (!pending.isEmpty() || inFlight > 0)) {
+                    if (System.nanoTime() >= deadline) {
+                        status = GattPort.STATUS_TIMEOUT;
+                        break;
+                    }
+                    status = drainStatus(pending, frameCount);
+                    if (status != GattPort.STATUS_SUCCESS) break;
+
+                    if (frame == null && !pending.isEmpty() && inFlight < window) {
+                        seq = pending.nextSetBit(0);
+                        int offset = seq * frameSize;
+                        frame = TransferFrames.frame(session, seq, wire, offset,
+                            Math.min(frameSize, wire.length - offset));
+                    }
+
+                    if (frame != null) {
+                        status = port.write(dataCharacteristic, frame, false);
+                        if (status == GattPort.STATUS_SUCCESS) {
+                            pending.clear(seq);
+                            if (sent.get(seq)) {
+                                retransmitted++;
+                            }
+                            sent.set(seq);
+                            frame = null;
+                            packets++;
+                            inFlight++;
+                            continue;
+                        }
+                        if (status != GattPort.STATUS_BUSY) break;
+
+                        // Buffer full: wait briefly for a completion to free a slot, then retry
+                        stalls++;
+                        int freed = writer.nextCompletion(Math.min(deadline,
+                            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BUSY_POLL_MS)));
+                        status = freed == GattPort.STATUS_TIMEOUT ? GattPort.STATUS_SUCCESS : freed;
+                        if (freed == GattPort.STATUS_SUCCESS) {
+                            inFlight--;
+                        }
+                        continue;
+                    }
+
+                    status = writer.nextCompletion(deadline);
+                    if (status == GattPort.STATUS_SUCCESS) {
+                        inFlight--;
+                    }
+                }
+                if (status != GattPort.STATUS_SUCCESS) break;
+
+                if (++rounds > MAX_REPAIR_ROUNDS) {
+                    status = GattPort.STATUS_FAILED;
+                    break;
+                }
+                status = writer.write(controlCharacteristic,
+                    TransferFrames.commit(session, payload.length, checksum), true, remainingMs(deadline));
+                if (status != GattPort.STATUS_SUCCESS) break;
+
+                byte[] answer = statusEvents.poll(Math.min(STATUS_WAIT_MS, remainingMs(deadline)), TimeUnit.MILLISECONDS);
+                if (answer == null) {
+                    status = GattPort.STATUS_TIMEOUT;
+                } else if (answer[0] == TransferFrames.STATUS_DONE) {
+                    break;
+                } else {
+                    status = applyStatus(answer, pending, frameCount);
+                    if (status == GattPort.STATUS_SUCCESS && pending.isEmpty()) {
+                        // A NACK that names nothing means the headset lost track; resend everything
+                        pending.set(0, frameCount);
+                    }
+                    long pause = quality != null ? quality.repairPauseMs(rounds - 1) : 0;
+                    if (status == GattPort.STATUS_SUCCESS && pause > 0) {
+                        Thread.sleep(Math.min(pause, remainingMs(deadline)));
+                    }
+                }
+            }
+        } finally {
+            port.removeListener(listener);
+        }
+
+        return new Result(status, payload.length, wire.length, packets, retransmitted, rounds, stalls,
+            System.nanoTime() - start, checksum);
+    }
+
+    // Capability bits advertised by the headset; 0 when it has no capability characteristic
+    private int readCapabilities(long deadlineNanos) throws InterruptedException {
+        if (capabilities < 0) {
+            if (capabilityCharacteristic == null || !writer.getPort().hasCharacteristic(capabilityCharacteristic)) {
+                capabilities = 0;
+            } else {
+                byte[] value = writer.read(capabilityCharacteristic, remainingMs(deadlineNanos));
+                if (value == null) {
+                    // Try again on the next payload rather than caching a failed read
+                    return 0;
+                }
+                capabilities = value.length > 0 ? value[0] & 0xFF : 0;
+            }
+        }
+        return capabilities;
+    }
+
+    public int getSession() {
+        return session;
+    }
+
+    // Applies NACKs that arrived mid-stream; FAILED ends the transfer
+    private int drainStatus(BitSet pending, int frameCount) {
+        byte[] value;
+        while ((value = statusEvents.poll()) != null) {
+            int status = applyStatus(value, pending, frameCount);
+            if (status != GattPort.STATUS_SUCCESS) {
+                return status;
+            }
+        }
+        return GattPort.STATUS_SUCCESS;
+    }
+
+    private static int applyStatus(byte[] value, BitSet pending, int frameCount) {
+        switch (value[0]) {
+            case TransferFrames.STATUS_NACK:
+                return TransferFrames.readNack(value, pending, frameCount)
+                    ? GattPort.STATUS_SUCCESS : GattPort.STATUS_FAILED;
+            case TransferFrames.STATUS_FAILED:
+                return GattPort.STATUS_FAILED;
+            default:
+                // A late DONE for this session changes nothing while frames are still going out
+                return GattPort.STATUS_SUCCESS;
+        }
+    }
+
+    private static long remainingMs(long deadlineNanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.projects.transfer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs keyed tasks on an executor where only the latest request for a key matters, e.g. a
+// battery read or a write of the same characteristic that Flutter asks for again.
+//
+// Submitting a task cancels the earlier one with the same key: still queued, it never runs;
+// already running, its thread is interrupted so a blocking GattWriter call returns instead
+// of waiting out its deadline. Either way the cancelled task's onCancelled runs in its place,
+// on the thread that cancelled it, so the caller still gets an answer. A task interrupted
+// mid-operation may finish afterwards, so callers answer once (see MainActivity.answerOnce).
+public final class SupersedingQueue {
+    private final class Task extends FutureTask<Void> {
+        private final String key;
+        private final Runnable onCancelled;
+
+        Task(String key, Runnable task, Runnable onCancelled) {
+            super(task, null);
+            this.key = key;
+            this.onCancelled = onCancelled;
+        }
+
+        @Override
+        protected void done() {
+            latest.remove(key, this);
+            if (isCancelled()) {
+                superseded.incrementAndGet();
+                onCancelled.run();
+            }
+        }
+    }
+
+    private final Executor executor;
+    private final Map<String, Task> latest = new ConcurrentHashMap<>();
+    private final AtomicInteger superseded = new AtomicInteger();
+
+    public SupersedingQueue(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void submit(String key, Runnable task, Runnable onCancelled) {
+        Task next = new Task(key, task, onCancelled);
+        Task previous = latest.put(key, next);
+        if (previous != null) {
+            previous.cancel(true);
+        }
+        try {
+            executor.execute(next);
+        } catch (RejectedExecutionException e) {
+            latest.remove(key, next);
+            throw e;
+        }
+    }
+
+    // Cancels every pending task, e.g. when the session closes
+    public void cancelAll() {
+        for (Task task : latest.values()) {
+            task.cancel(true);
+        }
+    }
+
+    // Keys with a task queued or running
+    public int getPending() {
+        return latest.size();
+    }
+
+    // Tasks cancelled before they finished
+    public int getSuperseded() {
+        return superseded.get();
+    }
+}
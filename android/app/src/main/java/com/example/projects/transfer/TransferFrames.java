@@ -0,0 +1,158 @@
+package com.example.projects.transfer;
+
+import java.util.BitSet;
+
+// Wire format of the framed payload transfer.
+//
+// Data frame (write without response):
+//   [session u8][seq u16 LE][crc16 u16 LE][payload]
+//   crc16 is CRC-16/CCITT-FALSE over session, seq and payload.
+// Control writes (acknowledged, on the transfer control characteristic):
+//   BEGIN  [0x01][session u8][wire length u32 LE][frame count u16 LE][frame payload size u16 LE]
+//          [flags u8][payload length u32 LE]
+//   COMMIT [0x02][session u8][payload length u32 LE][crc32 u32 LE]
+//   Wire length counts the bytes carried by the frames; payload length and the CRC-32
+//   describe the payload after the headset undid any encoding named in flags.
+// Capabilities (read, transfer capability characteristic): [caps u8], see CAP_* bits.
+// Status notifications from the headset (transfer status characteristic):
+//   NACK   [0x10][session u8][base seq u16 LE][bitmap...]  bit i (LSB first) = frame base+i missing
+//   DONE   [0x11][session u8]                              payload complete and CRC-32 matched
+//   FAILED [0x12][session u8]                              payload rejected, start over
+// All multi-byte fields are little endian. Integers are unsigned on the wire.
+public final class TransferFrames {
+    public static final byte OP_BEGIN = 0x01;
+    public static final byte OP_COMMIT = 0x02;
+    public static final byte STATUS_NACK = 0x10;
+    public static final byte STATUS_DONE = 0x11;
+    public static final byte STATUS_FAILED = 0x12;
+
+    // BEGIN flags: frames carry the payload compressed by PayloadCompressor
+    public static final int FLAG_DEFLATE_DICT_V1 = 0x01;
+
+    public static final int HEADER_SIZE = 5;
+    // BEGIN carries the frame count in a u16
+    public static final int MAX_FRAMES = 0xFFFF;
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private TransferFrames() {
+    }
+
+    public static int frameCount(int payloadLength, int framePayloadSize) {
+        return Math.max(1, (payloadLength + framePayloadSize - 1) / framePayloadSize);
+    }
+
+    public static byte[] frame(int session, int seq, byte[] payload, int offset, int length) {
+        byte[] frame = new byte[HEADER_SIZE + length];
+        frame[0] = (byte) session;
+        putShort(frame, 1, seq);
+        System.arraycopy(payload, offset, frame, HEADER_SIZE, length);
+        putShort(frame, 3, frameCrc(frame, length));
+        return frame;
+    }
+
+    // CRC over the session and seq bytes, then the frame payload
+    public static int frameCrc(byte[] frame, int payloadLength) {
+        int crc = crc16(0xFFFF, frame, 0, 3);
+        return crc16(crc, frame, HEADER_SIZE, payloadLength);
+    }
+
+    public static boolean isFrameValid(byte[] frame) {
+        return frame.length >= HEADER_SIZE
+            && getShort(frame, 3) == frameCrc(frame, frame.length - HEADER_SIZE);
+    }
+
+    public static byte[] begin(int session, int wireLength, int frames, int framePayloadSize,
+                               int flags, int payloadLength) {
+        byte[] value = new byte[15];
+        value[0] = OP_BEGIN;
+        value[1] = (byte) session;
+        putInt(value, 2, wireLength);
+        putShort(value, 6, frames);
+        putShort(value, 8, framePayloadSize);
+        value[10] = (byte) flags;
+        putInt(value, 11, payloadLength);
+        return value;
+    }
+
+    public static byte[] commit(int session, int length, long crc32) {
+        byte[] value = new byte[10];
+        value[0] = OP_COMMIT;
+        value[1] = (byte) session;
+        putInt(value, 2, length);
+        putInt(value, 6, (int) crc32);
+        return value;
+    }
+
+    public static byte[] nack(int session, int baseSeq, BitSet missing, int count) {
+        byte[] value = new byte[4 + (count + 7) / 8];
+        value[0] = STATUS_NACK;
+        value[1] = (byte) session;
+        putShort(value, 2, baseSeq);
+        for (int i = 0; i < count; i++) {
+            if (missing.get(i)) {
+                value[4 + i / 8] |= (byte) (1 << (i % 8));
+            }
+        }
+        return value;
+    }
+
+    public static byte[] status(byte op, int session) {
+        return new byte[] {op, (byte) session};
+    }
+
+    // Adds the frames a NACK reports missing to out; returns false if the NACK is malformed
+    public static boolean readNack(byte[] value, BitSet out, int frameCount) {
+        if (value.length < 4 || value[0] != STATUS_NACK) {
+            return false;
+        }
+        int base = getShort(value, 2);
+        for (int i = 0; i < (value.length - 4) * 8; i++) {
+            int seq = base + i;
+            if (seq >= frameCount) break;
+            if ((value[4 + i / 8] & (1 << (i % 8))) != 0) {
+                out.set(seq);
+            }
+        }
+        return true;
+    }
+
+    public static int crc16(int crc, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    public static int getSession(byte[] value) {
+        return value.length > 1 ? value[1] & 0xFF : -1;
+    }
+
+    public static int getShort(byte[] source, int offset) {
+        return (source[offset] & 0xFF) | (source[offset + 1] & 0xFF) << 8;
+    }
+
+    public static int getInt(byte[] source, int offset) {
+        return getShort(source, offset) | getShort(source, offset + 2) << 16;
+    }
+
+    static void putShort(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+    }
+
+    static void putInt(byte[] target, int offset, int value) {
+        putShort(target, offset, value);
+        putShort(target, offset + 2, value >>> 16);
+    }
+}
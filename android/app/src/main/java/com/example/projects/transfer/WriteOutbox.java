@@ -0,0 +1,288 @@
+package com.example.projects.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Durable log of payload writes that haven't reached their device yet.
+//
+// Every write is appended before it is sent and acknowledged once the device confirmed it,
+// so a disconnect or process death in between leaves it in the log for replay on the next
+// connection. Each payload replaces the whole preset or test on the headset, so a newer
+// write to the same device and characteristic supersedes any older one still pending.
+//
+// The file is a sequence of records, [type u8][length u32][crc32 u32][body], each appended
+// and synced on its own. A torn record at the tail (power loss mid-append) fails its CRC
+// and is cut off on open. Acknowledged and superseded records are dropped by rewriting the
+// file once they outweigh the live ones.
+public final class WriteOutbox {
+    private static final int RECORD_ENTRY = 1;
+    private static final int RECORD_ACK = 2;
+    private static final int RECORD_HEADER_SIZE = 9;
+    // Rewrite once the file is this large and mostly dead records
+    private static final long COMPACT_MIN_BYTES = 16 * 1024;
+
+    public static final class Entry {
+        public final long seq;
+        public final String address;
+        public final String characteristic;
+        public final boolean compress;
+        public final byte[] data;
+
+        Entry(long seq, String address, String characteristic, boolean compress, byte[] data) {
+            this.seq = seq;
+            this.address = address;
+            this.characteristic = characteristic;
+            this.compress = compress;
+            this.data = data;
+        }
+
+        String key() {
+            return address + '/' + characteristic;
+        }
+    }
+
+    private final File file;
+    private final long maxBytes;
+    // Live entries by device/characteristic, in the order they were last written
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<>();
+    private FileOutputStream out;
+    private long nextSeq = 1;
+    private long fileBytes;
+    private long liveBytes;
+
+    // maxBytes bounds the payload bytes kept pending; appends beyond it are refused
+    public WriteOutbox(File file, long maxBytes) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        load();
+        out = new FileOutputStream(file, true);
+    }
+
+    // Logs a write about to be sent; returns its sequence number for ack()
+    public synchronized long append(String address, String characteristic, boolean compress, byte[] data)
+            throws IOException {
+        Entry entry = new Entry(nextSeq, address, characteristic, compress, data);
+        Entry superseded = pending.get(entry.key());
+        long live = liveBytes - (superseded != null ? superseded.data.length : 0) + data.length;
+        if (live > maxBytes) {
+            throw new IOException("Outbox full");
+        }
+        writeRecord(RECORD_ENTRY, encodeEntry(entry));
+        nextSeq++;
+        // Re-insert so replay order follows the latest write
+        pending.remove(entry.key());
+        pending.put(entry.key(), entry);
+        liveBytes = live;
+        return entry.seq;
+    }
+
+    // Drops a delivered entry. Acks for entries already superseded are ignored.
+    public synchronized void ack(long seq) throws IOException {
+        Iterator<Entry> entries = pending.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.seq == seq) {
+                writeRecord(RECORD_ACK, ByteBuffer.allocate(8).putLong(seq).array());
+                entries.remove();
+                liveBytes -= entry.data.length;
+                compactIfWorthwhile();
+                return;
+            }
+        }
+    }
+
+    // Drops whatever is pending for a characteristic, e.g. after a newer value reached it
+    // some other way
+    // Returns whether anything was pending for the characteristic
+    public synchronized boolean discard(String address, String characteristic) throws IOException {
+        Entry entry = pending.get(address + '/' + characteristic);
+        if (entry == null) {
+            return false;
+        }
+        ack(entry.seq);
+        return true;
+    }
+
+    // Pending entries for a device, oldest first
+    public synchronized List<Entry> pendingFor(String address) {
+        List<Entry> entries = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            if (entry.address.equals(address)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    public synchronized long getFileBytes() {
+        return fileBytes;
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long validBytes = 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                byte[] body;
+                long crc;
+                try {
+                    int length = in.readInt();
+                    crc = in.readInt() & 0xFFFFFFFFL;
+                    if (length < 0 || length > file.length()) {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (crc32(body) != crc || !apply(type, body)) {
+                    break;
+                }
+                validBytes += RECORD_HEADER_SIZE + body.length;
+            }
+        }
+        fileBytes = validBytes;
+        if (validBytes < file.length()) {
+            // Cut the torn tail so new records don't land behind garbage
+            try (FileOutputStream truncate = new FileOutputStream(file, true)) {
+                truncate.getChannel().truncate(validBytes);
+            }
+        }
+    }
+
+    // False for a record this version can't read; load stops there
+    private boolean apply(int type, byte[] body) {
+        if (type == RECORD_ENTRY) {
+            Entry entry;
+            try {
+                entry = decodeEntry(body);
+            } catch (IOException e) {
+                return false;
+            }
+            Entry superseded = pending.remove(entry.key());
+            if (superseded != null) {
+                liveBytes -= superseded.data.length;
+            }
+            pending.put(entry.key(), entry);
+            liveBytes += entry.data.length;
+            nextSeq = Math.max(nextSeq, entry.seq + 1);
+            return true;
+        } else if (type == RECORD_ACK && body.length == 8) {
+            long seq = ByteBuffer.wrap(body).getLong();
+            Iterator<Entry> entries = pending.values().iterator();
+            while (entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.seq == seq) {
+                    entries.remove();
+                    liveBytes -= entry.data.length;
+                    break;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void compactIfWorthwhile() throws IOException {
+        long liveRecordBytes = 0;
+        for (Entry entry : pending.values()) {
+            liveRecordBytes += RECORD_HEADER_SIZE + encodeEntry(entry).length;
+        }
+        if (fileBytes < COMPACT_MIN_BYTES || fileBytes < 2 * liveRecordBytes) {
+            return;
+        }
+        // Write the live entries to a side file and swap it in, so a crash mid-compaction
+        // leaves either the old log or the new one
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmp = new FileOutputStream(compacted)) {
+            for (Entry entry : pending.values()) {
+                tmp.write(record(RECORD_ENTRY, encodeEntry(entry)));
+            }
+            tmp.getFD().sync();
+        }
+        out.close();
+        if (!compacted.renameTo(file)) {
+            out = new FileOutputStream(file, true);
+            throw new IOException("Could not replace " + file);
+        }
+        out = new FileOutputStream(file, true);
+        fileBytes = liveRecordBytes;
+    }
+
+    private void writeRecord(int type, byte[] body) throws IOException {
+        byte[] record = record(type, body);
+        out.write(record);
+        out.getFD().sync();
+        fileBytes += record.length;
+    }
+
+    private static byte[] record(int type, byte[] body) {
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + body.length)
+            .put((byte) type)
+            .putInt(body.length)
+            .putInt((int) crc32(body))
+            .put(body)
+            .array();
+    }
+
+    private static byte[] encodeEntry(Entry entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.data.length + 64);
+            DataOutputStream body = new DataOutputStream(bytes);
+            body.writeLong(entry.seq);
+            body.writeUTF(entry.address);
+            body.writeUTF(entry.characteristic);
+            body.writeBoolean(entry.compress);
+            body.writeInt(entry.data.length);
+            body.write(entry.data);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Entry decodeEntry(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        long seq = in.readLong();
+        String address = in.readUTF();
+        String characteristic = in.readUTF();
+        boolean compress = in.readBoolean();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new Entry(seq, address, characteristic, compress, data);
+    }
+
+    private static long crc32(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return crc.getValue();
+    }
+}
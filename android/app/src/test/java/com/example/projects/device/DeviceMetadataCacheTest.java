@@ -0,0 +1,68 @@
+package com.example.projects.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeviceMetadataCacheTest {
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void updatesMergeFieldByField() {
+        DeviceMetadataCache cache = new DeviceMetadataCache(60_000);
+        cache.update(ADDRESS, null, null, "dual", null, null, 0);
+        assertNull(cache.get(ADDRESS, SECOND).displayName());
+
+        // Name resolves later; the type from the first update stays
+        cache.update(ADDRESS, "Headset", null, null, "le_audio", null, SECOND);
+        DeviceMetadataCache.Metadata metadata = cache.get(ADDRESS, 2 * SECOND);
+        assertEquals("Headset", metadata.displayName());
+        assertEquals("dual", metadata.type);
+        assertEquals("le_audio", metadata.audioType);
+        assertEquals(Collections.emptyList(), metadata.profiles);
+
+        cache.update(ADDRESS, null, "My hearing aid", null, null, null, 2 * SECOND);
+        assertEquals("My hearing aid", cache.get(ADDRESS, 3 * SECOND).displayName());
+
+        cache.invalidate(ADDRESS);
+        assertNull(cache.get(ADDRESS, 3 * SECOND));
+    }
+
+    @Test
+    public void entriesExpireAfterTtl() {
+        DeviceMetadataCache cache = new DeviceMetadataCache(10_000);
+        DeviceMetadataCache.Metadata metadata = cache.update(ADDRESS, "Headset", null, "le", "classic", null, 0);
+        assertSame(metadata, cache.get(ADDRESS, 9 * SECOND));
+        assertNull(cache.get(ADDRESS, 10 * SECOND));
+
+        // An update to an expired entry doesn't keep its stale fields
+        cache.update(ADDRESS, "Headset", null, null, null, null, 11 * SECOND);
+        DeviceMetadataCache.Metadata fresh = cache.get(ADDRESS, 12 * SECOND);
+        assertNull(fresh.type);
+        assertNull(fresh.audioType);
+    }
+
+    @Test
+    public void profilesComeFromServiceUuids() {
+        List<UUID> uuids = Arrays.asList(
+            base(0x111E), base(0x110B), base(0x1850), base(0x184E), base(0x1854), base(0x180F),
+            UUID.fromString("0000110B-0000-1000-8000-00805f9b34fc"));
+        assertEquals(Arrays.asList(DeviceMetadataCache.PROFILE_A2DP, DeviceMetadataCache.PROFILE_HFP,
+            DeviceMetadataCache.PROFILE_LE_AUDIO, DeviceMetadataCache.PROFILE_HEARING_ACCESS),
+            DeviceMetadataCache.profiles(uuids));
+        assertEquals(Collections.emptyList(), DeviceMetadataCache.profiles(Collections.emptyList()));
+    }
+
+    private static UUID base(int assignedNumber) {
+        return UUID.fromString(String.format("%08X-0000-1000-8000-00805f9b34fb", assignedNumber));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.projects.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class DeviceStateTest {
+    private static final String FIRST = "AA:BB:CC:DD:EE:01";
+    private static final String SECOND = "AA:BB:CC:DD:EE:02";
+
+    @Test
+    public void disconnectOfAnotherDeviceKeepsTheConnectedOne() {
+        DeviceState<String> state = new DeviceState<>();
+        state.connect(FIRST, "first");
+        DeviceState.Snapshot<String> before = state.snapshot();
+
+        // The second device connected before the first one's disconnect broadcast arrived
+        state.connect(SECOND, "second");
+        assertFalse(state.disconnect(FIRST));
+        assertEquals("second", state.getConnected());
+        assertTrue(state.isConnected(SECOND));
+        // A snapshot a reader took earlier doesn't change under it
+        assertEquals("first", before.device);
+        assertEquals(FIRST, before.address);
+
+        assertTrue(state.disconnect(SECOND));
+        assertNull(state.getConnected());
+        assertFalse(state.snapshot().isConnected());
+        assertNull(state.disconnect());
+    }
+
+    @Test
+    public void fallbackDeviceNeverReplacesAConnectedOne() {
+        DeviceState<String> state = new DeviceState<>();
+        assertEquals("bonded", state.connectIfNone(FIRST, "bonded"));
+        assertEquals("bonded", state.connectIfNone(SECOND, "other"));
+        assertEquals("bonded", state.disconnect());
+        assertEquals("other", state.connectIfNone(SECOND, "other"));
+    }
+
+    @Test
+    public void scanResultsCanBeListedWhileTheScanAddsThem() throws Exception {
+        DeviceState<String> state = new DeviceState<>();
+        ExecutorService scanner = Executors.newSingleThreadExecutor();
+        CountDownLatch started = new CountDownLatch(1);
+        scanner.execute(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                state.putScanResult("device-" + i, "device-" + i);
+                started.countDown();
+            }
+        });
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        List<String> listed = new ArrayList<>();
+        for (int poll = 0; poll < 50; poll++) {
+            listed.clear();
+            listed.addAll(state.getScanResults());
+        }
+        scanner.shutdown();
+        assertTrue(scanner.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertEquals(20_000, state.getScanResults().size());
+        assertEquals("device-7", state.getScanResult("device-7"));
+        state.clearScanResults();
+        assertTrue(state.getScanResults().isEmpty());
+    }
+}
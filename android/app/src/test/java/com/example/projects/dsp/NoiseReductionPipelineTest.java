@@ -0,0 +1,167 @@
+package com.example.projects.dsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+// Offline runs of the noise reduction chain over the app's tone assets and synthetic noise
+public class NoiseReductionPipelineTest {
+    private static final int BLOCK_SIZE = 256;
+
+    @Test
+    public void allFlagsOffPassesFixtureThroughWithFixedLatency() throws Exception {
+        WavFixtures.Clip clip = WavFixtures.load("1000Hz.wav");
+        NoiseReductionPipeline pipeline = new NoiseReductionPipeline(clip.sampleRate);
+        pipeline.setFlags(false, false, false);
+
+        float[] output = run(pipeline, clip.samples);
+
+        int latency = pipeline.getLatencySamples();
+        float maxError = 0.0f;
+        for (int i = latency; i < output.length; i++) {
+            maxError = Math.max(maxError, Math.abs(output[i] - clip.samples[i - latency]));
+        }
+        assertTrue("Reconstruction error " + maxError, maxError < 1e-3f);
+    }
+
+    @Test
+    public void backgroundNoiseIsAttenuatedAndToneKept() throws Exception {
+        WavFixtures.Clip clip = WavFixtures.load("1000Hz.wav");
+        int rate = clip.sampleRate;
+        int noiseOnly = 3 * rate;
+        int length = Math.min(clip.samples.length, 8 * rate);
+
+        float[] noise = WavFixtures.whiteNoise(length, 0.02f, 1);
+        float[] clean = new float[length];
+        float[] input = new float[length];
+        for (int i = 0; i < length; i++) {
+            clean[i] = i >= noiseOnly ? clip.samples[i - noiseOnly] * 0.5f : 0.0f;
+            input[i] = clean[i] + noise[i];
+        }
+
+        NoiseReductionPipeline pipeline = new NoiseReductionPipeline(rate);
+        pipeline.setFlags(true, false, false);
+        float[] output = run(pipeline, input);
+        int latency = pipeline.getLatencySamples();
+
+        float noiseBefore = WavFixtures.rms(input, rate, noiseOnly);
+        float noiseAfter = WavFixtures.rms(output, rate + latency, noiseOnly);
+        double reductionDb = 20.0 * Math.log10(noiseBefore / noiseAfter);
+        assertTrue("Noise reduced by only " + reductionDb + " dB", reductionDb > 10.0);
+
+        float toneBefore = WavFixtures.rms(clean, noiseOnly + rate, length - latency);
+        float toneAfter = WavFixtures.rms(output, noiseOnly + rate + latency, length);
+        double toneChangeDb = 20.0 * Math.log10(toneAfter / toneBefore);
+        assertEquals("Tone level changed by " + toneChangeDb + " dB", 0.0, toneChangeDb, 1.5);
+    }
+
+    @Test
+    public void windIsDetectedAndFilteredButTonesAreNot() throws Exception {
+        int rate = 48000;
+        float[] wind = WavFixtures.windNoise(4 * rate, 0.5f, 2);
+
+        NoiseReductionPipeline windOff = new NoiseReductionPipeline(rate);
+        windOff.setFlags(false, false, false);
+        float[] unfiltered = run(windOff, wind.clone());
+
+        NoiseReductionPipeline windOn = new NoiseReductionPipeline(rate);
+        windOn.setFlags(false, true, false);
+        float[] filtered = run(windOn, wind.clone());
+
+        assertTrue(windOn.isWindDetected());
+        double reductionDb = 20.0 * Math.log10(
+            WavFixtures.rms(unfiltered, rate, filtered.length) / WavFixtures.rms(filtered, rate, filtered.length));
+        assertTrue("Wind reduced by only " + reductionDb + " dB", reductionDb > 6.0);
+
+        WavFixtures.Clip clip = WavFixtures.load("1000Hz.wav");
+        NoiseReductionPipeline tonePipeline = new NoiseReductionPipeline(clip.sampleRate);
+        tonePipeline.setFlags(false, true, false);
+        run(tonePipeline, clip.samples.clone());
+        assertFalse(tonePipeline.isWindDetected());
+    }
+
+    @Test
+    public void suddenBurstIsSoftenedButSteadyLevelIsNot() throws Exception {
+        WavFixtures.Clip clip = WavFixtures.load("500Hz.wav");
+        int rate = clip.sampleRate;
+        int length = 4 * rate;
+        int burstStart = 2 * rate;
+        int burstEnd = burstStart + rate / 50;
+
+        float[] input = new float[length];
+        for (int i = 0; i < length; i++) {
+            input[i] = clip.samples[i] * 0.1f;
+        }
+        float[] burst = WavFixtures.whiteNoise(burstEnd - burstStart, 0.6f, 3);
+        for (int i = burstStart; i < burstEnd; i++) {
+            input[i] = Math.max(-1.0f, Math.min(1.0f, input[i] + burst[i - burstStart]));
+        }
+
+        NoiseReductionPipeline pipeline = new NoiseReductionPipeline(rate);
+        pipeline.setFlags(false, false, true);
+        float[] output = run(pipeline, input);
+        int latency = pipeline.getLatencySamples();
+
+        float peakIn = WavFixtures.peak(input, burstStart, burstEnd);
+        float peakOut = WavFixtures.peak(output, burstStart + latency + rate / 1000, burstEnd + latency);
+        assertTrue("Burst peak " + peakIn + " -> " + peakOut, peakOut < peakIn * 0.5f);
+        double reductionDb = (Double) pipeline.getStats().get("suddenNoiseReductionDb");
+        assertTrue("Limiter reduction " + reductionDb + " dB", reductionDb > 6.0);
+        assertEquals(0.0, (Double) pipeline.getStats().get("suddenNoiseReductionDb"), 1e-9);
+
+        float steadyIn = WavFixtures.rms(input, rate / 2, burstStart - rate / 2);
+        float steadyOut = WavFixtures.rms(output, rate / 2 + latency, burstStart - rate / 2 + latency);
+        assertEquals(steadyIn, steadyOut, steadyIn * 0.02f);
+    }
+
+    @Test
+    public void holdsRealTimeAt48kHzWithHeadroomAndDoesNotAllocate() {
+        int rate = 48000;
+        float[] input = WavFixtures.whiteNoise(10 * rate, 0.1f, 4);
+        NoiseReductionPipeline pipeline = new NoiseReductionPipeline(rate);
+        pipeline.setFlags(true, true, true);
+
+        // Warm up the JIT, then measure a clean run
+        run(pipeline, input.clone());
+        pipeline.reset();
+
+        float[] block = new float[BLOCK_SIZE];
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocatedBefore = allocatedBytes(threads);
+        for (int offset = 0; offset + BLOCK_SIZE <= input.length; offset += BLOCK_SIZE) {
+            System.arraycopy(input, offset, block, 0, BLOCK_SIZE);
+            pipeline.process(block, BLOCK_SIZE);
+        }
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+
+        assertEquals(input.length / BLOCK_SIZE, pipeline.getBlockCount());
+        assertTrue("Load factor " + pipeline.getLoadFactor(), pipeline.getLoadFactor() < 0.25);
+        if (allocatedBefore >= 0) {
+            assertTrue("Allocated " + allocated + " bytes while processing", allocated < 4096);
+        }
+    }
+
+    private static float[] run(NoiseReductionPipeline pipeline, float[] input) {
+        float[] output = new float[input.length];
+        float[] block = new float[BLOCK_SIZE];
+        for (int offset = 0; offset < input.length; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, input.length - offset);
+            System.arraycopy(input, offset, block, 0, length);
+            pipeline.process(block, length);
+            System.arraycopy(block, 0, output, offset, length);
+        }
+        return output;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
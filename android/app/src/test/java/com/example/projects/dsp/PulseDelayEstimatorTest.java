@@ -0,0 +1,34 @@
+package com.example.projects.dsp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PulseDelayEstimatorTest {
+    private static final int RATE = 48000;
+
+    @Test
+    public void findsDelayedPulseInNoisyRecording() {
+        float[] pulse = PulseDelayEstimator.makePulse(RATE, 2000.0f, 0.005f);
+        float[] recording = WavFixtures.whiteNoise(RATE, 0.05f, 7);
+        int delay = 9_123;
+        for (int i = 0; i < pulse.length; i++) {
+            recording[delay + i] += pulse[i] * 0.3f;
+        }
+
+        float[] confidence = new float[1];
+        int found = new PulseDelayEstimator(pulse).findPulse(recording, recording.length, confidence);
+
+        assertEquals(delay, found);
+        assertTrue(confidence[0] >= PulseDelayEstimator.MIN_CONFIDENCE);
+    }
+
+    @Test
+    public void reportsMissingPulseInsteadOfGuessing() {
+        float[] pulse = PulseDelayEstimator.makePulse(RATE, 2000.0f, 0.005f);
+        float[] recording = WavFixtures.whiteNoise(RATE / 2, 0.05f, 8);
+
+        assertEquals(-1, new PulseDelayEstimator(pulse).findPulse(recording, recording.length, null));
+    }
+}
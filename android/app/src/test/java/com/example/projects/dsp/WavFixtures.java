@@ -0,0 +1,118 @@
+package com.example.projects.dsp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+
+// Loads the app's tone assets as mono float fixtures and builds synthetic test signals.
+final class WavFixtures {
+    static final class Clip {
+        final int sampleRate;
+        final float[] samples;
+
+        Clip(int sampleRate, float[] samples) {
+            this.sampleRate = sampleRate;
+            this.samples = samples;
+        }
+    }
+
+    private WavFixtures() {}
+
+    // Reads a 16-bit PCM WAV from assets/audio, averaging channels to mono
+    static Clip load(String name) throws IOException {
+        File file = findAsset(name);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.getInt(0) != 0x46464952 || buffer.getInt(8) != 0x45564157) {
+            throw new IOException("Not a RIFF/WAVE file: " + name);
+        }
+
+        int channels = 0;
+        int sampleRate = 0;
+        int bitsPerSample = 0;
+        int position = 12;
+        while (position + 8 <= buffer.limit()) {
+            int chunkId = buffer.getInt(position);
+            int chunkSize = buffer.getInt(position + 4);
+            int body = position + 8;
+            if (chunkId == 0x20746d66) { // "fmt "
+                channels = buffer.getShort(body + 2);
+                sampleRate = buffer.getInt(body + 4);
+                bitsPerSample = buffer.getShort(body + 14);
+            } else if (chunkId == 0x61746164) { // "data"
+                if (bitsPerSample != 16 || channels <= 0) {
+                    throw new IOException("Unsupported WAV format in " + name);
+                }
+                int frames = Math.min(chunkSize, buffer.limit() - body) / (2 * channels);
+                float[] samples = new float[frames];
+                for (int i = 0; i < frames; i++) {
+                    float sum = 0.0f;
+                    for (int c = 0; c < channels; c++) {
+                        sum += buffer.getShort(body + (i * channels + c) * 2) / 32768.0f;
+                    }
+                    samples[i] = sum / channels;
+                }
+                return new Clip(sampleRate, samples);
+            }
+            position = body + chunkSize + (chunkSize & 1);
+        }
+        throw new IOException("No data chunk in " + name);
+    }
+
+    static float[] whiteNoise(int length, float amplitude, long seed) {
+        Random random = new Random(seed);
+        float[] noise = new float[length];
+        for (int i = 0; i < length; i++) {
+            noise[i] = (float) (random.nextGaussian() * amplitude);
+        }
+        return noise;
+    }
+
+    // Integrated (brown) noise, which has the low-frequency tilt of wind buffeting a microphone
+    static float[] windNoise(int length, float amplitude, long seed) {
+        Random random = new Random(seed);
+        float[] noise = new float[length];
+        float state = 0.0f;
+        float peak = 1e-9f;
+        for (int i = 0; i < length; i++) {
+            state = 0.995f * state + (float) random.nextGaussian();
+            noise[i] = state;
+            peak = Math.max(peak, Math.abs(state));
+        }
+        for (int i = 0; i < length; i++) {
+            noise[i] = noise[i] / peak * amplitude;
+        }
+        return noise;
+    }
+
+    static float rms(float[] signal, int from, int to) {
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += signal[i] * signal[i];
+        }
+        return (float) Math.sqrt(sum / Math.max(1, to - from));
+    }
+
+    static float peak(float[] signal, int from, int to) {
+        float peak = 0.0f;
+        for (int i = from; i < to; i++) {
+            peak = Math.max(peak, Math.abs(signal[i]));
+        }
+        return peak;
+    }
+
+    private static File findAsset(String name) throws IOException {
+        File dir = new File("").getAbsoluteFile();
+        while (dir != null) {
+            File candidate = new File(dir, "assets/audio/" + name);
+            if (candidate.isFile()) {
+                return candidate;
+            }
+            dir = dir.getParentFile();
+        }
+        throw new IOException("Fixture not found: assets/audio/" + name);
+    }
+}
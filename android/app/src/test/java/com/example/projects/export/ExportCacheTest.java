@@ -0,0 +1,141 @@
+package com.example.projects.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+public class ExportCacheTest {
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("export-cache").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void identicalContentIsServedUnderTheNewNameWithoutMovingTheOldFile() throws IOException {
+        ExportCache cache = new ExportCache(dir, 1024 * 1024, DAY_MS);
+        byte[] content = "{\"name\":\"Test\"}".getBytes(StandardCharsets.UTF_8);
+        String key = ExportCache.keyFor(content);
+
+        assertNull(cache.lookup(key, "first.json"));
+        File first = cache.commit(write(cache, content), key, "first.json");
+        long firstModified = first.lastModified();
+
+        File second = cache.lookup(key, "second.json");
+        assertNotNull(second);
+        assertEquals("second.json", second.getName());
+        // A share URI handed out for the first name still resolves
+        assertTrue(first.exists());
+        assertEquals(content.length, second.length());
+        assertEquals(1, cache.entryCount());
+        assertTrue(second.lastModified() >= firstModified);
+        assertEquals(second, cache.lookup(key, "second.json"));
+
+        // A freshly built copy under a third name joins the entry too
+        File third = cache.commit(write(cache, content), key, "third.json");
+        assertEquals("third.json", third.getName());
+        assertTrue(first.exists() && second.exists());
+        assertEquals(1, cache.entryCount());
+        assertEquals(3L * content.length, cache.sizeBytes());
+    }
+
+    @Test
+    public void concurrentCommitOfSameContentKeepsOneCopy() throws IOException {
+        ExportCache cache = new ExportCache(dir, 1024 * 1024, DAY_MS);
+        byte[] content = "same".getBytes(StandardCharsets.UTF_8);
+        String key = ExportCache.keyFor(content);
+
+        File tempA = write(cache, content);
+        File tempB = write(cache, content);
+        File a = cache.commit(tempA, key, "a.json");
+        File b = cache.commit(tempB, key, "a.json");
+
+        assertEquals(a, b);
+        assertFalse(tempB.exists());
+        assertEquals(1, cache.entryCount());
+        assertEquals(content.length, cache.sizeBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedPastSizeLimit() throws IOException {
+        ExportCache cache = new ExportCache(dir, 250, DAY_MS);
+        long now = System.currentTimeMillis();
+
+        File oldest = commit(cache, 'a', 100, "a.json");
+        oldest.getParentFile().setLastModified(now - 3000);
+        File used = commit(cache, 'b', 100, "b.json");
+        used.getParentFile().setLastModified(now - 2000);
+
+        // Reading b makes a the least recently used
+        assertNotNull(cache.lookup(ExportCache.keyFor(fill('b', 100)), "b.json"));
+        File newest = commit(cache, 'c', 100, "c.json");
+
+        assertFalse(oldest.exists());
+        assertTrue(new File(used.getParentFile(), "b.json").exists());
+        assertTrue(newest.exists());
+        assertEquals(200, cache.sizeBytes());
+    }
+
+    @Test
+    public void evictsExpiredEntriesAndStaleTempFiles() throws IOException {
+        ExportCache cache = new ExportCache(dir, 1024 * 1024, DAY_MS);
+        long now = System.currentTimeMillis();
+
+        File expired = commit(cache, 'x', 10, "x.json");
+        expired.getParentFile().setLastModified(now - 2 * DAY_MS);
+        File abandoned = write(cache, fill('t', 10));
+        abandoned.setLastModified(now - 2 * 60 * 60 * 1000L);
+
+        File fresh = commit(cache, 'y', 10, "y.json");
+
+        assertFalse(expired.exists());
+        assertFalse(abandoned.exists());
+        assertTrue(fresh.exists());
+        assertEquals(1, cache.entryCount());
+    }
+
+    private static File commit(ExportCache cache, char c, int length, String name) throws IOException {
+        byte[] content = fill(c, length);
+        return cache.commit(write(cache, content), ExportCache.keyFor(content), name);
+    }
+
+    private static File write(ExportCache cache, byte[] content) throws IOException {
+        File temp = cache.newTempFile();
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(content);
+        }
+        return temp;
+    }
+
+    private static byte[] fill(char c, int length) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) c);
+        return bytes;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.projects.history;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class HistoryQueryTest {
+    @Test
+    public void emptyQuerySelectsEverything() {
+        HistoryQuery query = new HistoryQuery().kind(null).createdBetween(null, null).after(null);
+
+        assertNull(query.getSelection());
+        assertNull(query.getSelectionArgs());
+    }
+
+    @Test
+    public void filtersAreJoinedInIndexOrder() {
+        HistoryQuery query = new HistoryQuery()
+            .kind("hearing_test")
+            .createdBetween(1000L, 2000L);
+
+        assertEquals("kind = ? AND date_created >= ? AND date_created <= ?", query.getSelection());
+        assertArrayEquals(new String[] {"hearing_test", "1000", "2000"}, query.getSelectionArgs());
+    }
+
+    @Test
+    public void cursorContinuesAfterLastRowOfPreviousPage() {
+        String cursor = HistoryQuery.cursorFor(1700000000000L, "preset:42");
+        HistoryQuery query = new HistoryQuery().kind("preset").after(cursor);
+
+        assertEquals("kind = ? AND (date_created < ? OR (date_created = ? AND id < ?))", query.getSelection());
+        // The id may itself contain ':', only the first one separates the date
+        assertArrayEquals(new String[] {"preset", "1700000000000", "1700000000000", "preset:42"},
+            query.getSelectionArgs());
+    }
+
+    @Test
+    public void malformedCursorIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new HistoryQuery().after("no-date"));
+        assertThrows(IllegalArgumentException.class, () -> new HistoryQuery().after(":id"));
+        assertThrows(IllegalArgumentException.class, () -> new HistoryQuery().after("soon:id"));
+    }
+}
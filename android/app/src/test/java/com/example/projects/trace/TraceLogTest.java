@@ -0,0 +1,89 @@
+package com.example.projects.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class TraceLogTest {
+    @Test
+    public void dumpHoldsNamesAndEventsOldestFirst() {
+        TraceLog log = new TraceLog(8);
+        int write = log.nameId("writePayload");
+        assertEquals(write, log.nameId("writePayload"));
+        int scan = log.nameId("startScan");
+
+        log.record(TraceLog.CHANNEL_CALL, write, TraceLog.CHANNEL_BLE_DATA, 0, 0);
+        log.record(TraceLog.CHANNEL_CALL, scan, TraceLog.CHANNEL_BLUETOOTH, 0, 0);
+        log.record(TraceLog.TRANSFER, 0, 12_000, 250_000_000L);
+
+        ByteBuffer dump = ByteBuffer.wrap(log.dump()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals('H', dump.get());
+        dump.position(4);
+        assertEquals(TraceLog.VERSION, dump.get());
+        assertEquals(TraceLog.RECORD_SIZE, dump.get());
+        dump.getShort();
+        assertEquals(8, dump.getInt());
+        assertEquals(3, dump.getInt());
+        assertEquals(0, dump.getLong());
+        dump.position(40);
+        assertEquals(2, dump.getShort());
+        assertEquals("writePayload", name(dump));
+        assertEquals("startScan", name(dump));
+
+        long first = dump.getLong();
+        assertEquals(TraceLog.CHANNEL_CALL, dump.get());
+        dump.get();
+        assertEquals(write, dump.getShort());
+        assertEquals(TraceLog.CHANNEL_BLE_DATA, dump.getInt());
+        dump.position(dump.position() + 16);
+
+        // Skip the second call
+        dump.position(dump.position() + TraceLog.RECORD_SIZE);
+        assertTrue(dump.getLong() >= first);
+        assertEquals(TraceLog.TRANSFER, dump.get());
+        dump.get();
+        assertEquals(TraceLog.NO_NAME, dump.getShort() & 0xFFFF);
+        assertEquals(0, dump.getInt());
+        assertEquals(12_000, dump.getInt());
+        dump.getInt();
+        assertEquals(250_000_000L, dump.getLong());
+        assertEquals(0, dump.remaining());
+    }
+
+    @Test
+    public void fullRingKeepsNewestEventsAndCountsOverwritten() {
+        TraceLog log = new TraceLog(5);
+        assertEquals(8, log.getCapacity());
+        for (int i = 0; i < 20; i++) {
+            log.record(TraceLog.GATT_MTU, 0, 0, i);
+        }
+
+        ByteBuffer dump = ByteBuffer.wrap(log.dump()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(8, dump.getInt(12));
+        assertEquals(12, dump.getLong(16));
+        int records = 42;
+        for (int i = 0; i < 8; i++) {
+            assertEquals(12 + i, dump.getLong(records + i * TraceLog.RECORD_SIZE + 24));
+        }
+
+        log.clear();
+        assertEquals(0, ByteBuffer.wrap(log.dump()).order(ByteOrder.LITTLE_ENDIAN).getInt(12));
+    }
+
+    @Test
+    public void shortUuidTakesTheAssignedNumber() {
+        assertEquals(0x2A1D, TraceLog.shortUuid(UUID.fromString("00002A1D-0000-1000-8000-00805f9b34fb")));
+    }
+
+    private static String name(ByteBuffer dump) {
+        byte[] bytes = new byte[dump.get() & 0xFF];
+        dump.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class DataMessagesTest {
+    private static final UUID PRESET = UUID.fromString("00002A1D-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void parsesHeaderAndValue() {
+        ByteBuffer message = ByteBuffer.allocateDirect(7);
+        message.put(new byte[] {DataMessages.OP_PAYLOAD, DataMessages.FLAG_COMPRESS, 0x1D, 0x2A, 1, 2, 3});
+        message.flip();
+
+        assertTrue(DataMessages.isValid(message));
+        assertEquals(DataMessages.OP_PAYLOAD, DataMessages.op(message));
+        assertEquals(DataMessages.FLAG_COMPRESS, DataMessages.flags(message));
+        assertEquals(0x2A1D, DataMessages.characteristicId(message));
+        assertEquals(PRESET, DataMessages.characteristic(DataMessages.characteristicId(message)));
+        assertArrayEquals(new byte[] {1, 2, 3}, DataMessages.value(message));
+        // Reading leaves the channel's buffer untouched
+        assertEquals(0, message.position());
+
+        assertFalse(DataMessages.isValid(ByteBuffer.allocate(3)));
+        assertFalse(DataMessages.isValid(null));
+    }
+
+    @Test
+    public void onlyBaseUuidsHaveAnId() {
+        assertEquals(0x2A1D, DataMessages.characteristicId(PRESET));
+        assertEquals(-1, DataMessages.characteristicId(UUID.fromString("12342A1D-0000-1000-8000-00805f9b34fb")));
+        assertEquals(-1, DataMessages.characteristicId(UUID.fromString("00002A1D-0000-1000-8000-00805f9b34fc")));
+        assertEquals(-1, DataMessages.characteristicId(UUID.randomUUID()));
+    }
+
+    @Test
+    public void encodesRepliesAndNotifications() {
+        assertEquals(DataMessages.RESULT_NOT_CONNECTED, DataMessages.result("NOT_CONNECTED"));
+        assertEquals(DataMessages.RESULT_UNSUPPORTED, DataMessages.result("UNSUPPORTED"));
+        assertEquals(DataMessages.RESULT_SUPERSEDED, DataMessages.result("SUPERSEDED"));
+        assertEquals(DataMessages.RESULT_ERROR, DataMessages.result("SOMETHING_NEW"));
+        assertEquals(DataMessages.RESULT_ERROR, DataMessages.result(null));
+
+        ByteBuffer reply = DataMessages.reply(DataMessages.RESULT_WRITE_ERROR, "Write refused");
+        assertTrue(reply.isDirect());
+        assertEquals(DataMessages.RESULT_WRITE_ERROR, reply.get());
+        byte[] text = new byte[reply.remaining()];
+        reply.get(text);
+        assertEquals("Write refused", new String(text, StandardCharsets.UTF_8));
+        assertEquals(1, DataMessages.reply(DataMessages.RESULT_OK, null).remaining());
+
+        ByteBuffer notification = DataMessages.notification(0x2A19, new byte[] {80});
+        assertTrue(notification.isDirect());
+        assertEquals(DataMessages.OP_NOTIFY, DataMessages.op(notification));
+        assertEquals(0x2A19, DataMessages.characteristicId(notification));
+        assertArrayEquals(new byte[] {80}, DataMessages.value(notification));
+    }
+}
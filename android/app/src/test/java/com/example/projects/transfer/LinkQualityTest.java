@@ -0,0 +1,77 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LinkQualityTest {
+    @Test
+    public void linkWithoutHistoryIsStrong() {
+        LinkQuality quality = new LinkQuality();
+
+        assertNull(quality.getRssi());
+        assertEquals(100, quality.getScore());
+        assertEquals(LinkQuality.TIER_STRONG, quality.getTier());
+        assertEquals(244, quality.writeLength(244));
+        assertEquals(8, quality.window(4));
+        assertEquals(0, quality.repairPauseMs(0));
+    }
+
+    @Test
+    public void weakSignalAloneOnlyHalvesTheScore() {
+        LinkQuality quality = new LinkQuality();
+        for (int i = 0; i < 20; i++) {
+            quality.onRssi(-95);
+        }
+
+        assertEquals(Integer.valueOf(-95), quality.getRssi());
+        assertEquals(50, quality.getScore());
+        assertEquals(LinkQuality.TIER_FAIR, quality.getTier());
+        assertEquals(LinkQuality.FAIR_MAX_WRITE, quality.writeLength(512));
+        assertEquals(4, quality.window(4));
+    }
+
+    @Test
+    public void failuresMakeTheLinkWeakAndCleanWritesRecoverIt() {
+        LinkQuality quality = new LinkQuality();
+        quality.onTransfer(40, 10);
+        quality.onWriteComplete(false);
+
+        assertEquals(LinkQuality.TIER_WEAK, quality.getTier());
+        assertEquals(LinkQuality.WEAK_MAX_WRITE, quality.writeLength(244));
+        // Never below what a minimum MTU write can carry, never above what the link allows
+        assertEquals(20, new LinkQuality().writeLength(20));
+        assertEquals(1, quality.window(4));
+        assertEquals(1000, quality.retryDelayMs(0));
+        assertEquals(4000, quality.retryDelayMs(2));
+        assertEquals(8000, quality.retryDelayMs(10));
+        assertEquals(2000, quality.repairPauseMs(1));
+
+        for (int i = 0; i < 5; i++) {
+            quality.onTransfer(40, 0);
+        }
+        for (int i = 0; i < 40; i++) {
+            quality.onWriteComplete(true);
+        }
+        assertEquals(LinkQuality.TIER_STRONG, quality.getTier());
+
+        quality.onTimeout();
+        quality.onTimeout();
+        assertEquals(LinkQuality.TIER_WEAK, quality.getTier());
+        quality.reset();
+        assertEquals(100, quality.getScore());
+    }
+
+    @Test
+    public void retryWaitsAtLeastTwoConnectionEvents() {
+        LinkQuality quality = new LinkQuality();
+        assertEquals(100, quality.retryDelayMs(0));
+
+        // 50 ms interval with 2 skipped events: 150 ms per event the peripheral listens to
+        quality.onConnectionParameters(40, 2);
+        assertEquals(300, quality.retryDelayMs(0));
+        assertTrue(quality.retryDelayMs(1) > quality.retryDelayMs(0));
+    }
+}
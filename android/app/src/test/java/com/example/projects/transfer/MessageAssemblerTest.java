@@ -0,0 +1,99 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class MessageAssemblerTest {
+    private static final UUID PRESET = UUID.fromString("00002A1D-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEARING_TEST = UUID.fromString("00002A1C-0000-1000-8000-00805f9b34fb");
+
+    private final List<byte[]> messages = new ArrayList<>();
+    private final List<Integer> sessions = new ArrayList<>();
+    private final MessageAssembler.Sink sink = (characteristic, session, buffer, length) -> {
+        messages.add(Arrays.copyOf(buffer, length));
+        sessions.add(session);
+    };
+
+    @Test
+    public void interleavedSessionsAreReassembledSeparately() {
+        MessageAssembler assembler = new MessageAssembler(2, 1024);
+        byte[] stats = bytes(1, 700);
+        byte[] preset = bytes(2, 30);
+        byte[][] first = MessageAssembler.split(7, stats, 244);
+        byte[][] second = MessageAssembler.split(8, preset, 244);
+        assertEquals(3, first.length);
+        assertEquals(1, second.length);
+
+        assertFalse(assembler.accept(HEARING_TEST, first[0], sink));
+        assertFalse(assembler.accept(HEARING_TEST, first[1], sink));
+        // A one-packet message on another session completes while the first is half done
+        assertTrue(assembler.accept(PRESET, second[0], sink));
+        assertTrue(assembler.accept(HEARING_TEST, first[2], sink));
+
+        assertEquals(Arrays.asList(8, 7), sessions);
+        assertArrayEquals(preset, messages.get(0));
+        assertArrayEquals(stats, messages.get(1));
+        assertEquals(2, assembler.getMessages());
+        assertEquals(0, assembler.getDropped());
+    }
+
+    @Test
+    public void missingFragmentDropsTheMessage() {
+        MessageAssembler assembler = new MessageAssembler(2, 1024);
+        byte[][] fragments = MessageAssembler.split(3, bytes(3, 500), 185);
+
+        assembler.accept(PRESET, fragments[0], sink);
+        assertFalse(assembler.accept(PRESET, fragments[2], sink));
+        assertFalse(assembler.accept(PRESET, fragments[1], sink));
+        assertTrue(messages.isEmpty());
+        assertEquals(2, assembler.getDropped());
+
+        // The headset sends it again from the start
+        for (byte[] fragment : fragments) {
+            assembler.accept(PRESET, fragment, sink);
+        }
+        assertEquals(1, messages.size());
+    }
+
+    @Test
+    public void fullBuffersGiveWayToNewSessions() {
+        MessageAssembler assembler = new MessageAssembler(2, 256);
+        byte[][] stale = MessageAssembler.split(1, bytes(4, 200), 100);
+        byte[][] other = MessageAssembler.split(2, bytes(5, 200), 100);
+        byte[] fresh = bytes(6, 150);
+
+        assembler.accept(PRESET, stale[0], sink);
+        assembler.accept(PRESET, other[0], sink);
+        for (byte[] fragment : MessageAssembler.split(3, fresh, 100)) {
+            assembler.accept(PRESET, fragment, sink);
+        }
+        assertArrayEquals(fresh, messages.get(0));
+        // Session 1 waited longest and lost its buffer; session 2 still completes
+        assertFalse(assembler.accept(PRESET, stale[1], sink));
+        for (int i = 1; i < other.length; i++) {
+            assembler.accept(PRESET, other[i], sink);
+        }
+        assertEquals(Arrays.asList(3, 2), sessions);
+
+        // Larger than a buffer, or shorter than a header
+        assertFalse(assembler.accept(PRESET, MessageAssembler.split(4, bytes(7, 300), 100)[0], sink));
+        assertFalse(assembler.accept(PRESET, new byte[] {1, 2}, sink));
+        assertEquals(4, assembler.getDropped());
+    }
+
+    private static byte[] bytes(long seed, int length) {
+        byte[] value = new byte[length];
+        new Random(seed).nextBytes(value);
+        return value;
+    }
+}
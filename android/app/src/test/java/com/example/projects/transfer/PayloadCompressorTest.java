@@ -0,0 +1,73 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.zip.Deflater;
+
+public class PayloadCompressorTest {
+
+    @Test
+    public void roundTripsEveryPayloadType() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor();
+        Random random = new Random(1);
+        for (String json : new String[] {
+            PayloadFixtures.hearingTest(random),
+            PayloadFixtures.preset(random),
+            PayloadFixtures.combined(random),
+            PayloadFixtures.history(random, 40),
+            "",
+        }) {
+            byte[] payload = PayloadFixtures.bytes(json);
+            byte[] compressed = compressor.compress(payload);
+            assertArrayEquals(payload, PayloadCompressor.inflate(compressed, payload.length));
+        }
+    }
+
+    @Test
+    public void dictionaryBeatsPlainDeflateOnSmallPayloads() {
+        PayloadCompressor compressor = new PayloadCompressor();
+        Deflater plain = new Deflater(Deflater.BEST_COMPRESSION, true);
+        Random random = new Random(2);
+        for (String json : new String[] {PayloadFixtures.hearingTest(random), PayloadFixtures.preset(random)}) {
+            byte[] payload = PayloadFixtures.bytes(json);
+            int withDictionary = compressor.compress(payload).length;
+            int without = deflatedLength(plain, payload);
+            assertTrue(withDictionary + " vs " + without + " for " + json, withDictionary < without * 0.8);
+        }
+        plain.end();
+    }
+
+    // Each payload type deflates below its ratio; the thresholds keep the dictionary honest
+    @Test
+    public void eachPayloadTypeCompressesBelowItsRatio() {
+        // CPU cost per payload is measured by DataPathBenchmark in the benchmark module
+        Random random = new Random(3);
+        assertRatio("hearing test", PayloadFixtures.hearingTest(random), 0.50);
+        assertRatio("preset", PayloadFixtures.preset(random), 0.50);
+        assertRatio("combined", PayloadFixtures.combined(random), 0.40);
+        assertRatio("history x40", PayloadFixtures.history(random, 40), 0.30);
+    }
+
+    private static void assertRatio(String type, String json, double maxRatio) {
+        byte[] payload = PayloadFixtures.bytes(json);
+        byte[] compressed = new PayloadCompressor().compress(payload);
+        double ratio = (double) compressed.length / payload.length;
+        assertTrue(type + " ratio " + ratio, ratio < maxRatio);
+    }
+
+    private static int deflatedLength(Deflater deflater, byte[] payload) {
+        deflater.reset();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] buffer = new byte[payload.length * 2 + 64];
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.projects.transfer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+// JSON payloads shaped like the ones BLEDataService sends (jsonEncode output, no whitespace)
+final class PayloadFixtures {
+    private static final int[] FREQUENCIES = {250, 500, 1000, 2000, 4000};
+
+    private PayloadFixtures() {
+    }
+
+    static String hearingTest(Random random) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"name\":\"Hearing Test ").append(random.nextInt(100)).append('"');
+        json.append(",\"dateCreated\":\"").append(date(random)).append('"');
+        json.append(",\"soundTestData\":{");
+        String separator = "";
+        for (String ear : new String[] {"L", "R"}) {
+            for (int frequency : FREQUENCIES) {
+                json.append(separator).append("\"").append(ear).append("_user_").append(frequency)
+                    .append("Hz_dB\":").append(level(random));
+                separator = ",";
+            }
+        }
+        json.append("},\"id\":\"").append(Math.abs(random.nextLong())).append("\"}");
+        return json.toString();
+    }
+
+    static String preset(Random random) {
+        return "{\"name\":\"Preset " + random.nextInt(100) + "\",\"presetData\":{"
+            + "\"db_valueOV\":" + level(random)
+            + ",\"db_valueSB_BS\":" + level(random)
+            + ",\"db_valueSB_MRS\":" + level(random)
+            + ",\"db_valueSB_TS\":" + level(random)
+            + ",\"reduce_background_noise\":" + random.nextBoolean()
+            + ",\"reduce_wind_noise\":" + random.nextBoolean()
+            + ",\"soften_sudden_noise\":" + random.nextBoolean()
+            + "},\"dateCreated\":\"" + date(random) + "\",\"id\":\"" + Math.abs(random.nextLong()) + "\"}";
+    }
+
+    // Mirrors BLEDataService.calculateCombinedValues: both objects embedded again in full
+    static String combined(Random random) {
+        String hearingTest = hearingTest(random);
+        String preset = preset(random);
+        StringBuilder adjusted = new StringBuilder();
+        String separator = "";
+        for (String ear : new String[] {"L", "R"}) {
+            for (int frequency : FREQUENCIES) {
+                adjusted.append(separator).append("\"").append(ear).append("_user_").append(frequency)
+                    .append("Hz_dB\":").append(level(random));
+                separator = ",";
+            }
+        }
+        return "{\"hearingTest\":" + hearingTest + ",\"preset\":" + preset
+            + ",\"combinedValues\":{\"adjustedHearing\":{" + adjusted + "},\"noiseReduction\":{"
+            + "\"reduceBackgroundNoise\":" + random.nextBoolean()
+            + ",\"reduceWindNoise\":" + random.nextBoolean()
+            + ",\"softenSuddenNoise\":" + random.nextBoolean()
+            + "}},\"hearingTestId\":\"" + Math.abs(random.nextLong())
+            + "\",\"presetId\":\"" + Math.abs(random.nextLong())
+            + "\",\"timestamp\":\"" + date(random) + "\"}";
+    }
+
+    // Several records in one payload, like a history sync
+    static String history(Random random, int records) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            if (i > 0) json.append(',');
+            json.append(i % 2 == 0 ? hearingTest(random) : preset(random));
+        }
+        return json.append(']').toString();
+    }
+
+    static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String date(Random random) {
+        return String.format(Locale.US, "2025-%02d-%02dT%02d:%02d:%02d.%06d",
+            1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24),
+            random.nextInt(60), random.nextInt(60), random.nextInt(1_000_000));
+    }
+
+    private static String level(Random random) {
+        return String.format(Locale.US, "%.1f", -10.0 + random.nextInt(120) / 2.0);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PresetSlotsTest {
+    private static final byte[] LOUD = "{\"presetId\":\"loud\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] QUIET = "{\"presetId\":\"quiet\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void manifestRoundTrips() {
+        PresetSlots.Manifest manifest = PresetSlots.parseManifest(new byte[] {1, 4, (byte) 0xFF, 0});
+        manifest.put(2, PresetSlots.KIND_PRESET, PresetSlots.hash(LOUD));
+        manifest.put(0, PresetSlots.KIND_AUDIOGRAM, PresetSlots.hash(QUIET));
+        manifest.setActiveSlot(2);
+
+        PresetSlots.Manifest parsed = PresetSlots.parseManifest(PresetSlots.encodeManifest(manifest));
+
+        assertEquals(4, parsed.capacity);
+        assertEquals(2, parsed.getActiveSlot());
+        assertEquals(2, parsed.size());
+        assertEquals(2, parsed.slotOf(PresetSlots.hash(LOUD)));
+        assertEquals(PresetSlots.KIND_AUDIOGRAM, parsed.kindAt(0));
+        assertNull(parsed.hashAt(1));
+    }
+
+    @Test
+    public void malformedManifestIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> PresetSlots.parseManifest(new byte[] {2, 4, 0, 0}));
+        // Claims one entry but carries none
+        assertThrows(IllegalArgumentException.class, () -> PresetSlots.parseManifest(new byte[] {1, 4, 0, 1}));
+        byte[] beyondCapacity = new byte[4 + 10];
+        beyondCapacity[0] = 1;
+        beyondCapacity[1] = 2;
+        beyondCapacity[3] = 1;
+        beyondCapacity[4] = 5;
+        assertThrows(IllegalArgumentException.class, () -> PresetSlots.parseManifest(beyondCapacity));
+    }
+
+    @Test
+    public void emptySlotsAreFilledBeforeAnythingIsEvicted() {
+        PresetSlots.Manifest manifest = PresetSlots.parseManifest(new byte[] {1, 3, (byte) 0xFF, 0});
+        manifest.put(0, PresetSlots.KIND_PRESET, PresetSlots.hash(LOUD));
+
+        assertEquals(1, PresetSlots.chooseSlot(manifest, Collections.emptySet(), Collections.emptySet()));
+        assertEquals(2, PresetSlots.chooseSlot(manifest, Collections.singleton(1), Collections.emptySet()));
+    }
+
+    @Test
+    public void evictsOnlySlotsNoItemNeedsAndNeverTheActiveOne() {
+        PresetSlots.Manifest manifest = PresetSlots.parseManifest(new byte[] {1, 3, 0, 0});
+        manifest.put(0, PresetSlots.KIND_PRESET, PresetSlots.hash("a".getBytes(StandardCharsets.UTF_8)));
+        manifest.put(1, PresetSlots.KIND_PRESET, PresetSlots.hash(LOUD));
+        manifest.put(2, PresetSlots.KIND_PRESET, PresetSlots.hash(QUIET));
+        Set<String> wanted = new HashSet<>();
+        wanted.add(PresetSlots.toHex(PresetSlots.hash(LOUD)));
+
+        // Slot 0 is active and slot 1 is wanted, so slot 2 goes
+        assertEquals(2, PresetSlots.chooseSlot(manifest, Collections.emptySet(), wanted));
+        assertEquals(-1, PresetSlots.chooseSlot(manifest, Collections.singleton(2), wanted));
+    }
+
+    @Test
+    public void envelopeCarriesSlotKindAndHashAheadOfPayload() {
+        byte[] hash = PresetSlots.hash(LOUD);
+        byte[] envelope = PresetSlots.envelope(3, PresetSlots.KIND_COMBINED, hash, LOUD);
+
+        assertEquals(2 + PresetSlots.HASH_SIZE + LOUD.length, envelope.length);
+        assertEquals(3, envelope[0]);
+        assertEquals(PresetSlots.KIND_COMBINED, envelope[1]);
+        assertArrayEquals(hash, Arrays.copyOfRange(envelope, 2, 2 + PresetSlots.HASH_SIZE));
+        assertArrayEquals(new byte[] {7}, PresetSlots.activate(7));
+    }
+}
@@ -0,0 +1,823 @@
+package com.example.projects.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+// An in-process headset for JVM tests: the GATT server side of the framed transfer, preset
+// slot, firmware update and battery characteristics, behind a modelled BLE link.
+//
+// The link runs in connection events. Each event carries up to packetsPerEvent queued
+// packets, and the stack holds at most bufferDepth packets: write() answers BUSY beyond that,
+// and while an acknowledged write, read or descriptor write is outstanding, like
+// BluetoothGatt does. Writes without response that the link loses never reach the headset,
+// so the app only learns of them from NACKs; a lost acknowledged packet is retried by the link
+// layer on the next event. Responses, read values and notifications come back after a sampled
+// processing latency, on the first event after it.
+//
+// All randomness comes from one seeded Random, drawn in packet order, so a scenario loses
+// the same packets on every run. Time is kept on a virtual clock (getAirTimeMicros) and only
+// turned into real waits through timeScale, so a test can model a slow link in a few ms.
+final class SimulatedHeadset implements GattPort {
+    static final UUID HEARING_TEST = uuid(0x2A1C);
+    static final UUID PRESET = uuid(0x2A1D);
+    static final UUID COMBINED = uuid(0x2A1E);
+    static final UUID CONTROL = uuid(0x2A1F);
+    static final UUID STATUS = uuid(0x2A20);
+    static final UUID CAPS = uuid(0x2A21);
+    static final UUID SLOT_MANIFEST = uuid(0x2A22);
+    static final UUID ACTIVE_SLOT = uuid(0x2A23);
+    static final UUID SLOT_DATA = uuid(0x2A24);
+    static final UUID BATTERY = uuid(0x2A19);
+    static final UUID FIRMWARE_CONTROL = uuid(0x2A25);
+    static final UUID FIRMWARE_DATA = uuid(0x2A26);
+
+    // Processing time on the headset before it answers
+    interface Latency {
+        long sampleMicros(Random random);
+
+        static Latency fixed(double ms) {
+            long micros = (long) (ms * 1000);
+            return random -> micros;
+        }
+
+        static Latency uniform(double minMs, double maxMs) {
+            return random -> (long) ((minMs + random.nextDouble() * (maxMs - minMs)) * 1000);
+        }
+
+        // A floor plus an exponential tail, the usual shape of firmware response times
+        static Latency exponential(double minMs, double meanExtraMs) {
+            return random -> (long) ((minMs - Math.log(1 - random.nextDouble()) * meanExtraMs) * 1000);
+        }
+    }
+
+    // Link and headset parameters; the defaults are a healthy link to a current headset
+    static final class Link {
+        int mtu = 247;
+        double intervalMs = 7.5;
+        int packetsPerEvent = 4;
+        int bufferDepth = 8;
+        double lossRate;
+        Latency latency = Latency.fixed(1);
+        long seed = 1;
+        // Real time per modelled ms; 0 runs as fast as the test threads allow
+        double timeScale = 0.05;
+        int capabilities = PayloadCompressor.CAP_DEFLATE_DICT_V1;
+        boolean framing = true;
+        int slotCapacity = 4;
+        int batteryLevel = 80;
+        // Drops the link once this many packets reached the headset; -1 never
+        int disconnectAfterPackets = -1;
+        // Largest firmware image the headset takes; 0 for no firmware update service
+        int firmwareCapacity = 1 << 20;
+        // Flips a bit at this image offset the first time it is stored; -1 never
+        int corruptFirmwareAt = -1;
+
+        Link mtu(int mtu) {
+            this.mtu = mtu;
+            return this;
+        }
+
+        Link interval(double ms) {
+            intervalMs = ms;
+            return this;
+        }
+
+        Link packetsPerEvent(int packets) {
+            packetsPerEvent = packets;
+            return this;
+        }
+
+        Link bufferDepth(int depth) {
+            bufferDepth = depth;
+            return this;
+        }
+
+        Link loss(double rate) {
+            lossRate = rate;
+            return this;
+        }
+
+        Link latency(Latency latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        Link seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        Link timeScale(double scale) {
+            timeScale = scale;
+            return this;
+        }
+
+        Link capabilities(int capabilities) {
+            this.capabilities = capabilities;
+            return this;
+        }
+
+        // Without framing the headset only has the plain data characteristics
+        Link framing(boolean framing) {
+            this.framing = framing;
+            return this;
+        }
+
+        Link slots(int capacity) {
+            slotCapacity = capacity;
+            return this;
+        }
+
+        Link disconnectAfterPackets(int packets) {
+            disconnectAfterPackets = packets;
+            return this;
+        }
+
+        Link firmware(int capacity) {
+            firmwareCapacity = capacity;
+            return this;
+        }
+
+        Link corruptFirmwareAt(int offset) {
+            corruptFirmwareAt = offset;
+            return this;
+        }
+    }
+
+    // A payload the headset accepted, framed or as a plain write
+    static final class Received {
+        final UUID characteristic;
+        final byte[] value;
+
+        Received(UUID characteristic, byte[] value) {
+            this.characteristic = characteristic;
+            this.value = value;
+        }
+    }
+
+    private static final int KIND_WRITE = 0;
+    private static final int KIND_READ = 1;
+    private static final int KIND_DESCRIPTOR = 2;
+
+    private static final class Packet {
+        final int kind;
+        final UUID characteristic;
+        final byte[] value;
+        final boolean withResponse;
+
+        Packet(int kind, UUID characteristic, byte[] value, boolean withResponse) {
+            this.kind = kind;
+            this.characteristic = characteristic;
+            this.value = value;
+            this.withResponse = withResponse;
+        }
+    }
+
+    private static final class Event implements Comparable<Event> {
+        final long timeMicros;
+        final long order;
+        final Runnable action;
+
+        Event(long timeMicros, long order, Runnable action) {
+            this.timeMicros = timeMicros;
+            this.order = order;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Long.compare(timeMicros, other.timeMicros);
+            return byTime != 0 ? byTime : Long.compare(order, other.order);
+        }
+    }
+
+    private final Link link;
+    private final long intervalMicros;
+    private final Random random;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<UUID> characteristics = new HashSet<>();
+    private final Thread dispatcher;
+
+    // Everything below is guarded by this
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private final ArrayDeque<Packet> queue = new ArrayDeque<>();
+    // Listener calls produced by the event being run, made once the lock is released
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private long posted;
+    private long delivered;
+    private long order;
+    private long now;
+    private long lastEvent;
+    private boolean eventScheduled;
+    private boolean awaitingResponse;
+    private boolean connected = true;
+    private boolean running = true;
+
+    private int connectionEvents;
+    private int packetsOnAir;
+    private int packetsDelivered;
+    private int packetsLost;
+    private int linkRetries;
+    private int busyRejections;
+    private int maxQueued;
+    private int capabilityReads;
+
+    // Headset state
+    private final Set<UUID> notifying = new HashSet<>();
+    private final PresetSlots.Manifest manifest;
+    private final List<Received> received = new ArrayList<>();
+    private final List<Integer> activations = new ArrayList<>();
+    private UUID transferCharacteristic;
+    private int session = -1;
+    private int frameSize;
+    private int frameCount;
+    private int flags;
+    private int payloadLength;
+    private byte[] buffer;
+    private final BitSet frames = new BitSet();
+    // Firmware update: the image being received survives a reconnect so the update can resume
+    private byte[] firmware;
+    private byte[] firmwareHash;
+    private int firmwareOffset;
+    private int receiptInterval;
+    private int sinceReceipt;
+    // Offset of the last data packet, to tell when the sender went back
+    private int lastFirmwarePacket = -1;
+    private boolean gapReported;
+    private boolean firmwareVerified;
+    private boolean firmwareCorrupted;
+    private byte[] installedFirmware;
+
+    SimulatedHeadset(Link link) {
+        this.link = link;
+        this.intervalMicros = (long) (link.intervalMs * 1000);
+        this.random = new Random(link.seed);
+        this.manifest = new PresetSlots.Manifest(link.slotCapacity, PresetSlots.NO_SLOT);
+
+        characteristics.addAll(Arrays.asList(HEARING_TEST, PRESET, COMBINED, BATTERY));
+        if (link.framing) {
+            characteristics.addAll(Arrays.asList(CONTROL, STATUS, CAPS));
+            if (link.slotCapacity > 0) {
+                characteristics.addAll(Arrays.asList(SLOT_MANIFEST, ACTIVE_SLOT, SLOT_DATA));
+            }
+        }
+        if (link.firmwareCapacity > 0) {
+            characteristics.addAll(Arrays.asList(FIRMWARE_CONTROL, FIRMWARE_DATA));
+        }
+
+        dispatcher = new Thread(this::dispatch, "simulated-headset");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        dispatcher.interrupt();
+    }
+
+    // Drops the link as if the headset went out of range; queued packets are lost
+    void disconnect() {
+        synchronized (this) {
+            dropLink();
+        }
+    }
+
+    // The headset comes back with its slots, received payloads and partial firmware image, but
+    // not the transfer that was in progress. Waits until listeners heard about the drop, so
+    // that news can't reach a writer created for the new link.
+    synchronized void reconnect() throws InterruptedException {
+        while (delivered < posted) {
+            wait();
+        }
+        connected = true;
+        session = -1;
+        notifying.clear();
+        lastFirmwarePacket = -1;
+        gapReported = false;
+    }
+
+    synchronized long getAirTimeMicros() {
+        return now;
+    }
+
+    synchronized int getConnectionEvents() {
+        return connectionEvents;
+    }
+
+    // Every attempt on air, including lost packets and link-layer retries
+    synchronized int getPacketsOnAir() {
+        return packetsOnAir;
+    }
+
+    // Writes without response the link lost
+    synchronized int getPacketsLost() {
+        return packetsLost;
+    }
+
+    synchronized int getLinkRetries() {
+        return linkRetries;
+    }
+
+    synchronized int getBusyRejections() {
+        return busyRejections;
+    }
+
+    synchronized int getMaxQueued() {
+        return maxQueued;
+    }
+
+    synchronized int getCapabilityReads() {
+        return capabilityReads;
+    }
+
+    synchronized List<Received> getReceived() {
+        return new ArrayList<>(received);
+    }
+
+    // Last payload accepted on a characteristic, or null
+    synchronized byte[] lastReceived(UUID characteristic) {
+        for (int i = received.size() - 1; i >= 0; i--) {
+            if (received.get(i).characteristic.equals(characteristic)) {
+                return received.get(i).value.clone();
+            }
+        }
+        return null;
+    }
+
+    synchronized PresetSlots.Manifest getManifest() {
+        return PresetSlots.parseManifest(PresetSlots.encodeManifest(manifest));
+    }
+
+    synchronized List<Integer> getActivations() {
+        return new ArrayList<>(activations);
+    }
+
+    // Image the headset switched to with ACTIVATE, or null
+    synchronized byte[] getInstalledFirmware() {
+        return installedFirmware != null ? installedFirmware.clone() : null;
+    }
+
+    // Contiguous bytes held of the image being received
+    synchronized int getFirmwareOffset() {
+        return firmwareOffset;
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        return connected;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID characteristic) {
+        return characteristics.contains(characteristic);
+    }
+
+    @Override
+    public int getMaxWriteLength() {
+        return link.mtu - 3;
+    }
+
+    @Override
+    public synchronized int write(UUID characteristic, byte[] value, boolean withResponse) {
+        if (value.length > getMaxWriteLength()) {
+            return STATUS_FAILED;
+        }
+        return enqueue(new Packet(KIND_WRITE, characteristic, value.clone(), withResponse));
+    }
+
+    @Override
+    public synchronized int read(UUID characteristic) {
+        return enqueue(new Packet(KIND_READ, characteristic, null, true));
+    }
+
+    @Override
+    public synchronized int setNotifications(UUID characteristic, boolean enable) {
+        return enqueue(new Packet(KIND_DESCRIPTOR, characteristic, new byte[] {(byte) (enable ? 1 : 0)}, true));
+    }
+
+    private int enqueue(Packet packet) {
+        if (!connected) {
+            return STATUS_DISCONNECTED;
+        }
+        if (!characteristics.contains(packet.characteristic)) {
+            return STATUS_FAILED;
+        }
+        if (awaitingResponse || queue.size() >= link.bufferDepth) {
+            busyRejections++;
+            return STATUS_BUSY;
+        }
+        queue.add(packet);
+        awaitingResponse = packet.withResponse;
+        maxQueued = Math.max(maxQueued, queue.size());
+        if (!eventScheduled) {
+            eventScheduled = true;
+            schedule(nextEventAfter(now), this::connectionEvent);
+        }
+        return STATUS_SUCCESS;
+    }
+
+    // One connection event: packets go out in order until the event is full
+    private void connectionEvent() {
+        eventScheduled = false;
+        lastEvent = now;
+        connectionEvents++;
+        int slots = link.packetsPerEvent;
+        while (connected && slots-- > 0 && !queue.isEmpty()) {
+            Packet packet = queue.peek();
+            packetsOnAir++;
+            if (session >= 0 && transferCharacteristic == null && !packet.withResponse) {
+                // Frames carry no characteristic of their own; the first one after BEGIN
+                // decides which characteristic the payload is for
+                transferCharacteristic = packet.characteristic;
+            }
+            boolean lost = random.nextDouble() < link.lossRate;
+            if (lost && packet.withResponse) {
+                // Not acknowledged at the link layer; it goes again next event
+                linkRetries++;
+                break;
+            }
+            queue.poll();
+            if (lost) {
+                packetsLost++;
+                notifyWriteComplete(packet.characteristic, STATUS_SUCCESS);
+                continue;
+            }
+            packetsDelivered++;
+            receive(packet);
+            if (packetsDelivered == link.disconnectAfterPackets) {
+                dropLink();
+                return;
+            }
+        }
+        if (connected && !queue.isEmpty()) {
+            eventScheduled = true;
+            schedule(now + intervalMicros, this::connectionEvent);
+        }
+    }
+
+    private void receive(Packet packet) {
+        UUID characteristic = packet.characteristic;
+        if (packet.kind == KIND_READ) {
+            byte[] value = readValue(characteristic);
+            respond(() -> {
+                awaitingResponse = false;
+                post(listener -> listener.onReadComplete(characteristic,
+                    value != null ? STATUS_SUCCESS : STATUS_FAILED, value));
+            });
+            return;
+        }
+        if (packet.kind == KIND_DESCRIPTOR) {
+            if (packet.value[0] != 0) {
+                notifying.add(characteristic);
+            } else {
+                notifying.remove(characteristic);
+            }
+            respond(() -> {
+                awaitingResponse = false;
+                notifyWriteComplete(characteristic, STATUS_SUCCESS);
+            });
+            return;
+        }
+
+        if (!packet.withResponse) {
+            // The stack reports a write without response done once it is on air
+            notifyWriteComplete(characteristic, STATUS_SUCCESS);
+            if (FIRMWARE_DATA.equals(characteristic)) {
+                receiveFirmware(packet.value);
+            } else if (session >= 0 && characteristic.equals(transferCharacteristic)) {
+                receiveFrame(packet.value);
+            } else {
+                received.add(new Received(characteristic, packet.value));
+            }
+            return;
+        }
+
+        byte[] notification = null;
+        int status = STATUS_SUCCESS;
+        UUID notifyOn = STATUS;
+        if (CONTROL.equals(characteristic)) {
+            notification = control(packet.value);
+        } else if (FIRMWARE_CONTROL.equals(characteristic)) {
+            notification = firmwareControl(packet.value);
+            notifyOn = FIRMWARE_CONTROL;
+        } else if (ACTIVE_SLOT.equals(characteristic)) {
+            int slot = packet.value[0] & 0xFF;
+            if (manifest.hashAt(slot) != null) {
+                manifest.setActiveSlot(slot);
+                activations.add(slot);
+            } else {
+                status = STATUS_FAILED;
+            }
+        } else {
+            received.add(new Received(characteristic, packet.value));
+        }
+
+        int writeStatus = status;
+        byte[] answer = notification;
+        UUID answerOn = notifyOn;
+        respond(() -> {
+            awaitingResponse = false;
+            notifyWriteComplete(characteristic, writeStatus);
+            if (answer != null && notifying.contains(answerOn)) {
+                post(listener -> listener.onNotification(answerOn, answer));
+            }
+        });
+    }
+
+    private byte[] readValue(UUID characteristic) {
+        if (CAPS.equals(characteristic)) {
+            capabilityReads++;
+            return new byte[] {(byte) link.capabilities};
+        } else if (SLOT_MANIFEST.equals(characteristic)) {
+            return PresetSlots.encodeManifest(manifest);
+        } else if (BATTERY.equals(characteristic)) {
+            return new byte[] {(byte) link.batteryLevel};
+        }
+        return null;
+    }
+
+    // BEGIN opens a session on the data characteristic the next frames arrive on; COMMIT
+    // answers NACK, DONE or FAILED
+    private byte[] control(byte[] value) {
+        if (value[0] == TransferFrames.OP_BEGIN) {
+            session = value[1] & 0xFF;
+            buffer = new byte[TransferFrames.getInt(value, 2)];
+            frameCount = TransferFrames.getShort(value, 6);
+            frameSize = TransferFrames.getShort(value, 8);
+            flags = value[10] & 0xFF;
+            payloadLength = TransferFrames.getInt(value, 11);
+            frames.clear();
+            transferCharacteristic = null;
+            return null;
+        }
+        if (value[0] != TransferFrames.OP_COMMIT || (value[1] & 0xFF) != session) {
+            return TransferFrames.status(TransferFrames.STATUS_FAILED, value[1] & 0xFF);
+        }
+        if (frames.cardinality() < frameCount) {
+            BitSet missing = new BitSet();
+            for (int seq = frames.nextClearBit(0); seq < frameCount; seq = frames.nextClearBit(seq + 1)) {
+                missing.set(seq);
+            }
+            return TransferFrames.nack(session, 0, missing, frameCount);
+        }
+
+        byte[] payload = buffer;
+        if ((flags & TransferFrames.FLAG_DEFLATE_DICT_V1) != 0) {
+            try {
+                payload = PayloadCompressor.inflate(buffer, payloadLength);
+            } catch (DataFormatException e) {
+                return TransferFrames.status(TransferFrames.STATUS_FAILED, session);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        if (payload.length != TransferFrames.getInt(value, 2) || (int) crc.getValue() != TransferFrames.getInt(value, 6)) {
+            return TransferFrames.status(TransferFrames.STATUS_FAILED, session);
+        }
+        UUID characteristic = transferCharacteristic != null ? transferCharacteristic : PRESET;
+        if (SLOT_DATA.equals(characteristic) && !storeSlot(payload)) {
+            return TransferFrames.status(TransferFrames.STATUS_FAILED, session);
+        }
+        received.add(new Received(characteristic, payload));
+        byte[] done = TransferFrames.status(TransferFrames.STATUS_DONE, session);
+        session = -1;
+        return done;
+    }
+
+    private void receiveFrame(byte[] frame) {
+        if (!TransferFrames.isFrameValid(frame) || (frame[0] & 0xFF) != session) {
+            return;
+        }
+        int seq = TransferFrames.getShort(frame, 1);
+        int length = frame.length - TransferFrames.HEADER_SIZE;
+        if (seq >= frameCount || seq * frameSize + length > buffer.length) {
+            return;
+        }
+        System.arraycopy(frame, TransferFrames.HEADER_SIZE, buffer, seq * frameSize, length);
+        frames.set(seq);
+    }
+
+    // START keeps the partial image when size and hash match; VERIFY answers INCOMPLETE until
+    // every byte is in, then checks the hash
+    private byte[] firmwareControl(byte[] value) {
+        int op = value[0];
+        int result = FirmwareUpdater.RESULT_OK;
+        if (op == FirmwareUpdater.OP_START && value.length >= 7 + FirmwareUpdater.HASH_SIZE) {
+            int size = TransferFrames.getInt(value, 1);
+            byte[] hash = Arrays.copyOfRange(value, 5, 5 + FirmwareUpdater.HASH_SIZE);
+            if (size <= 0 || size > link.firmwareCapacity) {
+                result = FirmwareUpdater.RESULT_NO_SPACE;
+            } else if (firmware == null || firmware.length != size || !Arrays.equals(hash, firmwareHash)) {
+                firmware = new byte[size];
+                firmwareHash = hash;
+                firmwareOffset = 0;
+            }
+            receiptInterval = Math.max(1, TransferFrames.getShort(value, 5 + FirmwareUpdater.HASH_SIZE));
+            sinceReceipt = 0;
+            lastFirmwarePacket = -1;
+            gapReported = false;
+            firmwareVerified = false;
+        } else if (op == FirmwareUpdater.OP_OFFSET) {
+            lastFirmwarePacket = -1;
+            gapReported = false;
+        } else if (op == FirmwareUpdater.OP_VERIFY) {
+            if (firmware == null) {
+                result = FirmwareUpdater.RESULT_INVALID;
+            } else if (firmwareOffset < firmware.length) {
+                result = FirmwareUpdater.RESULT_INCOMPLETE;
+                lastFirmwarePacket = -1;
+                gapReported = false;
+            } else if (Arrays.equals(firmwareHash, FirmwareUpdater.sha256(ByteBuffer.wrap(firmware)))) {
+                firmwareVerified = true;
+            } else {
+                result = FirmwareUpdater.RESULT_HASH_MISMATCH;
+                firmware = null;
+                firmwareOffset = 0;
+            }
+        } else if (op == FirmwareUpdater.OP_ACTIVATE) {
+            if (firmwareVerified) {
+                installedFirmware = firmware;
+                firmware = null;
+                firmwareOffset = 0;
+                firmwareVerified = false;
+            } else {
+                result = FirmwareUpdater.RESULT_INVALID;
+            }
+        } else if (op == FirmwareUpdater.OP_ABORT) {
+            firmware = null;
+            firmwareOffset = 0;
+        } else {
+            result = FirmwareUpdater.RESULT_INVALID;
+        }
+        return FirmwareUpdater.response(op, result, firmwareOffset);
+    }
+
+    // Takes only the packet at the expected offset. The first packet past a gap is reported
+    // once; later ones are dropped quietly until the sender goes back.
+    private void receiveFirmware(byte[] packet) {
+        if (firmware == null || packet.length <= FirmwareUpdater.PACKET_HEADER_SIZE) {
+            return;
+        }
+        int offset = TransferFrames.getInt(packet, 0);
+        int length = packet.length - FirmwareUpdater.PACKET_HEADER_SIZE;
+        boolean wentBack = offset <= lastFirmwarePacket;
+        lastFirmwarePacket = offset;
+        if (offset == firmwareOffset && offset + length <= firmware.length) {
+            System.arraycopy(packet, FirmwareUpdater.PACKET_HEADER_SIZE, firmware, offset, length);
+            if (!firmwareCorrupted && link.corruptFirmwareAt >= offset && link.corruptFirmwareAt < offset + length) {
+                firmware[link.corruptFirmwareAt] ^= 1;
+                firmwareCorrupted = true;
+            }
+            firmwareOffset += length;
+            gapReported = false;
+            if (++sinceReceipt >= receiptInterval || firmwareOffset == firmware.length) {
+                sinceReceipt = 0;
+                notifyFirmware(FirmwareUpdater.progress(FirmwareUpdater.NOTIFY_RECEIPT, firmwareOffset));
+            }
+        } else if (offset > firmwareOffset && (!gapReported || wentBack)) {
+            gapReported = true;
+            sinceReceipt = 0;
+            notifyFirmware(FirmwareUpdater.progress(FirmwareUpdater.NOTIFY_GAP, firmwareOffset));
+        }
+    }
+
+    private void notifyFirmware(byte[] value) {
+        respond(() -> {
+            if (notifying.contains(FIRMWARE_CONTROL)) {
+                post(listener -> listener.onNotification(FIRMWARE_CONTROL, value));
+            }
+        });
+    }
+
+    // A slot upload replaces the slot only when the payload matches its hash
+    private boolean storeSlot(byte[] envelope) {
+        int header = 2 + PresetSlots.HASH_SIZE;
+        if (envelope.length < header || (envelope[0] & 0xFF) >= manifest.capacity) {
+            return false;
+        }
+        byte[] hash = Arrays.copyOfRange(envelope, 2, header);
+        if (!Arrays.equals(hash, PresetSlots.hash(Arrays.copyOfRange(envelope, header, envelope.length)))) {
+            return false;
+        }
+        manifest.put(envelope[0] & 0xFF, envelope[1] & 0xFF, hash);
+        return true;
+    }
+
+    private void dropLink() {
+        if (!connected) {
+            return;
+        }
+        connected = false;
+        queue.clear();
+        events.clear();
+        eventScheduled = false;
+        awaitingResponse = false;
+        post(Listener::onDisconnected);
+        notifyAll();
+    }
+
+    private void notifyWriteComplete(UUID characteristic, int status) {
+        post(listener -> listener.onWriteComplete(characteristic, status));
+    }
+
+    private void respond(Runnable response) {
+        schedule(nextEventAfter(now + link.latency.sampleMicros(random)), response);
+    }
+
+    private interface Call {
+        void on(Listener listener);
+    }
+
+    private void post(Call call) {
+        posted++;
+        callbacks.add(() -> {
+            for (Listener listener : listeners) {
+                call.on(listener);
+            }
+        });
+    }
+
+    private long nextEventAfter(long time) {
+        long count = Math.max(1, (time - lastEvent + intervalMicros - 1) / intervalMicros);
+        return lastEvent + count * intervalMicros;
+    }
+
+    private void schedule(long timeMicros, Runnable action) {
+        events.add(new Event(timeMicros, order++, action));
+        notifyAll();
+    }
+
+    // Runs events in virtual time order, waiting timeScale real time per modelled time
+    private void dispatch() {
+        long realAtNow = System.nanoTime();
+        List<Runnable> due = new ArrayList<>();
+        while (true) {
+            synchronized (this) {
+                while (running && callbacks.isEmpty()) {
+                    Event next = events.peek();
+                    long waitNanos = next == null ? 0
+                        : realAtNow + (long) ((next.timeMicros - now) * 1000 * link.timeScale) - System.nanoTime();
+                    if (next != null && waitNanos <= 0) {
+                        events.poll();
+                        now = next.timeMicros;
+                        next.action.run();
+                        break;
+                    }
+                    try {
+                        if (next == null) {
+                            wait();
+                            realAtNow = System.nanoTime();
+                        } else {
+                            wait(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                realAtNow = System.nanoTime();
+                due.addAll(callbacks);
+                callbacks.clear();
+            }
+            for (Runnable callback : due) {
+                callback.run();
+            }
+            synchronized (this) {
+                delivered += due.size();
+                notifyAll();
+            }
+            due.clear();
+        }
+    }
+
+    private static UUID uuid(int shortId) {
+        return UUID.fromString(String.format("0000%04X-0000-1000-8000-00805f9b34fb", shortId));
+    }
+}
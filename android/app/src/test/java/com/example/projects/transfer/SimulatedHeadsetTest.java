@@ -0,0 +1,283 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// End-to-end runs of the transfer code against SimulatedHeadset, asserting on the modelled
+// air time, losses and retries of the link parameters each scenario covers.
+public class SimulatedHeadsetTest {
+    private static final long TIMEOUT_MS = 30_000;
+
+    private final List<SimulatedHeadset> headsets = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        for (SimulatedHeadset headset : headsets) {
+            headset.close();
+        }
+    }
+
+    @Test
+    public void cleanLinkDeliversHistoryWithoutRetransmits() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link());
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(1), 40));
+
+        StreamingWriter.Result result = send(headset, payload, false, 4);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertArrayEquals(payload, headset.lastReceived(SimulatedHeadset.PRESET));
+        assertEquals(0, result.retransmitted);
+        assertEquals(1, result.repairRounds);
+        assertEquals(0, headset.getPacketsLost());
+    }
+
+    @Test
+    public void lostFramesAreResentOnceEach() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().loss(0.05).seed(3));
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(2), 40));
+
+        StreamingWriter.Result result = send(headset, payload, false, 4);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertArrayEquals(payload, headset.lastReceived(SimulatedHeadset.PRESET));
+        // Every frame the link lost cost exactly one resend, whatever round it was in
+        assertTrue(headset.getPacketsLost() > 0);
+        assertEquals(headset.getPacketsLost(), result.retransmitted);
+        assertTrue(result.repairRounds > 1);
+    }
+
+    @Test
+    public void smallMtuAndLongIntervalCostAirTime() throws Exception {
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(4), 10));
+
+        SimulatedHeadset fast = headset(new SimulatedHeadset.Link().mtu(247).interval(7.5));
+        assertTrue(send(fast, payload, false, 4).isSuccess());
+        SimulatedHeadset smallMtu = headset(new SimulatedHeadset.Link().mtu(23).interval(7.5));
+        assertTrue(send(smallMtu, payload, false, 4).isSuccess());
+        SimulatedHeadset slowInterval = headset(new SimulatedHeadset.Link().mtu(247).interval(30));
+        assertTrue(send(slowInterval, payload, false, 4).isSuccess());
+
+        // 13 payload bytes a frame instead of 239
+        assertTrue(smallMtu.getAirTimeMicros() > 5 * fast.getAirTimeMicros());
+        assertTrue(slowInterval.getAirTimeMicros() > 2 * fast.getAirTimeMicros());
+    }
+
+    @Test
+    public void shallowStackBufferPushesBack() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().bufferDepth(2)
+            .latency(SimulatedHeadset.Latency.exponential(2, 10)));
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(5), 10));
+
+        StreamingWriter.Result result = send(headset, payload, false, 8);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertTrue(result.busyStalls > 0);
+        assertTrue(headset.getMaxQueued() <= 2);
+    }
+
+    @Test
+    public void compressedPayloadIsInflatedByHeadset() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().mtu(185));
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(6), 20));
+
+        StreamingWriter.Result result = send(headset, payload, true, 4);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertTrue(result.isCompressed());
+        assertArrayEquals(payload, headset.lastReceived(SimulatedHeadset.PRESET));
+        assertEquals(1, headset.getCapabilityReads());
+    }
+
+    @Test
+    public void presetSlotsUploadOnlyNewContentOverLossyLink() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().loss(0.03).seed(9)
+            .latency(SimulatedHeadset.Latency.uniform(1, 8)));
+        GattWriter writer = new GattWriter(headset);
+        StreamingWriter streamer = new StreamingWriter(writer, SimulatedHeadset.CONTROL, SimulatedHeadset.STATUS,
+            SimulatedHeadset.CAPS, new PayloadCompressor(), 4);
+        PresetSlotSync slots = new PresetSlotSync(writer, streamer, SimulatedHeadset.SLOT_MANIFEST,
+            SimulatedHeadset.ACTIVE_SLOT, SimulatedHeadset.SLOT_DATA);
+        List<PresetSlotSync.Item> items = Arrays.asList(
+            new PresetSlotSync.Item("loud", PresetSlots.KIND_PRESET,
+                PayloadFixtures.bytes(PayloadFixtures.preset(new Random(10)))),
+            new PresetSlotSync.Item("test", PresetSlots.KIND_AUDIOGRAM,
+                PayloadFixtures.bytes(PayloadFixtures.hearingTest(new Random(11)))));
+        assertTrue(slots.isSupported());
+
+        PresetSlotSync.Result first = slots.sync(items, TIMEOUT_MS);
+        PresetSlotSync.Result second = slots.sync(items, TIMEOUT_MS);
+        int activated = slots.activate(first.slots.get("loud"), TIMEOUT_MS);
+
+        assertTrue(first.isSuccess());
+        assertEquals(2, first.uploaded);
+        assertEquals(0, second.uploaded);
+        assertEquals(2, second.skipped);
+        assertEquals(GattPort.STATUS_SUCCESS, activated);
+        assertEquals((int) first.slots.get("loud"), headset.getManifest().getActiveSlot());
+        // Activating a slot the headset doesn't hold is refused
+        assertEquals(GattPort.STATUS_FAILED, slots.activate(3, TIMEOUT_MS));
+    }
+
+    @Test
+    public void linkDropMidTransferEndsItAndReconnectStartsOver() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().disconnectAfterPackets(12));
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(12), 20));
+
+        StreamingWriter.Result dropped = send(headset, payload, false, 4);
+        assertEquals(GattPort.STATUS_DISCONNECTED, dropped.status);
+        assertFalse(headset.isReady());
+
+        headset.reconnect();
+        StreamingWriter.Result resent = send(headset, payload, false, 4);
+        assertTrue(GattPort.describe(resent.status), resent.isSuccess());
+        assertArrayEquals(payload, headset.lastReceived(SimulatedHeadset.PRESET));
+    }
+
+    @Test
+    public void weakLinkSendsSmallFramesOneAtATime() throws Exception {
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(13), 10));
+
+        LinkQuality strong = new LinkQuality();
+        SimulatedHeadset fast = headset(new SimulatedHeadset.Link().mtu(247));
+        StreamingWriter.Result full = send(fast, payload, false, 4, strong);
+
+        // Two writes that never came back make the link weak
+        LinkQuality weak = new LinkQuality();
+        weak.onTimeout();
+        weak.onTimeout();
+        assertEquals(LinkQuality.TIER_WEAK, weak.getTier());
+        SimulatedHeadset careful = headset(new SimulatedHeadset.Link().mtu(247));
+        StreamingWriter.Result small = send(careful, payload, false, 4, weak);
+
+        assertTrue(full.isSuccess());
+        assertTrue(GattPort.describe(small.status), small.isSuccess());
+        assertArrayEquals(payload, careful.lastReceived(SimulatedHeadset.PRESET));
+        assertEquals(TransferFrames.frameCount(payload.length, 244 - TransferFrames.HEADER_SIZE), full.packets);
+        assertEquals(TransferFrames.frameCount(payload.length, LinkQuality.WEAK_MAX_WRITE - TransferFrames.HEADER_SIZE),
+            small.packets);
+        assertTrue(fast.getMaxQueued() > 1);
+        assertEquals(1, careful.getMaxQueued());
+    }
+
+    @Test
+    public void firmwareStreamsNearLinkRate() throws Exception {
+        SimulatedHeadset.Link link = new SimulatedHeadset.Link();
+        SimulatedHeadset headset = headset(link);
+        byte[] image = firmware(14, 128 * 1024);
+
+        FirmwareUpdater.Result result = update(headset, image);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertArrayEquals(image, headset.getInstalledFirmware());
+        assertEquals(0, result.retransmitted);
+        assertEquals(0, result.receiptStalls);
+        // Receipts keep the window open, so the link stays as full as the stack lets it be
+        double linkBytesPerMicro = link.packetsPerEvent * (link.mtu - 3 - FirmwareUpdater.PACKET_HEADER_SIZE)
+            / (link.intervalMs * 1000);
+        double efficiency = image.length / (headset.getAirTimeMicros() * linkBytesPerMicro);
+        assertTrue("link efficiency " + efficiency, efficiency > 0.85);
+    }
+
+    @Test
+    public void firmwareGapsAreResentFromTheMissingOffset() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().loss(0.03).seed(15)
+            .latency(SimulatedHeadset.Latency.uniform(1, 5)));
+        byte[] image = firmware(16, 64 * 1024);
+
+        FirmwareUpdater.Result result = update(headset, image);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertArrayEquals(image, headset.getInstalledFirmware());
+        assertTrue(headset.getPacketsLost() > 0);
+        assertTrue(result.retransmitted > 0);
+    }
+
+    @Test
+    public void firmwareResumesFromConfirmedOffsetAfterLinkDrop() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().disconnectAfterPackets(200));
+        byte[] image = firmware(17, 96 * 1024);
+
+        FirmwareUpdater.Result dropped = update(headset, image);
+        assertEquals(GattPort.STATUS_DISCONNECTED, dropped.status);
+        assertTrue(dropped.confirmedBytes > 0);
+        assertNull(headset.getInstalledFirmware());
+
+        headset.reconnect();
+        FirmwareUpdater.Result resumed = update(headset, image);
+        assertTrue(GattPort.describe(resumed.status), resumed.isSuccess());
+        assertArrayEquals(image, headset.getInstalledFirmware());
+        // Nothing the headset confirmed is sent again
+        assertTrue(resumed.resumedFrom >= dropped.confirmedBytes);
+        assertEquals(0, resumed.retransmitted);
+        int chunk = 244 - FirmwareUpdater.PACKET_HEADER_SIZE;
+        assertEquals((image.length - resumed.resumedFrom + chunk - 1) / chunk, resumed.packets);
+    }
+
+    @Test
+    public void corruptedFirmwareFailsVerifyAndStartsOver() throws Exception {
+        SimulatedHeadset headset = headset(new SimulatedHeadset.Link().corruptFirmwareAt(5000));
+        byte[] image = firmware(18, 32 * 1024);
+
+        FirmwareUpdater.Result rejected = update(headset, image);
+        assertEquals(GattPort.STATUS_FAILED, rejected.status);
+        assertEquals(FirmwareUpdater.RESULT_HASH_MISMATCH, rejected.result);
+        assertNull(headset.getInstalledFirmware());
+
+        // The headset dropped the bad image, so the retry can't resume from it
+        FirmwareUpdater.Result retried = update(headset, image);
+        assertTrue(GattPort.describe(retried.status), retried.isSuccess());
+        assertEquals(0, retried.resumedFrom);
+        assertArrayEquals(image, headset.getInstalledFirmware());
+    }
+
+    private SimulatedHeadset headset(SimulatedHeadset.Link link) {
+        SimulatedHeadset headset = new SimulatedHeadset(link);
+        headsets.add(headset);
+        return headset;
+    }
+
+    private static StreamingWriter.Result send(SimulatedHeadset headset, byte[] payload, boolean compress,
+                                               int maxInFlight) throws InterruptedException {
+        return send(headset, payload, compress, maxInFlight, null);
+    }
+
+    private static StreamingWriter.Result send(SimulatedHeadset headset, byte[] payload, boolean compress,
+                                               int maxInFlight, LinkQuality quality) throws InterruptedException {
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(headset), SimulatedHeadset.CONTROL,
+            SimulatedHeadset.STATUS, SimulatedHeadset.CAPS, new PayloadCompressor(), maxInFlight, quality);
+
+        return streaming.send(SimulatedHeadset.PRESET, payload, compress, TIMEOUT_MS);
+    }
+
+    // Writes the image to a file, so the update runs on a mapped file like in the app
+    private static FirmwareUpdater.Result update(SimulatedHeadset headset, byte[] image)
+            throws IOException, InterruptedException {
+        File file = Files.createTempFile("firmware", ".bin").toFile();
+        file.deleteOnExit();
+        Files.write(file.toPath(), image);
+        FirmwareUpdater updater = new FirmwareUpdater(new GattWriter(headset), SimulatedHeadset.FIRMWARE_CONTROL,
+            SimulatedHeadset.FIRMWARE_DATA, FirmwareUpdater.DEFAULT_WINDOW, null);
+
+        return updater.update(file, TIMEOUT_MS);
+    }
+
+    private static byte[] firmware(long seed, int length) {
+        byte[] image = new byte[length];
+        new Random(seed).nextBytes(image);
+        return image;
+    }
+}
@@ -0,0 +1,387 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+public class StreamingWriterTest {
+    private static final UUID DATA = UUID.fromString("00002A1D-0000-1000-8000-00805f9b34fb");
+    private static final UUID CONTROL = UUID.fromString("00002A1F-0000-1000-8000-00805f9b34fb");
+    private static final UUID STATUS = UUID.fromString("00002A20-0000-1000-8000-00805f9b34fb");
+    private static final UUID CAPS = UUID.fromString("00002A21-0000-1000-8000-00805f9b34fb");
+
+    private final ScheduledExecutorService stack = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        stack.shutdownNow();
+    }
+
+    @Test
+    public void streamsPayloadAndCommitsChecksum() throws Exception {
+        FramedPort port = new FramedPort(3, 244);
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS, null, 4);
+        byte[] payload = payload(20_000);
+
+        StreamingWriter.Result result = streaming.send(DATA, payload, false, 10_000);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertArrayEquals(payload, port.assembled());
+        assertEquals(TransferFrames.frameCount(payload.length, 244 - TransferFrames.HEADER_SIZE), result.packets);
+        assertEquals(0, result.retransmitted);
+        assertEquals(1, result.repairRounds);
+        // The stack buffer holds 3 packets and we keep 4 in flight, so it must have pushed back
+        assertTrue(result.busyStalls > 0);
+        assertTrue(port.maxQueued <= 3);
+    }
+
+    @Test
+    public void onlyLostFramesAreResentAfterCommit() throws Exception {
+        FramedPort port = new FramedPort(4, 244);
+        port.dropOnce.add(3);
+        port.dropOnce.add(40);
+        port.dropOnce.add(41);
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS, null, 4);
+        byte[] payload = payload(30_000);
+
+        StreamingWriter.Result result = streaming.send(DATA, payload, false, 10_000);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertArrayEquals(payload, port.assembled());
+        assertEquals(3, result.retransmitted);
+        assertEquals(2, result.repairRounds);
+    }
+
+    @Test
+    public void corruptedFrameIsCaughtByItsCrcAndResentMidStream() throws Exception {
+        FramedPort port = new FramedPort(4, 100);
+        port.corruptOnce.add(5);
+        port.nackOnGap = true;
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS, null, 4);
+        byte[] payload = payload(10_000);
+
+        StreamingWriter.Result result = streaming.send(DATA, payload, false, 10_000);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertArrayEquals(payload, port.assembled());
+        assertEquals(1, result.retransmitted);
+        // The NACK arrived before COMMIT, so no extra round was needed
+        assertEquals(1, result.repairRounds);
+    }
+
+    @Test
+    public void headsetRejectionFailsTransfer() throws Exception {
+        FramedPort port = new FramedPort(8, 244);
+        port.rejectCommit = true;
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS, null, 4);
+
+        StreamingWriter.Result result = streaming.send(DATA, payload(5000), false, 10_000);
+
+        assertEquals(GattPort.STATUS_FAILED, result.status);
+    }
+
+    @Test
+    public void frameCountMustFitTheBeginField() throws Exception {
+        // One payload byte per frame: 6-byte writes minus the 5-byte header
+        FramedPort port = new FramedPort(64, 6);
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS, null, 64);
+
+        StreamingWriter.Result tooMany = streaming.send(DATA, payload(TransferFrames.MAX_FRAMES + 1), false, 10_000);
+        assertEquals(GattPort.STATUS_FAILED, tooMany.status);
+        // Refused before BEGIN, which would have announced 0 frames
+        assertEquals(-1, port.session);
+
+        byte[] payload = payload(TransferFrames.MAX_FRAMES);
+        StreamingWriter.Result result = streaming.send(DATA, payload, false, 60_000);
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertEquals(TransferFrames.MAX_FRAMES, port.frameCount);
+        assertArrayEquals(payload, port.assembled());
+    }
+
+    @Test
+    public void disconnectMidStreamStopsTransfer() throws Exception {
+        FramedPort port = new FramedPort(2, 100);
+        port.disconnectAfterPackets = 10;
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS, null, 4);
+
+        StreamingWriter.Result result = streaming.send(DATA, payload(5000), false, 10_000);
+
+        assertEquals(GattPort.STATUS_DISCONNECTED, result.status);
+        assertFalse(port.done);
+    }
+
+    @Test
+    public void compressesWhenHeadsetAdvertisesDictionary() throws Exception {
+        FramedPort port = new FramedPort(4, 244);
+        port.capabilities = PayloadCompressor.CAP_DEFLATE_DICT_V1;
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS,
+            new PayloadCompressor(), 4);
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.history(new Random(5), 20));
+
+        StreamingWriter.Result result = streaming.send(DATA, payload, true, 10_000);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertTrue(result.isCompressed());
+        assertArrayEquals(payload, port.assembled());
+        assertEquals(TransferFrames.frameCount(result.wireBytes, 244 - TransferFrames.HEADER_SIZE), result.packets);
+        assertEquals(1, port.capabilityReads);
+
+        // Capabilities are read once per link
+        assertTrue(streaming.send(DATA, payload, true, 10_000).isSuccess());
+        assertEquals(1, port.capabilityReads);
+    }
+
+    @Test
+    public void sendsUncompressedWhenHeadsetLacksDictionary() throws Exception {
+        FramedPort port = new FramedPort(4, 244);
+        StreamingWriter streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPS,
+            new PayloadCompressor(), 4);
+        byte[] payload = PayloadFixtures.bytes(PayloadFixtures.combined(new Random(6)));
+
+        StreamingWriter.Result result = streaming.send(DATA, payload, true, 10_000);
+
+        assertTrue(GattPort.describe(result.status), result.isSuccess());
+        assertFalse(result.isCompressed());
+        assertArrayEquals(payload, port.assembled());
+    }
+
+    @Test
+    public void frameCrcCoversSessionSeqAndPayload() {
+        byte[] payload = payload(64);
+        byte[] frame = TransferFrames.frame(7, 300, payload, 0, payload.length);
+        assertTrue(TransferFrames.isFrameValid(frame));
+        assertEquals(300, TransferFrames.getShort(frame, 1));
+
+        for (int i : new int[] {0, 1, 2, 5, frame.length - 1}) {
+            byte[] damaged = frame.clone();
+            damaged[i] ^= 0x01;
+            assertFalse("Flip at " + i + " not detected", TransferFrames.isFrameValid(damaged));
+        }
+
+        // CRC-16/CCITT-FALSE check value
+        byte[] check = "123456789".getBytes();
+        assertEquals(0x29B1, TransferFrames.crc16(0xFFFF, check, 0, check.length));
+    }
+
+    @Test
+    public void nackBitmapRoundTrips() {
+        BitSet missing = new BitSet();
+        missing.set(0);
+        missing.set(9);
+        missing.set(17);
+        byte[] nack = TransferFrames.nack(1, 1000, missing, 20);
+
+        BitSet decoded = new BitSet();
+        assertTrue(TransferFrames.readNack(nack, decoded, 2000));
+        assertEquals(3, decoded.cardinality());
+        assertTrue(decoded.get(1000) && decoded.get(1009) && decoded.get(1017));
+    }
+
+    private static byte[] payload(int length) {
+        byte[] bytes = new byte[length];
+        new Random(7).nextBytes(bytes);
+        return bytes;
+    }
+
+    // Headset side of the framed protocol behind a stack with a fixed number of packet
+    // buffers, drained one packet every 200 us
+    private final class FramedPort implements GattPort {
+        final int depth;
+        final int maxWrite;
+        final List<Listener> listeners = new CopyOnWriteArrayList<>();
+        final Set<Integer> dropOnce = new HashSet<>();
+        final Set<Integer> corruptOnce = new HashSet<>();
+        volatile boolean connected = true;
+        volatile boolean done;
+        boolean nackOnGap;
+        boolean rejectCommit;
+        int disconnectAfterPackets = -1;
+        int capabilities;
+        int capabilityReads;
+        int queued;
+        int maxQueued;
+        int packets;
+
+        int session = -1;
+        int length;
+        int frameSize;
+        int frameCount;
+        int flags;
+        int payloadLength;
+        byte[] buffer;
+        byte[] payload;
+        BitSet received = new BitSet();
+
+        FramedPort(int depth, int maxWrite) {
+            this.depth = depth;
+            this.maxWrite = maxWrite;
+        }
+
+        synchronized byte[] assembled() {
+            return payload.clone();
+        }
+
+        @Override
+        public void addListener(Listener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void removeListener(Listener listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public boolean isReady() {
+            return connected;
+        }
+
+        @Override
+        public boolean hasCharacteristic(UUID characteristic) {
+            return DATA.equals(characteristic) || CONTROL.equals(characteristic) || STATUS.equals(characteristic)
+                || CAPS.equals(characteristic);
+        }
+
+        @Override
+        public int getMaxWriteLength() {
+            return maxWrite;
+        }
+
+        @Override
+        public synchronized int read(UUID characteristic) {
+            capabilityReads++;
+            byte[] value = {(byte) capabilities};
+            stack.execute(() -> {
+                for (Listener listener : listeners) {
+                    listener.onReadComplete(characteristic, STATUS_SUCCESS, value);
+                }
+            });
+            return STATUS_SUCCESS;
+        }
+
+        @Override
+        public int setNotifications(UUID characteristic, boolean enable) {
+            stack.execute(() -> complete(characteristic, STATUS_SUCCESS));
+            return STATUS_SUCCESS;
+        }
+
+        @Override
+        public synchronized int write(UUID characteristic, byte[] value, boolean withResponse) {
+            if (!connected) {
+                return STATUS_DISCONNECTED;
+            }
+            if (queued >= depth) {
+                return STATUS_BUSY;
+            }
+            queued++;
+            maxQueued = Math.max(maxQueued, queued);
+            byte[] copy = value.clone();
+            stack.schedule(() -> deliver(characteristic, copy), 200, TimeUnit.MICROSECONDS);
+            return STATUS_SUCCESS;
+        }
+
+        private void deliver(UUID characteristic, byte[] value) {
+            byte[] notification = null;
+            synchronized (this) {
+                queued--;
+                if (DATA.equals(characteristic)) {
+                    notification = receiveFrame(value);
+                    if (++packets == disconnectAfterPackets) {
+                        connected = false;
+                    }
+                } else if (value[0] == TransferFrames.OP_BEGIN) {
+                    session = value[1] & 0xFF;
+                    length = TransferFrames.getInt(value, 2);
+                    frameCount = TransferFrames.getShort(value, 6);
+                    frameSize = TransferFrames.getShort(value, 8);
+                    flags = value[10] & 0xFF;
+                    payloadLength = TransferFrames.getInt(value, 11);
+                    buffer = new byte[length];
+                    received.clear();
+                } else if (value[0] == TransferFrames.OP_COMMIT) {
+                    notification = commit(TransferFrames.getInt(value, 6));
+                }
+            }
+            if (!connected) {
+                for (Listener listener : listeners) {
+                    listener.onDisconnected();
+                }
+                return;
+            }
+            complete(characteristic, STATUS_SUCCESS);
+            if (notification != null) {
+                for (Listener listener : listeners) {
+                    listener.onNotification(STATUS, notification);
+                }
+            }
+        }
+
+        private byte[] receiveFrame(byte[] frame) {
+            int seq = TransferFrames.getShort(frame, 1);
+            if (dropOnce.remove(seq)) {
+                return null;
+            }
+            if (corruptOnce.remove(seq)) {
+                frame[TransferFrames.HEADER_SIZE] ^= 0x40;
+            }
+            if ((frame[0] & 0xFF) != session || !TransferFrames.isFrameValid(frame)) {
+                // Bad frame: ask for it straight away when doing mid-stream NACKs
+                if (nackOnGap) {
+                    BitSet missing = new BitSet();
+                    missing.set(0);
+                    return TransferFrames.nack(session, seq, missing, 1);
+                }
+                return null;
+            }
+            System.arraycopy(frame, TransferFrames.HEADER_SIZE, buffer, seq * frameSize,
+                frame.length - TransferFrames.HEADER_SIZE);
+            received.set(seq);
+            return null;
+        }
+
+        private byte[] commit(int expectedCrc) {
+            if (received.cardinality() < frameCount) {
+                BitSet missing = new BitSet();
+                for (int seq = received.nextClearBit(0); seq < frameCount; seq = received.nextClearBit(seq + 1)) {
+                    missing.set(seq);
+                }
+                return TransferFrames.nack(session, 0, missing, frameCount);
+            }
+            payload = buffer;
+            if ((flags & TransferFrames.FLAG_DEFLATE_DICT_V1) != 0) {
+                try {
+                    payload = PayloadCompressor.inflate(buffer, payloadLength);
+                } catch (DataFormatException e) {
+                    return TransferFrames.status(TransferFrames.STATUS_FAILED, session);
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, payload.length);
+            done = !rejectCommit && (int) crc.getValue() == expectedCrc;
+            return TransferFrames.status(done ? TransferFrames.STATUS_DONE : TransferFrames.STATUS_FAILED, session);
+        }
+
+        private void complete(UUID characteristic, int status) {
+            for (Listener listener : listeners) {
+                listener.onWriteComplete(characteristic, status);
+            }
+        }
+    }
+}
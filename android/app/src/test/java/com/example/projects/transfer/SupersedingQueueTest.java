@@ -0,0 +1,76 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class SupersedingQueueTest {
+    private final List<String> events = new CopyOnWriteArrayList<>();
+    private final List<String> cancelled = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void runningTaskIsInterruptedAndQueuedOneNeverRuns() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SupersedingQueue queue = new SupersedingQueue(executor);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Stands in for a GATT read waiting on its completion
+        queue.submit("battery", () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+                events.add("read 1 finished");
+            } catch (InterruptedException e) {
+                events.add("read 1 interrupted");
+            }
+        }, () -> cancelled.add("read 1 superseded"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        queue.submit("payload", () -> events.add("write 1 ran"), () -> cancelled.add("write 1 superseded"));
+        queue.submit("payload", () -> events.add("write 2 ran"), () -> cancelled.add("write 2 superseded"));
+        queue.submit("battery", () -> events.add("read 2 ran"), () -> cancelled.add("read 2 superseded"));
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("read 1 interrupted", "write 2 ran", "read 2 ran"), events);
+        assertEquals(Arrays.asList("write 1 superseded", "read 1 superseded"), cancelled);
+        assertEquals(2, queue.getSuperseded());
+        assertEquals(0, queue.getPending());
+    }
+
+    @Test
+    public void cancelAllAnswersEveryPendingTask() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SupersedingQueue queue = new SupersedingQueue(executor);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        queue.submit("a", () -> events.add("a ran"), () -> events.add("a cancelled"));
+        queue.submit("b", () -> events.add("b ran"), () -> events.add("b cancelled"));
+        assertEquals(2, queue.getPending());
+        queue.cancelAll();
+        release.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Collections.sort(events);
+        assertEquals(Arrays.asList("a cancelled", "b cancelled"), events);
+        assertEquals(0, queue.getPending());
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.projects.transfer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WriteOutboxTest {
+    private static final String LEFT = "AA:BB:CC:DD:EE:01";
+    private static final String RIGHT = "AA:BB:CC:DD:EE:02";
+    private static final String PRESET = "00002A1D-0000-1000-8000-00805f9b34fb";
+    private static final String HEARING_TEST = "00002A1C-0000-1000-8000-00805f9b34fb";
+
+    private static File newLog() throws IOException {
+        File dir = Files.createTempDirectory("outbox").toFile();
+        dir.deleteOnExit();
+        return new File(dir, "ble_outbox.log");
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void unacknowledgedWritesSurviveReopen() throws IOException {
+        File log = newLog();
+        WriteOutbox outbox = new WriteOutbox(log, 1 << 20);
+        long delivered = outbox.append(LEFT, PRESET, true, bytes("{\"preset\":1}"));
+        outbox.append(LEFT, HEARING_TEST, false, bytes("{\"test\":1}"));
+        outbox.append(RIGHT, PRESET, true, bytes("{\"preset\":1}"));
+        outbox.ack(delivered);
+        outbox.close();
+
+        WriteOutbox reopened = new WriteOutbox(log, 1 << 20);
+        List<WriteOutbox.Entry> left = reopened.pendingFor(LEFT);
+
+        assertEquals(2, reopened.size());
+        assertEquals(1, left.size());
+        assertEquals(HEARING_TEST, left.get(0).characteristic);
+        assertEquals(false, left.get(0).compress);
+        assertArrayEquals(bytes("{\"test\":1}"), left.get(0).data);
+        // Sequence numbers keep counting after a reopen
+        assertTrue(reopened.append(LEFT, PRESET, true, bytes("x")) > left.get(0).seq);
+    }
+
+    @Test
+    public void newerWriteToSameCharacteristicSupersedesOlder() throws IOException {
+        File log = newLog();
+        WriteOutbox outbox = new WriteOutbox(log, 1 << 20);
+        long first = outbox.append(LEFT, PRESET, true, bytes("{\"preset\":1}"));
+        outbox.append(LEFT, HEARING_TEST, true, bytes("{\"test\":1}"));
+        outbox.append(LEFT, PRESET, true, bytes("{\"preset\":2}"));
+        // A late ack for the superseded write must not drop the newer one
+        outbox.ack(first);
+        outbox.close();
+
+        List<WriteOutbox.Entry> pending = new WriteOutbox(log, 1 << 20).pendingFor(LEFT);
+
+        assertEquals(2, pending.size());
+        assertEquals(HEARING_TEST, pending.get(0).characteristic);
+        assertArrayEquals(bytes("{\"preset\":2}"), pending.get(1).data);
+    }
+
+    @Test
+    public void tornTailIsDiscardedOnOpen() throws IOException {
+        File log = newLog();
+        WriteOutbox outbox = new WriteOutbox(log, 1 << 20);
+        outbox.append(LEFT, PRESET, true, bytes("{\"preset\":1}"));
+        outbox.close();
+        long intact = log.length();
+        try (FileOutputStream out = new FileOutputStream(log, true)) {
+            // Header of a record whose body never made it to disk
+            out.write(new byte[] {1, 0, 0, 0, 40, 1, 2});
+        }
+
+        WriteOutbox reopened = new WriteOutbox(log, 1 << 20);
+        assertEquals(intact, log.length());
+        reopened.append(RIGHT, PRESET, true, bytes("{\"preset\":2}"));
+        reopened.close();
+
+        assertEquals(2, new WriteOutbox(log, 1 << 20).size());
+    }
+
+    @Test
+    public void acknowledgedEntriesAreCompactedAway() throws IOException {
+        File log = newLog();
+        WriteOutbox outbox = new WriteOutbox(log, 1 << 20);
+        byte[] preset = new byte[2048];
+        for (int i = 0; i < 20; i++) {
+            outbox.ack(outbox.append(LEFT, PRESET, true, preset));
+        }
+        outbox.append(RIGHT, PRESET, true, bytes("{\"preset\":3}"));
+
+        assertTrue("log is " + log.length() + " bytes", log.length() < 16 * 1024);
+        outbox.close();
+        assertEquals(1, new WriteOutbox(log, 1 << 20).pendingFor(RIGHT).size());
+    }
+
+    @Test
+    public void appendBeyondLimitIsRefused() throws IOException {
+        WriteOutbox outbox = new WriteOutbox(newLog(), 100);
+        outbox.append(LEFT, PRESET, true, new byte[80]);
+
+        assertThrows(IOException.class, () -> outbox.append(LEFT, HEARING_TEST, true, new byte[40]));
+        // Replacing the pending preset frees its bytes first
+        outbox.append(LEFT, PRESET, true, new byte[90]);
+        assertEquals(1, outbox.size());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.projects.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+// Per-payload cost of each native step between the data message channel and the bytes on
+// air, for every payload size the app sends. Run with the gc profiler (the default in
+// build.gradle) to get bytes allocated per operation alongside the time.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataPathBenchmark {
+    @Param({"PRESET", "HEARING_TEST", "COMBINED", "HISTORY"})
+    public BenchmarkPayloads.Kind payload;
+
+    // 23 is the BLE default; 247 and 517 are what Android headsets typically negotiate
+    @Param({"23", "247", "517"})
+    public int mtu;
+
+    private DataPathOps ops;
+
+    @Setup
+    public void setUp() throws IOException {
+        ops = new DataPathOps(payload, mtu);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ops.close();
+    }
+
+    @Benchmark
+    public int parse() {
+        return ops.parse();
+    }
+
+    @Benchmark
+    public int stream() throws InterruptedException {
+        return ops.stream();
+    }
+
+    @Benchmark
+    public int streamCompressed() throws InterruptedException {
+        return ops.streamCompressed();
+    }
+
+    @Benchmark
+    public long outboxAppend() throws IOException {
+        return ops.outboxAppend();
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return ops.compress();
+    }
+
+    @Benchmark
+    public byte[] inflate() throws DataFormatException {
+        return ops.inflate();
+    }
+
+    @Benchmark
+    public int crc16() {
+        return ops.crc16();
+    }
+}
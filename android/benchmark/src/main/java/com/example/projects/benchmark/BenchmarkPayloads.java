@@ -0,0 +1,112 @@
+package com.example.projects.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+// JSON payloads shaped like the ones BLEDataService sends (jsonEncode output, no whitespace),
+// generated from a fixed seed so runs compare like with like.
+public final class BenchmarkPayloads {
+    public enum Kind {
+        // ~270 bytes: one preset, the most frequent write
+        PRESET,
+        // ~350 bytes: one hearing test
+        HEARING_TEST,
+        // ~1.1 KB: hearing test and preset embedded in full plus the fitted levels
+        COMBINED,
+        // ~12 KB: 40 records, like a history sync
+        HISTORY,
+    }
+
+    private static final int[] FREQUENCIES = {250, 500, 1000, 2000, 4000};
+    private static final int HISTORY_RECORDS = 40;
+
+    private BenchmarkPayloads() {
+    }
+
+    public static String json(Kind kind, long seed) {
+        Random random = new Random(seed);
+        switch (kind) {
+            case PRESET:
+                return preset(random);
+            case HEARING_TEST:
+                return hearingTest(random);
+            case COMBINED:
+                return combined(random);
+            case HISTORY:
+                return history(random, HISTORY_RECORDS);
+            default:
+                throw new IllegalArgumentException(kind.name());
+        }
+    }
+
+    public static byte[] bytes(Kind kind, long seed) {
+        return json(kind, seed).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hearingTest(Random random) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"name\":\"Hearing Test ").append(random.nextInt(100)).append('"');
+        json.append(",\"dateCreated\":\"").append(date(random)).append('"');
+        json.append(",\"soundTestData\":{").append(levels(random));
+        json.append("},\"id\":\"").append(Math.abs(random.nextLong())).append("\"}");
+        return json.toString();
+    }
+
+    private static String preset(Random random) {
+        return "{\"name\":\"Preset " + random.nextInt(100) + "\",\"presetData\":{"
+            + "\"db_valueOV\":" + level(random)
+            + ",\"db_valueSB_BS\":" + level(random)
+            + ",\"db_valueSB_MRS\":" + level(random)
+            + ",\"db_valueSB_TS\":" + level(random)
+            + ",\"reduce_background_noise\":" + random.nextBoolean()
+            + ",\"reduce_wind_noise\":" + random.nextBoolean()
+            + ",\"soften_sudden_noise\":" + random.nextBoolean()
+            + "},\"dateCreated\":\"" + date(random) + "\",\"id\":\"" + Math.abs(random.nextLong()) + "\"}";
+    }
+
+    private static String combined(Random random) {
+        return "{\"hearingTest\":" + hearingTest(random) + ",\"preset\":" + preset(random)
+            + ",\"combinedValues\":{\"adjustedHearing\":{" + levels(random) + "},\"noiseReduction\":{"
+            + "\"reduceBackgroundNoise\":" + random.nextBoolean()
+            + ",\"reduceWindNoise\":" + random.nextBoolean()
+            + ",\"softenSuddenNoise\":" + random.nextBoolean()
+            + "}},\"hearingTestId\":\"" + Math.abs(random.nextLong())
+            + "\",\"presetId\":\"" + Math.abs(random.nextLong())
+            + "\",\"timestamp\":\"" + date(random) + "\"}";
+    }
+
+    private static String history(Random random, int records) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(i % 2 == 0 ? hearingTest(random) : preset(random));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String levels(Random random) {
+        StringBuilder json = new StringBuilder();
+        String separator = "";
+        for (String ear : new String[] {"L", "R"}) {
+            for (int frequency : FREQUENCIES) {
+                json.append(separator).append('"').append(ear).append("_user_").append(frequency)
+                    .append("Hz_dB\":").append(level(random));
+                separator = ",";
+            }
+        }
+        return json.toString();
+    }
+
+    private static String date(Random random) {
+        return String.format(Locale.US, "2025-%02d-%02dT%02d:%02d:%02d.%06d",
+            1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24),
+            random.nextInt(60), random.nextInt(60), random.nextInt(1_000_000));
+    }
+
+    private static String level(Random random) {
+        return String.format(Locale.US, "%.1f", -10.0 + random.nextInt(120) / 2.0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.projects.benchmark;
+
+import com.example.projects.transfer.DataMessages;
+import com.example.projects.transfer.GattPort;
+import com.example.projects.transfer.GattWriter;
+import com.example.projects.transfer.PayloadCompressor;
+import com.example.projects.transfer.StreamingWriter;
+import com.example.projects.transfer.TransferFrames;
+import com.example.projects.transfer.WriteOutbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+
+// One payload and everything the native sync path does to it, each step as a method calling
+// the shipping code and returning something derived from its output so the benchmark
+// harness can't drop the work.
+//
+// Free of JMH types on purpose: the JMH classes wrap these methods, and an on-device
+// androidx.benchmark test can call the same ones, e.g.
+//   DataPathOps ops = new DataPathOps(BenchmarkPayloads.Kind.PRESET, 247);
+//   while (benchmarkRule.getState().keepRunning()) { ops.stream(); }
+public final class DataPathOps {
+    private static final long SEED = 42;
+    private static final long TIMEOUT_MS = 10_000;
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+    // The characteristics DeviceSession streams through
+    private static final UUID DATA = DataMessages.characteristic(0x2A1D);
+    private static final UUID CONTROL = DataMessages.characteristic(0x2A1F);
+    private static final UUID STATUS = DataMessages.characteristic(0x2A20);
+    private static final UUID CAPABILITIES = DataMessages.characteristic(0x2A21);
+
+    private final byte[] payload;
+    private final byte[] compressed;
+    private final ByteBuffer message;
+    private final PayloadCompressor compressor = new PayloadCompressor();
+    private final StreamingWriter streaming;
+    private final File outboxFile;
+    private final WriteOutbox outbox;
+
+    // mtu is the negotiated ATT MTU the streamed frames are sized for
+    public DataPathOps(BenchmarkPayloads.Kind kind, int mtu) throws IOException {
+        payload = BenchmarkPayloads.bytes(kind, SEED);
+        compressed = compressor.compress(payload);
+
+        // What Flutter's writePayload puts on the data message channel
+        message = ByteBuffer.allocateDirect(DataMessages.HEADER_SIZE + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+        message.put((byte) DataMessages.OP_PAYLOAD);
+        message.put((byte) DataMessages.FLAG_COMPRESS);
+        message.putShort((short) DataMessages.characteristicId(DATA));
+        message.put(payload);
+        message.flip();
+
+        LoopbackPort port = new LoopbackPort(CONTROL, STATUS, CAPABILITIES, mtu);
+        streaming = new StreamingWriter(new GattWriter(port), CONTROL, STATUS, CAPABILITIES, compressor,
+            StreamingWriter.DEFAULT_MAX_IN_FLIGHT);
+
+        outboxFile = Files.createTempFile("benchmark-outbox", ".log").toFile();
+        outbox = new WriteOutbox(outboxFile, 1024 * 1024);
+    }
+
+    public int getPayloadBytes() {
+        return payload.length;
+    }
+
+    public int getCompressedBytes() {
+        return compressed.length;
+    }
+
+    // A data channel message taken apart as MainActivity's handler does before queueing it
+    public int parse() {
+        if (!DataMessages.isValid(message) || DataMessages.op(message) != DataMessages.OP_PAYLOAD) {
+            return -1;
+        }
+        UUID characteristic = DataMessages.characteristic(DataMessages.characteristicId(message));
+        byte[] value = DataMessages.value(message);
+        return value.length + DataMessages.flags(message) + characteristic.hashCode();
+    }
+
+    // A whole StreamingWriter transfer: CRC-32, BEGIN, framing at the MTU, COMMIT
+    public int stream() throws InterruptedException {
+        return packets(streaming.send(DATA, payload, false, TIMEOUT_MS));
+    }
+
+    // The same transfer deflated before framing
+    public int streamCompressed() throws InterruptedException {
+        return packets(streaming.send(DATA, payload, true, TIMEOUT_MS));
+    }
+
+    // The durable log a payload goes through before and after it is sent; each record is synced
+    public long outboxAppend() throws IOException {
+        long seq = outbox.append(ADDRESS, DATA.toString(), false, payload);
+        outbox.ack(seq);
+        return seq;
+    }
+
+    public byte[] compress() {
+        return compressor.compress(payload);
+    }
+
+    public byte[] inflate() throws DataFormatException {
+        return PayloadCompressor.inflate(compressed, payload.length);
+    }
+
+    // Per-frame checksum, over the whole payload
+    public int crc16() {
+        return TransferFrames.crc16(0xFFFF, payload, 0, payload.length);
+    }
+
+    // A failed transfer would time something other than the send path
+    private static int packets(StreamingWriter.Result result) {
+        if (!result.isSuccess()) {
+            throw new IllegalStateException("Loopback transfer failed: " + GattPort.describe(result.status));
+        }
+        return result.packets;
+    }
+
+    public void close() throws IOException {
+        outbox.close();
+        Files.deleteIfExists(outboxFile.toPath());
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.projects.benchmark;
+
+import com.example.projects.transfer.GattPort;
+import com.example.projects.transfer.PayloadCompressor;
+import com.example.projects.transfer.TransferFrames;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// A headset that accepts every write at once and confirms every COMMIT, so StreamingWriter
+// runs its whole send path with no air time in the measurement. Completions are delivered
+// on the writing thread, before write() returns.
+public final class LoopbackPort implements GattPort {
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final UUID control;
+    private final UUID status;
+    private final UUID capabilities;
+    private final int maxWriteLength;
+
+    // mtu is the negotiated ATT MTU
+    public LoopbackPort(UUID control, UUID status, UUID capabilities, int mtu) {
+        this.control = control;
+        this.status = status;
+        this.capabilities = capabilities;
+        this.maxWriteLength = mtu - 3;
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public boolean hasCharacteristic(UUID characteristic) {
+        return true;
+    }
+
+    @Override
+    public int getMaxWriteLength() {
+        return maxWriteLength;
+    }
+
+    @Override
+    public int write(UUID characteristic, byte[] value, boolean withResponse) {
+        for (Listener listener : listeners) {
+            listener.onWriteComplete(characteristic, STATUS_SUCCESS);
+        }
+        if (control.equals(characteristic) && value[0] == TransferFrames.OP_COMMIT) {
+            byte[] done = TransferFrames.status(TransferFrames.STATUS_DONE, TransferFrames.getSession(value));
+            for (Listener listener : listeners) {
+                listener.onNotification(status, done);
+            }
+        }
+        return STATUS_SUCCESS;
+    }
+
+    @Override
+    public int read(UUID characteristic) {
+        byte[] value = capabilities.equals(characteristic)
+            ? new byte[] {(byte) PayloadCompressor.CAP_DEFLATE_DICT_V1} : new byte[0];
+        for (Listener listener : listeners) {
+            listener.onReadComplete(characteristic, STATUS_SUCCESS, value);
+        }
+        return STATUS_SUCCESS;
+    }
+
+    @Override
+    public int setNotifications(UUID characteristic, boolean enable) {
+        for (Listener listener : listeners) {
+            listener.onWriteComplete(characteristic, STATUS_SUCCESS);
+        }
+        return STATUS_SUCCESS;
+    }
+}
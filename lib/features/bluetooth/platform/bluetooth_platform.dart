@@ -70,6 +70,37 @@ class BluetoothDevice {
   }
 }
 
+// Output the headset audio is actually routed to, as reported by the platform
+class AudioRoute {
+  final String routeType;
+  final String? productName;
+  final String? address;
+  final int? outputLatencyMs;
+  final double? calibratedLatencyMs;
+
+  AudioRoute({
+    required this.routeType,
+    this.productName,
+    this.address,
+    this.outputLatencyMs,
+    this.calibratedLatencyMs,
+  });
+
+  // Best available trigger-to-headset delay: calibrated if measured, else HAL-reported
+  double? get effectiveLatencyMs =>
+      calibratedLatencyMs ?? outputLatencyMs?.toDouble();
+
+  factory AudioRoute.fromMap(Map<dynamic, dynamic> map) {
+    return AudioRoute(
+      routeType: map['routeType'] ?? 'none',
+      productName: map['productName'] as String?,
+      address: map['address'] as String?,
+      outputLatencyMs: map['outputLatencyMs'] as int?,
+      calibratedLatencyMs: (map['calibratedLatencyMs'] as num?)?.toDouble(),
+    );
+  }
+}
+
 class BluetoothPlatform {
   static const platform = MethodChannel('com.headphonemobileapp/bluetooth');
 
@@ -181,12 +212,28 @@ class BluetoothPlatform {
     }
   }
 
-  // Force audio routing to Bluetooth
-  static Future<void> forceAudioRoutingToBluetooth() async {
+  // Force audio routing to Bluetooth. Completes once the route has settled and
+  // returns the routed output, or null if routing failed.
+  static Future<AudioRoute?> forceAudioRoutingToBluetooth() async {
     try {
-      await platform.invokeMethod('forceAudioRoutingToBluetooth');
+      final Map<dynamic, dynamic>? result =
+          await platform.invokeMethod('forceAudioRoutingToBluetooth');
+      return result != null ? AudioRoute.fromMap(result) : null;
     } on PlatformException catch (e) {
       print("Failed to force audio routing: ${e.message}");
+      return null;
+    }
+  }
+
+  // Get the last settled audio route
+  static Future<AudioRoute?> getAudioRoute() async {
+    try {
+      final Map<dynamic, dynamic>? result =
+          await platform.invokeMethod('getAudioRoute');
+      return result != null ? AudioRoute.fromMap(result) : null;
+    } on PlatformException catch (e) {
+      print("Failed to get audio route: ${e.message}");
+      return null;
     }
   }
 
@@ -214,7 +261,47 @@ class BluetoothPlatform {
     }
   }
 
-  // Retry getting device name
+  // Measure output latency on the current route; cached per device on the platform side
+  static Future<double?> calibrateOutputLatency({bool loopback = false}) async {
+    try {
+      final Map<dynamic, dynamic>? result = await platform
+          .invokeMethod('calibrateOutputLatency', {'loopback': loopback});
+      return (result?['outputLatencyMs'] as num?)?.toDouble();
+    } on PlatformException catch (e) {
+      print("Failed to calibrate output latency: ${e.message}");
+      return null;
+    }
+  }
+
+  // Cached output latency for the connected device and route, if calibrated
+  static Future<double?> getCalibratedLatency() async {
+    try {
+      final Map<dynamic, dynamic>? result =
+          await platform.invokeMethod('getCalibratedLatency');
+      return (result?['outputLatencyMs'] as num?)?.toDouble();
+    } on PlatformException catch (e) {
+      print("Failed to get calibrated latency: ${e.message}");
+      return null;
+    }
+  }
+
+  // Calls listener with the connected device whenever the system resolves or
+  // changes its name. Pass null to stop.
+  static void setDeviceNameListener(
+      void Function(BluetoothDevice device)? listener) {
+    if (listener == null) {
+      platform.setMethodCallHandler(null);
+      return;
+    }
+    platform.setMethodCallHandler((call) async {
+      if (call.method == 'deviceNameChanged' && call.arguments is Map) {
+        listener(BluetoothDevice.fromMap(call.arguments as Map));
+      }
+      return null;
+    });
+  }
+
+  // Connected device as the native metadata cache knows it
   static Future<BluetoothDevice?> retryGetDeviceName() async {
     try {
       final Map<dynamic, dynamic>? result =
@@ -248,4 +335,17 @@ class BluetoothPlatform {
       return null;
     }
   }
+
+  // Connected members of the device's LE Audio coordinated set, e.g. both
+  // earbuds. groupId is -1 when the device isn't part of a set.
+  static Future<Map<String, dynamic>?> getLeAudioGroup({String? deviceId}) async {
+    try {
+      final result = await platform
+          .invokeMethod('getLeAudioGroup', {'deviceId': deviceId});
+      return result != null ? Map<String, dynamic>.from(result as Map) : null;
+    } on PlatformException catch (e) {
+      print("Failed to get LE Audio group: ${e.message}");
+      return null;
+    }
+  }
 }
@@ -14,15 +14,11 @@ class BluetoothProvider extends ChangeNotifier {
   BluetoothDevice? _connectedDevice;
   bool _bypassBluetoothCheck = false;
   BluetoothAudioType _audioType = BluetoothAudioType.none;
+  AudioRoute? _audioRoute;
   Timer? _bluetoothStateTimer;
   int? _batteryLevel;
   Timer? _batteryCheckTimer;
 
-  // Add timer for name retry
-  Timer? _nameRetryTimer;
-  int _nameRetryCount = 0;
-  final int _maxNameRetries = 5;
-
   // Add timer for battery retry
   Timer? _batteryRetryTimer;
   int _batteryRetryCount = 0;
@@ -45,6 +41,7 @@ class BluetoothProvider extends ChangeNotifier {
   BluetoothDevice? get connectedDevice => _connectedDevice;
   BluetoothAudioType get audioType => _audioType;
   bool get isUsingLEAudio => _audioType == BluetoothAudioType.leAudio;
+  AudioRoute? get audioRoute => _audioRoute;
   int? get batteryLevel => _isEmulatorTestMode ? 85 : _batteryLevel;
 
   // Constructor
@@ -63,6 +60,9 @@ class BluetoothProvider extends ChangeNotifier {
       return;
     }
 
+    // Names the system resolves after connecting are pushed from the native side
+    BluetoothPlatform.setDeviceNameListener(_onDeviceNameChanged);
+
     // First, load saved connection state
     await loadConnectionState();
     // If we loaded a connected state, respect it initially
@@ -277,7 +277,8 @@ class BluetoothProvider extends ChangeNotifier {
     if (_isEmulatorTestMode || _bypassBluetoothCheck) return;
 
     try {
-      await BluetoothPlatform.forceAudioRoutingToBluetooth();
+      // Completes only once the platform reports the route has settled
+      _audioRoute = await BluetoothPlatform.forceAudioRoutingToBluetooth();
 
       // Attempt to verify audio connection after forcing routing
       await verifyAudioConnection();
@@ -396,53 +397,37 @@ class BluetoothProvider extends ChangeNotifier {
     }
   }
 
-  // Add a method to retry getting the device name
+  // Looks the connected device's name up again. The native side answers from
+  // its device metadata cache and pushes later name changes on its own (see
+  // _onDeviceNameChanged), so this doesn't need to be polled.
   Future<void> retryGetDeviceName() async {
     if (!_isDeviceConnected || _isEmulatorTestMode || _bypassBluetoothCheck)
       return;
+    if (_connectedDeviceName != "Unknown Device" &&
+        _connectedDeviceName != "No Device") {
+      return;
+    }
 
-    // Only retry if the current name is Unknown Device
-    if (_connectedDeviceName == "Unknown Device" ||
-        _connectedDeviceName == "No Device") {
-      print("Retrying to get device name, attempt: ${_nameRetryCount + 1}");
-      final updatedDevice = await BluetoothPlatform.retryGetDeviceName();
-
-      if (updatedDevice != null &&
-          updatedDevice.name != "Unknown Device" &&
-          updatedDevice.name != "No Device") {
-        _connectedDevice = updatedDevice;
-        _connectedDeviceName = updatedDevice.name;
-        print("Successfully updated device name to: $_connectedDeviceName");
-        notifyListeners();
-        await saveConnectionState();
-
-        // Cancel further retries as we succeeded
-        _cancelNameRetryTimer();
-      } else {
-        _nameRetryCount++;
-        print(
-            "Name retry attempt $_nameRetryCount failed, will retry again if under max retries");
-
-        // Stop retrying after max attempts
-        if (_nameRetryCount >= _maxNameRetries) {
-          print("Reached max retry attempts. Stopping retries.");
-          _cancelNameRetryTimer();
-        }
-      }
-    } else {
-      // We already have a proper name, cancel retries
-      _cancelNameRetryTimer();
+    final updatedDevice = await BluetoothPlatform.retryGetDeviceName();
+    if (updatedDevice != null) {
+      _onDeviceNameChanged(updatedDevice);
     }
   }
 
-  // Helper to cancel the retry timer
-  void _cancelNameRetryTimer() {
-    _nameRetryTimer?.cancel();
-    _nameRetryTimer = null;
-    _nameRetryCount = 0;
+  void _onDeviceNameChanged(BluetoothDevice device) {
+    if (!_isDeviceConnected || _isEmulatorTestMode || _bypassBluetoothCheck)
+      return;
+    if (_connectedDevice != null && _connectedDevice!.id != device.id) return;
+    if (device.name == "Unknown Device" || device.name == "No Device") return;
+
+    _connectedDevice = device;
+    _connectedDeviceName = device.name;
+    print("Device name updated to: $_connectedDeviceName");
+    notifyListeners();
+    saveConnectionState();
   }
 
-  // Modify checkBluetoothConnection to start the retry timer if needed
+  // Check which device is connected, if any
   Future<void> checkBluetoothConnection() async {
     if (_isEmulatorTestMode) return;
 
@@ -469,27 +454,15 @@ class BluetoothProvider extends ChangeNotifier {
 
       // If device state changed from connected to disconnected, cancel any retry timers
       if (wasConnected && !_isDeviceConnected) {
-        _cancelNameRetryTimer();
         _cancelBatteryRetryTimer();
         _batteryLevel = null;
       }
 
       if (_isDeviceConnected && _connectedDevice != null) {
+        // An "Unknown Device" gets its name through _onDeviceNameChanged once
+        // the system resolves it
         _connectedDeviceName = _connectedDevice!.name;
 
-        // Start retry timer if we got an unknown device name
-        if (_connectedDeviceName == "Unknown Device" ||
-            _connectedDeviceName == "No Device") {
-          // Cancel any existing retry timer
-          _cancelNameRetryTimer();
-
-          // Start a new retry timer that attempts every 2 seconds
-          print("Starting device name retry timer");
-          _nameRetryTimer = Timer.periodic(const Duration(seconds: 2), (_) {
-            retryGetDeviceName();
-          });
-        }
-
         // Check battery level on connection
         await _updateBatteryLevel();
       } else if (!_isDeviceConnected) {
@@ -504,7 +477,6 @@ class BluetoothProvider extends ChangeNotifier {
       _batteryLevel = null;
 
       // Cancel retry timers on error
-      _cancelNameRetryTimer();
       _cancelBatteryRetryTimer();
 
       notifyListeners();
@@ -588,7 +560,6 @@ class BluetoothProvider extends ChangeNotifier {
       _batteryLevel = null;
 
       // Cancel any retry timers
-      _cancelNameRetryTimer();
       _cancelBatteryRetryTimer();
 
       // Don't set _connectedDevice to null here to allow reconnection
@@ -600,7 +571,6 @@ class BluetoothProvider extends ChangeNotifier {
       // Even if there's an error, update the UI state
       _isDeviceConnected = false;
       _batteryLevel = null;
-      _cancelNameRetryTimer();
       _cancelBatteryRetryTimer();
       notifyListeners();
     }
@@ -626,7 +596,6 @@ class BluetoothProvider extends ChangeNotifier {
       _batteryLevel = null;
 
       // Cancel any retry timers
-      _cancelNameRetryTimer();
       _cancelBatteryRetryTimer();
 
       // Clear from persistent storage
@@ -687,7 +656,7 @@ class BluetoothProvider extends ChangeNotifier {
       }
 
       // Force audio routing to ensure audio works
-      await BluetoothPlatform.forceAudioRoutingToBluetooth();
+      _audioRoute = await BluetoothPlatform.forceAudioRoutingToBluetooth();
 
       // Verify the audio connection
       await verifyAudioConnection();
@@ -734,8 +703,10 @@ class BluetoothProvider extends ChangeNotifier {
     // Cancel all timers
     _bluetoothStateTimer?.cancel();
     _batteryCheckTimer?.cancel();
-    _nameRetryTimer?.cancel();
     _batteryRetryTimer?.cancel();
+    if (!_isEmulatorTestMode) {
+      BluetoothPlatform.setDeviceNameListener(null);
+    }
 
     super.dispose();
   }
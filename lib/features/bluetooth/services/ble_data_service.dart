@@ -1,3 +1,4 @@
+import 'dart:async';
 import 'dart:convert';
 import 'dart:typed_data';
 import 'package:flutter/services.dart';
@@ -9,6 +10,36 @@ class BLEDataService {
   // Method channel for BLE data transmission
   static const platform = MethodChannel('com.headphonemobileapp/ble_data');
 
+  // Binary twin of [platform] for payload writes and notifications. Messages
+  // carry a 4 byte header, [op][flags][characteristic u16 LE], instead of an
+  // argument map; see DataMessages on the native side
+  static const binaryChannel = BasicMessageChannel<ByteData>(
+      'com.headphonemobileapp/ble_data_binary', BinaryCodec());
+  static const int _OP_WRITE = 1;
+  static const int _OP_PAYLOAD = 2;
+  static const int _OP_SUBSCRIBE = 3;
+  static const int _OP_NOTIFY = 4;
+  static const int _FLAG_WITHOUT_RESPONSE = 0x01;
+  static const int _FLAG_COMPRESS = 0x02;
+  static const int _FLAG_UNSUBSCRIBE = 0x04;
+  static const int _RESULT_OK = 0;
+  static const int _RESULT_UNSUPPORTED = 5;
+  static const int _RESULT_SUPERSEDED = 7;
+  static const String _BASE_UUID_SUFFIX = "-0000-1000-8000-00805f9b34fb";
+
+  // Complete messages the headset sent, reassembled natively from its
+  // notifications on the data characteristics
+  static const inboundChannel =
+      EventChannel('com.headphonemobileapp/ble_inbound');
+
+  // Set once the platform leaves a binary message unanswered (an older build);
+  // from then on everything goes over the method channel
+  static bool _binaryUnavailable = false;
+
+  static final StreamController<CharacteristicNotification> _notifications =
+      StreamController<CharacteristicNotification>.broadcast();
+  static bool _notificationHandlerSet = false;
+
   // UUIDs for characteristics
   static const String HEARING_TEST_CHAR_UUID =
       "00002A1C-0000-1000-8000-00805f9b34fb"; // Baseline hearing characteristic
@@ -47,6 +78,19 @@ class BLEDataService {
       Map<String, dynamic> jsonData = preset.toJson();
       jsonData['id'] = preset.id; // Add ID which may not be in toJson()
 
+      // A headset that already holds this preset only needs its slot switched
+      final synced = await syncPresets([preset], activeId: preset.id);
+      if (synced != null) {
+        return synced;
+      }
+
+      // Both earbuds of an LE Audio set get the preset in one call
+      final grouped = await _writePayloadToGroup(PRESET_CHAR_UUID,
+          Uint8List.fromList(utf8.encode(jsonEncode(jsonData))));
+      if (grouped != null) {
+        return grouped;
+      }
+
       // Send data silently
       return await _sendJSONDataSilently(PRESET_CHAR_UUID, jsonData);
     } catch (e) {
@@ -183,8 +227,7 @@ class BLEDataService {
             retryCount++;
             if (retryCount < MAX_RETRY_ATTEMPTS) {
               // Exponential backoff
-              int delayMs =
-                  RETRY_DELAY_MS * (RETRY_BACKOFF_FACTOR * retryCount);
+              int delayMs = await _retryDelayMs(retryCount);
               await Future.delayed(Duration(milliseconds: delayMs));
 
               // Check if connection is still valid before retrying
@@ -194,16 +237,25 @@ class BLEDataService {
                 await Future.delayed(Duration(milliseconds: 1000));
                 connectionReady = await isReadyForTransmission();
                 if (!connectionReady) {
-                  return false; // Give up if connection still not ready
+                  // Keep it for replay once the headset is back
+                  return await _queueForReconnect(characteristicUuid, bytes);
                 }
               }
             }
           }
         }
-        return success;
+        return success || await _queueForReconnect(characteristicUuid, bytes);
       } else {
+        // Stream the whole payload natively when the headset supports it
+        final streamed =
+            await _writePayload(characteristicUuid, Uint8List.fromList(bytes));
+        if (streamed != null) {
+          return streamed;
+        }
+
         // We need to track which chunks were successfully sent
-        int totalChunks = (bytes.length / MAX_CHUNK_SIZE).ceil();
+        final chunkSize = await _chunkSize(bytes.length);
+        int totalChunks = (bytes.length / chunkSize).ceil();
         Set<int> successfulChunks = {};
         int retryAttempts = 0;
         int lastChunkIndex = -1;
@@ -219,9 +271,9 @@ class BLEDataService {
               continue;
             }
 
-            int start = i * MAX_CHUNK_SIZE;
-            int end = (start + MAX_CHUNK_SIZE < bytes.length)
-                ? start + MAX_CHUNK_SIZE
+            int start = i * chunkSize;
+            int end = (start + chunkSize < bytes.length)
+                ? start + chunkSize
                 : bytes.length;
 
             // Add chunk metadata
@@ -255,8 +307,7 @@ class BLEDataService {
 
             if (retryAttempts < MAX_RETRY_ATTEMPTS) {
               // Exponential backoff
-              int delayMs =
-                  RETRY_DELAY_MS * (RETRY_BACKOFF_FACTOR * retryAttempts);
+              int delayMs = await _retryDelayMs(retryAttempts);
               await Future.delayed(Duration(milliseconds: delayMs));
 
               // Check if connection is ready before retrying
@@ -266,14 +317,16 @@ class BLEDataService {
                 await Future.delayed(Duration(milliseconds: 1000));
                 connectionReady = await isReadyForTransmission();
                 if (!connectionReady) {
-                  return false; // Give up if connection still not ready
+                  // Keep it for replay once the headset is back
+                  return await _queueForReconnect(characteristicUuid, bytes);
                 }
               }
             }
           }
         }
 
-        return successfulChunks.length == totalChunks;
+        return successfulChunks.length == totalChunks ||
+            await _queueForReconnect(characteristicUuid, bytes);
       }
     } catch (e) {
       // Silently fail
@@ -307,8 +360,7 @@ class BLEDataService {
             retryCount++;
             if (retryCount < MAX_RETRY_ATTEMPTS) {
               // Exponential backoff
-              int delayMs =
-                  RETRY_DELAY_MS * (RETRY_BACKOFF_FACTOR * retryCount);
+              int delayMs = await _retryDelayMs(retryCount);
               await Future.delayed(Duration(milliseconds: delayMs));
 
               // Check if connection is still valid before retrying
@@ -336,8 +388,17 @@ class BLEDataService {
 
         return success;
       } else {
+        // Stream the whole payload natively when the headset supports it
+        final streamed =
+            await _writePayload(characteristicUuid, Uint8List.fromList(bytes));
+        if (streamed != null) {
+          print("BLE streamed transfer ${streamed ? 'completed' : 'failed'}");
+          return streamed;
+        }
+
         // We need to track which chunks were successfully sent
-        int totalChunks = (bytes.length / MAX_CHUNK_SIZE).ceil();
+        final chunkSize = await _chunkSize(bytes.length);
+        int totalChunks = (bytes.length / chunkSize).ceil();
         Set<int> successfulChunks = {};
         int retryAttempts = 0;
         int lastChunkIndex = -1;
@@ -355,9 +416,9 @@ class BLEDataService {
               continue;
             }
 
-            int start = i * MAX_CHUNK_SIZE;
-            int end = (start + MAX_CHUNK_SIZE < bytes.length)
-                ? start + MAX_CHUNK_SIZE
+            int start = i * chunkSize;
+            int end = (start + chunkSize < bytes.length)
+                ? start + chunkSize
                 : bytes.length;
 
             // Add chunk metadata
@@ -396,8 +457,7 @@ class BLEDataService {
               print(
                   "Connection issue detected, retry attempt $retryAttempts/$MAX_RETRY_ATTEMPTS");
               // Exponential backoff
-              int delayMs =
-                  RETRY_DELAY_MS * (RETRY_BACKOFF_FACTOR * retryAttempts);
+              int delayMs = await _retryDelayMs(retryAttempts);
               print("Waiting for ${delayMs}ms before retrying");
               await Future.delayed(Duration(milliseconds: delayMs));
 
@@ -441,6 +501,14 @@ class BLEDataService {
   // Write to BLE characteristic
   Future<bool> _writeCharacteristic(
       String characteristicUuid, Uint8List data, bool withoutResponse) async {
+    final binary = await _sendBinary(_OP_WRITE, characteristicUuid,
+        withoutResponse ? _FLAG_WITHOUT_RESPONSE : 0, data);
+    if (binary != null) {
+      if (binary.result != _RESULT_OK) {
+        print("Failed to write characteristic: ${binary.message}");
+      }
+      return binary.result == _RESULT_OK;
+    }
     try {
       return await platform.invokeMethod('writeCharacteristic', {
         'characteristicUuid': characteristicUuid,
@@ -453,6 +521,361 @@ class BLEDataService {
     }
   }
 
+  // Values the headset notifies on characteristics passed to [subscribe]
+  Stream<CharacteristicNotification> get notifications {
+    _listenForNotifications();
+    return _notifications.stream;
+  }
+
+  // Messages the headset reports without being asked: its active preset, usage
+  // statistics and on-device measurements. Listening subscribes to the
+  // connected headset's data characteristics, and again after each reconnect.
+  Stream<InboundMessage> get inboundMessages =>
+      inboundChannel.receiveBroadcastStream().map((event) {
+        final message = Map<String, dynamic>.from(event as Map);
+        return InboundMessage(
+          message['deviceId'] as String,
+          message['characteristicUuid'] as String,
+          message['session'] as int,
+          message['data'] as Uint8List,
+        );
+      });
+
+  // Has the connected headset's notifications on a characteristic delivered to
+  // [notifications]. False when not connected or the platform can't forward
+  // them.
+  Future<bool> subscribe(String characteristicUuid) async {
+    _listenForNotifications();
+    final reply = await _sendBinary(_OP_SUBSCRIBE, characteristicUuid, 0);
+    return reply != null && reply.result == _RESULT_OK;
+  }
+
+  Future<void> unsubscribe(String characteristicUuid) async {
+    await _sendBinary(_OP_SUBSCRIBE, characteristicUuid, _FLAG_UNSUBSCRIBE);
+  }
+
+  static void _listenForNotifications() {
+    if (!_notificationHandlerSet) {
+      _notificationHandlerSet = true;
+      binaryChannel.setMessageHandler(_onBinaryMessage);
+    }
+  }
+
+  static Future<ByteData?> _onBinaryMessage(ByteData? message) async {
+    if (message != null &&
+        message.lengthInBytes >= 4 &&
+        message.getUint8(0) == _OP_NOTIFY) {
+      final id = message.getUint16(2, Endian.little);
+      // Copied: the engine may reuse the message's buffer after we return
+      final value = Uint8List.fromList(Uint8List.sublistView(message, 4));
+      _notifications.add(CharacteristicNotification(
+          "0000${id.toRadixString(16).toUpperCase().padLeft(4, '0')}$_BASE_UUID_SUFFIX",
+          value));
+    }
+    return null;
+  }
+
+  // Sends one message on [binaryChannel]. Returns null when the characteristic
+  // has no 16-bit form or the platform doesn't answer binary messages, so the
+  // caller uses the method channel instead.
+  Future<_BinaryReply?> _sendBinary(
+      int op, String characteristicUuid, int flags,
+      [Uint8List? value]) async {
+    if (_binaryUnavailable) {
+      return null;
+    }
+    final id = _characteristicId(characteristicUuid);
+    if (id == null) {
+      return null;
+    }
+    final message = Uint8List(4 + (value?.length ?? 0));
+    message[0] = op;
+    message[1] = flags;
+    message[2] = id & 0xFF;
+    message[3] = id >> 8;
+    if (value != null) {
+      message.setRange(4, message.length, value);
+    }
+
+    ByteData? reply;
+    try {
+      reply = await binaryChannel.send(ByteData.sublistView(message));
+    } on MissingPluginException {
+      reply = null;
+    }
+    if (reply == null || reply.lengthInBytes == 0) {
+      _binaryUnavailable = true;
+      return null;
+    }
+    return _BinaryReply(reply.getUint8(0),
+        utf8.decode(Uint8List.sublistView(reply, 1), allowMalformed: true));
+  }
+
+  // Assigned number of a Bluetooth base UUID (0x2A1D for 00002A1D-...), or
+  // null for any other UUID
+  static int? _characteristicId(String uuid) {
+    final lower = uuid.toLowerCase();
+    if (lower.length != 36 ||
+        !lower.startsWith('0000') ||
+        !lower.endsWith(_BASE_UUID_SUFFIX)) {
+      return null;
+    }
+    return int.tryParse(lower.substring(4, 8), radix: 16);
+  }
+
+  // Score of the data link ("strong", "fair" or "weak" tier) and the chunk
+  // size, window and retry delay it calls for, or null when no data link is open
+  Future<Map<String, dynamic>?> getLinkQuality() async {
+    try {
+      final result = await platform
+          .invokeMethod('getLinkQuality', {'maxChunkSize': MAX_CHUNK_SIZE});
+      return result != null ? Map<String, dynamic>.from(result as Map) : null;
+    } on PlatformException catch (e) {
+      print("Failed to get link quality: ${e.message}");
+      return null;
+    } on MissingPluginException {
+      return null;
+    }
+  }
+
+  // Chunk size for a chunked write: smaller on a weak link, but never more
+  // chunks than the one byte chunk index can count
+  Future<int> _chunkSize(int length) async {
+    final quality = await getLinkQuality();
+    final size = (quality?['chunkSize'] as num?)?.toInt() ?? MAX_CHUNK_SIZE;
+    final smallest = (length / 256).ceil();
+    return size > smallest ? size : smallest;
+  }
+
+  // Back-off before retry number attempt (from 1), starting from the delay the
+  // link currently calls for
+  Future<int> _retryDelayMs(int attempt) async {
+    final quality = await getLinkQuality();
+    final base = (quality?['retryDelayMs'] as num?)?.toInt() ?? RETRY_DELAY_MS;
+    return base * (RETRY_BACKOFF_FACTOR * attempt);
+  }
+
+  // PHY, connection interval and priority currently granted for the data link,
+  // or null when no data link is open
+  Future<Map<String, dynamic>?> getLinkParameters() async {
+    try {
+      final result = await platform.invokeMethod('getLinkParameters');
+      return result != null ? Map<String, dynamic>.from(result as Map) : null;
+    } on PlatformException catch (e) {
+      print("Failed to get link parameters: ${e.message}");
+      return null;
+    }
+  }
+
+  // Stream a whole payload with write-without-response, confirmed by a checksum
+  // write. Returns null when the platform or headset doesn't support streaming,
+  // so the caller can fall back to chunked writes. False without a retry when a
+  // newer payload for the same characteristic replaced this one natively.
+  Future<bool?> _writePayload(String characteristicUuid, Uint8List data,
+      {bool compress = true}) async {
+    final binary = await _sendBinary(_OP_PAYLOAD, characteristicUuid,
+        compress ? _FLAG_COMPRESS : 0, data);
+    if (binary != null) {
+      if (binary.result == _RESULT_OK) {
+        return true;
+      }
+      if (binary.result == _RESULT_UNSUPPORTED) {
+        return null;
+      }
+      if (binary.result != _RESULT_SUPERSEDED) {
+        print("Failed to stream payload: ${binary.message}");
+      }
+      return false;
+    }
+    try {
+      final result = await platform.invokeMethod('writePayload', {
+        'characteristicUuid': characteristicUuid,
+        'data': data,
+        'compress': compress,
+      });
+      return result == null ? null : true;
+    } on PlatformException catch (e) {
+      if (e.code == 'UNSUPPORTED') {
+        return null;
+      }
+      if (e.code != 'SUPERSEDED') {
+        print("Failed to stream payload: ${e.message}");
+      }
+      return false;
+    } on MissingPluginException {
+      return null;
+    }
+  }
+
+  // Hands a payload that couldn't be delivered to the native outbox, which
+  // replays it when the headset reconnects, even after an app restart. True if
+  // it was queued; false when the platform has no outbox.
+  Future<bool> _queueForReconnect(
+      String characteristicUuid, List<int> bytes) async {
+    try {
+      final result = await platform.invokeMethod('queuePayload', {
+        'characteristicUuid': characteristicUuid,
+        'data': Uint8List.fromList(bytes),
+      });
+      return result == true;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  // Send preset data to several devices at once (e.g. left and right earbud).
+  // Returns success per device address, or null if the platform can't stream.
+  Future<Map<String, bool>?> sendPresetDataToDevices(
+      Preset preset, List<String> deviceIds) async {
+    Map<String, dynamic> jsonData = preset.toJson();
+    jsonData['id'] = preset.id;
+    final bytes = utf8.encode(jsonEncode(jsonData));
+    return writePayloadToDevices(
+        deviceIds, PRESET_CHAR_UUID, Uint8List.fromList(bytes));
+  }
+
+  // Streams one payload to every listed device in parallel, each over its own
+  // session on the native side.
+  Future<Map<String, bool>?> writePayloadToDevices(
+      List<String> deviceIds, String characteristicUuid, Uint8List data,
+      {bool compress = true}) async {
+    try {
+      final result = await platform.invokeMethod('writePayloadToDevices', {
+        'deviceIds': deviceIds,
+        'characteristicUuid': characteristicUuid,
+        'data': data,
+        'compress': compress,
+      });
+      if (result == null) {
+        return null;
+      }
+      final devices = Map<String, dynamic>.from(result['devices'] as Map);
+      return devices.map((address, outcome) =>
+          MapEntry(address, (outcome as Map)['success'] == true));
+    } on PlatformException catch (e) {
+      print("Failed to stream payload to devices: ${e.message}");
+      return {for (final id in deviceIds) id: false};
+    } on MissingPluginException {
+      return null;
+    }
+  }
+
+  // Streams a payload to every connected member of the current device's
+  // coordinated set. True only if all members confirmed it; null when the
+  // platform or a headset can't stream, so the caller falls back.
+  Future<bool?> _writePayloadToGroup(
+      String characteristicUuid, Uint8List data) async {
+    try {
+      final result = await platform.invokeMethod('writePayloadToGroup', {
+        'characteristicUuid': characteristicUuid,
+        'data': data,
+      });
+      if (result == null) {
+        return null;
+      }
+      final devices = Map<String, dynamic>.from(result['devices'] as Map);
+      if (devices.values.any((outcome) => outcome['error'] == 'UNSUPPORTED')) {
+        return null;
+      }
+      return result['success'] == true;
+    } on PlatformException catch (e) {
+      if (e.code == 'NOT_CONNECTED') {
+        return null;
+      }
+      print("Failed to stream payload to group: ${e.message}");
+      return false;
+    } on MissingPluginException {
+      return null;
+    }
+  }
+
+  // Brings the headset's preset slots in line with presets, uploading only those
+  // it doesn't already hold (matched by content hash), then switches to activeId
+  // with a one-byte write. Covers every connected member of a coordinated set.
+  // Returns null when the platform or a headset has no slot storage, so the
+  // caller sends the preset in full.
+  Future<bool?> syncPresets(List<Preset> presets, {String? activeId}) async {
+    try {
+      final result = await platform.invokeMethod('syncPresetSlots', {
+        'items': presets.map((preset) {
+          Map<String, dynamic> jsonData = preset.toJson();
+          jsonData['id'] = preset.id;
+          return {
+            'id': preset.id,
+            'kind': 'preset',
+            'data': Uint8List.fromList(utf8.encode(jsonEncode(jsonData))),
+          };
+        }).toList(),
+        'activateId': activeId,
+      });
+      if (result == null) {
+        return null;
+      }
+      final devices = Map<String, dynamic>.from(result['devices'] as Map);
+      if (devices.values.any((outcome) => outcome['error'] == 'UNSUPPORTED')) {
+        return null;
+      }
+      return result['success'] == true;
+    } on PlatformException catch (e) {
+      if (e.code == 'NOT_CONNECTED') {
+        return null;
+      }
+      print("Failed to sync preset slots: ${e.message}");
+      return false;
+    } on MissingPluginException {
+      return null;
+    }
+  }
+
+  // Switches the current device to a preset slot it already holds
+  Future<bool> activatePresetSlot(int slot) async {
+    try {
+      final result =
+          await platform.invokeMethod('activatePresetSlot', {'slot': slot});
+      return result == true;
+    } on PlatformException catch (e) {
+      print("Failed to activate preset slot: ${e.message}");
+      return false;
+    } on MissingPluginException {
+      return false;
+    }
+  }
+
+  // Sends the firmware image at path to the current device, which verifies and
+  // activates it. Returns the transfer stats, or null when the update failed;
+  // calling again with the same image resumes where the headset left off.
+  Future<Map<String, dynamic>?> updateFirmware(String path) async {
+    try {
+      final result =
+          await platform.invokeMethod('updateFirmware', {'path': path});
+      return result != null ? Map<String, dynamic>.from(result as Map) : null;
+    } on PlatformException catch (e) {
+      print("Failed to update firmware: ${e.message}");
+      return null;
+    } on MissingPluginException {
+      return null;
+    }
+  }
+
+  // Devices with an open native session: link state, last transfer status and
+  // cached battery level
+  Future<List<Map<String, dynamic>>> getSessions() async {
+    try {
+      final result = await platform.invokeMethod('getSessions');
+      if (result == null) {
+        return [];
+      }
+      return (result as List)
+          .map((session) => Map<String, dynamic>.from(session as Map))
+          .toList();
+    } on PlatformException catch (e) {
+      print("Failed to get device sessions: ${e.message}");
+      return [];
+    } on MissingPluginException {
+      return [];
+    }
+  }
+
   // Helper method to check if connection is ready for data transmission
   Future<bool> isReadyForTransmission() async {
     try {
@@ -470,3 +893,29 @@ class BLEDataService {
     }
   }
 }
+
+// One value notified by the headset
+class CharacteristicNotification {
+  final String characteristicUuid;
+  final Uint8List value;
+
+  const CharacteristicNotification(this.characteristicUuid, this.value);
+}
+
+// One message from the headset, put together from one or more notifications
+class InboundMessage {
+  final String deviceId;
+  final String characteristicUuid;
+  final int session;
+  final Uint8List data;
+
+  const InboundMessage(
+      this.deviceId, this.characteristicUuid, this.session, this.data);
+}
+
+class _BinaryReply {
+  final int result;
+  final String message;
+
+  const _BinaryReply(this.result, this.message);
+}
@@ -2,11 +2,116 @@ import 'dart:convert';
 import 'package:flutter/services.dart';
 import '../../sound_test/models/sound_test.dart';
 import '../../presets/models/preset.dart';
+import '../../sound_test/repositories/sound_test_repository.dart';
+import '../../presets/repositories/preset_repository.dart';
+
+// Loads one page of export records, starting at [offset]
+typedef ExportPageLoader = Future<List<Map<String, dynamic>>> Function(
+    int offset, int limit);
 
 class BluetoothFileService {
   // Method channel for Bluetooth file transfer
   static const platform = MethodChannel('com.headphonemobileapp/bt_file');
 
+  // Default number of records native code pulls per page during an export
+  static const int exportPageSize = 50;
+
+  // Export the whole history (hearing tests and presets) as one file.
+  // Native code pulls the records page by page and writes them straight to disk,
+  // and each page is read from the history store by cursor, so neither side
+  // holds the whole history at once.
+  Future<bool> sendHistoryExport({
+    SoundTestRepository? soundTestRepository,
+    PresetRepository? presetRepository,
+    bool gzip = false,
+  }) async {
+    try {
+      final soundTests = soundTestRepository ?? SoundTestRepository();
+      final presets = presetRepository ?? PresetRepository();
+      // Native asks for pages in order, so the loader walks hearing tests and
+      // then presets from where the previous page stopped
+      String? soundTestCursor;
+      String? presetCursor;
+      bool soundTestsDone = false;
+      bool presetsDone = false;
+
+      final timestamp = DateTime.now().millisecondsSinceEpoch;
+      return await exportHistory(
+        fileName: 'history_export_$timestamp.json',
+        gzip: gzip,
+        loadPage: (offset, limit) async {
+          final records = <Map<String, dynamic>>[];
+          while (records.length < limit && !soundTestsDone) {
+            final page = await soundTests.getSoundTestPage(
+                cursor: soundTestCursor, limit: limit - records.length);
+            for (final soundTest in page.soundTests) {
+              records.add({
+                'type': 'hearing_test',
+                'id': soundTest.id,
+                ...soundTest.toJson(),
+              });
+            }
+            soundTestCursor = page.nextCursor;
+            soundTestsDone = page.nextCursor == null || page.soundTests.isEmpty;
+          }
+          while (records.length < limit && !presetsDone) {
+            final page = await presets.getPresetPage(
+                cursor: presetCursor, limit: limit - records.length);
+            for (final preset in page.presets) {
+              records.add({
+                'type': 'preset',
+                'id': preset.id,
+                ...preset.toJson(),
+              });
+            }
+            presetCursor = page.nextCursor;
+            presetsDone = page.nextCursor == null || page.presets.isEmpty;
+          }
+          return records;
+        },
+      );
+    } catch (e) {
+      print("Failed to export history: $e");
+      return false;
+    }
+  }
+
+  // Stream records from [loadPage] into a file on the native side and share it
+  Future<bool> exportHistory({
+    required String fileName,
+    required ExportPageLoader loadPage,
+    bool gzip = false,
+    int pageSize = exportPageSize,
+  }) async {
+    // Serve page requests for the duration of this export
+    platform.setMethodCallHandler((call) async {
+      if (call.method != 'fetchExportPage') {
+        throw MissingPluginException('No handler for ${call.method}');
+      }
+      final page = call.arguments['page'] as int;
+      final limit = call.arguments['pageSize'] as int;
+      final records = await loadPage(page * limit, limit);
+      return {
+        'records': [for (final record in records) jsonEncode(record)],
+        'hasMore': records.length == limit,
+      };
+    });
+
+    try {
+      final result = await platform.invokeMethod('exportHistory', {
+        'fileName': fileName,
+        'gzip': gzip,
+        'pageSize': pageSize,
+      });
+      return result == true;
+    } catch (e) {
+      print("Failed to export history: $e");
+      return false;
+    } finally {
+      platform.setMethodCallHandler(null);
+    }
+  }
+
   // Send hearing test data as a file via Bluetooth
   Future<bool> sendHearingTestFile(SoundTest soundTest) async {
     try {
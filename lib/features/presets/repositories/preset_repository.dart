@@ -1,12 +1,100 @@
 import 'dart:convert';
 import 'package:shared_preferences/shared_preferences.dart';
 import 'package:flutter/foundation.dart';
+import '../../../shared/services/history_store.dart';
 import '../models/preset.dart';
 
+// Presets live in the native history store, one row each, so adding or
+// deleting one writes just that row. Presets saved before the store existed
+// are moved into it on first use. Without the native side (tests, other
+// platforms) they stay in SharedPreferences as one JSON map.
 class PresetRepository {
   static const String _presetsKey = 'presetsMap';
+  static const String _movedKey = 'presetsInHistoryStore';
+  final HistoryStore _historyStore;
+  Future<bool>? _storeReady;
+
+  PresetRepository({HistoryStore? historyStore})
+      : _historyStore = historyStore ?? HistoryStore();
 
   Future<Map<String, Preset>> getAllPresets() async {
+    if (await _useStore()) {
+      final records = await _historyStore.queryAll(HistoryStore.kindPreset);
+      if (records == null) {
+        throw Exception('Could not read presets');
+      }
+      return {
+        for (final record in records)
+          record.id: Preset.fromJson(record.id, record.json)
+      };
+    }
+    return _readPresets();
+  }
+
+  Future<void> saveAllPresets(Map<String, Preset> presets) async {
+    if (await _useStore()) {
+      await _put(presets.values.toList(), replace: true);
+      return;
+    }
+    await _writePresets(presets);
+  }
+
+  Future<void> addPreset(Preset preset) async {
+    if (await _useStore()) {
+      await _put([preset]);
+      return;
+    }
+    final presets = await _readPresets();
+    presets[preset.id] = preset;
+    await _writePresets(presets);
+  }
+
+  Future<void> updatePreset(Preset preset) async {
+    await addPreset(preset);
+  }
+
+  Future<void> deletePreset(String id) async {
+    if (await _useStore()) {
+      if (!await _historyStore.deleteRecords(HistoryStore.kindPreset, [id])) {
+        throw Exception('Could not delete preset $id');
+      }
+      return;
+    }
+    final presets = await _readPresets();
+    presets.remove(id);
+    await _writePresets(presets);
+  }
+
+  // One page of presets, newest first, read from the native store without
+  // decoding the rest. Without the store, pages the SharedPreferences copy,
+  // where the cursor is an offset.
+  Future<({List<Preset> presets, String? nextCursor})> getPresetPage(
+      {String? cursor, int limit = 50}) async {
+    if (await _useStore()) {
+      final page = await _historyStore.queryPage(HistoryStore.kindPreset,
+          cursor: cursor, limit: limit);
+      if (page == null) {
+        throw Exception('Could not read presets');
+      }
+      return (
+        presets: page.records
+            .map((record) => Preset.fromJson(record.id, record.json))
+            .toList(),
+        nextCursor: page.nextCursor,
+      );
+    }
+
+    final all = (await _readPresets()).values.toList()
+      ..sort((a, b) => b.dateCreated.compareTo(a.dateCreated));
+    final start = (int.tryParse(cursor ?? '') ?? 0).clamp(0, all.length);
+    final end = (start + limit).clamp(0, all.length);
+    return (
+      presets: all.sublist(start, end),
+      nextCursor: end < all.length ? '$end' : null,
+    );
+  }
+
+  Future<Map<String, Preset>> _readPresets() async {
     final prefs = await SharedPreferences.getInstance();
     final jsonString = prefs.getString(_presetsKey);
 
@@ -29,7 +117,7 @@ class PresetRepository {
     }
   }
 
-  Future<void> saveAllPresets(Map<String, Preset> presets) async {
+  Future<void> _writePresets(Map<String, Preset> presets) async {
     final prefs = await SharedPreferences.getInstance();
     final Map<String, dynamic> jsonMap = {};
 
@@ -40,21 +128,46 @@ class PresetRepository {
     await prefs.setString(_presetsKey, jsonEncode(jsonMap));
   }
 
-  Future<void> addPreset(Preset preset) async {
-    final presets = await getAllPresets();
-    presets[preset.id] = preset;
-    await saveAllPresets(presets);
+  Future<void> _put(List<Preset> presets, {bool replace = false}) async {
+    if (!await _historyStore.putRecords(
+        HistoryStore.kindPreset, presets.map(_toHistoryRecord).toList(),
+        replace: replace)) {
+      throw Exception('Could not save presets');
+    }
   }
 
-  Future<void> updatePreset(Preset preset) async {
-    final presets = await getAllPresets();
-    presets[preset.id] = preset;
-    await saveAllPresets(presets);
+  // Whether the native store holds the presets, decided once per repository
+  Future<bool> _useStore() => _storeReady ??= _moveToStore();
+
+  // Replaces the store's presets with the SharedPreferences copy and only
+  // then drops that copy. A failed move keeps SharedPreferences authoritative
+  // and is retried by the next repository. Once moved, the store stays the
+  // copy: a store error surfaces instead of reading a stale or empty map.
+  Future<bool> _moveToStore() async {
+    final prefs = await SharedPreferences.getInstance();
+    if (prefs.getBool(_movedKey) ?? false) {
+      return true;
+    }
+    if (await _historyStore.count(HistoryStore.kindPreset) == null) {
+      return false;
+    }
+    final presets = await _readPresets();
+    if (!await _historyStore.putRecords(HistoryStore.kindPreset,
+        presets.values.map(_toHistoryRecord).toList(),
+        replace: true)) {
+      return false;
+    }
+    await prefs.setBool(_movedKey, true);
+    await prefs.remove(_presetsKey);
+    return true;
   }
 
-  Future<void> deletePreset(String id) async {
-    final presets = await getAllPresets();
-    presets.remove(id);
-    await saveAllPresets(presets);
+  HistoryRecord _toHistoryRecord(Preset preset) {
+    return HistoryRecord(
+      id: preset.id,
+      name: preset.name,
+      dateCreated: preset.dateCreated,
+      json: preset.toJson(),
+    );
   }
 }
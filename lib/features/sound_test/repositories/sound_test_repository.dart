@@ -1,13 +1,23 @@
 import 'dart:convert';
 import 'package:shared_preferences/shared_preferences.dart';
+import '../../../shared/services/history_store.dart';
 import '../models/sound_test.dart';
 
+// Sound tests live in the native history store, one row each, so adding or
+// deleting one writes just that row. Tests saved before the store existed are
+// moved into it on first use. Without the native side (tests, other
+// platforms) they stay in SharedPreferences as one JSON map.
 class SoundTestRepository {
   static const String _soundTestsKey = 'soundTestsMap';
+  static const String _movedKey = 'soundTestsInHistoryStore';
   SharedPreferences? _prefs;
+  final HistoryStore _historyStore;
+  Future<bool>? _storeReady;
 
   // Constructor that allows injection for testing
-  SoundTestRepository({SharedPreferences? sharedPreferences}) {
+  SoundTestRepository(
+      {SharedPreferences? sharedPreferences, HistoryStore? historyStore})
+      : _historyStore = historyStore ?? HistoryStore() {
     _prefs = sharedPreferences;
   }
 
@@ -16,6 +26,85 @@ class SoundTestRepository {
   }
 
   Future<Map<String, SoundTest>> getAllSoundTests() async {
+    if (await _useStore()) {
+      final records =
+          await _historyStore.queryAll(HistoryStore.kindHearingTest);
+      if (records == null) {
+        throw Exception('Could not read sound tests');
+      }
+      return {
+        for (final record in records)
+          record.id: SoundTest.fromJson(record.id, record.json)
+      };
+    }
+    return _readSoundTests();
+  }
+
+  Future<void> saveAllSoundTests(Map<String, SoundTest> soundTests) async {
+    if (await _useStore()) {
+      await _put(soundTests.values.toList(), replace: true);
+      return;
+    }
+    await _writeSoundTests(soundTests);
+  }
+
+  Future<void> addSoundTest(SoundTest soundTest) async {
+    if (await _useStore()) {
+      await _put([soundTest]);
+      return;
+    }
+    final soundTests = await _readSoundTests();
+    soundTests[soundTest.id] = soundTest;
+    await _writeSoundTests(soundTests);
+  }
+
+  Future<void> updateSoundTest(SoundTest soundTest) async {
+    await addSoundTest(soundTest); // Same implementation as add
+  }
+
+  Future<void> deleteSoundTest(String id) async {
+    if (await _useStore()) {
+      if (!await _historyStore
+          .deleteRecords(HistoryStore.kindHearingTest, [id])) {
+        throw Exception('Could not delete sound test $id');
+      }
+      return;
+    }
+    final soundTests = await _readSoundTests();
+    soundTests.remove(id);
+    await _writeSoundTests(soundTests);
+  }
+
+  // One page of sound tests, newest first, read from the native store without
+  // decoding the rest. Without the store, pages the SharedPreferences copy,
+  // where the cursor is an offset.
+  Future<({List<SoundTest> soundTests, String? nextCursor})> getSoundTestPage(
+      {String? cursor, int limit = 50}) async {
+    if (await _useStore()) {
+      final page = await _historyStore.queryPage(HistoryStore.kindHearingTest,
+          cursor: cursor, limit: limit);
+      if (page == null) {
+        throw Exception('Could not read sound tests');
+      }
+      return (
+        soundTests: page.records
+            .map((record) => SoundTest.fromJson(record.id, record.json))
+            .toList(),
+        nextCursor: page.nextCursor,
+      );
+    }
+
+    final all = (await _readSoundTests()).values.toList()
+      ..sort((a, b) => b.dateCreated.compareTo(a.dateCreated));
+    final start = int.tryParse(cursor ?? '') ?? 0;
+    final end = (start + limit).clamp(0, all.length);
+    return (
+      soundTests: all.sublist(start.clamp(0, all.length), end),
+      nextCursor: end < all.length ? '$end' : null,
+    );
+  }
+
+  Future<Map<String, SoundTest>> _readSoundTests() async {
     final prefs = await _sharedPreferences;
     final jsonString = prefs.getString(_soundTestsKey);
     if (jsonString == null) return {};
@@ -32,8 +121,7 @@ class SoundTestRepository {
     }
   }
 
-  Future<void> saveAllSoundTests(Map<String, SoundTest> soundTests) async {
-
+  Future<void> _writeSoundTests(Map<String, SoundTest> soundTests) async {
     final prefs = await _sharedPreferences;
     final Map<String, dynamic> jsonMap = {};
 
@@ -44,19 +132,46 @@ class SoundTestRepository {
     await prefs.setString(_soundTestsKey, jsonEncode(jsonMap));
   }
 
-  Future<void> addSoundTest(SoundTest soundTest) async {
-    final soundTests = await getAllSoundTests();
-    soundTests[soundTest.id] = soundTest;
-    await saveAllSoundTests(soundTests);
+  Future<void> _put(List<SoundTest> soundTests, {bool replace = false}) async {
+    if (!await _historyStore.putRecords(HistoryStore.kindHearingTest,
+        soundTests.map(_toHistoryRecord).toList(),
+        replace: replace)) {
+      throw Exception('Could not save sound tests');
+    }
   }
 
-  Future<void> updateSoundTest(SoundTest soundTest) async {
-    await addSoundTest(soundTest); // Same implementation as add
+  // Whether the native store holds the sound tests, decided once per repository
+  Future<bool> _useStore() => _storeReady ??= _moveToStore();
+
+  // Replaces the store's tests with the SharedPreferences copy and only then
+  // drops that copy. A failed move keeps SharedPreferences authoritative and
+  // is retried by the next repository. Once moved, the store stays the copy:
+  // a store error surfaces instead of reading a stale or empty map.
+  Future<bool> _moveToStore() async {
+    final prefs = await _sharedPreferences;
+    if (prefs.getBool(_movedKey) ?? false) {
+      return true;
+    }
+    if (await _historyStore.count(HistoryStore.kindHearingTest) == null) {
+      return false;
+    }
+    final soundTests = await _readSoundTests();
+    if (!await _historyStore.putRecords(HistoryStore.kindHearingTest,
+        soundTests.values.map(_toHistoryRecord).toList(),
+        replace: true)) {
+      return false;
+    }
+    await prefs.setBool(_movedKey, true);
+    await prefs.remove(_soundTestsKey);
+    return true;
   }
 
-  Future<void> deleteSoundTest(String id) async {
-    final soundTests = await getAllSoundTests();
-    soundTests.remove(id);
-    await saveAllSoundTests(soundTests);
+  HistoryRecord _toHistoryRecord(SoundTest soundTest) {
+    return HistoryRecord(
+      id: soundTest.id,
+      name: soundTest.name,
+      dateCreated: soundTest.dateCreated,
+      json: soundTest.toJson(),
+    );
   }
 }
@@ -0,0 +1,138 @@
+import 'dart:convert';
+import 'package:flutter/services.dart';
+
+// One stored hearing test or preset, as kept by the native history store
+class HistoryRecord {
+  final String id;
+  final String? name;
+  final DateTime dateCreated;
+  final Map<String, dynamic> json;
+
+  HistoryRecord({
+    required this.id,
+    this.name,
+    required this.dateCreated,
+    required this.json,
+  });
+
+  Map<String, dynamic> toMap() {
+    return {
+      'id': id,
+      'name': name,
+      'dateCreated': dateCreated.millisecondsSinceEpoch,
+      'json': jsonEncode(json),
+    };
+  }
+
+  factory HistoryRecord.fromMap(Map<dynamic, dynamic> map) {
+    return HistoryRecord(
+      id: map['id'] as String,
+      name: map['name'] as String?,
+      dateCreated:
+          DateTime.fromMillisecondsSinceEpoch((map['dateCreated'] as num).toInt()),
+      json: jsonDecode(map['json'] as String) as Map<String, dynamic>,
+    );
+  }
+}
+
+// A page of records, newest first. nextCursor is null on the last page.
+class HistoryPage {
+  final List<HistoryRecord> records;
+  final String? nextCursor;
+
+  HistoryPage(this.records, this.nextCursor);
+}
+
+// Client for the native SQLite history store. Every method degrades to
+// false/null when the platform side is missing (tests, other platforms), so
+// callers can keep working from SharedPreferences instead.
+class HistoryStore {
+  static const platform = MethodChannel('com.headphonemobileapp/history');
+
+  static const String kindHearingTest = 'hearing_test';
+  static const String kindPreset = 'preset';
+
+  // Largest page the native side returns (HistoryStore.MAX_PAGE_SIZE)
+  static const int maxPageSize = 500;
+
+  // Writes all records in one native transaction. With replace, the kind's
+  // other records are deleted in the same transaction.
+  Future<bool> putRecords(String kind, List<HistoryRecord> records,
+      {bool replace = false}) async {
+    if (records.isEmpty && !replace) {
+      return true;
+    }
+    try {
+      await platform.invokeMethod('putRecords', {
+        'kind': kind,
+        'records': records.map((record) => record.toMap()).toList(),
+        'replace': replace,
+      });
+      return true;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  Future<bool> deleteRecords(String kind, List<String> ids) async {
+    try {
+      await platform.invokeMethod('deleteRecords', {'kind': kind, 'ids': ids});
+      return true;
+    } catch (e) {
+      return false;
+    }
+  }
+
+  Future<HistoryPage?> queryPage(
+    String kind, {
+    DateTime? from,
+    DateTime? to,
+    String? cursor,
+    int limit = 50,
+  }) async {
+    try {
+      final result = await platform.invokeMethod('queryRecords', {
+        'kind': kind,
+        'fromMs': from?.millisecondsSinceEpoch,
+        'toMs': to?.millisecondsSinceEpoch,
+        'cursor': cursor,
+        'limit': limit,
+      });
+      if (result == null) {
+        return null;
+      }
+      final records = (result['records'] as List)
+          .map((record) => HistoryRecord.fromMap(record as Map))
+          .toList();
+      return HistoryPage(records, result['nextCursor'] as String?);
+    } catch (e) {
+      return null;
+    }
+  }
+
+  // Every record of a kind, oldest first, read a page at a time. Null when
+  // the store can't be read.
+  Future<List<HistoryRecord>?> queryAll(String kind) async {
+    final records = <HistoryRecord>[];
+    String? cursor;
+    do {
+      final page = await queryPage(kind, cursor: cursor, limit: maxPageSize);
+      if (page == null) {
+        return null;
+      }
+      records.addAll(page.records);
+      cursor = page.nextCursor;
+    } while (cursor != null);
+    return records.reversed.toList();
+  }
+
+  Future<int?> count(String kind) async {
+    try {
+      final result =
+          await platform.invokeMethod('countRecords', {'kind': kind});
+      return (result as num?)?.toInt();
+    } catch (e) {
+      return null;
+    }
+  }
+}